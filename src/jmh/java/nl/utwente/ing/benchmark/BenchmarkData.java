@@ -0,0 +1,256 @@
+/*
+ * Copyright (c) 2018, Joost Prins <github.com/joostprins>, Tom Leemreize <https://github.com/oplosthee>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package nl.utwente.ing.benchmark;
+
+import nl.utwente.ing.controller.database.DBMigrations;
+import nl.utwente.ing.model.Category;
+import nl.utwente.ing.model.PaymentRequest;
+import nl.utwente.ing.model.SavingGoal;
+import nl.utwente.ing.model.Transaction;
+import nl.utwente.ing.model.Type;
+import org.joda.money.CurrencyUnit;
+import org.joda.money.Money;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates the synthetic data used by the benchmarks. All data is generated from a fixed seed, so every run measures
+ * the same data. Transactions are spread evenly over three years starting at {@link #START}.
+ */
+public final class BenchmarkData {
+
+    /**
+     * The session which owns all generated data in a benchmark database.
+     */
+    public static final String SESSION_ID = "benchmark";
+
+    public static final DateTime START = new DateTime(2015, 1, 1, 0, 0, DateTimeZone.UTC);
+
+    public static final DateTime END = START.plusYears(3);
+
+    /**
+     * The number of distinct descriptions and IBANs used by transactions and category rules.
+     */
+    public static final int VOCABULARY_SIZE = 1000;
+
+    private static final int CATEGORIES = 50;
+
+    private static final long SEED = 42;
+
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormat.forPattern("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'")
+            .withZoneUTC();
+
+    /**
+     * The folder in which generated databases are kept, so they only have to be generated once.
+     */
+    private static final Path DATABASE_FOLDER = Paths.get("target", "benchmark-data");
+
+    /**
+     * The bundled database, which only contains the schema. The copy on the classpath may contain data of earlier runs.
+     */
+    private static final Path BUNDLED_DATABASE = Paths.get("src", "main", "resources", "database.sqlite");
+
+    static {
+        try {
+            Class.forName("org.sqlite.JDBC");
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private BenchmarkData() {
+    }
+
+    public static String description(int index) {
+        return "description " + index % VOCABULARY_SIZE;
+    }
+
+    public static String iBAN(int index) {
+        return String.format("NL%02dBANK%010d", index % 100, index % VOCABULARY_SIZE);
+    }
+
+    public static String date(long millis) {
+        return DATE_FORMAT.print(millis);
+    }
+
+    /**
+     * Generates transactions ordered by date. Deposits are larger than withdrawals on average, so the balance grows.
+     */
+    public static List<Transaction> transactions(int count) {
+        Random random = new Random(SEED);
+        long step = (END.getMillis() - START.getMillis()) / Math.max(count, 1);
+        List<Transaction> transactions = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            boolean deposit = random.nextInt(10) < 4;
+            long amount = deposit ? 1000 + random.nextInt(250000) : 100 + random.nextInt(100000);
+            transactions.add(new Transaction(i + 1, date(START.getMillis() + i * step + random.nextInt((int)
+                    Math.min(step, Integer.MAX_VALUE))), Money.ofMinor(CurrencyUnit.EUR, amount),
+                    iBAN(random.nextInt(VOCABULARY_SIZE)), deposit ? Type.deposit : Type.withdrawal,
+                    new Category(1 + random.nextInt(CATEGORIES), "category"),
+                    description(random.nextInt(VOCABULARY_SIZE))));
+        }
+        return transactions;
+    }
+
+    public static List<SavingGoal> savingGoals(int count) {
+        Random random = new Random(SEED);
+        List<SavingGoal> savingGoals = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            savingGoals.add(new SavingGoal(i + 1, "goal " + i,
+                    Money.ofMajor(CurrencyUnit.EUR, 500 + random.nextInt(50000)),
+                    Money.ofMajor(CurrencyUnit.EUR, 10 + random.nextInt(500)),
+                    Money.ofMajor(CurrencyUnit.EUR, random.nextInt(5000)),
+                    Money.zero(CurrencyUnit.EUR)));
+        }
+        return savingGoals;
+    }
+
+    /**
+     * Generates payment requests with amounts taken from the given transactions, due at a random point in the period
+     * of the transactions.
+     */
+    public static List<PaymentRequest> paymentRequests(int count, List<Transaction> transactions) {
+        Random random = new Random(SEED);
+        List<PaymentRequest> paymentRequests = new ArrayList<>(count);
+        long span = END.getMillis() - START.getMillis();
+        for (int i = 0; i < count; i++) {
+            Transaction transaction = transactions.get(random.nextInt(transactions.size()));
+            paymentRequests.add(new PaymentRequest(i + 1, "request " + i,
+                    new DateTime(START.getMillis() + (long) (random.nextDouble() * span), DateTimeZone.UTC),
+                    transaction.getAmount(), 1 + random.nextInt(5), false));
+        }
+        return paymentRequests;
+    }
+
+    /**
+     * Returns the JDBC URL of a database containing a single session with the given amount of transactions, category
+     * rules and saving goals. The database is created from the bundled database the first time it is requested.
+     */
+    public static String database(int transactions, int rules, int savingGoals) throws IOException, SQLException {
+        Path database = DATABASE_FOLDER.resolve(String.format("session-%d-%d-%d.sqlite", transactions, rules,
+                savingGoals)).toAbsolutePath();
+        if (!Files.exists(database)) {
+            Files.createDirectories(DATABASE_FOLDER);
+            Path temporary = Files.createTempFile(DATABASE_FOLDER, "session", ".sqlite");
+            try {
+                Files.copy(BUNDLED_DATABASE, temporary, StandardCopyOption.REPLACE_EXISTING);
+                try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + temporary)) {
+                    DBMigrations.migrate(connection);
+                    connection.setAutoCommit(false);
+                    fill(connection, transactions, rules, savingGoals);
+                    connection.commit();
+                }
+                Files.move(temporary, database, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(temporary);
+            }
+        }
+        return "jdbc:sqlite:" + database;
+    }
+
+    private static void fill(Connection connection, int transactions, int rules, int savingGoals) throws SQLException {
+        try (PreparedStatement preparedStatement = connection.prepareStatement(
+                "INSERT INTO sessions (session_id) VALUES (?);")) {
+            preparedStatement.setString(1, SESSION_ID);
+            preparedStatement.executeUpdate();
+        }
+
+        try (PreparedStatement preparedStatement = connection.prepareStatement(
+                "INSERT INTO categories (category_id, name, session_id) VALUES (?, ?, ?);")) {
+            for (int i = 1; i <= CATEGORIES; i++) {
+                preparedStatement.setInt(1, i);
+                preparedStatement.setString(2, "category " + i);
+                preparedStatement.setString(3, SESSION_ID);
+                preparedStatement.addBatch();
+            }
+            preparedStatement.executeBatch();
+        }
+
+        Random random = new Random(SEED);
+        try (PreparedStatement preparedStatement = connection.prepareStatement("INSERT INTO category_rules " +
+                "(description, iBAN, type, category_id, apply_on_history, session_id) VALUES (?, ?, ?, ?, 0, ?);")) {
+            for (int i = 0; i < rules; i++) {
+                // Mixes rules on a single field with rules on several fields, as users tend to create both.
+                int kind = random.nextInt(4);
+                preparedStatement.setString(1, kind != 1 ? description(random.nextInt(VOCABULARY_SIZE)) : "");
+                preparedStatement.setString(2, kind != 0 ? iBAN(random.nextInt(VOCABULARY_SIZE)) : "");
+                preparedStatement.setString(3, kind == 3 ? (random.nextBoolean() ? "deposit" : "withdrawal") : "");
+                preparedStatement.setInt(4, 1 + random.nextInt(CATEGORIES));
+                preparedStatement.setString(5, SESSION_ID);
+                preparedStatement.addBatch();
+            }
+            preparedStatement.executeBatch();
+        }
+
+        try (PreparedStatement preparedStatement = connection.prepareStatement("INSERT INTO saving_goals (name, " +
+                "goal, save_per_month, minimum_balance_required, session_id) VALUES (?, ?, ?, ?, ?);")) {
+            for (SavingGoal savingGoal : savingGoals(savingGoals)) {
+                preparedStatement.setString(1, savingGoal.getName());
+                preparedStatement.setLong(2, savingGoal.getGoal().longValue() * 100);
+                preparedStatement.setLong(3, savingGoal.getSavePerMonth().longValue() * 100);
+                preparedStatement.setLong(4, savingGoal.getMinimumBalanceRequired().longValue() * 100);
+                preparedStatement.setString(5, SESSION_ID);
+                preparedStatement.addBatch();
+            }
+            preparedStatement.executeBatch();
+        }
+
+        try (PreparedStatement preparedStatement = connection.prepareStatement("INSERT INTO transactions (date, " +
+                "date_millis, date_offset, amount, external_iban, type, category_id, session_id, description) " +
+                "VALUES (?, ?, 0, ?, ?, ?, ?, ?, ?);")) {
+            int batched = 0;
+            for (Transaction transaction : transactions(transactions)) {
+                preparedStatement.setString(1, transaction.getDate());
+                preparedStatement.setLong(2, transaction.getMillis());
+                preparedStatement.setLong(3, transaction.getAmount().getAmountMinorLong());
+                preparedStatement.setString(4, transaction.getExternalIBAN());
+                preparedStatement.setString(5, transaction.getType().toString());
+                preparedStatement.setInt(6, transaction.getCategory().getId());
+                preparedStatement.setString(7, SESSION_ID);
+                preparedStatement.setString(8, transaction.getDescription());
+                preparedStatement.addBatch();
+                if (++batched % 10000 == 0) {
+                    preparedStatement.executeBatch();
+                }
+            }
+            preparedStatement.executeBatch();
+        }
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2018, Joost Prins <github.com/joostprins>, Tom Leemreize <https://github.com/oplosthee>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package nl.utwente.ing.controller;
+
+import nl.utwente.ing.benchmark.BenchmarkData;
+import nl.utwente.ing.model.BalanceHistory;
+import nl.utwente.ing.model.SavingGoal;
+import nl.utwente.ing.model.Transaction;
+import org.joda.time.DateTime;
+import org.openjdk.jmh.annotations.*;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the calculation of a balance history over 24 monthly intervals, both from the balance checkpoints and with
+ * the full replay of all transactions.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BalanceHistoryBenchmark {
+
+    private static List<DateTime> intervals() {
+        List<DateTime> intervals = new ArrayList<>();
+        for (int i = 24; i >= 0; i--) {
+            intervals.add(BenchmarkData.END.minusMonths(i));
+        }
+        return intervals;
+    }
+
+    @State(Scope.Thread)
+    public static class CheckpointState {
+        @Param({"1000", "100000", "1000000"})
+        int transactions;
+
+        Connection connection;
+        List<DateTime> intervals = intervals();
+
+        @Setup(Level.Trial)
+        public void setUp() throws Exception {
+            connection = DriverManager.getConnection(BenchmarkData.database(transactions, 100, 10));
+            connection.setAutoCommit(false);
+            // Builds the checkpoints, so the benchmark measures the steady state of a session.
+            BalanceCheckpoints.getBalanceHistories(connection, BenchmarkData.SESSION_ID, intervals);
+            connection.commit();
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws Exception {
+            connection.close();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class ReplayState {
+        // The full replay removes transactions from the front of an array list, so a million transactions take too
+        // long to measure.
+        @Param({"1000", "100000"})
+        int transactions;
+
+        List<Transaction> allTransactions;
+        List<Transaction> invocationTransactions;
+        List<SavingGoal> savingGoals;
+        List<DateTime> intervals = intervals();
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            allTransactions = BenchmarkData.transactions(transactions);
+        }
+
+        @Setup(Level.Invocation)
+        public void setUpInvocation() {
+            invocationTransactions = new ArrayList<>(allTransactions);
+            savingGoals = BenchmarkData.savingGoals(10);
+        }
+    }
+
+    @Benchmark
+    public List<BalanceHistory> checkpoints(CheckpointState state) throws Exception {
+        return BalanceCheckpoints.getBalanceHistories(state.connection, BenchmarkData.SESSION_ID, state.intervals);
+    }
+
+    @Benchmark
+    public List<BalanceHistory> fullReplay(ReplayState state) {
+        return BalanceHistoryController.getBalanceHistories(BalanceHistoryController.parseTransactions(
+                state.invocationTransactions, state.intervals), state.intervals, state.savingGoals);
+    }
+}
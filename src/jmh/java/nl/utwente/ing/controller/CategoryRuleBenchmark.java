@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2018, Joost Prins <github.com/joostprins>, Tom Leemreize <https://github.com/oplosthee>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package nl.utwente.ing.controller;
+
+import nl.utwente.ing.benchmark.BenchmarkData;
+import nl.utwente.ing.cache.CategoryRuleIndex;
+import nl.utwente.ing.model.Category;
+import org.openjdk.jmh.annotations.*;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures finding the category of a new transaction among the category rules of its session, as done when a
+ * transaction is created.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class CategoryRuleBenchmark {
+
+    private static final int PROBES = 1024;
+
+    @Param({"100", "10000"})
+    int rules;
+
+    private Connection connection;
+    private CategoryRuleIndex index;
+    private String[] descriptions = new String[PROBES];
+    private String[] iBANs = new String[PROBES];
+    private int probe;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        connection = DriverManager.getConnection(BenchmarkData.database(1000, rules, 0));
+        index = new CategoryRuleIndex(10);
+        for (int i = 0; i < PROBES; i++) {
+            descriptions[i] = BenchmarkData.description(i * 7);
+            iBANs[i] = BenchmarkData.iBAN(i * 13);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        connection.close();
+    }
+
+    @Benchmark
+    public Category match() throws Exception {
+        int i = probe++ & (PROBES - 1);
+        return index.match(connection, BenchmarkData.SESSION_ID, descriptions[i], iBANs[i],
+                (i & 1) == 0 ? "deposit" : "withdrawal");
+    }
+
+    @Benchmark
+    public Category compile() throws Exception {
+        index.invalidate(BenchmarkData.SESSION_ID);
+        return match();
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2018, Joost Prins <github.com/joostprins>, Tom Leemreize <https://github.com/oplosthee>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package nl.utwente.ing.controller;
+
+import nl.utwente.ing.benchmark.BenchmarkData;
+import nl.utwente.ing.model.PaymentRequest;
+import nl.utwente.ing.model.Transaction;
+import nl.utwente.ing.model.Type;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures matching the deposits of a session to its payment requests.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class PaymentRequestBenchmark {
+
+    @Param({"100", "10000"})
+    int paymentRequests;
+
+    private List<Transaction> deposits;
+    private long[] amounts;
+    private long[] dates;
+    private List<PaymentRequest> requests;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        deposits = new ArrayList<>();
+        for (Transaction transaction : BenchmarkData.transactions(100000)) {
+            if (transaction.getType() == Type.deposit) {
+                deposits.add(transaction);
+            }
+        }
+        amounts = new long[deposits.size()];
+        dates = new long[deposits.size()];
+        for (int i = 0; i < deposits.size(); i++) {
+            amounts[i] = deposits.get(i).getAmount().getAmountMinorLong();
+            dates[i] = deposits.get(i).getMillis();
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void setUpInvocation() {
+        requests = BenchmarkData.paymentRequests(paymentRequests, deposits);
+    }
+
+    @Benchmark
+    public List<PaymentRequest> match() {
+        PaymentRequestMatcher matcher = new PaymentRequestMatcher(requests);
+        for (int i = 0; i < amounts.length && !matcher.isDone(); i++) {
+            if (dates[i] < matcher.getLatestDueDate()) {
+                matcher.match(deposits.get(i), amounts[i], dates[i]);
+            }
+        }
+        return requests;
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2018, Joost Prins <github.com/joostprins>, Tom Leemreize <https://github.com/oplosthee>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package nl.utwente.ing.controller;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import nl.utwente.ing.benchmark.BenchmarkData;
+import nl.utwente.ing.model.PaymentRequest;
+import nl.utwente.ing.model.Transaction;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures serializing a page of transactions and a list of payment requests to JSON.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class SerializationBenchmark {
+
+    @Param({"20", "1000"})
+    int transactions;
+
+    private List<Transaction> transactionList;
+    private List<PaymentRequest> paymentRequests;
+    private Gson transactionGson;
+    private Gson paymentRequestGson;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        transactionList = BenchmarkData.transactions(transactions);
+        paymentRequests = BenchmarkData.paymentRequests(transactions / 5, transactionList);
+        for (int i = 0; i < paymentRequests.size(); i++) {
+            for (int j = 0; j < 5; j++) {
+                paymentRequests.get(i).addTransaction(transactionList.get(i * 5 + j));
+            }
+        }
+        transactionGson = new GsonBuilder().registerTypeAdapter(Transaction.class, new TransactionAdapter()).create();
+        paymentRequestGson = new GsonBuilder().registerTypeAdapter(PaymentRequest.class, new PaymentRequestAdapter())
+                .create();
+    }
+
+    @Benchmark
+    public String transactions() {
+        return transactionGson.toJson(transactionList);
+    }
+
+    @Benchmark
+    public String paymentRequests() {
+        return paymentRequestGson.toJson(paymentRequests);
+    }
+}
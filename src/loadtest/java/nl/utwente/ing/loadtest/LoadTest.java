@@ -0,0 +1,437 @@
+/*
+ * Copyright (c) 2018, Joost Prins <github.com/joostprins>, Tom Leemreize <https://github.com/oplosthee>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package nl.utwente.ing.loadtest;
+
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import nl.utwente.ing.DPAService;
+import nl.utwente.ing.Settings;
+import nl.utwente.ing.controller.database.DBConnection;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * End-to-end load test of the service. Starts the service on a random port against a temporary copy of the bundled
+ * database, creates a number of sessions with some initial data, and lets concurrent clients send a mix of requests
+ * for a fixed time. The throughput and latency percentiles per endpoint, the error counts and the number of
+ * SQLITE_BUSY errors are written to a JSON file.
+ *
+ * Options are given as key=value arguments, see {@link #DEFAULTS}.
+ */
+public class LoadTest {
+
+    private static final Map<String, String> DEFAULTS = new LinkedHashMap<>();
+
+    static {
+        DEFAULTS.put("sessions", "10");
+        DEFAULTS.put("clients", "32");
+        DEFAULTS.put("warmup", "5");
+        DEFAULTS.put("duration", "30");
+        DEFAULTS.put("seed-transactions", "200");
+        DEFAULTS.put("mix", "insert:30,list:30,balance:15,savings:10,payments:15");
+        DEFAULTS.put("output", "target/loadtest-result.json");
+    }
+
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormat.forPattern("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'")
+            .withZoneUTC();
+
+    private static final AtomicLong busyErrors = new AtomicLong();
+
+    private final Map<String, String> options;
+    private final String baseUrl;
+    private final List<String> sessions = new ArrayList<>();
+    private final String[] operations;
+    private final int[] cumulativeWeights;
+
+    private volatile boolean recording;
+    private volatile boolean running = true;
+
+    private LoadTest(Map<String, String> options, int port) {
+        this.options = options;
+        this.baseUrl = "http://localhost:" + port + "/api/v1";
+
+        String[] entries = options.get("mix").split(",");
+        operations = new String[entries.length];
+        cumulativeWeights = new int[entries.length];
+        int total = 0;
+        for (int i = 0; i < entries.length; i++) {
+            String[] entry = entries[i].trim().split(":");
+            operations[i] = entry[0];
+            total += Integer.parseInt(entry[1]);
+            cumulativeWeights[i] = total;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new LinkedHashMap<>(DEFAULTS);
+        for (String arg : args) {
+            int separator = arg.indexOf('=');
+            if (separator < 0 || !DEFAULTS.containsKey(arg.substring(0, separator))) {
+                System.out.println("Unknown option " + arg + ", the options are " + DEFAULTS);
+                System.exit(1);
+            }
+            options.put(arg.substring(0, separator), arg.substring(separator + 1));
+        }
+
+        Path database = Files.createTempFile("loadtest", ".sqlite");
+        Files.copy(Paths.get("src", "main", "resources", "database.sqlite"), database,
+                StandardCopyOption.REPLACE_EXISTING);
+        System.setProperty("database.path", database.toString());
+        System.setErr(new BusyCountingPrintStream(System.err));
+
+        ConfigurableApplicationContext context = null;
+        int exitCode = 0;
+        try {
+            Objects.requireNonNull(DBConnection.instance);
+            context = SpringApplication.run(DPAService.class, "--server.port=0", "--logging.level.root=WARN");
+            int port = Integer.parseInt(context.getEnvironment().getProperty("local.server.port"));
+            new LoadTest(options, port).run();
+        } catch (Exception e) {
+            e.printStackTrace();
+            exitCode = 1;
+        } finally {
+            if (context != null) {
+                context.close();
+            }
+            Files.deleteIfExists(database);
+        }
+        System.exit(exitCode);
+    }
+
+    private void run() throws Exception {
+        int sessionCount = Integer.parseInt(options.get("sessions"));
+        int clientCount = Integer.parseInt(options.get("clients"));
+        long warmup = Long.parseLong(options.get("warmup")) * 1000;
+        long duration = Long.parseLong(options.get("duration")) * 1000;
+
+        System.out.println("Creating " + sessionCount + " sessions");
+        for (int i = 0; i < sessionCount; i++) {
+            sessions.add(createSession(Integer.parseInt(options.get("seed-transactions"))));
+        }
+
+        System.out.println("Running " + clientCount + " clients for " + options.get("warmup") + "s warmup and " +
+                options.get("duration") + "s measurement");
+        List<Client> clients = new ArrayList<>();
+        for (int i = 0; i < clientCount; i++) {
+            Client client = new Client();
+            clients.add(client);
+            client.start();
+        }
+
+        Thread.sleep(warmup);
+        long busyBefore = busyErrors.get();
+        recording = true;
+        long start = System.nanoTime();
+        Thread.sleep(duration);
+        recording = false;
+        long elapsed = System.nanoTime() - start;
+        long busy = busyErrors.get() - busyBefore;
+        running = false;
+        for (Client client : clients) {
+            client.join();
+        }
+
+        writeReport(clients, elapsed, busy);
+    }
+
+    /**
+     * Creates a session with a category, a saving goal, a payment request and the given number of transactions.
+     */
+    private String createSession(int transactions) throws IOException {
+        Response response = request("POST", "/sessions", null, null, null);
+        String sessionID = new JsonParser().parse(response.body).getAsJsonObject().get("id").getAsString();
+        request("POST", "/categories", sessionID, "{\"name\": \"groceries\"}", "application/json");
+        request("POST", "/savingGoals", sessionID, "{\"name\": \"holiday\", \"goal\": 1000, \"savePerMonth\": 50, " +
+                "\"minBalanceRequired\": 100}", "application/json");
+        request("POST", "/paymentRequests", sessionID, "{\"description\": \"dinner\", \"due_date\": \"" +
+                DATE_FORMAT.print(DateTime.now().plusMonths(1)) + "\", \"amount\": 12.50, \"number_of_requests\": 3}",
+                "application/json");
+
+        StringBuilder body = new StringBuilder();
+        for (int i = 0; i < transactions; i++) {
+            body.append(transaction()).append('\n');
+        }
+        request("POST", "/transactions/batch", sessionID, body.toString(), "application/x-ndjson");
+        return sessionID;
+    }
+
+    private static String transaction() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long date = DateTime.now(DateTimeZone.UTC).minusDays(random.nextInt(730)).getMillis() -
+                random.nextInt(86400000);
+        boolean deposit = random.nextInt(10) < 4;
+        return String.format(Locale.ROOT, "{\"date\": \"%s\", \"amount\": %.2f, \"externalIBAN\": \"NL%02dBANK0000\", " +
+                        "\"type\": \"%s\", \"description\": \"load test %d\"}", DATE_FORMAT.print(date),
+                deposit ? 12.5 + random.nextInt(2500) : 1 + random.nextInt(1000) / 10.0, random.nextInt(100),
+                deposit ? "deposit" : "withdrawal", random.nextInt(100));
+    }
+
+    private Response request(String method, String path, String sessionID, String body, String contentType)
+            throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl + path).openConnection();
+        connection.setRequestMethod(method);
+        if (sessionID != null) {
+            connection.setRequestProperty("X-session-ID", sessionID);
+        }
+        if (body != null) {
+            connection.setDoOutput(true);
+            connection.setRequestProperty("Content-Type", contentType);
+            try (OutputStream outputStream = connection.getOutputStream()) {
+                outputStream.write(body.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+
+        int status = connection.getResponseCode();
+        InputStream inputStream = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        if (inputStream != null) {
+            // Reads the whole response, so the connection can be reused by the next request.
+            try (InputStream stream = inputStream) {
+                byte[] buffer = new byte[8192];
+                int read;
+                while ((read = stream.read(buffer)) != -1) {
+                    result.write(buffer, 0, read);
+                }
+            }
+        }
+        return new Response(status, new String(result.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    private String pickOperation() {
+        int value = ThreadLocalRandom.current().nextInt(cumulativeWeights[cumulativeWeights.length - 1]);
+        for (int i = 0; i < cumulativeWeights.length; i++) {
+            if (value < cumulativeWeights[i]) {
+                return operations[i];
+            }
+        }
+        return operations[operations.length - 1];
+    }
+
+    private Response execute(String operation, String sessionID) throws IOException {
+        switch (operation) {
+            case "insert":
+                return request("POST", "/transactions", sessionID, transaction(), "application/json");
+            case "list":
+                return request("GET", "/transactions?limit=20&offset=" + ThreadLocalRandom.current().nextInt(100),
+                        sessionID, null, null);
+            case "balance":
+                return request("GET", "/balance/history?interval=month&intervals=12", sessionID, null, null);
+            case "savings":
+                return request("GET", "/savingGoals", sessionID, null, null);
+            case "payments":
+                return request("GET", "/paymentRequests", sessionID, null, null);
+            default:
+                throw new IllegalArgumentException("Unknown operation " + operation);
+        }
+    }
+
+    private void writeReport(List<Client> clients, long elapsed, long busy) throws IOException {
+        double seconds = elapsed / 1e9;
+        JsonObject report = new JsonObject();
+        JsonObject config = new JsonObject();
+        options.forEach(config::addProperty);
+        report.add("options", config);
+        report.addProperty("javaVersion", System.getProperty("java.version"));
+        report.addProperty("virtualThreads", Settings.getBoolean("server.virtual-threads.enabled", false));
+        report.addProperty("seconds", seconds);
+        report.addProperty("sqliteBusy", busy);
+
+        long totalRequests = 0;
+        long totalErrors = 0;
+        JsonObject endpoints = new JsonObject();
+        for (String operation : new LinkedHashSet<>(Arrays.asList(operations))) {
+            Latencies latencies = new Latencies();
+            for (Client client : clients) {
+                latencies.addAll(client.latencies.get(operation));
+            }
+            long[] samples = latencies.sorted();
+            JsonObject endpoint = new JsonObject();
+            endpoint.addProperty("requests", samples.length);
+            endpoint.addProperty("errors", latencies.errors);
+            endpoint.addProperty("throughput", samples.length / seconds);
+            endpoint.addProperty("p50Ms", percentile(samples, 0.50));
+            endpoint.addProperty("p95Ms", percentile(samples, 0.95));
+            endpoint.addProperty("p99Ms", percentile(samples, 0.99));
+            endpoint.addProperty("maxMs", samples.length == 0 ? 0 : samples[samples.length - 1] / 1e6);
+            endpoints.add(operation, endpoint);
+            totalRequests += samples.length;
+            totalErrors += latencies.errors;
+
+            System.out.println(String.format(Locale.ROOT, "%-10s %8d req %8.1f req/s  p50 %7.2f  p95 %7.2f  " +
+                            "p99 %7.2f  max %7.2f ms  %d errors", operation, samples.length, samples.length / seconds,
+                    percentile(samples, 0.50), percentile(samples, 0.95), percentile(samples, 0.99),
+                    samples.length == 0 ? 0 : samples[samples.length - 1] / 1e6, latencies.errors));
+        }
+        report.addProperty("requests", totalRequests);
+        report.addProperty("errors", totalErrors);
+        report.addProperty("throughput", totalRequests / seconds);
+        report.add("endpoints", endpoints);
+        System.out.println(String.format(Locale.ROOT, "total      %8d req %8.1f req/s  %d errors, %d SQLITE_BUSY",
+                totalRequests, totalRequests / seconds, totalErrors, busy));
+
+        Path output = Paths.get(options.get("output"));
+        if (output.getParent() != null) {
+            Files.createDirectories(output.getParent());
+        }
+        Files.write(output, new GsonBuilder().setPrettyPrinting().create().toJson(report)
+                .getBytes(StandardCharsets.UTF_8));
+        System.out.println("Results written to " + output.toAbsolutePath());
+    }
+
+    private static double percentile(long[] samples, double percentile) {
+        if (samples.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(percentile * samples.length) - 1;
+        return samples[Math.max(index, 0)] / 1e6;
+    }
+
+    private static class Response {
+        private final int status;
+        private final String body;
+
+        Response(int status, String body) {
+            this.status = status;
+            this.body = body;
+        }
+    }
+
+    /**
+     * A client which sends requests for random sessions until the load test stops. Latencies are only recorded during
+     * the measurement period.
+     */
+    private class Client extends Thread {
+        private final Map<String, Latencies> latencies = new LinkedHashMap<>();
+
+        Client() {
+            setDaemon(true);
+            for (String operation : operations) {
+                latencies.put(operation, new Latencies());
+            }
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                String operation = pickOperation();
+                String sessionID = sessions.get(ThreadLocalRandom.current().nextInt(sessions.size()));
+                long start = System.nanoTime();
+                boolean error;
+                try {
+                    error = execute(operation, sessionID).status >= 400;
+                } catch (IOException e) {
+                    error = true;
+                }
+                long latency = System.nanoTime() - start;
+                if (recording) {
+                    latencies.get(operation).add(latency, error);
+                }
+            }
+        }
+    }
+
+    /**
+     * The latencies of the requests to a single endpoint, in nanoseconds.
+     */
+    private static class Latencies {
+        private long[] samples = new long[1024];
+        private int size;
+        private long errors;
+
+        void add(long latency, boolean error) {
+            if (size == samples.length) {
+                samples = Arrays.copyOf(samples, size * 2);
+            }
+            samples[size++] = latency;
+            if (error) {
+                errors++;
+            }
+        }
+
+        void addAll(Latencies other) {
+            for (int i = 0; i < other.size; i++) {
+                add(other.samples[i], false);
+            }
+            errors += other.errors;
+        }
+
+        long[] sorted() {
+            long[] result = Arrays.copyOf(samples, size);
+            Arrays.sort(result);
+            return result;
+        }
+    }
+
+    /**
+     * Counts the SQLITE_BUSY errors in the stack traces the service prints, as these are not visible in the responses.
+     */
+    private static class BusyCountingPrintStream extends PrintStream {
+
+        BusyCountingPrintStream(PrintStream out) {
+            super(out, true);
+        }
+
+        @Override
+        public void println(Object x) {
+            for (Throwable cause = x instanceof Throwable ? (Throwable) x : null; cause != null;
+                 cause = cause.getCause()) {
+                String message = String.valueOf(cause.getMessage());
+                if (message.contains("SQLITE_BUSY") || message.contains("database is locked")) {
+                    busyErrors.incrementAndGet();
+                    break;
+                }
+            }
+            super.println(x);
+        }
+    }
+}
@@ -24,14 +24,35 @@
  */
 package nl.utwente.ing;
 
+import nl.utwente.ing.archive.TransactionArchive;
+import nl.utwente.ing.controller.JobRunner;
+import nl.utwente.ing.repository.Repositories;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 
+import java.sql.SQLException;
+import java.util.Objects;
+
 @SpringBootApplication
 public class DPAService {
 
 	public static void main(String[] args) {
+		// Opening the storage engine applies the pending schema migrations or loads the stored data before any request
+		// is handled.
+		Objects.requireNonNull(Repositories.instance);
+		if (Repositories.instance.isSQLite()) {
+			try {
+				TransactionArchive.instance.load();
+			} catch (SQLException e) {
+				throw new IllegalStateException("Could not load the transaction archives", e);
+			}
+		}
 		SpringApplication.run(DPAService.class, args);
+		if (Repositories.instance.isSQLite()) {
+			// Continues the background jobs which were interrupted when the application stopped.
+			JobRunner.instance.resume();
+			TransactionArchive.instance.start();
+		}
 	}
 
 }
@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2018, Joost Prins <github.com/joostprins>, Tom Leemreize <https://github.com/oplosthee>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package nl.utwente.ing;
+
+import org.apache.coyote.AbstractProtocol;
+import org.apache.coyote.ProtocolHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.embedded.EmbeddedServletContainerCustomizer;
+import org.springframework.boot.context.embedded.tomcat.TomcatEmbeddedServletContainerFactory;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Serves requests on virtual threads instead of the worker threads of Tomcat when server.virtual-threads.enabled is
+ * set. A request which waits for the database then only holds a virtual thread, so the number of concurrent requests
+ * is no longer capped by the number of worker threads.
+ *
+ * Virtual threads need Java 21 or later, while the service is compiled for Java 8, so the executor is created through
+ * reflection. On older runtimes the setting is ignored and the worker threads are used.
+ *
+ * The load test compares both modes with mvn -Ploadtest verify -Dloadtest.virtual-threads=true on Java 21. On a
+ * single CPU shared with the clients, the throughput was the same within the noise between runs. The median latency
+ * was lower with virtual threads, but the 99th percentile was several times higher with 256 clients, because the
+ * worker pool queues requests fairly. The setting is therefore off by default.
+ */
+@Configuration
+public class VirtualThreads {
+
+    private static final Logger logger = LoggerFactory.getLogger(VirtualThreads.class);
+
+    private static final boolean ENABLED = Settings.getBoolean("server.virtual-threads.enabled", false);
+
+    @Bean
+    public EmbeddedServletContainerCustomizer virtualThreadCustomizer() {
+        return container -> {
+            if (!ENABLED || !(container instanceof TomcatEmbeddedServletContainerFactory)) {
+                return;
+            }
+            ExecutorService executor = newVirtualThreadExecutor("http-virtual-");
+            if (executor == null) {
+                logger.warn("Virtual threads are not supported by Java {}, requests are served by the worker threads",
+                        System.getProperty("java.version"));
+                return;
+            }
+            ((TomcatEmbeddedServletContainerFactory) container).addConnectorCustomizers(connector -> {
+                ProtocolHandler protocolHandler = connector.getProtocolHandler();
+                if (protocolHandler instanceof AbstractProtocol) {
+                    ((AbstractProtocol<?>) protocolHandler).setExecutor(executor);
+                }
+            });
+            logger.info("Requests are served by virtual threads");
+        };
+    }
+
+    /**
+     * Creates an executor which runs every task on a new virtual thread, named with the given prefix and a counter.
+     *
+     * @return the executor, or null if the runtime does not support virtual threads
+     */
+    static ExecutorService newVirtualThreadExecutor(String prefix) {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, prefix, 0L);
+            ThreadFactory threadFactory = (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+            Method newExecutor = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+            return (ExecutorService) newExecutor.invoke(null, threadFactory);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+}
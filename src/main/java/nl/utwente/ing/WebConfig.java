@@ -24,7 +24,10 @@
  */
 package nl.utwente.ing;
 
+import nl.utwente.ing.interceptor.AdminInterceptor;
 import nl.utwente.ing.interceptor.AuthenticationInterceptor;
+import nl.utwente.ing.interceptor.ConditionalRequestInterceptor;
+import nl.utwente.ing.interceptor.MetricsInterceptor;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.web.servlet.config.annotation.EnableWebMvc;
 import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
@@ -36,6 +39,10 @@ public class WebConfig extends WebMvcConfigurerAdapter {
 
     @Override
     public void addInterceptors(InterceptorRegistry registry) {
-        registry.addInterceptor(new AuthenticationInterceptor());
+        registry.addInterceptor(new MetricsInterceptor());
+        registry.addInterceptor(new AdminInterceptor()).addPathPatterns("/metrics", "/admin/**");
+        registry.addInterceptor(new AuthenticationInterceptor()).excludePathPatterns("/metrics", "/admin/**");
+        registry.addInterceptor(new ConditionalRequestInterceptor()).addPathPatterns("/api/v1/**")
+                .excludePathPatterns("/api/v1/sessions");
     }
 }
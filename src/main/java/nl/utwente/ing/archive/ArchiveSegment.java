@@ -0,0 +1,485 @@
+/*
+ * Copyright (c) 2018, Joost Prins <github.com/joostprins>, Tom Leemreize <https://github.com/oplosthee>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package nl.utwente.ing.archive;
+
+import nl.utwente.ing.model.ParsedDate;
+import nl.utwente.ing.model.Type;
+import org.joda.time.DateTimeZone;
+import org.joda.time.format.ISODateTimeFormat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * An immutable file with the archived transactions of a single session, sorted by date and ID like a
+ * {@link nl.utwente.ing.cache.Ledger}, and stored column by column:
+ *
+ * <ul>
+ *     <li>the IDs, as the zigzag-encoded variable-length difference with the previous ID;</li>
+ *     <li>the times in milliseconds, as the variable-length difference with the previous time;</li>
+ *     <li>the time zones, as variable-length indexes into a table of zone IDs;</li>
+ *     <li>the amounts in cents, as zigzag-encoded variable-length numbers;</li>
+ *     <li>the types, as a byte per transaction;</li>
+ *     <li>the categories, as variable-length numbers with 0 for none;</li>
+ *     <li>the external IBANs, as variable-length indexes into a dictionary of IBANs;</li>
+ *     <li>the dates as they were written, as a variable-length length followed by the UTF-8 bytes, or only a length of 0
+ *     if the date is the ISO-8601 form of its time and zone. Segments of version 1 have no dates;</li>
+ *     <li>the descriptions, as a variable-length length plus one followed by the UTF-8 bytes, or 0 for no description.
+ *     Segments of versions 1 and 2 have no descriptions.</li>
+ * </ul>
+ *
+ * The file is mapped into memory and read sequentially by a {@link Cursor}. It ends with a CRC32 of everything before
+ * it, which is verified when the file is opened.
+ */
+public final class ArchiveSegment {
+
+    private static final int MAGIC = 0x44504141;
+    private static final byte VERSION = 3;
+    private static final Type[] TYPES = Type.values();
+
+    private final MappedByteBuffer buffer;
+    private final int rows;
+    private final DateTimeZone[] zones;
+    private final String[] ibans;
+    private final byte version;
+
+    /**
+     * The offsets of the columns in the file, in the order in which they are stored.
+     */
+    private final int idsOffset;
+    private final int millisOffset;
+    private final int zonesOffset;
+    private final int amountsOffset;
+    private final int typesOffset;
+    private final int categoriesOffset;
+    private final int ibansOffset;
+    private final int datesOffset;
+    private final int descriptionsOffset;
+
+    private ArchiveSegment(MappedByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        int length = buffer.capacity();
+        version = length < 13 ? 0 : buffer.get(4);
+        if (length < 13 || buffer.getInt(0) != MAGIC || version < 1 || version > VERSION) {
+            throw new IOException("Not an archive segment");
+        }
+        CRC32 crc = new CRC32();
+        ByteBuffer content = buffer.duplicate();
+        content.limit(length - 4);
+        crc.update(content);
+        if ((int) crc.getValue() != buffer.getInt(length - 4)) {
+            throw new IOException("The archive segment is corrupt");
+        }
+
+        ByteBuffer header = buffer.duplicate();
+        header.position(5);
+        rows = header.getInt();
+        zones = new DateTimeZone[header.getShort()];
+        for (int i = 0; i < zones.length; i++) {
+            zones[i] = DateTimeZone.forID(readString(header));
+        }
+        ibans = new String[header.getInt()];
+        for (int i = 0; i < ibans.length; i++) {
+            ibans[i] = readString(header);
+        }
+
+        int[] offsets = new int[version + 6];
+        int offset = header.position() + offsets.length * 4;
+        for (int i = 0; i < offsets.length; i++) {
+            offsets[i] = offset;
+            offset += header.getInt();
+        }
+        if (offset != length - 4) {
+            throw new IOException("The archive segment is corrupt");
+        }
+        idsOffset = offsets[0];
+        millisOffset = offsets[1];
+        zonesOffset = offsets[2];
+        amountsOffset = offsets[3];
+        typesOffset = offsets[4];
+        categoriesOffset = offsets[5];
+        ibansOffset = offsets[6];
+        datesOffset = version == 1 ? -1 : offsets[7];
+        descriptionsOffset = version < 3 ? -1 : offsets[8];
+    }
+
+    /**
+     * Maps an archive segment into memory.
+     *
+     * @throws IOException if the file cannot be read or is not a valid archive segment
+     */
+    public static ArchiveSegment open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            // The mapping stays valid after the channel is closed, and after the file is deleted.
+            return new ArchiveSegment(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * @return the number of transactions in the segment
+     */
+    public int size() {
+        return rows;
+    }
+
+    /**
+     * @return a new cursor, positioned before the first transaction
+     */
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getShort() & 0xFFFF];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reads the transactions of the segment in order. The columns are decoded in lockstep, each from its own position
+     * in the mapped file.
+     */
+    public final class Cursor {
+
+        private int index = -1;
+        private int idPosition = idsOffset;
+        private int millisPosition = millisOffset;
+        private int zonePosition = zonesOffset;
+        private int amountPosition = amountsOffset;
+        private int categoryPosition = categoriesOffset;
+        private int ibanPosition = ibansOffset;
+        private int datePosition = datesOffset;
+        private int descriptionPosition = descriptionsOffset;
+
+        private int id;
+        private long millis;
+        private int zone;
+        private long amount;
+        private int category;
+        private int iban;
+
+        /**
+         * The position of the date of the current transaction, which is only decoded when it is read.
+         */
+        private int date = -1;
+
+        /**
+         * The position of the description of the current transaction, which is only decoded when it is read.
+         */
+        private int description = -1;
+
+        /**
+         * The position after the last number read by {@link #readLong(int)}.
+         */
+        private int position;
+
+        private Cursor() {
+        }
+
+        /**
+         * Moves to the next transaction.
+         *
+         * @return whether there is a next transaction
+         */
+        public boolean next() {
+            if (index + 1 >= rows) {
+                index = rows;
+                return false;
+            }
+            index++;
+            long value = readLong(idPosition);
+            idPosition = position;
+            id += (int) decodeZigZag(value);
+            value = readLong(millisPosition);
+            millisPosition = position;
+            millis = index == 0 ? decodeZigZag(value) : millis + value;
+            zone = (int) readLong(zonePosition);
+            zonePosition = position;
+            amount = decodeZigZag(readLong(amountPosition));
+            amountPosition = position;
+            category = (int) readLong(categoryPosition);
+            categoryPosition = position;
+            iban = (int) readLong(ibanPosition);
+            ibanPosition = position;
+            if (datesOffset >= 0) {
+                date = datePosition;
+                int length = (int) readLong(datePosition);
+                datePosition = position + length;
+            }
+            if (descriptionsOffset >= 0) {
+                description = descriptionPosition;
+                int length = (int) readLong(descriptionPosition);
+                descriptionPosition = position + Math.max(0, length - 1);
+            }
+            return true;
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        public long getMillis() {
+            return millis;
+        }
+
+        public DateTimeZone getZone() {
+            return zones[zone];
+        }
+
+        public long getAmount() {
+            return amount;
+        }
+
+        public Type getType() {
+            return TYPES[buffer.get(typesOffset + index)];
+        }
+
+        /**
+         * @return the ID of the category of the transaction, or 0 if it has no category
+         */
+        public int getCategory() {
+            return category;
+        }
+
+        public String getExternalIBAN() {
+            return ibans[iban];
+        }
+
+        /**
+         * @return the date of the transaction as it was written
+         */
+        public String getDate() {
+            int length = date < 0 ? 0 : (int) readLong(date);
+            if (length == 0) {
+                return formatDate(millis, getZone());
+            }
+            byte[] bytes = new byte[length];
+            ByteBuffer dates = buffer.duplicate();
+            dates.position(position);
+            dates.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        /**
+         * @return the date of the transaction, with the offset it is stored with in the transactions table
+         */
+        public ParsedDate getParsedDate() {
+            DateTimeZone zone = getZone();
+            return ParsedDate.of(millis, zone.isFixed() ? zone.getOffset(millis) : null, getDate());
+        }
+
+        /**
+         * @return the description of the transaction, or null if it has none or the segment has no descriptions
+         */
+        public String getDescription() {
+            int length = description < 0 ? 0 : (int) readLong(description);
+            if (length == 0) {
+                return null;
+            }
+            byte[] bytes = new byte[length - 1];
+            ByteBuffer descriptions = buffer.duplicate();
+            descriptions.position(position);
+            descriptions.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        private long readLong(int start) {
+            long value = 0;
+            int shift = 0;
+            int current = start;
+            byte next;
+            do {
+                next = buffer.get(current++);
+                value |= (long) (next & 0x7F) << shift;
+                shift += 7;
+            } while (next < 0);
+            position = current;
+            return value;
+        }
+    }
+
+    private static String formatDate(long millis, DateTimeZone zone) {
+        return ISODateTimeFormat.dateTime().withZone(zone).print(millis);
+    }
+
+    private static long decodeZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static long encodeZigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    /**
+     * Collects transactions, which have to be added in order of date and ID, and writes them to a new segment.
+     */
+    public static final class Writer {
+
+        private final Map<String, Integer> zoneIndexes = new HashMap<>();
+        private final List<String> zoneIds = new ArrayList<>();
+        private final Map<String, Integer> ibanIndexes = new HashMap<>();
+        private final List<String> ibanValues = new ArrayList<>();
+
+        private final ByteArrayOutputStream ids = new ByteArrayOutputStream();
+        private final ByteArrayOutputStream millis = new ByteArrayOutputStream();
+        private final ByteArrayOutputStream zones = new ByteArrayOutputStream();
+        private final ByteArrayOutputStream amounts = new ByteArrayOutputStream();
+        private final ByteArrayOutputStream types = new ByteArrayOutputStream();
+        private final ByteArrayOutputStream categories = new ByteArrayOutputStream();
+        private final ByteArrayOutputStream ibans = new ByteArrayOutputStream();
+        private final ByteArrayOutputStream dates = new ByteArrayOutputStream();
+        private final ByteArrayOutputStream descriptions = new ByteArrayOutputStream();
+
+        private int rows;
+        private int lastId;
+        private long lastMillis;
+
+        /**
+         * Adds a transaction after the ones added before.
+         *
+         * @throws IllegalArgumentException if the transaction is older than the previous one
+         */
+        public void add(int id, long time, DateTimeZone zone, long amount, Type type, int category, String iban,
+                        String date, String description) {
+            if (rows > 0 && (time < lastMillis || (time == lastMillis && id <= lastId))) {
+                throw new IllegalArgumentException("Transactions have to be added in order");
+            }
+            writeLong(ids, encodeZigZag((long) id - lastId));
+            writeLong(millis, rows == 0 ? encodeZigZag(time) : time - lastMillis);
+            writeLong(zones, getIndex(zoneIndexes, zoneIds, zone.getID()));
+            writeLong(amounts, encodeZigZag(amount));
+            types.write(type.ordinal());
+            writeLong(categories, category);
+            writeLong(ibans, getIndex(ibanIndexes, ibanValues, iban == null ? "" : iban));
+            if (date == null || date.equals(formatDate(time, zone))) {
+                writeLong(dates, 0);
+            } else {
+                byte[] bytes = date.getBytes(StandardCharsets.UTF_8);
+                writeLong(dates, bytes.length);
+                dates.write(bytes, 0, bytes.length);
+            }
+            if (description == null) {
+                writeLong(descriptions, 0);
+            } else {
+                byte[] bytes = description.getBytes(StandardCharsets.UTF_8);
+                writeLong(descriptions, bytes.length + 1L);
+                descriptions.write(bytes, 0, bytes.length);
+            }
+            lastId = id;
+            lastMillis = time;
+            rows++;
+        }
+
+        /**
+         * @return the number of transactions added so far
+         */
+        public int size() {
+            return rows;
+        }
+
+        /**
+         * Writes the segment to a temporary file next to the given path, forces it to disk and then moves it to the
+         * path, so the file at the path is either missing or complete.
+         */
+        public void write(Path path) throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            out.writeInt(rows);
+            out.writeShort(zoneIds.size());
+            for (String zoneId : zoneIds) {
+                writeString(out, zoneId);
+            }
+            out.writeInt(ibanValues.size());
+            for (String iban : ibanValues) {
+                writeString(out, iban);
+            }
+            ByteArrayOutputStream[] columns = {ids, millis, zones, amounts, types, categories, ibans, dates, descriptions};
+            for (ByteArrayOutputStream column : columns) {
+                out.writeInt(column.size());
+            }
+            for (ByteArrayOutputStream column : columns) {
+                column.writeTo(out);
+            }
+            CRC32 crc = new CRC32();
+            crc.update(bytes.toByteArray());
+            out.writeInt((int) crc.getValue());
+            out.flush();
+
+            Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                channel.force(true);
+            }
+            Files.move(temporary, path, StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        private static int getIndex(Map<String, Integer> indexes, List<String> values, String value) {
+            Integer index = indexes.get(value);
+            if (index == null) {
+                index = values.size();
+                indexes.put(value, index);
+                values.add(value);
+            }
+            return index;
+        }
+
+        private static void writeLong(ByteArrayOutputStream out, long value) {
+            while ((value & ~0x7FL) != 0) {
+                out.write((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            out.write((int) value);
+        }
+
+        private static void writeString(DataOutputStream out, String value) throws IOException {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            if (bytes.length > 0xFFFF) {
+                throw new IOException("Value too long for an archive segment");
+            }
+            out.writeShort(bytes.length);
+            out.write(bytes);
+        }
+    }
+}
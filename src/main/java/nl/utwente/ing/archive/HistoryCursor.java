@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2018, Joost Prins <github.com/joostprins>, Tom Leemreize <https://github.com/oplosthee>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package nl.utwente.ing.archive;
+
+import nl.utwente.ing.cache.Ledger;
+import nl.utwente.ing.model.Type;
+import org.joda.time.DateTimeZone;
+
+/**
+ * Replays the live transactions of a session in a {@link Ledger} merged with its archived transactions, in order of
+ * date and ID, up to a point in time. The caller has to hold the read lock of the ledger and the read lock of the
+ * archive of the session while using the cursor.
+ */
+public final class HistoryCursor {
+
+    private final Ledger ledger;
+    private final ArchiveSegment.Cursor archive;
+    private final long until;
+
+    private int index;
+    private boolean archived;
+    private int rows;
+
+    /**
+     * Whether the current transaction comes from the archive, whose cursor is only moved past it by the next call to
+     * {@link #next()}.
+     */
+    private boolean current;
+
+    private int id;
+    private long millis;
+    private DateTimeZone zone;
+    private long amount;
+    private Type type;
+
+    /**
+     * @param ledger the live transactions of the session
+     * @param segment the archived transactions of the session, or null if it has none
+     * @param until the time at which the replay stops, exclusive
+     */
+    public HistoryCursor(Ledger ledger, ArchiveSegment segment, long until) {
+        this.ledger = ledger;
+        this.archive = segment == null ? null : segment.cursor();
+        this.archived = archive != null && archive.next();
+        this.until = until;
+    }
+
+    /**
+     * Moves to the next transaction before the end of the replay.
+     *
+     * @return whether there is a next transaction
+     */
+    public boolean next() {
+        if (current) {
+            archived = archive.next();
+            current = false;
+        }
+        boolean live = index < ledger.size();
+        if (archived && (!live || archive.getMillis() < ledger.getMillis(index) ||
+                (archive.getMillis() == ledger.getMillis(index) && archive.getId() < ledger.getId(index)))) {
+            if (archive.getMillis() >= until) {
+                return false;
+            }
+            id = archive.getId();
+            millis = archive.getMillis();
+            zone = archive.getZone();
+            amount = archive.getAmount();
+            type = archive.getType();
+            current = true;
+        } else if (live) {
+            if (ledger.getMillis(index) >= until) {
+                return false;
+            }
+            id = ledger.getId(index);
+            millis = ledger.getMillis(index);
+            zone = ledger.getZone(index);
+            amount = ledger.getAmount(index);
+            type = ledger.getType(index);
+            index++;
+        } else {
+            return false;
+        }
+        rows++;
+        return true;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public long getMillis() {
+        return millis;
+    }
+
+    public DateTimeZone getZone() {
+        return zone;
+    }
+
+    public long getAmount() {
+        return amount;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * @return the archive cursor positioned at the current transaction, or null if it is a live transaction
+     */
+    public ArchiveSegment.Cursor getArchived() {
+        return current ? archive : null;
+    }
+
+    /**
+     * @return the number of transactions replayed so far
+     */
+    public int getRows() {
+        return rows;
+    }
+}
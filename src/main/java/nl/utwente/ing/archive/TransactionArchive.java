@@ -0,0 +1,602 @@
+/*
+ * Copyright (c) 2018, Joost Prins <github.com/joostprins>, Tom Leemreize <https://github.com/oplosthee>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package nl.utwente.ing.archive;
+
+import nl.utwente.ing.Settings;
+import nl.utwente.ing.cache.Ledger;
+import nl.utwente.ing.cache.LedgerCache;
+import nl.utwente.ing.cache.SessionVersions;
+import nl.utwente.ing.controller.BalanceCheckpoints;
+import nl.utwente.ing.controller.SpendingRollups;
+import nl.utwente.ing.controller.database.DBConnection;
+import nl.utwente.ing.controller.database.DBUtil;
+import nl.utwente.ing.metrics.Metrics;
+import nl.utwente.ing.model.Category;
+import nl.utwente.ing.model.Job;
+import nl.utwente.ing.model.ParsedDate;
+import nl.utwente.ing.model.Transaction;
+import nl.utwente.ing.model.Type;
+import org.apache.commons.dbutils.DbUtils;
+import org.joda.money.CurrencyUnit;
+import org.joda.money.Money;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
+
+/**
+ * Moves the transactions which are older than the horizon out of the transactions table into an {@link ArchiveSegment}
+ * per session, which the balance history, the saving goals and the payment requests read. The transaction repository
+ * merges the archive into the listing, the export and the reads by ID, so archiving does not change what the API
+ * returns. Their totals stay in the spending rollups, and are kept apart in the archived_spending_rollups table so that
+ * recalculating a day does not lose them.
+ *
+ * Segments are immutable, and the archived totals cannot take out a single transaction, so before an archived
+ * transaction is changed the whole archive of its session is restored into the transactions table by
+ * {@link #restore(String, Predicate)}. The next compaction archives it again. Sessions with unfinished jobs are not
+ * compacted, since the jobs change the transactions table by ID.
+ *
+ * A compaction merges the current segment of a session with its transactions older than the horizon into a segment of
+ * the next generation. The transactions are deleted and the new generation is recorded in the transaction_archives
+ * table in the same database transaction, so a compaction which is interrupted leaves the previous generation in
+ * place. Readers hold the read lock of the archive of a session while replaying its ledger and segment, so they never
+ * see a transaction in both or in neither.
+ */
+public class TransactionArchive {
+
+    public static TransactionArchive instance = new TransactionArchive(
+            Paths.get(Settings.getString("archive.directory", "archive")),
+            Settings.getInt("archive.horizon-days", 365),
+            Settings.getInt("archive.min-transactions", 1000));
+
+    static {
+        Metrics.instance.gauge("archive", "sessions", instance::getSize);
+    }
+
+    /**
+     * Whether transactions are moved to the archive. Archives which exist are read regardless of this setting.
+     */
+    private static final boolean ENABLED = Settings.getBoolean("archive.enabled", false);
+
+    /**
+     * The time between the end of a compaction of all sessions and the start of the next.
+     */
+    private static final long INTERVAL_MS = Settings.getLong("archive.interval-ms", 3600000);
+
+    /**
+     * The time to wait between the compactions of two sessions, so other writers are not stalled.
+     */
+    private static final long PAUSE_MS = Settings.getLong("archive.pause-ms", 10);
+
+    private static final int LOCK_STRIPES = 256;
+
+    /**
+     * The number of restored transactions which are sent to the database at once.
+     */
+    private static final int BATCH_SIZE = 1000;
+
+    private final Path directory;
+    private final int horizonDays;
+    private final int minTransactions;
+    private final ReadWriteLock[] locks = new ReadWriteLock[LOCK_STRIPES];
+    private final Lock[] compactionLocks = new Lock[LOCK_STRIPES];
+
+    /**
+     * The current generation of the archive of every session which has one.
+     */
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    public TransactionArchive(Path directory, int horizonDays, int minTransactions) {
+        this.directory = directory;
+        this.horizonDays = horizonDays;
+        this.minTransactions = minTransactions;
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new ReentrantReadWriteLock();
+            compactionLocks[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * Reads the current generations of the archives from every shard. Has to be called before any request is handled.
+     */
+    public void load() throws SQLException {
+        String query = "SELECT session_id, generation FROM transaction_archives;";
+        for (int shard = 0; shard < DBConnection.instance.getShardCount(); shard++) {
+            Connection connection = null;
+            PreparedStatement preparedStatement = null;
+            ResultSet resultSet = null;
+            try {
+                connection = DBConnection.instance.getReadConnection(shard);
+                preparedStatement = connection.prepareStatement(query);
+                resultSet = preparedStatement.executeQuery();
+                while (resultSet.next()) {
+                    entries.put(resultSet.getString(1), new Entry(resultSet.getLong(2), null));
+                }
+            } finally {
+                DBUtil.executeCommit(connection);
+                DbUtils.closeQuietly(connection, preparedStatement, resultSet);
+            }
+        }
+    }
+
+    /**
+     * Starts compacting the sessions periodically, if the archive is enabled.
+     */
+    public void start() {
+        if (!ENABLED) {
+            return;
+        }
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "archive-compaction");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(this::compact, INTERVAL_MS, INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return the lock which has to be held while the transactions of a session are replayed from its ledger and its
+     * archive. It must not be held while waiting for a writer.
+     */
+    public Lock readLock(String sessionID) {
+        return locks[getStripe(sessionID)].readLock();
+    }
+
+    /**
+     * @return the lock which is held while a session is compacted or its archive is restored. Writers which restore the
+     * archive before changing an archived transaction hold it until their change is committed, so the transaction is
+     * not archived again in between. It has to be taken before the writer of the session.
+     */
+    public Lock compactionLock(String sessionID) {
+        return compactionLocks[getStripe(sessionID)];
+    }
+
+    /**
+     * Returns the archived transactions of a session, mapping the segment into memory the first time.
+     *
+     * @return the archived transactions, or null if the session has none
+     */
+    public ArchiveSegment getSegment(String sessionID) throws IOException {
+        Entry entry = sessionID == null ? null : entries.get(sessionID);
+        if (entry == null) {
+            return null;
+        }
+        ArchiveSegment segment = entry.segment;
+        if (segment == null) {
+            // Concurrent readers may map the same segment twice, which is harmless.
+            segment = ArchiveSegment.open(getPath(sessionID, entry.generation));
+            entry.segment = segment;
+        }
+        return segment;
+    }
+
+    /**
+     * Loads the live transactions of a session into a ledger which is not cached, for readers which have to merge them
+     * with the archive while the ledger cache is disabled.
+     */
+    public Ledger loadLedger(String sessionID) throws SQLException {
+        Connection connection = null;
+        try {
+            connection = DBConnection.instance.getReadConnection(sessionID);
+            return LedgerCache.load(connection, sessionID);
+        } finally {
+            DBUtil.executeCommit(connection);
+            DbUtils.closeQuietly(connection);
+        }
+    }
+
+    /**
+     * Archives the transactions older than the horizon of every session with at least the minimum number of them, and
+     * then returns the space they used in each shard to the file system, if the shard uses incremental auto-vacuum.
+     */
+    public void compact() {
+        long horizon = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(horizonDays);
+        String query = "SELECT session_id FROM transactions WHERE date_millis < ? GROUP BY session_id HAVING " +
+                "COUNT(*) >= ?;";
+        for (int shard = 0; shard < DBConnection.instance.getShardCount(); shard++) {
+            List<String> sessions = new ArrayList<>();
+            Connection connection = null;
+            PreparedStatement preparedStatement = null;
+            ResultSet resultSet = null;
+            try {
+                connection = DBConnection.instance.getReadConnection(shard);
+                preparedStatement = connection.prepareStatement(query);
+                preparedStatement.setLong(1, horizon);
+                preparedStatement.setInt(2, Math.max(1, minTransactions));
+                resultSet = preparedStatement.executeQuery();
+                while (resultSet.next()) {
+                    sessions.add(resultSet.getString(1));
+                }
+            } catch (SQLException e) {
+                e.printStackTrace();
+                continue;
+            } finally {
+                DBUtil.executeCommit(connection);
+                DbUtils.closeQuietly(connection, preparedStatement, resultSet);
+            }
+
+            int archived = 0;
+            for (String sessionID : sessions) {
+                try {
+                    archived += compact(sessionID, horizon);
+                    Thread.sleep(PAUSE_MS);
+                } catch (SQLException | IOException e) {
+                    e.printStackTrace();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+            if (archived > 0) {
+                try {
+                    vacuum(shard);
+                } catch (SQLException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    /**
+     * Moves the transactions of a session which are older than the horizon to a new generation of its archive.
+     *
+     * @return the number of transactions which were archived
+     */
+    int compact(String sessionID, long horizon) throws SQLException, IOException {
+        Lock compactionLock = compactionLock(sessionID);
+        compactionLock.lock();
+        try {
+            return compactSession(sessionID, horizon);
+        } finally {
+            compactionLock.unlock();
+        }
+    }
+
+    private int compactSession(String sessionID, long horizon) throws SQLException, IOException {
+        String jobsQuery = "SELECT COUNT(*) FROM jobs WHERE session_id = ? AND status IN (?, ?);";
+        String selectQuery = "SELECT transaction_id, date, date_millis, date_offset, amount, external_iban, type, " +
+                "category_id, description FROM transactions WHERE session_id = ? AND date_millis < ? ORDER BY " +
+                "date_millis, transaction_id;";
+        String deleteQuery = "DELETE FROM transactions WHERE session_id = ? AND date_millis < ?;";
+        String archiveQuery = "INSERT OR REPLACE INTO transaction_archives (session_id, generation, transactions) " +
+                "VALUES (?, ?, ?);";
+
+        long start = System.nanoTime();
+        Entry current = entries.get(sessionID);
+        long generation = current == null ? 1 : current.generation + 1;
+        Path path = getPath(sessionID, generation);
+        Connection connection = null;
+        PreparedStatement jobsPreparedStatement = null;
+        PreparedStatement selectPreparedStatement = null;
+        PreparedStatement deletePreparedStatement = null;
+        PreparedStatement archivePreparedStatement = null;
+        ResultSet resultSet = null;
+        boolean committed = false;
+        try {
+            // The writer is held from reading the transactions until they are deleted, so they cannot change.
+            connection = DBConnection.instance.getConnection(sessionID);
+            jobsPreparedStatement = connection.prepareStatement(jobsQuery);
+            jobsPreparedStatement.setString(1, sessionID);
+            jobsPreparedStatement.setString(2, Job.QUEUED);
+            jobsPreparedStatement.setString(3, Job.RUNNING);
+            resultSet = jobsPreparedStatement.executeQuery();
+            if (resultSet.next() && resultSet.getInt(1) > 0) {
+                return 0;
+            }
+            DbUtils.closeQuietly(resultSet);
+
+            selectPreparedStatement = connection.prepareStatement(selectQuery);
+            selectPreparedStatement.setString(1, sessionID);
+            selectPreparedStatement.setLong(2, horizon);
+            resultSet = selectPreparedStatement.executeQuery();
+
+            ArchiveSegment.Writer writer = new ArchiveSegment.Writer();
+            ArchiveSegment.Cursor archived = current == null ? null : getSegment(sessionID).cursor();
+            boolean hasArchived = archived != null && archived.next();
+            Set<Integer> ids = new HashSet<>();
+            while (resultSet.next()) {
+                int id = resultSet.getInt("transaction_id");
+                ParsedDate date = DBUtil.getTransactionDate(resultSet);
+                while (hasArchived && (archived.getMillis() < date.getMillis() ||
+                        (archived.getMillis() == date.getMillis() && archived.getId() < id))) {
+                    add(writer, archived);
+                    hasArchived = archived.next();
+                }
+                writer.add(id, date.getMillis(), date.getZone(), resultSet.getLong("amount"),
+                        Type.valueOf(resultSet.getString("type")), resultSet.getInt("category_id"),
+                        resultSet.getString("external_iban"), resultSet.getString("date"),
+                        resultSet.getString("description"));
+                ids.add(id);
+            }
+            while (hasArchived) {
+                add(writer, archived);
+                hasArchived = archived.next();
+            }
+            if (ids.isEmpty()) {
+                return 0;
+            }
+
+            Files.createDirectories(path.getParent());
+            writer.write(path);
+            ArchiveSegment segment = ArchiveSegment.open(path);
+
+            // The spending rollups keep counting the archived transactions.
+            SpendingRollups.archive(connection, sessionID, horizon);
+            deletePreparedStatement = connection.prepareStatement(deleteQuery);
+            deletePreparedStatement.setString(1, sessionID);
+            deletePreparedStatement.setLong(2, horizon);
+            deletePreparedStatement.executeUpdate();
+
+            archivePreparedStatement = connection.prepareStatement(archiveQuery);
+            archivePreparedStatement.setString(1, sessionID);
+            archivePreparedStatement.setLong(2, generation);
+            archivePreparedStatement.setInt(3, writer.size());
+            archivePreparedStatement.executeUpdate();
+
+            BalanceCheckpoints.invalidateAll(connection, sessionID);
+
+            Lock lock = locks[getStripe(sessionID)].writeLock();
+            lock.lock();
+            try {
+                LedgerCache.instance.commit(connection, sessionID, ledger -> ledger.removeAll(ids));
+                entries.put(sessionID, new Entry(generation, segment));
+                committed = true;
+            } finally {
+                lock.unlock();
+            }
+            SessionVersions.instance.bump(sessionID);
+            Metrics.instance.increment("archive", "transactions", ids.size());
+            Metrics.instance.timer("archive", "compaction").record(System.nanoTime() - start);
+            return ids.size();
+        } finally {
+            if (!committed) {
+                DBUtil.executeRollback(connection);
+            }
+            DbUtils.closeQuietly(resultSet);
+            DbUtils.closeQuietly(jobsPreparedStatement);
+            DbUtils.closeQuietly(selectPreparedStatement);
+            DbUtils.closeQuietly(deletePreparedStatement);
+            DbUtils.closeQuietly(archivePreparedStatement);
+            DbUtils.closeQuietly(connection);
+            // Either the new generation or the previous one is no longer used. Readers which mapped it keep reading
+            // their mapping.
+            Files.deleteIfExists(committed ? getPath(sessionID, generation - 1) : path);
+        }
+    }
+
+    /**
+     * Moves all archived transactions of a session back into the transactions table, if any of them matches the
+     * condition. The caller has to hold the {@link #compactionLock(String)} of the session, and must not hold its
+     * writer or the read lock of its archive.
+     *
+     * @param condition the condition an archived transaction has to match, which is tested with the cursor positioned
+     *                  on it
+     * @return whether the archive was restored
+     */
+    public boolean restore(String sessionID, Predicate<ArchiveSegment.Cursor> condition) throws SQLException,
+            IOException {
+        Entry current = entries.get(sessionID);
+        if (current == null) {
+            return false;
+        }
+        ArchiveSegment segment = getSegment(sessionID);
+        ArchiveSegment.Cursor cursor = segment.cursor();
+        boolean matches = false;
+        while (!matches && cursor.next()) {
+            matches = condition.test(cursor);
+        }
+        if (!matches) {
+            return false;
+        }
+
+        String categoriesQuery = "SELECT category_id FROM categories WHERE session_id = ?;";
+        String insertQuery = "INSERT INTO transactions (transaction_id, date, date_millis, date_offset, amount, " +
+                "external_iban, category_id, type, description, session_id) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?);";
+        String rollupsQuery = "DELETE FROM archived_spending_rollups WHERE session_id = ?;";
+        String archiveQuery = "DELETE FROM transaction_archives WHERE session_id = ?;";
+
+        long start = System.nanoTime();
+        Connection connection = null;
+        PreparedStatement categoriesPreparedStatement = null;
+        PreparedStatement insertPreparedStatement = null;
+        PreparedStatement rollupsPreparedStatement = null;
+        PreparedStatement archivePreparedStatement = null;
+        ResultSet resultSet = null;
+        boolean committed = false;
+        try {
+            connection = DBConnection.instance.getConnection(sessionID);
+            // Archived transactions keep the ID of a category which has been deleted since.
+            Set<Integer> categories = new HashSet<>();
+            categoriesPreparedStatement = connection.prepareStatement(categoriesQuery);
+            categoriesPreparedStatement.setString(1, sessionID);
+            resultSet = categoriesPreparedStatement.executeQuery();
+            while (resultSet.next()) {
+                categories.add(resultSet.getInt(1));
+            }
+
+            List<Transaction> restored = new ArrayList<>();
+            insertPreparedStatement = connection.prepareStatement(insertQuery);
+            cursor = segment.cursor();
+            while (cursor.next()) {
+                ParsedDate date = cursor.getParsedDate();
+                Category category = categories.contains(cursor.getCategory()) ?
+                        new Category(cursor.getCategory(), null) : null;
+                Transaction transaction = new Transaction(cursor.getId(), cursor.getDate(), date,
+                        Money.ofMinor(CurrencyUnit.EUR, cursor.getAmount()), cursor.getExternalIBAN(),
+                        cursor.getType(), category, cursor.getDescription());
+
+                insertPreparedStatement.setInt(1, transaction.getId());
+                insertPreparedStatement.setString(2, transaction.getDate());
+                insertPreparedStatement.setLong(3, cursor.getMillis());
+                insertPreparedStatement.setObject(4, date.getOffset());
+                insertPreparedStatement.setLong(5, cursor.getAmount());
+                insertPreparedStatement.setString(6, transaction.getExternalIBAN());
+                insertPreparedStatement.setObject(7, category == null ? null : category.getId());
+                insertPreparedStatement.setString(8, transaction.getType().toString());
+                insertPreparedStatement.setString(9, transaction.getDescription());
+                insertPreparedStatement.setString(10, sessionID);
+                insertPreparedStatement.addBatch();
+                restored.add(transaction);
+                if (restored.size() % BATCH_SIZE == 0) {
+                    insertPreparedStatement.executeBatch();
+                }
+            }
+            insertPreparedStatement.executeBatch();
+
+            // The spending rollups already count the restored transactions, which are no longer archived.
+            rollupsPreparedStatement = connection.prepareStatement(rollupsQuery);
+            rollupsPreparedStatement.setString(1, sessionID);
+            rollupsPreparedStatement.executeUpdate();
+
+            archivePreparedStatement = connection.prepareStatement(archiveQuery);
+            archivePreparedStatement.setString(1, sessionID);
+            archivePreparedStatement.executeUpdate();
+
+            BalanceCheckpoints.invalidateAll(connection, sessionID);
+
+            Lock lock = locks[getStripe(sessionID)].writeLock();
+            lock.lock();
+            try {
+                LedgerCache.instance.commit(connection, sessionID, ledger -> ledger.addAll(restored));
+                entries.remove(sessionID);
+                committed = true;
+            } finally {
+                lock.unlock();
+            }
+            SessionVersions.instance.bump(sessionID);
+            Metrics.instance.increment("archive", "restored", restored.size());
+            Metrics.instance.timer("archive", "restore").record(System.nanoTime() - start);
+            return true;
+        } finally {
+            if (!committed) {
+                DBUtil.executeRollback(connection);
+            }
+            DbUtils.closeQuietly(resultSet);
+            DbUtils.closeQuietly(categoriesPreparedStatement);
+            DbUtils.closeQuietly(insertPreparedStatement);
+            DbUtils.closeQuietly(rollupsPreparedStatement);
+            DbUtils.closeQuietly(archivePreparedStatement);
+            DbUtils.closeQuietly(connection);
+            if (committed) {
+                Files.deleteIfExists(getPath(sessionID, current.generation));
+            }
+        }
+    }
+
+    /**
+     * Moves the free pages of a shard to the end of its file and truncates it. Does nothing unless the shard uses
+     * incremental auto-vacuum, see the database.pragma.auto-vacuum setting.
+     */
+    private static void vacuum(int shard) throws SQLException {
+        Connection connection = null;
+        PreparedStatement countPreparedStatement = null;
+        PreparedStatement vacuumPreparedStatement = null;
+        ResultSet resultSet = null;
+        try {
+            connection = DBConnection.instance.getConnection(shard);
+            countPreparedStatement = connection.prepareStatement("PRAGMA freelist_count;");
+            resultSet = countPreparedStatement.executeQuery();
+            int pages = resultSet.next() ? resultSet.getInt(1) : 0;
+            DbUtils.closeQuietly(resultSet);
+
+            // The driver executes a statement by a single step, and every step of incremental_vacuum frees one page.
+            // The statement is closed before the commit, which fails while it is still active.
+            vacuumPreparedStatement = connection.prepareStatement("PRAGMA incremental_vacuum(1);");
+            for (int i = 0; i < pages; i++) {
+                vacuumPreparedStatement.execute();
+            }
+            DbUtils.closeQuietly(vacuumPreparedStatement);
+            connection.commit();
+        } finally {
+            DbUtils.closeQuietly(resultSet);
+            DbUtils.closeQuietly(countPreparedStatement);
+            DbUtils.closeQuietly(vacuumPreparedStatement);
+            DbUtils.closeQuietly(connection);
+        }
+    }
+
+    private static void add(ArchiveSegment.Writer writer, ArchiveSegment.Cursor cursor) {
+        writer.add(cursor.getId(), cursor.getMillis(), cursor.getZone(), cursor.getAmount(), cursor.getType(),
+                cursor.getCategory(), cursor.getExternalIBAN(), cursor.getDate(), cursor.getDescription());
+    }
+
+    /**
+     * Returns the path of a generation of the archive of a session. Session IDs which are not safe to use as a file
+     * name are hex encoded.
+     */
+    private Path getPath(String sessionID, long generation) {
+        String name = sessionID;
+        if (!sessionID.matches("[A-Za-z0-9-]+")) {
+            StringBuilder builder = new StringBuilder("x");
+            for (byte b : sessionID.getBytes(StandardCharsets.UTF_8)) {
+                builder.append(String.format("%02x", b));
+            }
+            name = builder.toString();
+        }
+        return directory.resolve(name).resolve(generation + ".seg");
+    }
+
+    private static int getStripe(String sessionID) {
+        return Math.floorMod(sessionID == null ? 0 : sessionID.hashCode(), LOCK_STRIPES);
+    }
+
+    public int getSize() {
+        return entries.size();
+    }
+
+    private static class Entry {
+        private final long generation;
+
+        /**
+         * The mapped segment, or null if it has not been mapped yet.
+         */
+        private volatile ArchiveSegment segment;
+
+        Entry(long generation, ArchiveSegment segment) {
+            this.generation = generation;
+            this.segment = segment;
+        }
+    }
+}
@@ -0,0 +1,249 @@
+/*
+ * Copyright (c) 2018, Joost Prins <github.com/joostprins>, Tom Leemreize <https://github.com/oplosthee>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package nl.utwente.ing.cache;
+
+import nl.utwente.ing.Settings;
+import nl.utwente.ing.model.Category;
+import org.apache.commons.dbutils.DbUtils;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-memory index of the category rules of recently active sessions, used to categorize new transactions without
+ * scanning all rules of a session.
+ *
+ * The rules of a session are compiled into one hash table per combination of wildcard fields. A transaction is matched
+ * by probing each of these tables with its description, IBAN and type, which takes constant time regardless of the
+ * number of rules. When several rules match, the newest rule wins. The index of a session has to be invalidated
+ * whenever its rules or categories change.
+ */
+public class CategoryRuleIndex {
+
+    /**
+     * Selects the rules of a session from old to new. The creation times are only ever written by the default of the
+     * column, so they all have the same format and are ordered as stored, in the order of the category_rules_session
+     * index.
+     */
+    static final String RULES_QUERY = "SELECT category_rules.description, category_rules.iBAN, " +
+            "category_rules.type, category_rules.category_id, categories.name FROM category_rules LEFT JOIN " +
+            "categories ON categories.category_id = category_rules.category_id AND categories.session_id = " +
+            "category_rules.session_id WHERE category_rules.session_id = ? ORDER BY " +
+            "category_rules.creation_date_time, category_rules.category_rule_id;";
+
+    public static CategoryRuleIndex instance = new CategoryRuleIndex(
+            Settings.getInt("category-rules.index.max-sessions", 1000));
+
+    /**
+     * Bumped on every invalidation, so an index which was compiled while its rules changed is never cached.
+     */
+    private final AtomicLong version = new AtomicLong();
+
+    private final Map<String, CompiledRules> sessions;
+
+    public CategoryRuleIndex(final int maxSessions) {
+        this.sessions = Collections.synchronizedMap(new LinkedHashMap<String, CompiledRules>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CompiledRules> eldest) {
+                return size() > maxSessions;
+            }
+        });
+    }
+
+    /**
+     * Finds the category of the newest rule of the session which matches the given transaction attributes.
+     *
+     * @param connection the connection used to load the rules of the session if they are not indexed yet
+     * @param sessionID the session to which the transaction belongs
+     * @param description the description of the transaction
+     * @param iBAN the external IBAN of the transaction
+     * @param type the type of the transaction
+     * @return the category of the matching rule, or null if no rule matches
+     */
+    public Category match(Connection connection, String sessionID, String description, String iBAN, String type)
+            throws SQLException {
+        return getRules(connection, sessionID).match(description, iBAN, type);
+    }
+
+    /**
+     * Removes the index of a session, forcing it to be compiled again on the next match.
+     *
+     * @param sessionID the session of which the rules or categories changed
+     */
+    public void invalidate(String sessionID) {
+        version.incrementAndGet();
+        sessions.remove(sessionID);
+    }
+
+    private CompiledRules getRules(Connection connection, String sessionID) throws SQLException {
+        CompiledRules rules = sessions.get(sessionID);
+        if (rules != null) {
+            return rules;
+        }
+
+        long compiledVersion = version.get();
+        rules = compile(connection, sessionID);
+        synchronized (sessions) {
+            if (version.get() == compiledVersion) {
+                sessions.put(sessionID, rules);
+            }
+        }
+        return rules;
+    }
+
+    private static CompiledRules compile(Connection connection, String sessionID) throws SQLException {
+        PreparedStatement preparedStatement = null;
+        ResultSet resultSet = null;
+
+        try {
+            preparedStatement = connection.prepareStatement(RULES_QUERY);
+            preparedStatement.setString(1, sessionID);
+            resultSet = preparedStatement.executeQuery();
+
+            CompiledRules rules = new CompiledRules();
+            int rank = 0;
+            while (resultSet.next()) {
+                Category category = null;
+                if (resultSet.getString(5) != null) {
+                    category = new Category(resultSet.getInt(4), resultSet.getString(5));
+                }
+                rules.add(resultSet.getString(1), resultSet.getString(2), resultSet.getString(3),
+                        new Rule(rank++, category));
+            }
+            return rules;
+        } finally {
+            DbUtils.closeQuietly(resultSet);
+            DbUtils.closeQuietly(preparedStatement);
+        }
+    }
+
+    private static class Rule {
+        private final int rank;
+        private final Category category;
+
+        Rule(int rank, Category category) {
+            this.rank = rank;
+            this.category = category;
+        }
+    }
+
+    /**
+     * The rules of a single session. Rules are stored in one of eight tables depending on which of their fields are
+     * wildcards, keyed by their non-wildcard fields. Only the newest rule is kept for every key.
+     */
+    private static class CompiledRules {
+        private static final int DESCRIPTION = 1;
+        private static final int IBAN = 2;
+        private static final int TYPE = 4;
+
+        private final List<Map<RuleKey, Rule>> tables = new ArrayList<>(Collections.nCopies(8, null));
+
+        void add(String description, String iBAN, String type, Rule rule) {
+            int mask = 0;
+            if (!isWildcard(description)) {
+                mask |= DESCRIPTION;
+            }
+            if (!isWildcard(iBAN)) {
+                mask |= IBAN;
+            }
+            if (!isWildcard(type)) {
+                mask |= TYPE;
+            }
+            Map<RuleKey, Rule> table = tables.get(mask);
+            if (table == null) {
+                table = new HashMap<>();
+                tables.set(mask, table);
+            }
+            // Rules are added from old to new, so a later rule with the same key replaces the earlier one.
+            table.put(new RuleKey(mask, description, iBAN, type), rule);
+        }
+
+        Category match(String description, String iBAN, String type) {
+            Rule best = null;
+            for (int mask = 0; mask < tables.size(); mask++) {
+                Map<RuleKey, Rule> table = tables.get(mask);
+                if (table == null) {
+                    continue;
+                }
+                Rule rule = table.get(new RuleKey(mask, description, iBAN, type));
+                if (rule != null && (best == null || rule.rank > best.rank)) {
+                    best = rule;
+                }
+            }
+            return best == null ? null : best.category;
+        }
+
+        private static boolean isWildcard(String value) {
+            return value == null || value.isEmpty();
+        }
+    }
+
+    /**
+     * The non-wildcard fields of a rule, or the corresponding fields of a transaction.
+     */
+    private static class RuleKey {
+        private final String description;
+        private final String iBAN;
+        private final String type;
+
+        RuleKey(int mask, String description, String iBAN, String type) {
+            this.description = (mask & CompiledRules.DESCRIPTION) != 0 ? description : null;
+            this.iBAN = (mask & CompiledRules.IBAN) != 0 ? iBAN : null;
+            this.type = (mask & CompiledRules.TYPE) != 0 ? type : null;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof RuleKey)) {
+                return false;
+            }
+            RuleKey other = (RuleKey) o;
+            return equals(description, other.description) && equals(iBAN, other.iBAN) && equals(type, other.type);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = description == null ? 0 : description.hashCode();
+            result = 31 * result + (iBAN == null ? 0 : iBAN.hashCode());
+            return 31 * result + (type == null ? 0 : type.hashCode());
+        }
+
+        private static boolean equals(String a, String b) {
+            return a == null ? b == null : a.equals(b);
+        }
+    }
+}
@@ -0,0 +1,409 @@
+/*
+ * Copyright (c) 2018, Joost Prins <github.com/joostprins>, Tom Leemreize <https://github.com/oplosthee>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package nl.utwente.ing.cache;
+
+import nl.utwente.ing.model.ParsedDate;
+import nl.utwente.ing.model.Transaction;
+import nl.utwente.ing.model.Type;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * The transactions of a single session, stored column by column in primitive arrays and sorted by date and ID, the
+ * same order in which the analytics replay them from the database.
+ *
+ * Besides the time in milliseconds, every row stores the time zone its date was written in, as an index into a small
+ * table of the zones used by the session. Month starts are calculated in the time zone of a transaction, so the time
+ * alone is not enough to replay the saving goals. Readers have to hold the read lock while iterating; the changes lock
+ * the ledger themselves. Updates and deletes look up the row by ID with a linear scan, as they are rare compared to
+ * inserts.
+ */
+public class Ledger {
+
+    private static final Type[] TYPES = Type.values();
+
+    /**
+     * The number of bytes used by the columns of a single row.
+     */
+    private static final int ROW_BYTES = 8 + 8 + 4 + 4 + 2 + 1;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final List<DateTimeZone> zoneTable = new ArrayList<>();
+
+    private long[] millis;
+    private long[] amounts;
+    private int[] ids;
+    private int[] categories;
+    private short[] zones;
+    private byte[] types;
+    private int size;
+
+    /**
+     * The length of the columns, which may be read without holding the lock to estimate the memory used.
+     */
+    private volatile int capacity;
+
+    public Ledger() {
+        this(16);
+    }
+
+    public Ledger(int capacity) {
+        this.millis = new long[capacity];
+        this.amounts = new long[capacity];
+        this.ids = new int[capacity];
+        this.categories = new int[capacity];
+        this.zones = new short[capacity];
+        this.types = new byte[capacity];
+        this.capacity = capacity;
+    }
+
+    /**
+     * @return the lock which has to be held while reading the rows of the ledger
+     */
+    public Lock readLock() {
+        return lock.readLock();
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long getMillis(int index) {
+        return millis[index];
+    }
+
+    public DateTimeZone getZone(int index) {
+        return zoneTable.get(zones[index]);
+    }
+
+    public DateTime getTime(int index) {
+        return new DateTime(millis[index], getZone(index));
+    }
+
+    public long getAmount(int index) {
+        return amounts[index];
+    }
+
+    public Type getType(int index) {
+        return TYPES[types[index]];
+    }
+
+    public int getId(int index) {
+        return ids[index];
+    }
+
+    /**
+     * @return the ID of the category of the row, or 0 if it has no category
+     */
+    public int getCategory(int index) {
+        return categories[index];
+    }
+
+    /**
+     * Returns the index of the first row at or after the given time, or the size of the ledger if there is none.
+     */
+    public int indexOf(long time) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (millis[middle] < time) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return an estimate of the number of bytes used by the ledger
+     */
+    public long getBytes() {
+        return (long) capacity * ROW_BYTES;
+    }
+
+    /**
+     * Adds a transaction, which must have an ID.
+     *
+     * @throws IllegalArgumentException if the date of the transaction cannot be parsed
+     */
+    public void add(Transaction transaction) {
+        ParsedDate date = transaction.getParsedDate();
+        lock.writeLock().lock();
+        try {
+            add(transaction.getId(), date, transaction.getAmount().getAmountMinorLong(), transaction.getType(),
+                    getCategoryId(transaction));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Adds a number of transactions, which must have an ID. The transactions are sorted and merged into the ledger in
+     * a single pass.
+     *
+     * @throws IllegalArgumentException if the date of one of the transactions cannot be parsed
+     */
+    public void addAll(List<Transaction> transactions) {
+        int count = transactions.size();
+        ParsedDate[] dates = new ParsedDate[count];
+        Integer[] order = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            dates[i] = transactions.get(i).getParsedDate();
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.<Integer>comparingLong(i -> dates[i].getMillis())
+                .thenComparingInt(i -> transactions.get(i).getId()));
+
+        lock.writeLock().lock();
+        try {
+            ensureCapacity(size + count);
+            // Merges from the back, so every existing row is moved at most once.
+            int existing = size - 1;
+            int target = size + count - 1;
+            for (int next = count - 1; next >= 0; next--) {
+                Transaction transaction = transactions.get(order[next]);
+                long time = dates[order[next]].getMillis();
+                int id = transaction.getId();
+                while (existing >= 0 && compare(existing, time, id) > 0) {
+                    move(existing--, target--);
+                }
+                set(target--, id, dates[order[next]], transaction.getAmount().getAmountMinorLong(),
+                        transaction.getType(), getCategoryId(transaction));
+            }
+            size += count;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Replaces the date, amount and type of a transaction, keeping its category. Does nothing if the ledger does not
+     * contain the transaction.
+     *
+     * @throws IllegalArgumentException if the new date of the transaction cannot be parsed
+     */
+    public void update(Transaction transaction) {
+        ParsedDate date = transaction.getParsedDate();
+        lock.writeLock().lock();
+        try {
+            int index = find(transaction.getId());
+            if (index < 0) {
+                return;
+            }
+            int category = categories[index];
+            delete(index);
+            add(transaction.getId(), date, transaction.getAmount().getAmountMinorLong(), transaction.getType(),
+                    category);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes a transaction, if the ledger contains it.
+     */
+    public void remove(int id) {
+        lock.writeLock().lock();
+        try {
+            int index = find(id);
+            if (index >= 0) {
+                delete(index);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes a number of transactions in a single pass. Transactions which the ledger does not contain are ignored.
+     */
+    public void removeAll(Set<Integer> transactionIds) {
+        lock.writeLock().lock();
+        try {
+            int target = 0;
+            for (int i = 0; i < size; i++) {
+                if (!transactionIds.contains(ids[i])) {
+                    if (target != i) {
+                        move(i, target);
+                    }
+                    target++;
+                }
+            }
+            size = target;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Assigns a category to a transaction, if the ledger contains it.
+     */
+    public void setCategory(int id, int category) {
+        lock.writeLock().lock();
+        try {
+            int index = find(id);
+            if (index >= 0) {
+                categories[index] = category;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Assigns a category to a number of transactions in a single pass. Transactions which the ledger does not contain
+     * are ignored.
+     */
+    public void setCategory(Set<Integer> transactionIds, int category) {
+        lock.writeLock().lock();
+        try {
+            for (int i = 0; i < size; i++) {
+                if (transactionIds.contains(ids[i])) {
+                    categories[i] = category;
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes a deleted category from all transactions that had it.
+     */
+    public void clearCategory(int category) {
+        lock.writeLock().lock();
+        try {
+            for (int i = 0; i < size; i++) {
+                if (categories[i] == category) {
+                    categories[i] = 0;
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Adds a row at its position in the sort order. Rows are usually added in order, in which case they are appended.
+     * The caller has to hold the write lock, unless the ledger is not shared yet.
+     */
+    void add(int id, ParsedDate date, long amount, Type type, int category) {
+        ensureCapacity(size + 1);
+        int index = size;
+        while (index > 0 && compare(index - 1, date.getMillis(), id) > 0) {
+            index--;
+        }
+        if (index < size) {
+            shift(index, index + 1, size - index);
+        }
+        set(index, id, date, amount, type, category);
+        size++;
+    }
+
+    private void delete(int index) {
+        shift(index + 1, index, size - index - 1);
+        size--;
+    }
+
+    private int find(int id) {
+        for (int i = 0; i < size; i++) {
+            if (ids[i] == id) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int compare(int index, long time, int id) {
+        int compare = Long.compare(millis[index], time);
+        return compare != 0 ? compare : Integer.compare(ids[index], id);
+    }
+
+    private void set(int index, int id, ParsedDate date, long amount, Type type, int category) {
+        millis[index] = date.getMillis();
+        amounts[index] = amount;
+        ids[index] = id;
+        categories[index] = category;
+        zones[index] = getZoneIndex(date.getZone());
+        types[index] = (byte) type.ordinal();
+    }
+
+    private void move(int from, int to) {
+        millis[to] = millis[from];
+        amounts[to] = amounts[from];
+        ids[to] = ids[from];
+        categories[to] = categories[from];
+        zones[to] = zones[from];
+        types[to] = types[from];
+    }
+
+    private void shift(int from, int to, int length) {
+        System.arraycopy(millis, from, millis, to, length);
+        System.arraycopy(amounts, from, amounts, to, length);
+        System.arraycopy(ids, from, ids, to, length);
+        System.arraycopy(categories, from, categories, to, length);
+        System.arraycopy(zones, from, zones, to, length);
+        System.arraycopy(types, from, types, to, length);
+    }
+
+    private void ensureCapacity(int required) {
+        if (required <= millis.length) {
+            return;
+        }
+        int newCapacity = Math.max(required, millis.length + (millis.length >> 1));
+        millis = Arrays.copyOf(millis, newCapacity);
+        amounts = Arrays.copyOf(amounts, newCapacity);
+        ids = Arrays.copyOf(ids, newCapacity);
+        categories = Arrays.copyOf(categories, newCapacity);
+        zones = Arrays.copyOf(zones, newCapacity);
+        types = Arrays.copyOf(types, newCapacity);
+        capacity = newCapacity;
+    }
+
+    private short getZoneIndex(DateTimeZone zone) {
+        int index = zoneTable.indexOf(zone);
+        if (index < 0) {
+            index = zoneTable.size();
+            zoneTable.add(zone);
+        }
+        return (short) index;
+    }
+
+    private static int getCategoryId(Transaction transaction) {
+        return transaction.getCategory() == null || transaction.getCategory().getId() == null ? 0 :
+                transaction.getCategory().getId();
+    }
+}
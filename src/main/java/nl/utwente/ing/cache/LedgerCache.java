@@ -0,0 +1,309 @@
+/*
+ * Copyright (c) 2018, Joost Prins <github.com/joostprins>, Tom Leemreize <https://github.com/oplosthee>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package nl.utwente.ing.cache;
+
+import nl.utwente.ing.Settings;
+import nl.utwente.ing.metrics.Metrics;
+import nl.utwente.ing.model.ParsedDate;
+import nl.utwente.ing.model.Type;
+import org.apache.commons.dbutils.DbUtils;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Consumer;
+
+/**
+ * Keeps the {@link Ledger} of recently active sessions in memory, evicting the least recently used ledgers once their
+ * total size exceeds the memory budget.
+ *
+ * Changes to transactions are written through to a cached ledger while the writer still holds the database lock,
+ * right before the change is committed, so they are applied to the ledger in the same order as to the database. If
+ * the commit fails the ledger is dropped. Every change and every completed commit bumps the version of the session,
+ * so a ledger which was loaded while its session changed is never cached. Versions are kept per stripe of sessions,
+ * so writes to other sessions do not prevent a ledger from being cached.
+ */
+public class LedgerCache {
+
+    public static LedgerCache instance = new LedgerCache(
+            Settings.getBoolean("ledger.enabled", true),
+            Settings.getLong("ledger.cache.max-bytes", 64 * 1024 * 1024L));
+
+    static {
+        Metrics.instance.gauge("ledger", "hits", instance::getHits);
+        Metrics.instance.gauge("ledger", "misses", instance::getMisses);
+        Metrics.instance.gauge("ledger", "evictions", instance::getEvictions);
+        Metrics.instance.gauge("ledger", "sessions", instance::getSize);
+        Metrics.instance.gauge("ledger", "bytes", instance::getBytes);
+    }
+
+    private static final int VERSION_STRIPES = 1024;
+
+    private final AtomicLongArray versions = new AtomicLongArray(VERSION_STRIPES);
+
+    /**
+     * The cached ledgers in access order. Guarded by its own monitor, which also guards the total size.
+     */
+    private final LinkedHashMap<String, Entry> ledgers = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final boolean enabled;
+    private final long maxBytes;
+    private long bytes;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public LedgerCache(boolean enabled, long maxBytes) {
+        this.enabled = enabled;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @return whether the analytics should be calculated from the ledgers
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Returns the ledger of a session, loading it if it is not cached. The current transaction of the connection is
+     * committed before the ledger is loaded, so the ledger is read from a snapshot which contains every change made
+     * before its version was read.
+     *
+     * @param connection a read connection, used to load the ledger
+     * @param sessionID the session of which the ledger is returned
+     */
+    public Ledger get(Connection connection, String sessionID) throws SQLException {
+        synchronized (ledgers) {
+            Entry entry = ledgers.get(sessionID);
+            if (entry != null) {
+                hits.incrementAndGet();
+                return entry.ledger;
+            }
+        }
+        misses.incrementAndGet();
+
+        int stripe = getStripe(sessionID);
+        long loadedVersion = versions.get(stripe);
+        connection.commit();
+        Ledger ledger = load(connection, sessionID);
+        synchronized (ledgers) {
+            if (versions.get(stripe) == loadedVersion && !ledgers.containsKey(sessionID) &&
+                    ledger.getBytes() <= maxBytes) {
+                Entry entry = new Entry(ledger);
+                ledgers.put(sessionID, entry);
+                bytes += entry.bytes;
+                evict();
+            }
+        }
+        return ledger;
+    }
+
+    /**
+     * Applies a change to the ledger of a session and commits the connection which makes the same change in the
+     * database. Should be called while the change is not committed yet, in place of {@link Connection#commit()}.
+     *
+     * @param connection the writer on which the change was made
+     * @param sessionID the session which was changed
+     * @param change the change to apply to the ledger, if it is cached
+     */
+    public void commit(Connection connection, String sessionID, Consumer<Ledger> change) throws SQLException {
+        apply(sessionID, change);
+        boolean committed = false;
+        try {
+            connection.commit();
+            committed = true;
+        } finally {
+            completed(sessionID, committed);
+        }
+    }
+
+    /**
+     * Applies a change to the ledger of a session, if it is cached. Should be called on the writer before the change
+     * is committed, and followed by {@link #completed(String, boolean)} once the commit is done.
+     *
+     * @param sessionID the session which is changed
+     * @param change the change to apply to the ledger
+     */
+    public void apply(String sessionID, Consumer<Ledger> change) {
+        if (!enabled) {
+            return;
+        }
+        Entry entry;
+        synchronized (ledgers) {
+            versions.incrementAndGet(getStripe(sessionID));
+            entry = ledgers.get(sessionID);
+        }
+        if (entry == null) {
+            return;
+        }
+
+        try {
+            change.accept(entry.ledger);
+        } catch (RuntimeException e) {
+            // The change cannot be represented in the ledger, for example because of a date which cannot be parsed.
+            invalidate(sessionID);
+            return;
+        }
+        synchronized (ledgers) {
+            if (ledgers.get(sessionID) == entry) {
+                long entryBytes = entry.ledger.getBytes();
+                bytes += entryBytes - entry.bytes;
+                entry.bytes = entryBytes;
+                evict();
+            }
+        }
+    }
+
+    /**
+     * Marks the end of the commit of a change applied with {@link #apply(String, Consumer)}.
+     *
+     * @param sessionID the session which was changed
+     * @param committed whether the change was committed; if not, the ledger of the session is dropped
+     */
+    public void completed(String sessionID, boolean committed) {
+        if (!enabled) {
+            return;
+        }
+        if (committed) {
+            versions.incrementAndGet(getStripe(sessionID));
+        } else {
+            invalidate(sessionID);
+        }
+    }
+
+    /**
+     * Drops the ledger of a session, forcing it to be loaded again. Used for changes which are not written through,
+     * and should be called after these are committed.
+     *
+     * @param sessionID the session of which the transactions changed
+     */
+    public void invalidate(String sessionID) {
+        if (!enabled) {
+            return;
+        }
+        synchronized (ledgers) {
+            versions.incrementAndGet(getStripe(sessionID));
+            Entry entry = ledgers.remove(sessionID);
+            if (entry != null) {
+                bytes -= entry.bytes;
+            }
+        }
+    }
+
+    /**
+     * Removes the least recently used ledgers until the total size is within the budget. The caller has to hold the
+     * monitor of the ledgers.
+     */
+    private void evict() {
+        Iterator<Entry> iterator = ledgers.values().iterator();
+        while (bytes > maxBytes && iterator.hasNext()) {
+            bytes -= iterator.next().bytes;
+            iterator.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    /**
+     * Loads the ledger of a session from the database, without caching it.
+     *
+     * @param connection the connection to the shard of the session
+     * @param sessionID the session of which the ledger is loaded
+     */
+    public static Ledger load(Connection connection, String sessionID) throws SQLException {
+        String query = "SELECT transaction_id, date, date_millis, date_offset, amount, type, category_id FROM " +
+                "transactions WHERE session_id = ? ORDER BY date_millis, transaction_id;";
+        PreparedStatement preparedStatement = null;
+        ResultSet resultSet = null;
+        try {
+            preparedStatement = connection.prepareStatement(query);
+            preparedStatement.setString(1, sessionID);
+            resultSet = preparedStatement.executeQuery();
+
+            Ledger ledger = new Ledger();
+            while (resultSet.next()) {
+                int offset = resultSet.getInt(4);
+                ParsedDate date = ParsedDate.of(resultSet.getLong(3), resultSet.wasNull() ? null : offset,
+                        resultSet.getString(2));
+                ledger.add(resultSet.getInt(1), date, resultSet.getLong(5), Type.valueOf(resultSet.getString(6)),
+                        resultSet.getInt(7));
+            }
+            Metrics.instance.increment("rows", "ledger", ledger.size());
+            return ledger;
+        } finally {
+            DbUtils.closeQuietly(resultSet);
+            DbUtils.closeQuietly(preparedStatement);
+        }
+    }
+
+    private static int getStripe(String sessionID) {
+        return Math.floorMod(sessionID == null ? 0 : sessionID.hashCode(), VERSION_STRIPES);
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public int getSize() {
+        synchronized (ledgers) {
+            return ledgers.size();
+        }
+    }
+
+    public long getBytes() {
+        synchronized (ledgers) {
+            return bytes;
+        }
+    }
+
+    private static class Entry {
+        private final Ledger ledger;
+
+        /**
+         * The size of the ledger as it is counted in the total size of the cache.
+         */
+        private long bytes;
+
+        Entry(Ledger ledger) {
+            this.ledger = ledger;
+            this.bytes = ledger.getBytes();
+        }
+    }
+}
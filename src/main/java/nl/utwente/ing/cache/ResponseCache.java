@@ -0,0 +1,246 @@
+/*
+ * Copyright (c) 2018, Joost Prins <github.com/joostprins>, Tom Leemreize <https://github.com/oplosthee>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package nl.utwente.ing.cache;
+
+import nl.utwente.ing.Settings;
+import nl.utwente.ing.metrics.Metrics;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the serialized responses of the expensive reads of recently active sessions in memory, evicting the least
+ * recently used sessions once the total size of their responses exceeds the memory budget.
+ *
+ * Responses are tagged with the {@link SessionVersions version} of their session which was read before the response
+ * was calculated, and are only returned while the session still has that version. A write therefore invalidates every
+ * response of its session, including responses which were calculated while the write was in progress.
+ */
+public class ResponseCache {
+
+    public static ResponseCache instance = new ResponseCache(
+            Settings.getBoolean("response.cache.enabled", true),
+            Settings.getLong("response.cache.max-bytes", 16 * 1024 * 1024L));
+
+    static {
+        Metrics.instance.gauge("response-cache", "hits", instance::getHits);
+        Metrics.instance.gauge("response-cache", "misses", instance::getMisses);
+        Metrics.instance.gauge("response-cache", "hit-ratio", instance::getHitRatio);
+        Metrics.instance.gauge("response-cache", "evictions", instance::getEvictions);
+        Metrics.instance.gauge("response-cache", "sessions", instance::getSize);
+        Metrics.instance.gauge("response-cache", "bytes", instance::getBytes);
+    }
+
+    /**
+     * The estimated memory used by a cached response besides its characters.
+     */
+    private static final int ENTRY_OVERHEAD = 128;
+
+    /**
+     * The cached responses per session, in access order. Guarded by its own monitor, which also guards the total
+     * size.
+     */
+    private final LinkedHashMap<String, SessionEntries> sessions = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final boolean enabled;
+    private final long maxBytes;
+    private long bytes;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public ResponseCache(boolean enabled, long maxBytes) {
+        this.enabled = enabled;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Returns a cached response of a session.
+     *
+     * @param sessionID the session of which the response is returned
+     * @param version the current version of the session, read before any data of the session
+     * @param key the endpoint and parameters of the response
+     * @return the cached response, or null if it is not cached, expired or calculated for another version
+     */
+    public String get(String sessionID, long version, String key) {
+        if (!enabled) {
+            return null;
+        }
+        synchronized (sessions) {
+            SessionEntries session = sessions.get(sessionID);
+            if (session != null && session.version != version) {
+                // Versions only grow, so the responses of an older version will never be returned again.
+                if (session.version < version) {
+                    remove(sessionID);
+                }
+                session = null;
+            }
+            Entry entry = session == null ? null : session.entries.get(key);
+            if (entry != null && entry.expires > System.currentTimeMillis()) {
+                hits.incrementAndGet();
+                return entry.body;
+            }
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Caches a response of a session.
+     *
+     * @param sessionID the session of which the response is cached
+     * @param version the version of the session which was read before the response was calculated
+     * @param key the endpoint and parameters of the response
+     * @param body the serialized response
+     * @param maxAgeMillis the time for which the response may be returned, or 0 if it only depends on the data of the
+     *                     session
+     */
+    public void put(String sessionID, long version, String key, String body, long maxAgeMillis) {
+        if (!enabled || body == null) {
+            return;
+        }
+        long entryBytes = ENTRY_OVERHEAD + 2L * (key.length() + body.length());
+        if (entryBytes > maxBytes) {
+            return;
+        }
+        long expires = maxAgeMillis > 0 ? System.currentTimeMillis() + maxAgeMillis : Long.MAX_VALUE;
+        synchronized (sessions) {
+            if (version != SessionVersions.instance.get(sessionID)) {
+                return;
+            }
+            SessionEntries session = sessions.get(sessionID);
+            if (session == null || session.version != version) {
+                remove(sessionID);
+                session = new SessionEntries(version);
+                sessions.put(sessionID, session);
+            }
+            Entry previous = session.entries.put(key, new Entry(body, expires, entryBytes));
+            long change = entryBytes - (previous == null ? 0 : previous.bytes);
+            session.bytes += change;
+            bytes += change;
+            evict();
+        }
+    }
+
+    /**
+     * Drops the cached responses of a session. Only frees their memory early, as a write also changes the version of
+     * the session.
+     *
+     * @param sessionID the session of which the data changed
+     */
+    public void invalidate(String sessionID) {
+        if (!enabled) {
+            return;
+        }
+        synchronized (sessions) {
+            remove(sessionID);
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return the fraction of the lookups which returned a cached response
+     */
+    public double getHitRatio() {
+        long hits = this.hits.get();
+        long lookups = hits + misses.get();
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public int getSize() {
+        synchronized (sessions) {
+            return sessions.size();
+        }
+    }
+
+    public long getBytes() {
+        synchronized (sessions) {
+            return bytes;
+        }
+    }
+
+    /**
+     * Removes the responses of a session. The caller has to hold the monitor of the sessions.
+     */
+    private void remove(String sessionID) {
+        SessionEntries session = sessions.remove(sessionID);
+        if (session != null) {
+            bytes -= session.bytes;
+        }
+    }
+
+    /**
+     * Removes the responses of the least recently used sessions until the total size is within the budget. The caller
+     * has to hold the monitor of the sessions.
+     */
+    private void evict() {
+        Iterator<SessionEntries> iterator = sessions.values().iterator();
+        while (bytes > maxBytes && iterator.hasNext()) {
+            bytes -= iterator.next().bytes;
+            iterator.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    /**
+     * The cached responses of a session, which were all calculated for the same version.
+     */
+    private static class SessionEntries {
+        private final long version;
+        private final Map<String, Entry> entries = new HashMap<>();
+        private long bytes;
+
+        private SessionEntries(long version) {
+            this.version = version;
+        }
+    }
+
+    private static class Entry {
+        private final String body;
+        private final long expires;
+        private final long bytes;
+
+        private Entry(String body, long expires, long bytes) {
+            this.body = body;
+            this.expires = expires;
+            this.bytes = bytes;
+        }
+    }
+}
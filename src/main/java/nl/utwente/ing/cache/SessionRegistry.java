@@ -0,0 +1,202 @@
+/*
+ * Copyright (c) 2018, Joost Prins <github.com/joostprins>, Tom Leemreize <https://github.com/oplosthee>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package nl.utwente.ing.cache;
+
+import nl.utwente.ing.Settings;
+import nl.utwente.ing.metrics.Metrics;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-memory registry of known session IDs, used to authenticate requests without a round trip to the database.
+ * Sessions are registered when they are created and when they are confirmed by the database, and are kept for a
+ * limited time. Session IDs which do not exist are remembered for a short while as well, so repeated requests with an
+ * invalid ID do not hit the database either.
+ */
+public class SessionRegistry {
+
+    public static SessionRegistry instance = new SessionRegistry(
+            Settings.getInt("session.registry.max-size", 100000),
+            Settings.getLong("session.registry.ttl-ms", 30 * 60 * 1000L),
+            Settings.getLong("session.registry.negative-ttl-ms", 5 * 1000L));
+
+    static {
+        Metrics.instance.gauge("sessions", "hits", instance::getHits);
+        Metrics.instance.gauge("sessions", "negative-hits", instance::getNegativeHits);
+        Metrics.instance.gauge("sessions", "misses", instance::getMisses);
+        Metrics.instance.gauge("sessions", "evictions", instance::getEvictions);
+        Metrics.instance.gauge("sessions", "size", instance::getSize);
+    }
+
+    /**
+     * Known sessions, mapped to the time in milliseconds at which the entry expires.
+     */
+    private final Map<String, Long> sessions = new ConcurrentHashMap<>();
+
+    /**
+     * Unknown session IDs, mapped to the time in milliseconds at which the entry expires.
+     */
+    private final Map<String, Long> unknownSessions = new ConcurrentHashMap<>();
+
+    private final int maxSize;
+    private final long ttl;
+    private final long negativeTtl;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong negativeHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public SessionRegistry(int maxSize, long ttl, long negativeTtl) {
+        this.maxSize = maxSize;
+        this.ttl = ttl;
+        this.negativeTtl = negativeTtl;
+    }
+
+    /**
+     * Looks up the given session ID in the registry.
+     *
+     * @param sessionID the session ID to look up
+     * @return TRUE if the session is known to exist, FALSE if it is known not to exist and null if the database has to
+     * be consulted
+     */
+    public Boolean lookup(String sessionID) {
+        long now = System.currentTimeMillis();
+
+        Long expiry = sessions.get(sessionID);
+        if (expiry != null) {
+            if (expiry > now) {
+                hits.incrementAndGet();
+                return Boolean.TRUE;
+            }
+            sessions.remove(sessionID, expiry);
+        }
+
+        expiry = unknownSessions.get(sessionID);
+        if (expiry != null) {
+            if (expiry > now) {
+                negativeHits.incrementAndGet();
+                return Boolean.FALSE;
+            }
+            unknownSessions.remove(sessionID, expiry);
+        }
+
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Registers a session which is known to exist in the database.
+     *
+     * @param sessionID the ID of the existing session
+     */
+    public void register(String sessionID) {
+        unknownSessions.remove(sessionID);
+        sessions.put(sessionID, System.currentTimeMillis() + ttl);
+        if (sessions.size() > maxSize) {
+            evict(sessions, ttl);
+        }
+    }
+
+    /**
+     * Registers a session ID which is known not to exist in the database.
+     *
+     * @param sessionID the ID which does not belong to any session
+     */
+    public void registerUnknown(String sessionID) {
+        unknownSessions.put(sessionID, System.currentTimeMillis() + negativeTtl);
+        if (unknownSessions.size() > maxSize) {
+            evict(unknownSessions, negativeTtl);
+        }
+    }
+
+    /**
+     * Removes a session from the registry, forcing the next lookup to consult the database.
+     *
+     * @param sessionID the ID of the session to forget
+     */
+    public void invalidate(String sessionID) {
+        sessions.remove(sessionID);
+        unknownSessions.remove(sessionID);
+    }
+
+    public void clear() {
+        sessions.clear();
+        unknownSessions.clear();
+    }
+
+    /**
+     * Brings the given map back under its size bound by first removing all expired entries and then, if that was not
+     * enough, the entries which expire first.
+     */
+    private void evict(Map<String, Long> entries, long entryTtl) {
+        long now = System.currentTimeMillis();
+        long oldestAllowed = Long.MIN_VALUE;
+        int excess = entries.size() - maxSize;
+
+        // Entries are inserted with a constant TTL, so the entries expiring first are the least recently confirmed ones.
+        // Removing everything up to a quarter of the TTL past the oldest entry keeps evictions amortized.
+        if (excess > 0) {
+            long minimum = Long.MAX_VALUE;
+            for (Long expiry : entries.values()) {
+                minimum = Math.min(minimum, expiry);
+            }
+            oldestAllowed = minimum + Math.max(1, entryTtl / 4);
+        }
+
+        Iterator<Map.Entry<String, Long>> iterator = entries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            long expiry = iterator.next().getValue();
+            if (expiry <= now || (excess > 0 && expiry < oldestAllowed)) {
+                iterator.remove();
+                evictions.incrementAndGet();
+                excess--;
+            }
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getNegativeHits() {
+        return negativeHits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public int getSize() {
+        return sessions.size();
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2018, Joost Prins <github.com/joostprins>, Tom Leemreize <https://github.com/oplosthee>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package nl.utwente.ing.cache;
+
+import nl.utwente.ing.Settings;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts the changes made to the data of each session, so clients which poll the API can be told that nothing changed
+ * since their last request without reading the database.
+ *
+ * Versions are kept per stripe of sessions, so a change to one session also changes the version of the other sessions
+ * in its stripe. This only costs those sessions a full response, while the memory used does not grow with the number
+ * of sessions. Versions start over when the application restarts, so they are combined with the time at which it
+ * started to tell them apart from the versions of a previous run.
+ */
+public class SessionVersions {
+
+    public static SessionVersions instance = new SessionVersions(
+            Settings.getInt("session.versions.stripes", 4096));
+
+    private final long epoch = System.currentTimeMillis();
+    private final AtomicLongArray versions;
+
+    public SessionVersions(int stripes) {
+        this.versions = new AtomicLongArray(Math.max(1, stripes));
+    }
+
+    /**
+     * @return the time at which the versions started counting
+     */
+    public long getEpoch() {
+        return epoch;
+    }
+
+    /**
+     * @param sessionID the session of which the version is returned
+     * @return the current version of the data of the session
+     */
+    public long get(String sessionID) {
+        return versions.get(getStripe(sessionID));
+    }
+
+    /**
+     * Marks the data of a session as changed.
+     *
+     * @param sessionID the session which was changed
+     */
+    public void bump(String sessionID) {
+        versions.incrementAndGet(getStripe(sessionID));
+    }
+
+    private int getStripe(String sessionID) {
+        return (sessionID.hashCode() & Integer.MAX_VALUE) % versions.length();
+    }
+}
@@ -0,0 +1,401 @@
+/*
+ * Copyright (c) 2018, Joost Prins <github.com/joostprins>, Tom Leemreize <https://github.com/oplosthee>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package nl.utwente.ing.controller;
+
+import nl.utwente.ing.metrics.Metrics;
+import nl.utwente.ing.model.BalanceHistory;
+import nl.utwente.ing.model.SavingGoal;
+import nl.utwente.ing.model.Type;
+import org.apache.commons.dbutils.DbUtils;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Calculates balance histories from aggregates computed by SQLite, so that only a few rows per interval are read
+ * instead of every transaction of the session.
+ *
+ * The database sums the deposits and the withdrawals of every interval, split by the month of the transactions. The
+ * balance at every boundary follows from these sums. The open, high, low and close of a group follow from them as
+ * well if the group only contains transactions of a single type with non-negative amounts, because the balance then
+ * only moves in one direction. Only the transactions of the other groups are replayed one by one.
+ *
+ * The saving goals are paid at the first transaction after the start of a month, which is always the first
+ * transaction of one of these groups, so the payments are simulated in Java from the aggregates of the groups before
+ * it. Month starts are calculated in the time zone of every transaction, while the database can only split the
+ * transactions by month in a single time zone. Sessions with saving goals whose transactions do not all have the same
+ * fixed offset are therefore not aggregated, which is reported as an empty result.
+ */
+public class BalanceAggregation {
+
+    /**
+     * The month of a transaction in the time zone of its date, as yyyy-MM.
+     */
+    private static final String MONTH = "strftime('%Y-%m', (date_millis + date_offset) / 1000.0, 'unixepoch')";
+
+    /**
+     * Selects the transactions of a session between the first and the last transaction of a group, inclusive, in the
+     * order in which they are replayed.
+     */
+    static final String GROUP_QUERY = "SELECT amount, type FROM transactions WHERE session_id = ? AND date_millis >= ? " +
+            "AND date_millis <= ? ORDER BY date_millis, transaction_id;";
+
+    private BalanceAggregation() {
+    }
+
+    /**
+     * Calculates the balance history of a session for the intervals between the given points in time.
+     *
+     * @param connection the connection to use
+     * @param sessionID the session to calculate the balance history for
+     * @param timeIntervals the boundaries of the intervals in ascending order
+     * @return the balance history of every interval, timestamped with the start of the interval, or an empty result if
+     * the session has saving goals and its transactions do not all have the same fixed offset, in which case the
+     * balance history has to be calculated by a replay
+     */
+    public static Optional<List<BalanceHistory>> getBalanceHistories(Connection connection, String sessionID,
+                                                                     List<DateTime> timeIntervals)
+            throws SQLException {
+        List<SavingGoal> savingGoals = BalanceCheckpoints.getSavingGoals(connection, sessionID);
+        DateTimeZone zone = DateTimeZone.UTC;
+        if (!savingGoals.isEmpty()) {
+            zone = getZone(connection, sessionID);
+            if (zone == null) {
+                return Optional.empty();
+            }
+        }
+
+        long[] boundaries = new long[timeIntervals.size()];
+        for (int i = 0; i < boundaries.length; i++) {
+            boundaries[i] = timeIntervals.get(i).getMillis();
+        }
+
+        // Only the payments of the saving goals require the transactions to be split by month.
+        String month = savingGoals.isEmpty() ? "''" : MONTH;
+        List<Totals> groups = isUniform(boundaries) ? aggregateBuckets(connection, sessionID, boundaries, month) :
+                aggregateIntervals(connection, sessionID, boundaries, month);
+
+        SavingGoalSimulation simulation = new SavingGoalSimulation(savingGoals, 0);
+        int index = 0;
+        // Before the first interval, a transaction is applied before the months started since the previous one.
+        while (index < groups.size() && groups.get(index).interval == 0) {
+            applyBefore(connection, sessionID, groups.get(index++), simulation, zone);
+        }
+
+        List<BalanceHistory> balanceHistories = new ArrayList<>();
+        for (int i = 1; i < boundaries.length; i++) {
+            BalanceCheckpoints.Statistics statistics = new BalanceCheckpoints.Statistics();
+            long start = simulation.getBalance();
+            while (index < groups.size() && groups.get(index).interval == i) {
+                Totals totals = groups.get(index++);
+                // Within the intervals the months are paid first.
+                simulation.advanceTo(totals.first, zone);
+                long balance = simulation.getBalance();
+                if (totals.isMonotonic()) {
+                    statistics.add(balance, Type.deposit, totals.depositTotal, balance + totals.depositTotal,
+                            totals.deposits);
+                    statistics.add(balance, Type.withdrawal, totals.withdrawalTotal, balance -
+                            totals.withdrawalTotal, totals.withdrawals);
+                } else {
+                    replayGroup(connection, sessionID, totals.first, totals.last, balance, statistics);
+                }
+                applyChange(simulation, totals.last, zone, totals.getChange());
+            }
+            balanceHistories.add(statistics.toBalanceHistory(start, simulation.getBalance(), timeIntervals.get(i - 1)));
+        }
+        return Optional.of(balanceHistories);
+    }
+
+    /**
+     * Returns the time zone shared by all transactions of a session, or null if the offset of a transaction is unknown
+     * or differs from that of another transaction.
+     */
+    private static DateTimeZone getZone(Connection connection, String sessionID) throws SQLException {
+        String query = "SELECT COUNT(*) - COUNT(date_offset) AS unknown, MIN(date_offset) AS minimum, " +
+                "MAX(date_offset) AS maximum FROM transactions WHERE session_id = ?;";
+        PreparedStatement preparedStatement = null;
+        ResultSet resultSet = null;
+        try {
+            preparedStatement = connection.prepareStatement(query);
+            preparedStatement.setString(1, sessionID);
+            resultSet = preparedStatement.executeQuery();
+            if (!resultSet.next() || resultSet.getLong("unknown") > 0) {
+                return null;
+            }
+            int minimum = resultSet.getInt("minimum");
+            if (resultSet.wasNull()) {
+                // The session has no transactions.
+                return DateTimeZone.UTC;
+            }
+            return minimum == resultSet.getInt("maximum") ? DateTimeZone.forOffsetMillis(minimum) : null;
+        } finally {
+            DbUtils.closeQuietly(resultSet);
+            DbUtils.closeQuietly(preparedStatement);
+        }
+    }
+
+    /**
+     * Checks whether all intervals have the same length, in which case the interval of a transaction can be calculated
+     * from its time alone.
+     */
+    private static boolean isUniform(long[] boundaries) {
+        if (boundaries.length < 2) {
+            return false;
+        }
+        long length = boundaries[1] - boundaries[0];
+        for (int i = 2; i < boundaries.length; i++) {
+            if (boundaries[i] - boundaries[i - 1] != length) {
+                return false;
+            }
+        }
+        return length > 0;
+    }
+
+    /**
+     * Aggregates the transactions of intervals of equal length with a single query, grouping them by the index of the
+     * interval they fall in and by month. Transactions before the first boundary are grouped under index -1.
+     *
+     * @param month the expression by which the transactions of an interval are grouped
+     * @return the groups in chronological order
+     */
+    private static List<Totals> aggregateBuckets(Connection connection, String sessionID, long[] boundaries,
+                                                 String month) throws SQLException {
+        String query = "SELECT CASE WHEN date_millis < ? THEN -1 ELSE (date_millis - ?) / ? END AS bucket, " + month +
+                " AS month, type, COUNT(*) AS transactions, SUM(amount) AS total, MIN(amount) AS minimum, " +
+                "MIN(date_millis) AS first, MAX(date_millis) AS last FROM transactions WHERE session_id = ? AND " +
+                "date_millis < ? GROUP BY bucket, month, type ORDER BY bucket, month;";
+        PreparedStatement preparedStatement = null;
+        ResultSet resultSet = null;
+        try {
+            preparedStatement = connection.prepareStatement(query);
+            preparedStatement.setLong(1, boundaries[0]);
+            preparedStatement.setLong(2, boundaries[0]);
+            preparedStatement.setLong(3, boundaries[1] - boundaries[0]);
+            preparedStatement.setString(4, sessionID);
+            preparedStatement.setLong(5, boundaries[boundaries.length - 1]);
+            resultSet = preparedStatement.executeQuery();
+
+            List<Totals> groups = new ArrayList<>();
+            readGroups(resultSet, -1, groups);
+            return groups;
+        } finally {
+            DbUtils.closeQuietly(resultSet);
+            DbUtils.closeQuietly(preparedStatement);
+        }
+    }
+
+    /**
+     * Aggregates the transactions of intervals of different lengths, such as months, with a query per interval.
+     *
+     * @param month the expression by which the transactions of an interval are grouped
+     * @return the groups in chronological order
+     */
+    private static List<Totals> aggregateIntervals(Connection connection, String sessionID, long[] boundaries,
+                                                   String month) throws SQLException {
+        String query = "SELECT " + month + " AS month, type, COUNT(*) AS transactions, SUM(amount) AS total, " +
+                "MIN(amount) AS minimum, MIN(date_millis) AS first, MAX(date_millis) AS last FROM transactions " +
+                "WHERE session_id = ? AND date_millis >= ? AND date_millis < ? GROUP BY month, type ORDER BY month;";
+        PreparedStatement preparedStatement = null;
+        try {
+            preparedStatement = connection.prepareStatement(query);
+            preparedStatement.setString(1, sessionID);
+            List<Totals> groups = new ArrayList<>();
+            for (int i = 0; i < boundaries.length; i++) {
+                preparedStatement.setLong(2, i == 0 ? Long.MIN_VALUE : boundaries[i - 1]);
+                preparedStatement.setLong(3, boundaries[i]);
+                ResultSet resultSet = preparedStatement.executeQuery();
+                try {
+                    readGroups(resultSet, i, groups);
+                } finally {
+                    DbUtils.closeQuietly(resultSet);
+                }
+            }
+            return groups;
+        } finally {
+            DbUtils.closeQuietly(preparedStatement);
+        }
+    }
+
+    /**
+     * Reads the rows of an aggregate query, combining the rows of the two types of a group.
+     *
+     * @param interval the index of the interval of the rows, or -1 if the rows contain the index of their bucket
+     */
+    private static void readGroups(ResultSet resultSet, int interval, List<Totals> groups) throws SQLException {
+        long rows = 0;
+        Totals totals = null;
+        String month = null;
+        while (resultSet.next()) {
+            rows++;
+            int index = interval < 0 ? (int) resultSet.getLong("bucket") + 1 : interval;
+            if (totals == null || totals.interval != index || !totals.month.equals(resultSet.getString("month"))) {
+                totals = new Totals(index, resultSet.getString("month"));
+                groups.add(totals);
+            }
+            totals.add(resultSet);
+        }
+        Metrics.instance.increment("rows", "balance-history", rows);
+    }
+
+    /**
+     * Applies a group of transactions before the first interval. The first transaction of the group is applied before
+     * the months started since the previous transaction are paid, so its amount is read if the group contains more
+     * than one transaction and there are saving goals to pay.
+     */
+    private static void applyBefore(Connection connection, String sessionID, Totals totals,
+                                    SavingGoalSimulation simulation, DateTimeZone zone) throws SQLException {
+        if (totals.deposits + totals.withdrawals == 1) {
+            simulation.apply(totals.first, zone, totals.depositTotal + totals.withdrawalTotal,
+                    totals.deposits == 1 ? Type.deposit : Type.withdrawal);
+            return;
+        }
+        if (simulation.size() == 0) {
+            applyChange(simulation, totals.last, zone, totals.getChange());
+            return;
+        }
+
+        String query = "SELECT amount, type FROM transactions WHERE session_id = ? AND date_millis = ? ORDER BY " +
+                "transaction_id LIMIT 1;";
+        PreparedStatement preparedStatement = null;
+        ResultSet resultSet = null;
+        try {
+            preparedStatement = connection.prepareStatement(query);
+            preparedStatement.setString(1, sessionID);
+            preparedStatement.setLong(2, totals.first);
+            resultSet = preparedStatement.executeQuery();
+            if (!resultSet.next()) {
+                throw new SQLException("The first transaction of a group was not found");
+            }
+            long amount = resultSet.getLong("amount");
+            Type type = Type.valueOf(resultSet.getString("type"));
+            Metrics.instance.increment("rows", "balance-history", 1);
+
+            simulation.apply(totals.first, zone, amount, type);
+            applyChange(simulation, totals.last, zone, totals.getChange() - (type == Type.deposit ? amount :
+                    -amount));
+        } finally {
+            DbUtils.closeQuietly(resultSet);
+            DbUtils.closeQuietly(preparedStatement);
+        }
+    }
+
+    /**
+     * Adds the total change of the transactions of a group to the balance of a simulation. No month starts within a
+     * group, so no saving goal is paid.
+     *
+     * @param millis the time of the last transaction of the group
+     */
+    private static void applyChange(SavingGoalSimulation simulation, long millis, DateTimeZone zone, long change) {
+        simulation.apply(millis, zone, Math.abs(change), change < 0 ? Type.withdrawal : Type.deposit);
+    }
+
+    /**
+     * Replays the transactions of a single group one by one.
+     *
+     * @param first the time of the first transaction of the group
+     * @param last the time of the last transaction of the group
+     */
+    private static void replayGroup(Connection connection, String sessionID, long first, long last, long balance,
+                                    BalanceCheckpoints.Statistics statistics) throws SQLException {
+        PreparedStatement preparedStatement = null;
+        ResultSet resultSet = null;
+        try {
+            preparedStatement = connection.prepareStatement(GROUP_QUERY);
+            preparedStatement.setString(1, sessionID);
+            preparedStatement.setLong(2, first);
+            preparedStatement.setLong(3, last);
+            resultSet = preparedStatement.executeQuery();
+
+            long rows = 0;
+            while (resultSet.next()) {
+                rows++;
+                long amount = resultSet.getLong("amount");
+                Type type = Type.valueOf(resultSet.getString("type"));
+                long after = type == Type.deposit ? balance + amount : balance - amount;
+                statistics.add(balance, type, amount, after);
+                balance = after;
+            }
+            Metrics.instance.increment("rows", "balance-history", rows);
+        } finally {
+            DbUtils.closeQuietly(resultSet);
+            DbUtils.closeQuietly(preparedStatement);
+        }
+    }
+
+    /**
+     * The number and the total amount of the deposits and the withdrawals of a group of transactions in the same
+     * interval and month, in cents, and the times of the first and the last of them.
+     */
+    private static class Totals {
+        /**
+         * The index of the boundary the group ends before, zero for transactions before the first boundary.
+         */
+        private final int interval;
+        private final String month;
+        private int deposits;
+        private long depositTotal;
+        private int withdrawals;
+        private long withdrawalTotal;
+        private long minimum = Long.MAX_VALUE;
+        private long first = Long.MAX_VALUE;
+        private long last = Long.MIN_VALUE;
+
+        Totals(int interval, String month) {
+            this.interval = interval;
+            this.month = month;
+        }
+
+        void add(ResultSet resultSet) throws SQLException {
+            if (Type.valueOf(resultSet.getString("type")) == Type.deposit) {
+                deposits += resultSet.getInt("transactions");
+                depositTotal += resultSet.getLong("total");
+            } else {
+                withdrawals += resultSet.getInt("transactions");
+                withdrawalTotal += resultSet.getLong("total");
+            }
+            minimum = Math.min(minimum, resultSet.getLong("minimum"));
+            first = Math.min(first, resultSet.getLong("first"));
+            last = Math.max(last, resultSet.getLong("last"));
+        }
+
+        long getChange() {
+            return depositTotal - withdrawalTotal;
+        }
+
+        /**
+         * @return whether the balance only moves in one direction during the group
+         */
+        boolean isMonotonic() {
+            return (deposits == 0 || withdrawals == 0) && minimum >= 0;
+        }
+    }
+}
@@ -0,0 +1,698 @@
+/*
+ * Copyright (c) 2018, Joost Prins <github.com/joostprins>, Tom Leemreize <https://github.com/oplosthee>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package nl.utwente.ing.controller;
+
+import nl.utwente.ing.Settings;
+import nl.utwente.ing.controller.database.DBUtil;
+import nl.utwente.ing.metrics.Metrics;
+import nl.utwente.ing.model.BalanceHistory;
+import nl.utwente.ing.model.ParsedDate;
+import nl.utwente.ing.model.SavingGoal;
+import nl.utwente.ing.model.Type;
+import org.apache.commons.dbutils.DbUtils;
+import org.joda.money.CurrencyUnit;
+import org.joda.money.Money;
+import org.joda.time.DateTime;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Persisted per-session balance checkpoints, used to answer balance history requests without replaying the complete
+ * transaction history of a session.
+ *
+ * Transactions are grouped in fixed-size time buckets. For every bucket that contains transactions a checkpoint stores
+ * the open, high, low, close and volume of that bucket, together with the state of the replay at the end of the bucket:
+ * the balance, the date of the last transaction and the balances of the saving goals. Writes only invalidate the
+ * checkpoints from the bucket of the affected transaction onwards, and the invalidated suffix is replayed on the next
+ * balance history request.
+ *
+ * The checkpoints store the replay in which every transaction is applied before the saving goals are paid for the
+ * months started since the previous transaction, which is how the transactions before the requested intervals are
+ * replayed. Within the requested intervals the months are paid before the transaction, so a bucket in which the replay
+ * passed a month start is replayed instead of read from its checkpoint, as are the buckets after it until the replay
+ * matches the checkpoints again.
+ */
+public class BalanceCheckpoints {
+
+    /**
+     * The size of a checkpoint bucket in milliseconds.
+     */
+    private static final long BUCKET_SIZE = Settings.getLong("balance.checkpoints.bucket-ms", 60 * 60 * 1000L);
+
+    /**
+     * Selects the transactions of a session within a range of time in the order in which they are replayed.
+     */
+    static final String BUCKET_QUERY = "SELECT date, date_millis, date_offset, amount, type FROM transactions WHERE " +
+            "session_id = ? AND date_millis >= ? AND date_millis < ? ORDER BY date_millis, transaction_id;";
+
+    private BalanceCheckpoints() {
+    }
+
+    /**
+     * Invalidates the checkpoints of a session from the bucket containing the given transaction date onwards. Should be
+     * called on the connection which changes the transaction, before it is committed.
+     *
+     * @param connection the connection on which the transaction is changed
+     * @param sessionID the session which owns the transaction
+     * @param date the date in milliseconds of the created, changed or deleted transaction, or null if it is not known
+     */
+    public static void invalidate(Connection connection, String sessionID, Long date) throws SQLException {
+        setValidUntil(connection, sessionID, date == null ? Long.MIN_VALUE : getBucket(date));
+    }
+
+    /**
+     * Invalidates the checkpoints of a session from the bucket containing the earliest of the given transaction dates
+     * onwards. Should be called on the connection which changes the transactions, before it is committed.
+     *
+     * @param connection the connection on which the transactions are changed
+     * @param sessionID the session which owns the transactions
+     * @param dates the dates in milliseconds of the created, changed or deleted transactions
+     */
+    public static void invalidate(Connection connection, String sessionID, List<Long> dates) throws SQLException {
+        if (dates.isEmpty()) {
+            return;
+        }
+        long bucket = Long.MAX_VALUE;
+        for (long date : dates) {
+            bucket = Math.min(bucket, getBucket(date));
+        }
+        setValidUntil(connection, sessionID, bucket);
+    }
+
+    /**
+     * Invalidates all checkpoints of a session, for example when its saving goals change.
+     *
+     * @param connection the connection on which the change is made
+     * @param sessionID the session of which the checkpoints are invalidated
+     */
+    public static void invalidateAll(Connection connection, String sessionID) throws SQLException {
+        setValidUntil(connection, sessionID, Long.MIN_VALUE);
+    }
+
+    private static void setValidUntil(Connection connection, String sessionID, long bucket) throws SQLException {
+        String query = "UPDATE balance_checkpoint_sessions SET valid_until = MIN(valid_until, ?) WHERE session_id = ?;";
+        PreparedStatement preparedStatement = null;
+        try {
+            preparedStatement = connection.prepareStatement(query);
+            preparedStatement.setLong(1, bucket);
+            preparedStatement.setString(2, sessionID);
+            preparedStatement.executeUpdate();
+        } finally {
+            DbUtils.closeQuietly(preparedStatement);
+        }
+    }
+
+    /**
+     * Checks whether all checkpoints of a session are up to date, in which case the balance history of the session can
+     * be calculated without writing to the database.
+     *
+     * @param connection the connection to use
+     * @param sessionID the session of which the checkpoints are checked
+     */
+    public static boolean isUpToDate(Connection connection, String sessionID) throws SQLException {
+        return getValidUntil(connection, sessionID) == Long.MAX_VALUE;
+    }
+
+    /**
+     * Calculates the balance history of a session for the intervals between the given points in time, reading only the
+     * checkpoints of the requested period and the transactions in the buckets which contain an interval boundary.
+     * Brings the checkpoints of the session up to date first; the caller is responsible for committing the connection.
+     *
+     * @param connection the connection to use
+     * @param sessionID the session to calculate the balance history for
+     * @param timeIntervals the boundaries of the intervals in ascending order
+     * @return the balance history of every interval, timestamped with the start of the interval
+     */
+    public static List<BalanceHistory> getBalanceHistories(Connection connection, String sessionID,
+                                                           List<DateTime> timeIntervals) throws SQLException {
+        update(connection, sessionID);
+
+        List<SavingGoal> savingGoals = getSavingGoals(connection, sessionID);
+        long[] boundaries = new long[timeIntervals.size()];
+        for (int i = 0; i < boundaries.length; i++) {
+            boundaries[i] = timeIntervals.get(i).getMillis();
+        }
+        long startBucket = getBucket(boundaries[0]);
+        long end = boundaries[boundaries.length - 1];
+
+        ReplayState state = getStateBefore(connection, sessionID, startBucket, savingGoals);
+        if (state == null) {
+            throw new SQLException("Balance checkpoints do not match the saving goals of the session");
+        }
+
+        Set<Long> boundaryBuckets = new HashSet<>();
+        for (long boundary : boundaries) {
+            if (getBucket(boundary) != boundary || boundary == end) {
+                boundaryBuckets.add(getBucket(boundary));
+            }
+        }
+
+        IntervalCursor cursor = new IntervalCursor(boundaries);
+        String query = "SELECT bucket_start, open, close, high, low, low_reset, volume, transaction_count, last_date, " +
+                "saving_goal_balances, month_starts FROM balance_checkpoints WHERE session_id = ? AND bucket_start >= " +
+                "? AND bucket_start < ? ORDER BY bucket_start;";
+        PreparedStatement preparedStatement = null;
+        ResultSet resultSet = null;
+        try {
+            preparedStatement = connection.prepareStatement(query);
+            preparedStatement.setString(1, sessionID);
+            preparedStatement.setLong(2, startBucket);
+            preparedStatement.setLong(3, end);
+            resultSet = preparedStatement.executeQuery();
+
+            long rows = 0;
+            // Whether the state of the replay is the state stored in the checkpoints.
+            boolean matching = true;
+            while (resultSet.next()) {
+                rows++;
+                long bucket = resultSet.getLong("bucket_start");
+                long close = resultSet.getLong("close");
+                String savingGoalBalances = resultSet.getString("saving_goal_balances");
+                boolean paid = resultSet.getLong("month_starts") > 0 && !savingGoals.isEmpty();
+                if (boundaryBuckets.contains(bucket) || paid || !matching) {
+                    replayBucket(connection, sessionID, bucket, state, cursor, boundaries[0], end);
+                    matching = state.matches(close, savingGoalBalances);
+                } else {
+                    cursor.advance(bucket, state.getBalance());
+                    cursor.getStatistics().merge(readStatistics(resultSet));
+                    state.restore(close, resultSet.getString("last_date"), savingGoalBalances);
+                }
+            }
+            Metrics.instance.increment("rows", "balance-history", rows);
+        } finally {
+            DbUtils.closeQuietly(resultSet);
+            DbUtils.closeQuietly(preparedStatement);
+        }
+        cursor.advance(Long.MAX_VALUE, state.getBalance());
+
+        return cursor.getBalanceHistories(timeIntervals);
+    }
+
+    /**
+     * Replays the transactions in a single bucket, assigning each of them to the interval it belongs to.
+     *
+     * @param start the start of the first interval
+     * @param end the end of the last interval
+     */
+    private static void replayBucket(Connection connection, String sessionID, long bucket, ReplayState state,
+                                     IntervalCursor cursor, long start, long end) throws SQLException {
+        PreparedStatement preparedStatement = null;
+        ResultSet resultSet = null;
+        try {
+            preparedStatement = connection.prepareStatement(BUCKET_QUERY);
+            preparedStatement.setString(1, sessionID);
+            preparedStatement.setLong(2, bucket);
+            preparedStatement.setLong(3, bucket + BUCKET_SIZE);
+            resultSet = preparedStatement.executeQuery();
+
+            long rows = 0;
+            while (resultSet.next()) {
+                rows++;
+                long millis = resultSet.getLong("date_millis");
+                if (millis >= end) {
+                    continue;
+                }
+                cursor.advance(millis, state.getBalance());
+                state.apply(resultSet.getString("date"), DBUtil.getTransactionDate(resultSet), resultSet.getLong("amount"),
+                        Type.valueOf(resultSet.getString("type")), millis >= start, cursor.getStatistics());
+            }
+            Metrics.instance.increment("rows", "balance-history", rows);
+        } finally {
+            DbUtils.closeQuietly(resultSet);
+            DbUtils.closeQuietly(preparedStatement);
+        }
+    }
+
+    /**
+     * Brings the checkpoints of a session up to date by replaying all transactions from the first invalidated bucket
+     * onwards. The caller is responsible for committing the connection.
+     *
+     * @param connection the connection to use
+     * @param sessionID the session of which the checkpoints are updated
+     */
+    public static void update(Connection connection, String sessionID) throws SQLException {
+        long validFrom = getValidUntil(connection, sessionID);
+        if (validFrom == Long.MAX_VALUE) {
+            return;
+        }
+
+        List<SavingGoal> savingGoals = getSavingGoals(connection, sessionID);
+        ReplayState state = null;
+        if (validFrom != Long.MIN_VALUE) {
+            state = getStateBefore(connection, sessionID, validFrom, savingGoals);
+        }
+        if (state == null) {
+            validFrom = Long.MIN_VALUE;
+            state = getStateBefore(connection, sessionID, validFrom, savingGoals);
+        }
+
+        String deleteQuery = "DELETE FROM balance_checkpoints WHERE session_id = ? AND bucket_start >= ?;";
+        String transactionsQuery = "SELECT date, date_millis, date_offset, amount, type FROM transactions WHERE " +
+                "session_id = ? AND date_millis >= ? ORDER BY date_millis, transaction_id;";
+        String insertQuery = "INSERT OR REPLACE INTO balance_checkpoints (session_id, bucket_start, open, close, " +
+                "high, low, low_reset, volume, transaction_count, last_date, saving_goal_balances, month_starts) " +
+                "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?);";
+        String sessionQuery = "INSERT OR REPLACE INTO balance_checkpoint_sessions (session_id, valid_until, " +
+                "bucket_size) VALUES (?, ?, ?);";
+
+        PreparedStatement deletePreparedStatement = null;
+        PreparedStatement transactionsPreparedStatement = null;
+        PreparedStatement insertPreparedStatement = null;
+        PreparedStatement sessionPreparedStatement = null;
+        ResultSet resultSet = null;
+        try {
+            deletePreparedStatement = connection.prepareStatement(deleteQuery);
+            deletePreparedStatement.setString(1, sessionID);
+            deletePreparedStatement.setLong(2, validFrom);
+            deletePreparedStatement.executeUpdate();
+
+            transactionsPreparedStatement = connection.prepareStatement(transactionsQuery);
+            transactionsPreparedStatement.setString(1, sessionID);
+            transactionsPreparedStatement.setLong(2, validFrom);
+            resultSet = transactionsPreparedStatement.executeQuery();
+
+            insertPreparedStatement = connection.prepareStatement(insertQuery);
+            Statistics statistics = null;
+            long bucket = 0;
+            long monthStarts = 0;
+            long rows = 0;
+            while (resultSet.next()) {
+                rows++;
+                long transactionBucket = getBucket(resultSet.getLong("date_millis"));
+                if (statistics == null || transactionBucket != bucket) {
+                    if (statistics != null) {
+                        addCheckpoint(insertPreparedStatement, sessionID, bucket, statistics, state,
+                                state.getMonthStarts() - monthStarts);
+                    }
+                    statistics = new Statistics();
+                    bucket = transactionBucket;
+                    monthStarts = state.getMonthStarts();
+                }
+                state.apply(resultSet.getString("date"), DBUtil.getTransactionDate(resultSet), resultSet.getLong("amount"),
+                        Type.valueOf(resultSet.getString("type")), false, statistics);
+            }
+            if (statistics != null) {
+                addCheckpoint(insertPreparedStatement, sessionID, bucket, statistics, state,
+                        state.getMonthStarts() - monthStarts);
+            }
+            insertPreparedStatement.executeBatch();
+            Metrics.instance.increment("rows", "balance-history", rows);
+
+            sessionPreparedStatement = connection.prepareStatement(sessionQuery);
+            sessionPreparedStatement.setString(1, sessionID);
+            sessionPreparedStatement.setLong(2, Long.MAX_VALUE);
+            sessionPreparedStatement.setLong(3, BUCKET_SIZE);
+            sessionPreparedStatement.executeUpdate();
+        } finally {
+            DbUtils.closeQuietly(resultSet);
+            DbUtils.closeQuietly(deletePreparedStatement);
+            DbUtils.closeQuietly(transactionsPreparedStatement);
+            DbUtils.closeQuietly(insertPreparedStatement);
+            DbUtils.closeQuietly(sessionPreparedStatement);
+        }
+    }
+
+    private static void addCheckpoint(PreparedStatement preparedStatement, String sessionID, long bucket,
+                                      Statistics statistics, ReplayState state, long monthStarts) throws SQLException {
+        preparedStatement.setString(1, sessionID);
+        preparedStatement.setLong(2, bucket);
+        preparedStatement.setLong(3, statistics.open);
+        preparedStatement.setLong(4, state.getBalance());
+        setNullableLong(preparedStatement, 5, statistics.high);
+        setNullableLong(preparedStatement, 6, statistics.low);
+        setNullableLong(preparedStatement, 7, statistics.lowReset);
+        preparedStatement.setLong(8, statistics.volume);
+        preparedStatement.setInt(9, statistics.count);
+        preparedStatement.setString(10, state.lastDate);
+        preparedStatement.setString(11, state.getSavingGoalBalances());
+        preparedStatement.setLong(12, monthStarts);
+        preparedStatement.addBatch();
+    }
+
+    private static void setNullableLong(PreparedStatement preparedStatement, int index, Long value)
+            throws SQLException {
+        if (value == null) {
+            preparedStatement.setNull(index, java.sql.Types.INTEGER);
+        } else {
+            preparedStatement.setLong(index, value);
+        }
+    }
+
+    private static Long getNullableLong(ResultSet resultSet, String column) throws SQLException {
+        long value = resultSet.getLong(column);
+        return resultSet.wasNull() ? null : value;
+    }
+
+    private static Statistics readStatistics(ResultSet resultSet) throws SQLException {
+        Statistics statistics = new Statistics();
+        statistics.open = resultSet.getLong("open");
+        statistics.high = getNullableLong(resultSet, "high");
+        statistics.low = getNullableLong(resultSet, "low");
+        statistics.lowReset = getNullableLong(resultSet, "low_reset");
+        statistics.volume = resultSet.getLong("volume");
+        statistics.count = resultSet.getInt("transaction_count");
+        return statistics;
+    }
+
+    /**
+     * Returns the start of the first invalidated bucket of a session, Long.MIN_VALUE if the session has no valid
+     * checkpoints and Long.MAX_VALUE if all checkpoints are up to date.
+     */
+    private static long getValidUntil(Connection connection, String sessionID) throws SQLException {
+        String query = "SELECT valid_until, bucket_size FROM balance_checkpoint_sessions WHERE session_id = ?;";
+        PreparedStatement preparedStatement = null;
+        ResultSet resultSet = null;
+        try {
+            preparedStatement = connection.prepareStatement(query);
+            preparedStatement.setString(1, sessionID);
+            resultSet = preparedStatement.executeQuery();
+            if (resultSet.next() && resultSet.getLong("bucket_size") == BUCKET_SIZE) {
+                return resultSet.getLong("valid_until");
+            }
+            return Long.MIN_VALUE;
+        } finally {
+            DbUtils.closeQuietly(resultSet);
+            DbUtils.closeQuietly(preparedStatement);
+        }
+    }
+
+    /**
+     * Returns the replay state at the end of the last checkpoint before the given bucket, or null if that checkpoint
+     * was made for a different set of saving goals.
+     */
+    private static ReplayState getStateBefore(Connection connection, String sessionID, long bucket,
+                                              List<SavingGoal> savingGoals) throws SQLException {
+        ReplayState state = new ReplayState(savingGoals);
+        if (bucket == Long.MIN_VALUE) {
+            return state;
+        }
+
+        String query = "SELECT close, last_date, saving_goal_balances FROM balance_checkpoints WHERE session_id = ? " +
+                "AND bucket_start < ? ORDER BY bucket_start DESC LIMIT 1;";
+        PreparedStatement preparedStatement = null;
+        ResultSet resultSet = null;
+        try {
+            preparedStatement = connection.prepareStatement(query);
+            preparedStatement.setString(1, sessionID);
+            preparedStatement.setLong(2, bucket);
+            resultSet = preparedStatement.executeQuery();
+            if (resultSet.next() && !state.restore(resultSet.getLong("close"), resultSet.getString("last_date"),
+                    resultSet.getString("saving_goal_balances"))) {
+                return null;
+            }
+            return state;
+        } finally {
+            DbUtils.closeQuietly(resultSet);
+            DbUtils.closeQuietly(preparedStatement);
+        }
+    }
+
+    static List<SavingGoal> getSavingGoals(Connection connection, String sessionID) throws SQLException {
+        String query = "SELECT saving_goal_id, goal, save_per_month, minimum_balance_required FROM saving_goals " +
+                "WHERE session_id = ? ORDER BY creation_date_time, saving_goal_id;";
+        List<SavingGoal> savingGoals = new ArrayList<>();
+        PreparedStatement preparedStatement = null;
+        ResultSet resultSet = null;
+        try {
+            preparedStatement = connection.prepareStatement(query);
+            preparedStatement.setString(1, sessionID);
+            resultSet = preparedStatement.executeQuery();
+            while (resultSet.next()) {
+                savingGoals.add(new SavingGoal(resultSet.getInt("saving_goal_id"), null,
+                        Money.ofMinor(CurrencyUnit.EUR, resultSet.getLong("goal")),
+                        Money.ofMinor(CurrencyUnit.EUR, resultSet.getLong("save_per_month")),
+                        Money.ofMinor(CurrencyUnit.EUR, resultSet.getLong("minimum_balance_required")),
+                        Money.zero(CurrencyUnit.EUR)));
+            }
+            return savingGoals;
+        } finally {
+            DbUtils.closeQuietly(resultSet);
+            DbUtils.closeQuietly(preparedStatement);
+        }
+    }
+
+    private static long getBucket(long millis) {
+        return millis - Math.floorMod(millis, BUCKET_SIZE);
+    }
+
+    /**
+     * The state of a replay of the transaction history: the balance, the date of the last transaction and the
+     * balances of the saving goals.
+     */
+    private static class ReplayState {
+        private final List<SavingGoal> savingGoals;
+        private SavingGoalSimulation simulation;
+        private String lastDate;
+
+        ReplayState(List<SavingGoal> savingGoals) {
+            this.savingGoals = savingGoals;
+            for (SavingGoal savingGoal : savingGoals) {
+                savingGoal.setBalance(Money.zero(CurrencyUnit.EUR));
+            }
+            this.simulation = new SavingGoalSimulation(savingGoals, 0);
+        }
+
+        long getBalance() {
+            return simulation.getBalance();
+        }
+
+        long getMonthStarts() {
+            return simulation.getMonthStarts();
+        }
+
+        /**
+         * Applies a transaction to the state, adding it to the given statistics with the balance right before and
+         * after the transaction itself.
+         *
+         * @param monthsFirst whether the saving goals are paid for the months between the previous and this
+         *                    transaction before the transaction is applied, as within the requested intervals, or
+         *                    after it, as in the checkpoints
+         */
+        void apply(String date, ParsedDate parsedDate, long amount, Type type, boolean monthsFirst,
+                   Statistics statistics) {
+            if (monthsFirst) {
+                simulation.advanceTo(parsedDate.getMillis(), parsedDate.getZone());
+            }
+            long before = simulation.getBalance();
+            statistics.add(before, type, amount, type == Type.deposit ? before + amount : before - amount);
+            simulation.apply(parsedDate.getMillis(), parsedDate.getZone(), amount, type);
+            lastDate = date;
+        }
+
+        /**
+         * @return whether the state is the state stored in a checkpoint
+         */
+        boolean matches(long balance, String savingGoalBalances) {
+            return simulation.getBalance() == balance && getSavingGoalBalances().equals(savingGoalBalances);
+        }
+
+        /**
+         * Restores the state stored in a checkpoint.
+         *
+         * @return whether the checkpoint was made for the same saving goals
+         */
+        boolean restore(long balance, String lastDate, String savingGoalBalances) {
+            String[] entries = savingGoalBalances.isEmpty() ? new String[0] : savingGoalBalances.split(",");
+            if (entries.length != savingGoals.size()) {
+                return false;
+            }
+            for (int i = 0; i < entries.length; i++) {
+                String[] entry = entries[i].split(":");
+                if (Integer.parseInt(entry[0]) != savingGoals.get(i).getId()) {
+                    return false;
+                }
+            }
+            for (int i = 0; i < entries.length; i++) {
+                savingGoals.get(i).setBalance(Money.ofMinor(CurrencyUnit.EUR,
+                        Long.parseLong(entries[i].split(":")[1])));
+            }
+            this.simulation = new SavingGoalSimulation(savingGoals, balance);
+            ParsedDate parsedDate = ParsedDate.parse(lastDate);
+            this.simulation.advanceTo(parsedDate.getMillis(), parsedDate.getZone());
+            this.lastDate = lastDate;
+            return true;
+        }
+
+        String getSavingGoalBalances() {
+            simulation.writeBalances(savingGoals);
+            StringBuilder builder = new StringBuilder();
+            for (SavingGoal savingGoal : savingGoals) {
+                if (builder.length() > 0) {
+                    builder.append(',');
+                }
+                builder.append(savingGoal.getId()).append(':')
+                        .append(Money.of(CurrencyUnit.EUR, savingGoal.getBalance()).getAmountMinorLong());
+            }
+            return builder.toString();
+        }
+    }
+
+    /**
+     * The balance statistics of a sequence of transactions, in cents. Statistics of consecutive sequences can be merged
+     * into the statistics of the combined sequence.
+     */
+    static class Statistics {
+        /**
+         * The absolute balance before the first transaction.
+         */
+        private long open;
+
+        /**
+         * The highest balance after a deposit.
+         */
+        private Long high;
+
+        /**
+         * The lowest non-negative balance after a withdrawal since the last withdrawal that resulted in a negative
+         * balance.
+         */
+        private Long low;
+
+        /**
+         * The absolute balance after the last withdrawal that resulted in a negative balance.
+         */
+        private Long lowReset;
+
+        private long volume;
+        private int count;
+
+        void add(long before, Type type, long amount, long after) {
+            add(before, type, amount, after, 1);
+        }
+
+        /**
+         * Adds a run of transactions of a single type with non-negative amounts, during which the balance only moves in
+         * one direction, so that the statistics of the run follow from the balances before and after it.
+         *
+         * @param amount the total amount of the transactions
+         * @param transactions the number of transactions in the run
+         */
+        void add(long before, Type type, long amount, long after, int transactions) {
+            if (transactions == 0) {
+                return;
+            }
+            if (count == 0) {
+                open = Math.abs(before);
+            }
+            if (type == Type.deposit) {
+                high = high == null ? after : Math.max(high, after);
+            } else if (after < 0) {
+                lowReset = -after;
+                low = null;
+            } else {
+                low = low == null ? after : Math.min(low, after);
+            }
+            volume += amount;
+            count += transactions;
+        }
+
+        void merge(Statistics other) {
+            if (other.count == 0) {
+                return;
+            }
+            if (count == 0) {
+                open = other.open;
+            }
+            if (other.high != null) {
+                high = high == null ? other.high : Math.max(high, other.high);
+            }
+            if (other.lowReset != null) {
+                lowReset = other.lowReset;
+                low = other.low;
+            } else if (other.low != null) {
+                low = low == null ? other.low : Math.min(low, other.low);
+            }
+            volume += other.volume;
+            count += other.count;
+        }
+
+        BalanceHistory toBalanceHistory(long startBalance, long endBalance, DateTime timestamp) {
+            long open = count == 0 ? Math.abs(startBalance) : this.open;
+            long high = this.high == null ? open : Math.max(open, this.high);
+            long low = lowReset == null ? open : lowReset;
+            if (this.low != null) {
+                low = Math.min(low, this.low);
+            }
+            return new BalanceHistory(Money.ofMinor(CurrencyUnit.EUR, open),
+                    Money.ofMinor(CurrencyUnit.EUR, Math.abs(endBalance)),
+                    Money.ofMinor(CurrencyUnit.EUR, high),
+                    Money.ofMinor(CurrencyUnit.EUR, low),
+                    Money.ofMinor(CurrencyUnit.EUR, volume),
+                    timestamp);
+        }
+    }
+
+    /**
+     * Keeps track of the interval the replay is in, the balance at the start of every interval and the statistics of
+     * every interval.
+     */
+    static class IntervalCursor {
+        private final long[] boundaries;
+        private final long[] startBalances;
+        private final Statistics[] statistics;
+        private final Statistics before = new Statistics();
+        private int interval = -1;
+
+        IntervalCursor(long[] boundaries) {
+            this.boundaries = boundaries;
+            this.startBalances = new long[boundaries.length];
+            this.statistics = new Statistics[boundaries.length - 1];
+            for (int i = 0; i < statistics.length; i++) {
+                statistics[i] = new Statistics();
+            }
+        }
+
+        /**
+         * Moves the cursor to the interval containing the given time, recording the given balance as the start balance
+         * of every interval that is entered.
+         */
+        void advance(long millis, long balance) {
+            while (interval + 1 < boundaries.length && millis >= boundaries[interval + 1]) {
+                interval++;
+                startBalances[interval] = balance;
+            }
+        }
+
+        Statistics getStatistics() {
+            return interval < 0 || interval >= statistics.length ? before : statistics[interval];
+        }
+
+        List<BalanceHistory> getBalanceHistories(List<DateTime> timeIntervals) {
+            List<BalanceHistory> balanceHistories = new ArrayList<>();
+            for (int i = 0; i < statistics.length; i++) {
+                balanceHistories.add(statistics[i].toBalanceHistory(startBalances[i], startBalances[i + 1],
+                        timeIntervals.get(i)));
+            }
+            return balanceHistories;
+        }
+    }
+}
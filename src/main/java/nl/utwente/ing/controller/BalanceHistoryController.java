@@ -1,39 +1,79 @@
 package nl.utwente.ing.controller;
 
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.gson.JsonParseException;
+import nl.utwente.ing.Settings;
+import nl.utwente.ing.archive.ArchiveSegment;
+import nl.utwente.ing.archive.HistoryCursor;
+import nl.utwente.ing.archive.TransactionArchive;
+import nl.utwente.ing.cache.Ledger;
+import nl.utwente.ing.cache.ResponseCache;
+import nl.utwente.ing.cache.SessionVersions;
 import nl.utwente.ing.controller.database.DBConnection;
 import nl.utwente.ing.controller.database.DBUtil;
+import nl.utwente.ing.metrics.Metrics;
 import nl.utwente.ing.model.BalanceHistory;
 import nl.utwente.ing.model.SavingGoal;
 import nl.utwente.ing.model.Transaction;
 import nl.utwente.ing.model.Type;
+import nl.utwente.ing.repository.Repositories;
+import nl.utwente.ing.repository.StorageException;
 import org.apache.commons.dbutils.DbUtils;
 import org.joda.money.CurrencyUnit;
 import org.joda.money.Money;
 import org.joda.time.DateTime;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.web.bind.annotation.*;
 
 import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.locks.Lock;
 
 @RestController
 @RequestMapping("/api/v1/balance/history")
 public class BalanceHistoryController {
 
-    @RequestMapping(value = "", method = RequestMethod.GET)
-    public List<BalanceHistory> getBalanceHistory(@RequestHeader(value = "X-session-id", required = false) String
-                                                         headerSessionID,
-                                                  @RequestParam(value = "session_id", required = false) String paramSessionID,
-                                                  @RequestParam(value = "interval", defaultValue = "month") String interval,
-                                                  @RequestParam(value = "intervals", defaultValue = "24") int intervals,
-                                                  HttpServletResponse response) {
+    /**
+     * Whether balance histories are calculated from the persisted balance checkpoints instead of a full replay of the
+     * transaction history.
+     */
+    private static final boolean CHECKPOINTS_ENABLED = Settings.getBoolean("balance.checkpoints.enabled", true);
+
+    /**
+     * Whether balance histories are calculated from per-interval aggregates computed by the database. Sessions with
+     * saving goals whose transactions have different offsets fall back to the checkpoints or a full replay.
+     */
+    private static final boolean AGGREGATION_ENABLED = Settings.getBoolean("balance.aggregation.enabled", true);
+
+    /**
+     * The time for which a serialized balance history may be served from the response cache. Balance histories end
+     * at the time of the request, so a cached history lags behind by at most this time.
+     */
+    private static final long CACHE_MAX_AGE_MS = Settings.getLong("response.cache.balance-history.max-age-ms", 1000);
+
+    /**
+     * The object mapper configured by Spring, with which the balance histories are serialized.
+     */
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @RequestMapping(value = "", method = RequestMethod.GET, produces = "application/json;charset=UTF-8")
+    public String getBalanceHistory(@RequestHeader(value = "X-session-id", required = false) String headerSessionID,
+                                    @RequestParam(value = "session_id", required = false) String paramSessionID,
+                                    @RequestParam(value = "interval", defaultValue = "month") String interval,
+                                    @RequestParam(value = "intervals", defaultValue = "24") int intervals,
+                                    HttpServletResponse response) {
         String sessionID = headerSessionID == null ? paramSessionID : headerSessionID;
+        long version = SessionVersions.instance.get(sessionID);
         List<DateTime> timeIntervals;
         try {
             timeIntervals = parseTimeIntervals(interval, intervals);
@@ -43,20 +83,113 @@ public class BalanceHistoryController {
             return null;
         }
 
+        String cacheKey = "balance/history?interval=" + interval.toLowerCase() + "&intervals=" + intervals;
+        String cached = ResponseCache.instance.get(sessionID, version, cacheKey);
+        if (cached != null) {
+            return cached;
+        }
+
+        List<BalanceHistory> balanceHistories = calculateBalanceHistory(sessionID, timeIntervals, response);
+        if (balanceHistories == null) {
+            return null;
+        }
+        try {
+            String body = objectMapper.writeValueAsString(balanceHistories);
+            ResponseCache.instance.put(sessionID, version, cacheKey, body, CACHE_MAX_AGE_MS);
+            return body;
+        } catch (JsonProcessingException e) {
+            e.printStackTrace();
+            response.setStatus(500);
+            return null;
+        }
+    }
+
+    /**
+     * Calculates the balance history of a session over the given intervals, using the fastest available source.
+     *
+     * @return the balance history, or null if it could not be calculated, in which case the status of the response is
+     * set
+     */
+    private static List<BalanceHistory> calculateBalanceHistory(String sessionID, List<DateTime> timeIntervals,
+                                                                HttpServletResponse response) {
+        Lock archiveLock = TransactionArchive.instance.readLock(sessionID);
+        archiveLock.lock();
+        try {
+            Ledger ledger = Repositories.instance.getTransactions().getLedger(sessionID);
+            ArchiveSegment archive = TransactionArchive.instance.getSegment(sessionID);
+            if (ledger == null && archive != null) {
+                // The aggregates, the checkpoints and the replay below only cover the live transactions.
+                ledger = TransactionArchive.instance.loadLedger(sessionID);
+            }
+            if (ledger != null) {
+                List<SavingGoal> savingGoals = Repositories.instance.getSavingGoals().getAll(sessionID);
+                return getBalanceHistories(ledger, archive, savingGoals, timeIntervals);
+            }
+        } catch (StorageException | IOException | SQLException e) {
+            e.printStackTrace();
+            response.setStatus(500);
+            return null;
+        } finally {
+            archiveLock.unlock();
+        }
+
+        if (AGGREGATION_ENABLED) {
+            Connection connection = null;
+            try {
+                connection = DBConnection.instance.getReadConnection(sessionID);
+                Optional<List<BalanceHistory>> balanceHistories = BalanceAggregation.getBalanceHistories(connection,
+                        sessionID, timeIntervals);
+                if (balanceHistories.isPresent()) {
+                    return balanceHistories.get();
+                }
+            } catch (SQLException e) {
+                e.printStackTrace();
+                response.setStatus(500);
+                return null;
+            } finally {
+                DBUtil.executeCommit(connection);
+                DbUtils.closeQuietly(connection);
+            }
+        }
+
+        if (CHECKPOINTS_ENABLED) {
+            Connection connection = null;
+            try {
+                connection = DBConnection.instance.getReadConnection(sessionID);
+                if (!BalanceCheckpoints.isUpToDate(connection, sessionID)) {
+                    // The checkpoints have to be brought up to date, which requires the writer.
+                    DbUtils.closeQuietly(connection);
+                    connection = DBConnection.instance.getConnection(sessionID);
+                }
+                List<BalanceHistory> balanceHistories = BalanceCheckpoints.getBalanceHistories(connection, sessionID,
+                        timeIntervals);
+                connection.commit();
+                return balanceHistories;
+            } catch (SQLException e) {
+                e.printStackTrace();
+                DBUtil.executeRollback(connection);
+                response.setStatus(500);
+                return null;
+            } finally {
+                DbUtils.closeQuietly(connection);
+            }
+        }
+
         List<Transaction> transactions = new ArrayList<>();
         List<SavingGoal> savingGoals = new ArrayList<>();
 
-        String transactionsQuery = "SELECT transaction_id AS id, amount, date, external_iban, type, description FROM " +
-                "transactions WHERE session_id = ? ORDER BY datetime(date);";
+        String transactionsQuery = "SELECT transaction_id AS id, amount, date, date_millis, date_offset, " +
+                "external_iban, type, description FROM transactions WHERE session_id = ? ORDER BY date_millis, " +
+                "transaction_id;";
         String savingGoalsQuery = "SELECT goal, save_per_month AS spm, minimum_balance_required AS mbr FROM " +
-                "saving_goals WHERE session_id = ? ORDER BY datetime(creation_date_time);";
+                "saving_goals WHERE session_id = ? ORDER BY creation_date_time, saving_goal_id;";
         Connection connection = null;
         PreparedStatement transactionsPreparedStatement = null;
         PreparedStatement savingGoalsPreparedStatement = null;
         ResultSet transactionsResultSet = null;
         ResultSet savingGoalsResultSet = null;
         try {
-            connection = DBConnection.instance.getConnection();
+            connection = DBConnection.instance.getReadConnection(sessionID);
             transactionsPreparedStatement = connection.prepareStatement(transactionsQuery);
             transactionsPreparedStatement.setString(1, sessionID);
 
@@ -64,10 +197,11 @@ public class BalanceHistoryController {
 
             while (transactionsResultSet.next()) {
                 transactions.add(new Transaction(transactionsResultSet.getInt("id"), transactionsResultSet.getString("date"),
-                        Money.ofMinor(CurrencyUnit.EUR, transactionsResultSet
+                        DBUtil.getTransactionDate(transactionsResultSet), Money.ofMinor(CurrencyUnit.EUR, transactionsResultSet
                         .getLong("amount")), transactionsResultSet.getString("external_iban"), Type.valueOf(transactionsResultSet.getString
                         ("type")), null, null));
             }
+            Metrics.instance.increment("rows", "balance-history", transactions.size());
 
             savingGoalsPreparedStatement = connection.prepareStatement(savingGoalsQuery);
             savingGoalsPreparedStatement.setString(1, sessionID);
@@ -133,24 +267,67 @@ public class BalanceHistoryController {
         return timeIntervals;
     }
 
-    private static List<List<Transaction>> parseTransactions(List<Transaction> transactions, List<DateTime>
+    /**
+     * Calculates the balance history for the intervals between the given points in time by replaying the ledger of the
+     * session merged with its archive, without building a transaction object for any of its rows.
+     *
+     * @param archive the archived transactions of the session, or null if it has none
+     */
+    static List<BalanceHistory> getBalanceHistories(Ledger ledger, ArchiveSegment archive, List<SavingGoal> savingGoals,
+                                                    List<DateTime> timeIntervals) {
+        long[] boundaries = new long[timeIntervals.size()];
+        for (int i = 0; i < boundaries.length; i++) {
+            boundaries[i] = timeIntervals.get(i).getMillis();
+        }
+
+        SavingGoalSimulation simulation = new SavingGoalSimulation(savingGoals, 0);
+        BalanceCheckpoints.IntervalCursor cursor = new BalanceCheckpoints.IntervalCursor(boundaries);
+        ledger.readLock().lock();
+        try {
+            HistoryCursor history = new HistoryCursor(ledger, archive, boundaries[boundaries.length - 1]);
+            while (history.next()) {
+                long millis = history.getMillis();
+                long amount = history.getAmount();
+                Type type = history.getType();
+                if (millis < boundaries[0]) {
+                    // Like the list replay, transactions before the first interval are applied before the months.
+                    simulation.apply(millis, history.getZone(), amount, type);
+                    continue;
+                }
+                cursor.advance(millis, simulation.getBalance());
+                simulation.advanceTo(millis, history.getZone());
+                long before = simulation.getBalance();
+                simulation.apply(millis, history.getZone(), amount, type);
+                cursor.getStatistics().add(before, type, amount, simulation.getBalance());
+            }
+            Metrics.instance.increment("rows", "balance-history", history.getRows());
+        } finally {
+            ledger.readLock().unlock();
+        }
+        cursor.advance(Long.MAX_VALUE, simulation.getBalance());
+
+        return cursor.getBalanceHistories(timeIntervals);
+    }
+
+    static List<List<Transaction>> parseTransactions(List<Transaction> transactions, List<DateTime>
             timeIntervals) {
         List<List<Transaction>> transactionsInTimeIntervals = new ArrayList<>();
 
+        int index = 0;
         for (DateTime endTime : timeIntervals) {
-            List<Transaction> currentTimeIntervalTransactions = new ArrayList<>();
-
-            while (!transactions.isEmpty() && DateTime.parse(transactions.get(0).getDate()).isBefore(endTime)) {
-                currentTimeIntervalTransactions.add(transactions.get(0));
-                transactions.remove(0);
+            long end = endTime.getMillis();
+            int start = index;
+            while (index < transactions.size() && transactions.get(index).getMillis() < end) {
+                index++;
             }
 
-            transactionsInTimeIntervals.add(currentTimeIntervalTransactions);
+            transactionsInTimeIntervals.add(new ArrayList<>(transactions.subList(start, index)));
         }
+        transactions.subList(0, index).clear();
         return transactionsInTimeIntervals;
     }
 
-    private static List<BalanceHistory> getBalanceHistories(List<List<Transaction>> transactions, List<DateTime>
+    static List<BalanceHistory> getBalanceHistories(List<List<Transaction>> transactions, List<DateTime>
             dateIntervals, List<SavingGoal> savingGoals) {
         SavingGoalController savingGoalController = new SavingGoalController();
         DateTime systemTime = null;
@@ -159,18 +336,19 @@ public class BalanceHistoryController {
 
         for (int i = 0; i < transactions.get(0).size(); i++) {
             Transaction transaction = transactions.get(0).get(i);
-            DateTime transactionTime = DateTime.parse(transaction.getDate());
+            DateTime transactionTime = transaction.getTime();
             if (transaction.getType().equals(Type.deposit)) {
                 balance = balance.plus(transaction.getAmount());
             } else {
                 balance = balance.minus(transaction.getAmount());
             }
 
-            if (i != 0) {
+            // Before the first interval, a transaction is applied before the months started since the previous one.
+            if (systemTime != null) {
                 balance = savingGoalController.calculateNewBalances(savingGoals, balance, systemTime,
                         transactionTime);
             }
-            systemTime = DateTime.parse(transaction.getDate());
+            systemTime = transactionTime;
         }
 
         transactions.remove(0);
@@ -187,9 +365,12 @@ public class BalanceHistoryController {
             for (int j = 0; j < currentTransactions.size(); j++) {
                 Transaction transaction = currentTransactions.get(j);
 
-                DateTime transactionTime = DateTime.parse(transaction.getDate());
-                balance = savingGoalController.calculateNewBalances(savingGoals, balance, systemTime,
-                        transactionTime);
+                DateTime transactionTime = transaction.getTime();
+                // Within the intervals the months are paid first. There is nothing to pay before the first transaction.
+                if (systemTime != null) {
+                    balance = savingGoalController.calculateNewBalances(savingGoals, balance, systemTime,
+                            transactionTime);
+                }
 
                 if (j == 0) {
                     open = balance.abs();
@@ -26,15 +26,12 @@ package nl.utwente.ing.controller;
 
 import com.google.gson.Gson;
 import com.google.gson.JsonSyntaxException;
-import nl.utwente.ing.controller.database.DBConnection;
-import nl.utwente.ing.controller.database.DBUtil;
 import nl.utwente.ing.model.Category;
-import org.apache.commons.dbutils.DbUtils;
+import nl.utwente.ing.repository.Repositories;
+import nl.utwente.ing.repository.StorageException;
 import org.springframework.web.bind.annotation.*;
 
 import javax.servlet.http.HttpServletResponse;
-import java.sql.*;
-import java.util.ArrayList;
 import java.util.List;
 
 @RestController
@@ -47,33 +44,13 @@ public class CategoryController {
                                            HttpServletResponse response) {
 
         String sessionID = headerSessionID == null ? querySessionID : headerSessionID;
-        String query = "SELECT c.category_id, c.name FROM categories c WHERE c.session_id = ?;";
-        Connection connection = null;
-        PreparedStatement preparedStatement = null;
-        ResultSet resultSet = null;
 
         try {
-            connection = DBConnection.instance.getConnection();
-            preparedStatement = connection.prepareStatement(query);
-            preparedStatement.setString(1, sessionID);
-            resultSet = preparedStatement.executeQuery();
-
-            List<Category> results = new ArrayList<>();
-
-            while (resultSet.next()) {
-                int id = resultSet.getInt(1);
-                String name = resultSet.getString(2);
-                results.add(new Category(id, name));
-            }
-
-            return results;
-        } catch (SQLException e) {
+            return Repositories.instance.getCategories().getAll(sessionID);
+        } catch (StorageException e) {
             e.printStackTrace();
             response.setStatus(500);
             return null;
-        } finally {
-            DBUtil.executeCommit(connection);
-            DbUtils.closeQuietly(connection, preparedStatement, resultSet);
         }
     }
 
@@ -92,41 +69,14 @@ public class CategoryController {
                 throw new JsonSyntaxException("Category is missing name element");
             }
 
-            String insertQuery = "INSERT INTO categories (name, session_id) VALUES (?, ?);";
-            String idQuery = "SELECT last_insert_rowid()";
-
-            Connection connection = null;
-            PreparedStatement preparedStatement = null;
-            PreparedStatement idPreparedStatement = null;
-            ResultSet resultSet = null;
-
             try {
-                connection = DBConnection.instance.getConnection();
-                preparedStatement = connection.prepareStatement(insertQuery);
-
-                preparedStatement.setString(1, category.getName());
-                preparedStatement.setString(2, sessionID);
-
-                if (preparedStatement.executeUpdate() != 1) {
-                    response.setStatus(405);
-                    return null;
-                }
-
-                idPreparedStatement = connection.prepareStatement(idQuery);
-                resultSet = idPreparedStatement.executeQuery();
-                int id = resultSet.getInt(1);
-                connection.commit();
-                Category resultCategory = getCategory(headerSessionID, querySessionID, id, response);
+                Category resultCategory = Repositories.instance.getCategories().create(sessionID, category.getName());
                 response.setStatus(201);
                 return resultCategory;
-            } catch (SQLException e) {
+            } catch (StorageException e) {
                 e.printStackTrace();
                 response.setStatus(500);
                 return null;
-            } finally {
-                DBUtil.executeCommit(connection);
-                DbUtils.closeQuietly(preparedStatement);
-                DbUtils.closeQuietly(connection, idPreparedStatement, resultSet);
             }
         } catch (JsonSyntaxException e) {
             e.printStackTrace();
@@ -141,34 +91,15 @@ public class CategoryController {
                                 @PathVariable("id") int id,
                                 HttpServletResponse response) {
         String sessionID = headerSessionID == null ? querySessionID : headerSessionID;
-        String query = "SELECT c.category_id, c.name FROM categories c WHERE category_id = ? AND session_id = ?";
-
-        Connection connection = null;
-        PreparedStatement preparedStatement = null;
-        ResultSet resultSet = null;
 
         try {
-            connection = DBConnection.instance.getConnection();
-            preparedStatement = connection.prepareStatement(query);
-            preparedStatement.setInt(1, id);
-            preparedStatement.setString(2, sessionID);
-            resultSet = preparedStatement.executeQuery();
-
-            Category category = null;
-            response.setStatus(404);
-            if (resultSet.next()) {
-                response.setStatus(200);
-                category = new Category(id, resultSet.getString(2));
-            }
-
+            Category category = Repositories.instance.getCategories().get(sessionID, id);
+            response.setStatus(category == null ? 404 : 200);
             return category;
-        } catch (SQLException e) {
+        } catch (StorageException e) {
             e.printStackTrace();
             response.setStatus(500);
             return null;
-        } finally {
-            DBUtil.executeCommit(connection);
-            DbUtils.closeQuietly(connection, preparedStatement, resultSet);
         }
     }
 
@@ -189,34 +120,17 @@ public class CategoryController {
                 throw new JsonSyntaxException("Category is missing name element");
             }
 
-            String query = "UPDATE categories SET name = ? WHERE category_id = ? AND session_id = ?";
-            Connection connection = null;
-            PreparedStatement preparedStatement = null;
-
             try {
-                connection = DBConnection.instance.getConnection();
-                preparedStatement = connection.prepareStatement(query);
-
-                preparedStatement.setString(1, category.getName());
-                preparedStatement.setInt(2, id);
-                preparedStatement.setString(3, sessionID);
-
-                Category result = null;
-                response.setStatus(404);
-                if (preparedStatement.executeUpdate() == 1) {
+                if (Repositories.instance.getCategories().update(sessionID, category)) {
                     response.setStatus(200);
-                    result = category;
+                    return category;
                 }
-
-                return result;
-            } catch (SQLException e) {
+                response.setStatus(404);
+                return null;
+            } catch (StorageException e) {
                 e.printStackTrace();
                 response.setStatus(500);
                 return null;
-            } finally {
-                DBUtil.executeCommit(connection);
-                DbUtils.closeQuietly(preparedStatement);
-                DbUtils.closeQuietly(connection);
             }
         } catch (JsonSyntaxException e) {
             e.printStackTrace();
@@ -231,7 +145,23 @@ public class CategoryController {
                                @PathVariable("id") int id,
                                HttpServletResponse response) {
         String sessionID = headerSessionID == null ? querySessionID : headerSessionID;
-        String query = "DELETE FROM categories WHERE category_id = ? AND session_id = ?";
-        DBUtil.executeDelete(response, query, id, sessionID);
+
+        try {
+            response.setStatus(Repositories.instance.getCategories().delete(sessionID, id) ? 204 : 404);
+        } catch (StorageException e) {
+            e.printStackTrace();
+            response.setStatus(500);
+        }
+    }
+
+    /**
+     * Checks whether a category given in a request belongs to the session. Requests without a category are valid, but
+     * a category without an ID is not.
+     */
+    static boolean belongsToSession(String sessionID, Category category) throws StorageException {
+        if (category == null) {
+            return true;
+        }
+        return category.getId() != null && Repositories.instance.getCategories().exists(sessionID, category.getId());
     }
 }
@@ -1,19 +1,13 @@
 package nl.utwente.ing.controller;
 
 import com.google.gson.*;
-import nl.utwente.ing.controller.database.DBConnection;
-import nl.utwente.ing.controller.database.DBUtil;
 import nl.utwente.ing.model.Category;
 import nl.utwente.ing.model.CategoryRule;
-import org.apache.commons.dbutils.DbUtils;
+import nl.utwente.ing.repository.Repositories;
+import nl.utwente.ing.repository.StorageException;
 import org.springframework.web.bind.annotation.*;
 
 import javax.servlet.http.HttpServletResponse;
-import java.sql.Connection;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
-import java.sql.SQLException;
-import java.util.ArrayList;
 import java.util.List;
 
 @RestController
@@ -26,41 +20,16 @@ public class CategoryRuleController {
 
         String sessionID = headerSessionID != null ? headerSessionID : querySessionID;
 
-        List<CategoryRule> categoryRules = new ArrayList<>();
-
-        String categoryRuleQuery = "SELECT category_rule_id, description, iBAN, type, category_id, apply_on_history " +
-                "FROM category_rules " +
-                "WHERE session_id = ?;";
-        Connection connection = null;
-        PreparedStatement preparedStatement = null;
-        ResultSet resultSet = null;
-
         try {
-            connection = DBConnection.instance.getConnection();
-            preparedStatement = connection.prepareStatement(categoryRuleQuery);
-            preparedStatement.setString(1, sessionID);
-            resultSet = preparedStatement.executeQuery();
-
-            while (resultSet.next()) {
-                categoryRules.add(new CategoryRule(resultSet.getInt(1),
-                        resultSet.getString(2),
-                        resultSet.getString(3),
-                        resultSet.getString(4),
-                        new Category(resultSet.getInt(5), null),
-                        resultSet.getBoolean(6)
-                        ));
-            }
+            List<CategoryRule> categoryRules = Repositories.instance.getCategoryRules().getAll(sessionID);
             response.setStatus(200);
             GsonBuilder gsonBuilder = new GsonBuilder();
             gsonBuilder.registerTypeAdapter(CategoryRule.class, new CategoryRuleAdapter());
             return gsonBuilder.create().toJson(categoryRules);
-        } catch (SQLException e) {
+        } catch (StorageException e) {
             e.printStackTrace();
             response.setStatus(500);
             return null;
-        } finally {
-            DBUtil.executeCommit(connection);
-            DbUtils.closeQuietly(connection, preparedStatement, resultSet);
         }
     }
 
@@ -81,60 +50,26 @@ public class CategoryRuleController {
                 throw new JsonSyntaxException("CategoryRule is missing attributes");
             }
 
-            if (DBUtil.checkCategorySession(sessionID, categoryRule.getCategory())) {
-                String query = "INSERT INTO category_rules (description, iBAN, type, category_id, apply_on_history, session_id) VALUES (?, ?, ?, ?, ?, ?)";
-                String resultQuery = "SELECT last_insert_rowid() FROM category_rules LIMIT 1;";
-
-                Connection connection = null;
-                PreparedStatement preparedStatement = null;
-                PreparedStatement resultPreparedStatement = null;
-                ResultSet resultSet = null;
-
-                try {
-                    connection = DBConnection.instance.getConnection();
-                    preparedStatement = connection.prepareStatement(query);
-                    resultPreparedStatement = connection.prepareStatement(resultQuery);
-
-                    preparedStatement.setString(1, categoryRule.getDescription());
-                    preparedStatement.setString(2, categoryRule.getiBAN());
-                    preparedStatement.setString(3, categoryRule.getType());
-                    preparedStatement.setInt(4, categoryRule.getCategory().getId());
-                    preparedStatement.setBoolean(5, categoryRule.getApplyOnHistory());
-                    preparedStatement.setString(6, sessionID);
-
-                    if (preparedStatement.executeUpdate() != 1) {
-                        response.setStatus(405);
-                        return null;
-                    }
-
-                    resultSet = resultPreparedStatement.executeQuery();
-
-                    if (resultSet.next()) {
-                        categoryRule.setId(resultSet.getInt(1));
-                    } else {
-                        response.setStatus(405);
-                        return null;
-                    }
-                } catch (SQLException e) {
-                    e.printStackTrace();
-                    response.setStatus(500);
+            try {
+                if (!CategoryController.belongsToSession(sessionID, categoryRule.getCategory())) {
+                    response.setStatus(404);
                     return null;
-                } finally {
-                    DBUtil.executeCommit(connection);
-                    DbUtils.closeQuietly(preparedStatement);
-                    DbUtils.closeQuietly(connection, resultPreparedStatement, resultSet);
-                }
-                if (categoryRule.getApplyOnHistory()) {
-                    applyCategoryRuleOnHistory(categoryRule, sessionID);
                 }
 
-                String resultCategoryRule = getCategoryRule(headerSessionID, querySessionID, categoryRule.getId(), response);
-                response.setStatus(201);
-                return resultCategoryRule;
-            } else {
-                response.setStatus(404);
+                Integer jobID = Repositories.instance.getCategoryRules().create(sessionID, categoryRule);
+                if (jobID != null) {
+                    // The rule is applied to the existing transactions in the background.
+                    response.setHeader("X-job-ID", String.valueOf(jobID));
+                }
+            } catch (StorageException e) {
+                e.printStackTrace();
+                response.setStatus(500);
                 return null;
             }
+
+            String resultCategoryRule = getCategoryRule(headerSessionID, querySessionID, categoryRule.getId(), response);
+            response.setStatus(201);
+            return resultCategoryRule;
         } catch (JsonSyntaxException | NumberFormatException e) {
             e.printStackTrace();
             response.setStatus(405);
@@ -148,40 +83,22 @@ public class CategoryRuleController {
                                         @PathVariable("id") int id,
                                         HttpServletResponse response) {
         String sessionID = headerSessionID == null ? querySessionID : headerSessionID;
-        String query = "SELECT category_rule_id, description, iBAN, type, category_id, apply_on_history " +
-                "FROM category_rules WHERE session_id = ? AND category_rule_id = ?";
-        Connection connection = null;
-        PreparedStatement preparedStatement = null;
-        ResultSet resultSet = null;
-
 
         try {
-            connection = DBConnection.instance.getConnection();
-            preparedStatement = connection.prepareStatement(query);
-            preparedStatement.setString(1, sessionID);
-            preparedStatement.setInt(2, id);
-
-            resultSet = preparedStatement.executeQuery();
-
-            if (resultSet.next()) {
-                response.setStatus(200);
-                CategoryRule categoryRule = new CategoryRule(resultSet.getInt(1), resultSet.getString(2), resultSet.getString(3), resultSet.getString(4), new Category(resultSet.getInt(5), null), resultSet.getBoolean(6));
-
-                GsonBuilder gsonBuilder = new GsonBuilder();
-                gsonBuilder.registerTypeAdapter(CategoryRule.class, new CategoryRuleAdapter());
-                return gsonBuilder.create().toJson(categoryRule);
-
-            } else {
+            CategoryRule categoryRule = Repositories.instance.getCategoryRules().get(sessionID, id);
+            if (categoryRule == null) {
                 response.setStatus(404);
                 return null;
             }
-        } catch (SQLException e) {
+
+            response.setStatus(200);
+            GsonBuilder gsonBuilder = new GsonBuilder();
+            gsonBuilder.registerTypeAdapter(CategoryRule.class, new CategoryRuleAdapter());
+            return gsonBuilder.create().toJson(categoryRule);
+        } catch (StorageException e) {
             e.printStackTrace();
             response.setStatus(500);
             return null;
-        } finally {
-            DBUtil.executeCommit(connection);
-            DbUtils.closeQuietly(connection, preparedStatement, resultSet);
         }
     }
 
@@ -207,41 +124,17 @@ public class CategoryRuleController {
                 throw new JsonSyntaxException("CategoryRule is missing elements");
             }
 
-            if (DBUtil.checkCategorySession(sessionID, categoryRule.getCategory())) {
-                String query = "UPDATE category_rules SET description = ?, iBAN = ?, type = ?, category_id = ? WHERE category_rule_id = ? AND session_id = ?";
-                Connection connection = null;
-                PreparedStatement preparedStatement = null;
-
-                try {
-                    connection = DBConnection.instance.getConnection();
-                    preparedStatement = connection.prepareStatement(query);
-
-                    preparedStatement.setString(1, categoryRule.getDescription());
-                    preparedStatement.setString(2, categoryRule.getiBAN());
-                    preparedStatement.setString(3, categoryRule.getType());
-                    preparedStatement.setInt(4, categoryRule.getCategory().getId());
-                    preparedStatement.setInt(5, id);
-                    preparedStatement.setString(6, sessionID);
-
-                    if (preparedStatement.executeUpdate() == 1) {
-                        connection.commit();
-                        return getCategoryRule(headerSessionID, querySessionID, id, response);
-                    } else {
-                        response.setStatus(404);
-                        return null;
-                    }
-                } catch (SQLException e) {
-                    e.printStackTrace();
-                    response.setStatus(500);
+            try {
+                if (CategoryController.belongsToSession(sessionID, categoryRule.getCategory()) &&
+                        Repositories.instance.getCategoryRules().update(sessionID, categoryRule)) {
+                    return getCategoryRule(headerSessionID, querySessionID, id, response);
+                } else {
+                    response.setStatus(404);
                     return null;
-                } finally {
-                    DBUtil.executeCommit(connection);
-                    DbUtils.closeQuietly(preparedStatement);
-                    DbUtils.closeQuietly(connection);
                 }
-
-            } else {
-                response.setStatus(404);
+            } catch (StorageException e) {
+                e.printStackTrace();
+                response.setStatus(500);
                 return null;
             }
         } catch (JsonSyntaxException e) {
@@ -257,41 +150,12 @@ public class CategoryRuleController {
                                    @PathVariable("id") int id,
                                    HttpServletResponse response) {
         String sessionID = headerSessionID == null ? querySessionID : headerSessionID;
-        String query = "DELETE FROM category_rules WHERE category_rule_id = ? AND session_id = ?";
-        DBUtil.executeDelete(response, query, id, sessionID);
-
-    }
-
-    private void applyCategoryRuleOnHistory(CategoryRule categoryRule, String sessionID) {
-        String query = "UPDATE transactions SET category_id = ? WHERE session_id = ?" +
-                "AND (? = '' OR description = ?)" +
-                "AND (? = '' OR external_iban = ?)" +
-                "AND (? = '' OR type = ?);";
-        Connection connection = null;
-        PreparedStatement preparedStatement = null;
 
         try {
-            connection = DBConnection.instance.getConnection();
-            preparedStatement = connection.prepareStatement(query);
-
-            preparedStatement.setInt(1, categoryRule.getCategory().getId());
-            preparedStatement.setString(2, sessionID);
-            preparedStatement.setString(3, categoryRule.getDescription());
-            preparedStatement.setString(4, categoryRule.getDescription());
-            preparedStatement.setString(5, categoryRule.getiBAN());
-            preparedStatement.setString(6, categoryRule.getiBAN());
-            preparedStatement.setString(7, categoryRule.getType());
-            preparedStatement.setString(8, categoryRule.getType());
-
-            if (preparedStatement.executeUpdate() == -1) {
-                throw new SQLException("Update went wrong");
-            }
-        } catch (SQLException e) {
+            response.setStatus(Repositories.instance.getCategoryRules().delete(sessionID, id) ? 204 : 404);
+        } catch (StorageException e) {
             e.printStackTrace();
-        } finally {
-            DBUtil.executeCommit(connection);
-            DbUtils.closeQuietly(preparedStatement);
-            DbUtils.closeQuietly(connection);
+            response.setStatus(500);
         }
     }
 }
@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2018, Joost Prins <github.com/joostprins>, Tom Leemreize <https://github.com/oplosthee>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package nl.utwente.ing.controller;
+
+import com.google.gson.JsonObject;
+import org.apache.commons.dbutils.DbUtils;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Applies a category rule to the existing transactions of its session, one chunk of transactions at a time. The rule
+ * is stored in the parameters of the job as it was created, so later changes to the rule do not affect the job.
+ */
+public class CategoryRuleHistoryTask implements JobRunner.Task {
+
+    /**
+     * Returns the parameters of a job which applies the given rule.
+     */
+    public static JsonObject getParameters(int categoryID, String description, String iBAN, String type) {
+        JsonObject parameters = new JsonObject();
+        parameters.addProperty("category_id", categoryID);
+        parameters.addProperty("description", description);
+        parameters.addProperty("iBAN", iBAN);
+        parameters.addProperty("type", type);
+        return parameters;
+    }
+
+    @Override
+    public JobRunner.Chunk process(Connection connection, String sessionID, JsonObject parameters, long cursor,
+                                   int chunkSize) throws SQLException {
+        String chunkQuery = "SELECT transaction_id FROM transactions WHERE session_id = ? AND transaction_id > ? " +
+                "ORDER BY transaction_id LIMIT ?;";
+        String updateQuery = "UPDATE transactions SET category_id = ? WHERE session_id = ? AND transaction_id > ? " +
+                "AND transaction_id <= ? " +
+                "AND (? = '' OR description = ?) " +
+                "AND (? = '' OR external_iban = ?) " +
+                "AND (? = '' OR type = ?);";
+        int categoryID = parameters.get("category_id").getAsInt();
+        String description = parameters.get("description").getAsString();
+        String iBAN = parameters.get("iBAN").getAsString();
+        String type = parameters.get("type").getAsString();
+
+        PreparedStatement chunkPreparedStatement = null;
+        PreparedStatement updatePreparedStatement = null;
+        ResultSet resultSet = null;
+        try {
+            chunkPreparedStatement = connection.prepareStatement(chunkQuery);
+            chunkPreparedStatement.setString(1, sessionID);
+            chunkPreparedStatement.setLong(2, cursor);
+            chunkPreparedStatement.setInt(3, chunkSize);
+            resultSet = chunkPreparedStatement.executeQuery();
+            int examined = 0;
+            long lastID = cursor;
+            while (resultSet.next()) {
+                examined++;
+                lastID = resultSet.getLong(1);
+            }
+            if (examined == 0) {
+                return new JobRunner.Chunk(cursor, 0, 0, true);
+            }
+
+            updatePreparedStatement = connection.prepareStatement(updateQuery);
+            updatePreparedStatement.setInt(1, categoryID);
+            updatePreparedStatement.setString(2, sessionID);
+            updatePreparedStatement.setLong(3, cursor);
+            updatePreparedStatement.setLong(4, lastID);
+            updatePreparedStatement.setString(5, description);
+            updatePreparedStatement.setString(6, description);
+            updatePreparedStatement.setString(7, iBAN);
+            updatePreparedStatement.setString(8, iBAN);
+            updatePreparedStatement.setString(9, type);
+            updatePreparedStatement.setString(10, type);
+            int updated = updatePreparedStatement.executeUpdate();
+            if (updated > 0) {
+                SpendingRollups.refreshCategory(connection, sessionID, cursor + 1, lastID, categoryID);
+            }
+            return new JobRunner.Chunk(lastID, examined, updated, examined < chunkSize);
+        } finally {
+            DbUtils.closeQuietly(resultSet);
+            DbUtils.closeQuietly(chunkPreparedStatement);
+            DbUtils.closeQuietly(updatePreparedStatement);
+        }
+    }
+}
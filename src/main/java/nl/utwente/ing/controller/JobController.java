@@ -0,0 +1,182 @@
+/*
+ * Copyright (c) 2018, Joost Prins <github.com/joostprins>, Tom Leemreize <https://github.com/oplosthee>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package nl.utwente.ing.controller;
+
+import com.google.gson.*;
+import nl.utwente.ing.controller.database.DBConnection;
+import nl.utwente.ing.controller.database.DBUtil;
+import nl.utwente.ing.model.Job;
+import nl.utwente.ing.repository.Repositories;
+import org.apache.commons.dbutils.DbUtils;
+import org.springframework.web.bind.annotation.*;
+
+import javax.servlet.http.HttpServletResponse;
+import java.lang.reflect.Type;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+
+@RestController
+@RequestMapping("/api/v1/jobs")
+public class JobController {
+
+    /**
+     * Returns the background jobs of a session, the most recent first. Only the SQLite storage engine runs background
+     * jobs; the other engines apply category rules to the history immediately, so their sessions have no jobs.
+     * @param response to edit the status code of the response
+     */
+    @RequestMapping(value = "", method = RequestMethod.GET)
+    public String getAllJobs(@RequestHeader(value = "X-session-ID", required = false) String headerSessionID,
+                             @RequestParam(value = "session_id", required = false) String querySessionID,
+                             HttpServletResponse response) {
+        String sessionID = headerSessionID == null ? querySessionID : headerSessionID;
+        if (!Repositories.instance.isSQLite()) {
+            response.setStatus(200);
+            return "[]";
+        }
+
+        Connection connection = null;
+        try {
+            connection = DBConnection.instance.getReadConnection(sessionID);
+            List<Job> jobs = JobRunner.getAll(connection, sessionID);
+            response.setStatus(200);
+            return createGson().toJson(jobs);
+        } catch (SQLException e) {
+            e.printStackTrace();
+            response.setStatus(500);
+            return null;
+        } finally {
+            DBUtil.executeCommit(connection);
+            DbUtils.closeQuietly(connection);
+        }
+    }
+
+    /**
+     * Returns the status and progress of a background job.
+     * @param id the ID of the job
+     * @param response to edit the status code of the response
+     */
+    @RequestMapping(value = "/{id}", method = RequestMethod.GET)
+    public String getJob(@RequestHeader(value = "X-session-ID", required = false) String headerSessionID,
+                         @RequestParam(value = "session_id", required = false) String querySessionID,
+                         @PathVariable("id") int id,
+                         HttpServletResponse response) {
+        String sessionID = headerSessionID == null ? querySessionID : headerSessionID;
+        if (!Repositories.instance.isSQLite()) {
+            response.setStatus(404);
+            return null;
+        }
+
+        Connection connection = null;
+        try {
+            connection = DBConnection.instance.getReadConnection(sessionID);
+            Job job = JobRunner.get(connection, sessionID, id);
+            if (job == null) {
+                response.setStatus(404);
+                return null;
+            }
+            response.setStatus(200);
+            return createGson().toJson(job);
+        } catch (SQLException e) {
+            e.printStackTrace();
+            response.setStatus(500);
+            return null;
+        } finally {
+            DBUtil.executeCommit(connection);
+            DbUtils.closeQuietly(connection);
+        }
+    }
+
+    /**
+     * Cancels a background job which has not finished yet. The changes it already committed are kept.
+     * @param id the ID of the job
+     * @param response to edit the status code of the response
+     */
+    @RequestMapping(value = "/{id}/cancel", method = RequestMethod.POST)
+    public String cancelJob(@RequestHeader(value = "X-session-ID", required = false) String headerSessionID,
+                            @RequestParam(value = "session_id", required = false) String querySessionID,
+                            @PathVariable("id") int id,
+                            HttpServletResponse response) {
+        String sessionID = headerSessionID == null ? querySessionID : headerSessionID;
+        if (!Repositories.instance.isSQLite()) {
+            response.setStatus(404);
+            return null;
+        }
+
+        Connection connection = null;
+        try {
+            connection = DBConnection.instance.getConnection(sessionID);
+            boolean cancelled = JobRunner.cancel(connection, sessionID, id);
+            Job job = JobRunner.get(connection, sessionID, id);
+            connection.commit();
+            if (job == null) {
+                response.setStatus(404);
+                return null;
+            } else if (!cancelled) {
+                // The job has already finished.
+                response.setStatus(405);
+                return null;
+            }
+            response.setStatus(200);
+            return createGson().toJson(job);
+        } catch (SQLException e) {
+            e.printStackTrace();
+            DBUtil.executeRollback(connection);
+            response.setStatus(500);
+            return null;
+        } finally {
+            DbUtils.closeQuietly(connection);
+        }
+    }
+
+    private static Gson createGson() {
+        GsonBuilder gsonBuilder = new GsonBuilder();
+        gsonBuilder.registerTypeAdapter(Job.class, new JobAdapter());
+        return gsonBuilder.create();
+    }
+}
+
+class JobAdapter implements JsonSerializer<Job> {
+
+    @Override
+    public JsonElement serialize(Job job, Type type, JsonSerializationContext jsonSerializationContext) {
+        JsonObject object = new JsonObject();
+
+        object.addProperty("id", job.getId());
+        object.addProperty("type", job.getType());
+        object.addProperty("status", job.getStatus());
+        object.addProperty("examined", job.getExamined());
+        object.addProperty("updated", job.getUpdated());
+        object.addProperty("total", job.getTotal());
+        object.addProperty("progress", job.getProgress());
+        if (job.getError() != null) {
+            object.addProperty("error", job.getError());
+        }
+        object.addProperty("createdAt", job.getCreatedAt());
+        object.addProperty("modifiedAt", job.getModifiedAt());
+
+        return object;
+    }
+}
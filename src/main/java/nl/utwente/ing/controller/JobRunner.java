@@ -0,0 +1,430 @@
+/*
+ * Copyright (c) 2018, Joost Prins <github.com/joostprins>, Tom Leemreize <https://github.com/oplosthee>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package nl.utwente.ing.controller;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import nl.utwente.ing.Settings;
+import nl.utwente.ing.cache.LedgerCache;
+import nl.utwente.ing.cache.ResponseCache;
+import nl.utwente.ing.cache.SessionVersions;
+import nl.utwente.ing.controller.database.DBConnection;
+import nl.utwente.ing.controller.database.DBUtil;
+import nl.utwente.ing.metrics.Metrics;
+import nl.utwente.ing.model.Job;
+import org.apache.commons.dbutils.DbUtils;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executes long-running operations on the history of a session in the background, so they do not hold the writer for
+ * the whole operation.
+ *
+ * Jobs are stored in the jobs table and executed in chunks of transactions in order of ID. Every chunk is committed
+ * together with the progress of its job, after which the writer is released so other requests can write before the
+ * next chunk. The status of a job is read again at the start of every chunk, so a job is cancelled by changing its
+ * status, and jobs which were interrupted by a restart are resumed after their last committed chunk.
+ */
+public class JobRunner {
+
+    public static JobRunner instance = new JobRunner(
+            Settings.getInt("jobs.threads", 1),
+            Settings.getInt("jobs.chunk-size", 500),
+            Settings.getLong("jobs.chunk-pause-ms", 10));
+
+    /**
+     * The type of the job which applies a category rule to the existing transactions of its session.
+     */
+    public static final String APPLY_CATEGORY_RULE = "apply-category-rule";
+
+    private static final Map<String, Task> TASKS = new HashMap<>();
+
+    static {
+        TASKS.put(APPLY_CATEGORY_RULE, new CategoryRuleHistoryTask());
+    }
+
+    private final ExecutorService executor;
+    private final int chunkSize;
+    private final long chunkPauseMillis;
+
+    public JobRunner(int threads, int chunkSize, long chunkPauseMillis) {
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(Math.max(1, threads), runnable -> {
+            Thread thread = new Thread(runnable, "background-jobs-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.chunkSize = Math.max(1, chunkSize);
+        this.chunkPauseMillis = chunkPauseMillis;
+    }
+
+    /**
+     * Creates a job, which is executed once it is {@link #submit(int) submitted}. Should be called on the writer, so
+     * the job is committed together with the change which requires it.
+     *
+     * @param connection the writer
+     * @param sessionID the session on which the job operates
+     * @param type the type of the job
+     * @param parameters the parameters of the job, as expected by its type
+     * @return the ID of the created job
+     */
+    public static int create(Connection connection, String sessionID, String type, JsonObject parameters)
+            throws SQLException {
+        String query = "INSERT INTO jobs (session_id, type, parameters, status, total, created_at, modified_at) " +
+                "SELECT ?, ?, ?, ?, COUNT(*), ?, ? FROM transactions WHERE session_id = ?;";
+        String resultQuery = "SELECT last_insert_rowid() FROM jobs LIMIT 1;";
+        PreparedStatement preparedStatement = null;
+        PreparedStatement resultPreparedStatement = null;
+        ResultSet resultSet = null;
+        try {
+            long now = System.currentTimeMillis();
+            preparedStatement = connection.prepareStatement(query);
+            preparedStatement.setString(1, sessionID);
+            preparedStatement.setString(2, type);
+            preparedStatement.setString(3, parameters.toString());
+            preparedStatement.setString(4, Job.QUEUED);
+            preparedStatement.setLong(5, now);
+            preparedStatement.setLong(6, now);
+            preparedStatement.setString(7, sessionID);
+            preparedStatement.executeUpdate();
+
+            resultPreparedStatement = connection.prepareStatement(resultQuery);
+            resultSet = resultPreparedStatement.executeQuery();
+            if (!resultSet.next()) {
+                throw new SQLException("Could not retrieve the ID of the created job");
+            }
+            return resultSet.getInt(1);
+        } finally {
+            DbUtils.closeQuietly(resultSet);
+            DbUtils.closeQuietly(resultPreparedStatement);
+            DbUtils.closeQuietly(preparedStatement);
+        }
+    }
+
+    /**
+     * Returns a job of a session.
+     *
+     * @param connection the connection to use
+     * @param sessionID the session which owns the job
+     * @param jobID the ID of the job
+     * @return the job, or null if it does not exist
+     */
+    public static Job get(Connection connection, String sessionID, int jobID) throws SQLException {
+        List<Job> jobs = query(connection, "SELECT job_id, type, status, examined, updated, total, error, " +
+                "created_at, modified_at FROM jobs WHERE session_id = ? AND job_id = ?;", sessionID, jobID);
+        return jobs.isEmpty() ? null : jobs.get(0);
+    }
+
+    /**
+     * Returns the jobs of a session, the most recent first.
+     *
+     * @param connection the connection to use
+     * @param sessionID the session which owns the jobs
+     */
+    public static List<Job> getAll(Connection connection, String sessionID) throws SQLException {
+        return query(connection, "SELECT job_id, type, status, examined, updated, total, error, created_at, " +
+                "modified_at FROM jobs WHERE session_id = ? ORDER BY job_id DESC;", sessionID, null);
+    }
+
+    /**
+     * Cancels a job which has not finished yet. A running job stops before its next chunk; the chunks it already
+     * committed are not undone.
+     *
+     * @param connection the writer
+     * @param sessionID the session which owns the job
+     * @param jobID the ID of the job to cancel
+     * @return whether the job was cancelled, false if it does not exist or has already finished
+     */
+    public static boolean cancel(Connection connection, String sessionID, int jobID) throws SQLException {
+        String query = "UPDATE jobs SET status = ?, modified_at = ? WHERE session_id = ? AND job_id = ? AND " +
+                "status IN (?, ?);";
+        PreparedStatement preparedStatement = null;
+        try {
+            preparedStatement = connection.prepareStatement(query);
+            preparedStatement.setString(1, Job.CANCELLED);
+            preparedStatement.setLong(2, System.currentTimeMillis());
+            preparedStatement.setString(3, sessionID);
+            preparedStatement.setInt(4, jobID);
+            preparedStatement.setString(5, Job.QUEUED);
+            preparedStatement.setString(6, Job.RUNNING);
+            return preparedStatement.executeUpdate() == 1;
+        } finally {
+            DbUtils.closeQuietly(preparedStatement);
+        }
+    }
+
+    /**
+     * Executes a created job in the background, once it has been committed.
+     *
+     * @param sessionID the session on which the job operates
+     * @param jobID the ID of the job
+     */
+    public void submit(String sessionID, int jobID) {
+        executor.execute(() -> run(sessionID, jobID));
+    }
+
+    /**
+     * Submits the jobs which were not finished when the application stopped. Should be called once at startup.
+     */
+    public void resume() {
+        for (int shard = 0; shard < DBConnection.instance.getShardCount(); shard++) {
+            resume(shard);
+        }
+    }
+
+    private void resume(int shard) {
+        String query = "SELECT session_id, job_id FROM jobs WHERE status IN (?, ?) ORDER BY job_id;";
+        Connection connection = null;
+        PreparedStatement preparedStatement = null;
+        ResultSet resultSet = null;
+        try {
+            connection = DBConnection.instance.getReadConnection(shard);
+            preparedStatement = connection.prepareStatement(query);
+            preparedStatement.setString(1, Job.QUEUED);
+            preparedStatement.setString(2, Job.RUNNING);
+            resultSet = preparedStatement.executeQuery();
+            while (resultSet.next()) {
+                submit(resultSet.getString(1), resultSet.getInt(2));
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+        } finally {
+            DBUtil.executeCommit(connection);
+            DbUtils.closeQuietly(connection, preparedStatement, resultSet);
+        }
+    }
+
+    /**
+     * Executes the chunks of a job until it has finished or has been cancelled, pausing between the chunks so other
+     * writers are not starved.
+     */
+    private void run(String sessionID, int jobID) {
+        while (runChunk(sessionID, jobID)) {
+            if (chunkPauseMillis > 0) {
+                try {
+                    Thread.sleep(chunkPauseMillis);
+                } catch (InterruptedException e) {
+                    // The job is resumed after its last committed chunk when the application is started again.
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Executes the next chunk of a job and commits it together with the progress of the job.
+     *
+     * @return whether the job has more chunks to execute
+     */
+    private boolean runChunk(String sessionID, int jobID) {
+        String jobQuery = "SELECT type, parameters, status, cursor FROM jobs WHERE session_id = ? AND job_id = ?;";
+        String progressQuery = "UPDATE jobs SET status = ?, cursor = ?, examined = examined + ?, " +
+                "updated = updated + ?, modified_at = ? WHERE job_id = ?;";
+        long start = System.nanoTime();
+        boolean started = false;
+        Chunk chunk = null;
+        Connection connection = null;
+        PreparedStatement jobPreparedStatement = null;
+        PreparedStatement progressPreparedStatement = null;
+        ResultSet resultSet = null;
+        try {
+            connection = DBConnection.instance.getConnection(sessionID);
+            jobPreparedStatement = connection.prepareStatement(jobQuery);
+            jobPreparedStatement.setString(1, sessionID);
+            jobPreparedStatement.setInt(2, jobID);
+            resultSet = jobPreparedStatement.executeQuery();
+            if (!resultSet.next()) {
+                return false;
+            }
+            String type = resultSet.getString("type");
+            String status = resultSet.getString("status");
+            if (!Job.QUEUED.equals(status) && !Job.RUNNING.equals(status)) {
+                return false;
+            }
+            started = true;
+            Task task = TASKS.get(type);
+            if (task == null) {
+                throw new IllegalStateException("Unknown job type " + type);
+            }
+
+            SessionVersions.instance.bump(sessionID);
+            JsonObject parameters = new JsonParser().parse(resultSet.getString("parameters")).getAsJsonObject();
+            chunk = task.process(connection, sessionID, parameters, resultSet.getLong("cursor"), chunkSize);
+
+            progressPreparedStatement = connection.prepareStatement(progressQuery);
+            progressPreparedStatement.setString(1, chunk.done ? Job.COMPLETED : Job.RUNNING);
+            progressPreparedStatement.setLong(2, chunk.cursor);
+            progressPreparedStatement.setLong(3, chunk.examined);
+            progressPreparedStatement.setLong(4, chunk.updated);
+            progressPreparedStatement.setLong(5, System.currentTimeMillis());
+            progressPreparedStatement.setInt(6, jobID);
+            progressPreparedStatement.executeUpdate();
+            connection.commit();
+        } catch (SQLException | RuntimeException e) {
+            e.printStackTrace();
+            DBUtil.executeRollback(connection);
+            DbUtils.closeQuietly(connection);
+            connection = null;
+            fail(sessionID, jobID, e);
+            return false;
+        } finally {
+            DbUtils.closeQuietly(resultSet);
+            DbUtils.closeQuietly(jobPreparedStatement);
+            DbUtils.closeQuietly(progressPreparedStatement);
+            DBUtil.executeCommit(connection);
+            DbUtils.closeQuietly(connection);
+            if (started) {
+                invalidate(sessionID, chunk);
+            }
+        }
+
+        Metrics.instance.timer("jobs", "chunk").record(System.nanoTime() - start);
+        Metrics.instance.increment("jobs", "examined", chunk.examined);
+        Metrics.instance.increment("jobs", "updated", chunk.updated);
+        if (chunk.done) {
+            Metrics.instance.increment("jobs", Job.COMPLETED, 1);
+        }
+        return !chunk.done;
+    }
+
+    /**
+     * Drops the cached data of a session after a chunk of one of its jobs has been committed or rolled back.
+     */
+    private static void invalidate(String sessionID, Chunk chunk) {
+        if (chunk == null || chunk.updated > 0) {
+            LedgerCache.instance.invalidate(sessionID);
+        }
+        SessionVersions.instance.bump(sessionID);
+        ResponseCache.instance.invalidate(sessionID);
+    }
+
+    /**
+     * Marks a job as failed, keeping the chunks it already committed.
+     */
+    private static void fail(String sessionID, int jobID, Exception cause) {
+        String query = "UPDATE jobs SET status = ?, error = ?, modified_at = ? WHERE session_id = ? AND job_id = ? " +
+                "AND status IN (?, ?);";
+        Connection connection = null;
+        PreparedStatement preparedStatement = null;
+        try {
+            connection = DBConnection.instance.getConnection(sessionID);
+            preparedStatement = connection.prepareStatement(query);
+            preparedStatement.setString(1, Job.FAILED);
+            preparedStatement.setString(2, String.valueOf(cause.getMessage()));
+            preparedStatement.setLong(3, System.currentTimeMillis());
+            preparedStatement.setString(4, sessionID);
+            preparedStatement.setInt(5, jobID);
+            preparedStatement.setString(6, Job.QUEUED);
+            preparedStatement.setString(7, Job.RUNNING);
+            preparedStatement.executeUpdate();
+            Metrics.instance.increment("jobs", Job.FAILED, 1);
+        } catch (SQLException e) {
+            e.printStackTrace();
+        } finally {
+            DBUtil.executeCommit(connection);
+            DbUtils.closeQuietly(preparedStatement);
+            DbUtils.closeQuietly(connection);
+        }
+    }
+
+    private static List<Job> query(Connection connection, String query, String sessionID, Integer jobID)
+            throws SQLException {
+        List<Job> jobs = new ArrayList<>();
+        PreparedStatement preparedStatement = null;
+        ResultSet resultSet = null;
+        try {
+            preparedStatement = connection.prepareStatement(query);
+            preparedStatement.setString(1, sessionID);
+            if (jobID != null) {
+                preparedStatement.setInt(2, jobID);
+            }
+            resultSet = preparedStatement.executeQuery();
+            while (resultSet.next()) {
+                jobs.add(new Job(resultSet.getInt("job_id"), resultSet.getString("type"),
+                        resultSet.getString("status"), resultSet.getLong("examined"), resultSet.getLong("updated"),
+                        resultSet.getLong("total"), resultSet.getString("error"), resultSet.getLong("created_at"),
+                        resultSet.getLong("modified_at")));
+            }
+            return jobs;
+        } finally {
+            DbUtils.closeQuietly(resultSet);
+            DbUtils.closeQuietly(preparedStatement);
+        }
+    }
+
+    /**
+     * An operation which can be executed as a job.
+     */
+    interface Task {
+
+        /**
+         * Processes the transactions of a session after the cursor, up to the given number of transactions. Called on
+         * the writer, which is committed afterwards.
+         *
+         * @param connection the writer
+         * @param sessionID the session on which the job operates
+         * @param parameters the parameters of the job
+         * @param cursor the ID of the last processed transaction, or 0 if none has been processed yet
+         * @param chunkSize the maximum number of transactions to process
+         * @return the processed chunk
+         */
+        Chunk process(Connection connection, String sessionID, JsonObject parameters, long cursor, int chunkSize)
+                throws SQLException;
+    }
+
+    /**
+     * The result of processing a chunk of transactions.
+     */
+    static class Chunk {
+        private final long cursor;
+        private final int examined;
+        private final int updated;
+        private final boolean done;
+
+        /**
+         * @param cursor the ID of the last processed transaction
+         * @param examined the number of processed transactions
+         * @param updated the number of changed transactions
+         * @param done whether there are no transactions left to process
+         */
+        Chunk(long cursor, int examined, int updated, boolean done) {
+            this.cursor = cursor;
+            this.examined = examined;
+            this.updated = updated;
+            this.done = done;
+        }
+    }
+}
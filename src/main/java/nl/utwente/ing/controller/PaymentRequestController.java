@@ -24,12 +24,21 @@
 package nl.utwente.ing.controller;
 
 import com.google.gson.*;
+import nl.utwente.ing.archive.ArchiveSegment;
+import nl.utwente.ing.archive.HistoryCursor;
+import nl.utwente.ing.archive.TransactionArchive;
+import nl.utwente.ing.cache.Ledger;
+import nl.utwente.ing.cache.ResponseCache;
+import nl.utwente.ing.cache.SessionVersions;
 import nl.utwente.ing.controller.database.DBConnection;
 import nl.utwente.ing.controller.database.DBUtil;
+import nl.utwente.ing.metrics.Metrics;
 import nl.utwente.ing.model.Category;
 import nl.utwente.ing.model.PaymentRequest;
 import nl.utwente.ing.model.Transaction;
 import nl.utwente.ing.model.Type;
+import nl.utwente.ing.repository.Repositories;
+import nl.utwente.ing.repository.StorageException;
 import org.apache.commons.dbutils.DbUtils;
 import org.joda.money.CurrencyUnit;
 import org.joda.money.Money;
@@ -39,117 +48,205 @@ import org.joda.time.format.DateTimeFormatter;
 import org.springframework.web.bind.annotation.*;
 
 import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.Lock;
 
 @RestController
 @RequestMapping("/api/v1/paymentRequests")
 public class PaymentRequestController {
+    /**
+     * The maximum number of distinct request amounts for which the deposits are filtered on amount by the database.
+     * Sessions with more distinct amounts filter the deposits while matching instead.
+     */
+    private static final int MAX_AMOUNT_FILTER = 500;
+
+    /**
+     * The key of the payment requests in the response cache. Whether a request is filled only depends on the data of
+     * the session.
+     */
+    private static final String CACHE_KEY = "paymentRequests";
+
     @RequestMapping(value = "", method = RequestMethod.GET)
     public String getAllPaymentRequests(@RequestHeader(value = "X-session-id", required = false) String headerSessionID,
                                         @RequestParam(value = "session_id", required = false) String paramSessionID,
                                         HttpServletResponse response) {
         String sessionID = headerSessionID == null ? paramSessionID : headerSessionID;
-        List<Transaction> transactionList = getAllTransactions(sessionID);
-
-        List<PaymentRequest> paymentRequests = new ArrayList<>();
-
-        String query  = "SELECT payment_request_id AS id, description, due_date, amount, number_of_requests FROM " +
-                "payment_requests WHERE session_id = ? ORDER BY datetime(creation_date) ASC;";
-
-        Connection connection = null;
-        PreparedStatement preparedStatement = null;
-        ResultSet resultSet = null;
+        long version = SessionVersions.instance.get(sessionID);
+        String cached = ResponseCache.instance.get(sessionID, version, CACHE_KEY);
+        if (cached != null) {
+            return cached;
+        }
 
+        List<PaymentRequest> paymentRequests;
         try {
-            connection = DBConnection.instance.getConnection();
-            preparedStatement = connection.prepareStatement(query);
-            preparedStatement.setString(1, sessionID);
-
-            resultSet = preparedStatement.executeQuery();
-
-
-            while (resultSet.next()) {
-                int id = resultSet.getInt("id");
-                String description = resultSet.getString("description");
-                DateTime dueDate = DateTime.parse(resultSet.getString("due_date"));
-                Money amount = Money.ofMinor(CurrencyUnit.EUR, resultSet.getLong("amount"));
-                int numberOfRequests = resultSet.getInt("number_of_requests");
-
-                paymentRequests.add(new PaymentRequest(id, description, dueDate, amount, numberOfRequests, false));
+            paymentRequests = Repositories.instance.getPaymentRequests().getAll(sessionID);
+
+            if (!paymentRequests.isEmpty()) {
+                PaymentRequestMatcher matcher = new PaymentRequestMatcher(paymentRequests);
+                Lock archiveLock = TransactionArchive.instance.readLock(sessionID);
+                archiveLock.lock();
+                try {
+                    Ledger ledger = Repositories.instance.getTransactions().getLedger(sessionID);
+                    ArchiveSegment archive = TransactionArchive.instance.getSegment(sessionID);
+                    if (ledger == null && archive != null) {
+                        ledger = TransactionArchive.instance.loadLedger(sessionID);
+                    }
+                    if (ledger != null) {
+                        matchLedgerDeposits(sessionID, ledger, archive, matcher);
+                        loadMatchedDeposits(sessionID, paymentRequests);
+                    } else {
+                        matchDeposits(sessionID, matcher);
+                    }
+                } finally {
+                    archiveLock.unlock();
+                }
             }
-        } catch (SQLException e) {
+        } catch (StorageException | SQLException | IOException e) {
             e.printStackTrace();
             response.setStatus(500);
             return null;
-        } finally {
-            DbUtils.closeQuietly(connection, preparedStatement, resultSet);
         }
         GsonBuilder gsonBuilder = new GsonBuilder();
         gsonBuilder.registerTypeAdapter(PaymentRequest.class, new PaymentRequestAdapter());
+        String body = gsonBuilder.create().toJson(paymentRequests);
+        ResponseCache.instance.put(sessionID, version, CACHE_KEY, body, 0);
         response.setStatus(200);
-        return gsonBuilder.create().toJson(parseTransactions(paymentRequests, transactionList));
+        return body;
     }
 
-    private List<Transaction> getAllTransactions(String sessionID) {
-        String query = "SELECT transaction_id, date, amount, external_iban, type, description, transactions.category_id, name\n" +
-                "FROM transactions LEFT JOIN categories on transactions.category_id = categories.category_id WHERE transactions.session_id = ?;";
+    /**
+     * Assigns the deposits of a session to the payment requests they fill, in order of date. Only the deposits which
+     * can fill a request are loaded: those before the latest due date and, if there are not too many distinct request
+     * amounts, with one of these amounts.
+     */
+    private void matchDeposits(String sessionID, PaymentRequestMatcher matcher) throws SQLException {
+        List<Long> amounts = new ArrayList<>(matcher.getAmounts());
+        boolean filterAmounts = amounts.size() <= MAX_AMOUNT_FILTER;
+
+        StringBuilder query = new StringBuilder("SELECT transaction_id, date, date_millis, amount, external_iban, " +
+                "description, transactions.category_id, name\n" +
+                "FROM transactions LEFT JOIN categories ON transactions.category_id = categories.category_id\n" +
+                "WHERE transactions.session_id = ? AND type = 'deposit' AND date_millis < ?");
+        if (filterAmounts) {
+            query.append(" AND amount IN (");
+            for (int i = 0; i < amounts.size(); i++) {
+                query.append(i == 0 ? "?" : ", ?");
+            }
+            query.append(")");
+        }
+        query.append(" ORDER BY date_millis, transaction_id;");
 
         Connection connection = null;
         PreparedStatement preparedStatement = null;
         ResultSet resultSet = null;
-
-        List<Transaction> transactions = new ArrayList<>();
-
         try {
-            connection = DBConnection.instance.getConnection();
-            preparedStatement = connection.prepareStatement(query);
-            preparedStatement.setString(1, sessionID);
-
+            connection = DBConnection.instance.getReadConnection(sessionID);
+            preparedStatement = connection.prepareStatement(query.toString());
+            int index = 1;
+            preparedStatement.setString(index++, sessionID);
+            preparedStatement.setLong(index++, matcher.getLatestDueDate());
+            if (filterAmounts) {
+                for (long amount : amounts) {
+                    preparedStatement.setLong(index++, amount);
+                }
+            }
             resultSet = preparedStatement.executeQuery();
 
-            while (resultSet.next()) {
+            long rows = 0;
+            while (!matcher.isDone() && resultSet.next()) {
+                rows++;
                 Category category = null;
-                resultSet.getInt("category_id");
+                int categoryId = resultSet.getInt("category_id");
                 if (!resultSet.wasNull()) {
-                    category = new Category(resultSet.getInt("category_id"), resultSet.getString("name"));
+                    category = new Category(categoryId, resultSet.getString("name"));
                 }
-                transactions.add(new Transaction(resultSet.getInt("transaction_id"), resultSet.getString("date"),
-                        Money.ofMinor(CurrencyUnit.EUR, resultSet.getLong("amount")), resultSet.getString(
-                                "external_iban"), Type.valueOf(resultSet.getString("type")), category,
-                        resultSet.getString("description")));
+                long amount = resultSet.getLong("amount");
+                Transaction transaction = new Transaction(resultSet.getInt("transaction_id"),
+                        resultSet.getString("date"), Money.ofMinor(CurrencyUnit.EUR, amount),
+                        resultSet.getString("external_iban"), Type.deposit, category,
+                        resultSet.getString("description"));
+                matcher.match(transaction, amount, resultSet.getLong("date_millis"));
             }
-        } catch (SQLException e) {
-            e.printStackTrace();
-            return null;
+            Metrics.instance.increment("rows", "payment-requests", rows);
         } finally {
+            DBUtil.executeCommit(connection);
             DbUtils.closeQuietly(connection, preparedStatement, resultSet);
         }
-        return transactions;
     }
 
-    private List<PaymentRequest> parseTransactions(List<PaymentRequest> paymentRequests,
-                                                   List<Transaction> transactions) {
-        for (Transaction transaction : transactions) {
-            if (transaction.getType().equals(Type.deposit)) {
-                for (PaymentRequest paymentRequest : paymentRequests) {
-                    if (!paymentRequest.getFilled() &&
-                            paymentRequest.getDueDate().isAfter(DateTime.parse(transaction.getDate())) &&
-                            paymentRequest.getAmount().isEqual(transaction.getAmount())) {
-                        paymentRequest.addTransaction(transaction);
-                        if (paymentRequest.getTransactions().size() == paymentRequest.getNumberOfRequests()) {
-                            paymentRequest.setFilled(true);
+    /**
+     * Assigns the deposits in the ledger of a session, merged with its archived deposits, to the payment requests they
+     * fill, like {@link #matchDeposits(String, PaymentRequestMatcher)}. Archived deposits are complete, but of the
+     * deposits from the ledger only the ID is known afterwards; these are loaded by
+     * {@link #loadMatchedDeposits(String, List)}.
+     *
+     * @param archive the archived transactions of the session, or null if it has none
+     */
+    private void matchLedgerDeposits(String sessionID, Ledger ledger, ArchiveSegment archive,
+                                     PaymentRequestMatcher matcher) throws StorageException {
+        Map<Integer, Category> categories = null;
+        ledger.readLock().lock();
+        try {
+            HistoryCursor history = new HistoryCursor(ledger, archive, matcher.getLatestDueDate());
+            while (!matcher.isDone() && history.next()) {
+                long amount = history.getAmount();
+                if (history.getType() != Type.deposit || !matcher.hasAmount(amount)) {
+                    continue;
+                }
+                ArchiveSegment.Cursor archived = history.getArchived();
+                Transaction transaction;
+                if (archived == null) {
+                    transaction = new Transaction(history.getId(), null, null, null, Type.deposit, null, null);
+                } else {
+                    if (categories == null) {
+                        categories = new HashMap<>();
+                        for (Category category : Repositories.instance.getCategories().getAll(sessionID)) {
+                            categories.put(category.getId(), category);
                         }
-                        break;
                     }
+                    // The category of an archived deposit may have been deleted since.
+                    transaction = new Transaction(history.getId(), archived.getDate(),
+                            Money.ofMinor(CurrencyUnit.EUR, amount), archived.getExternalIBAN(), Type.deposit,
+                            categories.get(archived.getCategory()), null);
                 }
+                matcher.match(transaction, amount, history.getMillis());
             }
+            Metrics.instance.increment("rows", "payment-requests", history.getRows());
+        } finally {
+            ledger.readLock().unlock();
+        }
+    }
+
+    /**
+     * Replaces the deposits matched from the ledger, of which only the ID is known, by the complete deposits. Deposits
+     * which no longer exist are removed from their request. Archived deposits, which have a date, are kept as they are.
+     */
+    private void loadMatchedDeposits(String sessionID, List<PaymentRequest> paymentRequests)
+            throws StorageException {
+        List<Integer> ids = new ArrayList<>();
+        for (PaymentRequest paymentRequest : paymentRequests) {
+            for (Transaction transaction : paymentRequest.getTransactions()) {
+                if (transaction.getDate() == null) {
+                    ids.add(transaction.getId());
+                }
+            }
+        }
+
+        Map<Integer, Transaction> deposits = Repositories.instance.getTransactions().get(sessionID, ids);
+        for (PaymentRequest paymentRequest : paymentRequests) {
+            List<Transaction> transactions = paymentRequest.getTransactions();
+            transactions.replaceAll(transaction -> transaction.getDate() != null ? transaction :
+                    deposits.get(transaction.getId()));
+            transactions.removeIf(transaction -> transaction == null);
         }
-        return paymentRequests;
     }
 
     @RequestMapping(value = "", method = RequestMethod.POST)
@@ -160,7 +257,6 @@ public class PaymentRequestController {
                                                @RequestBody String body,
                                                HttpServletResponse response) {
         String sessionID = headerSessionID == null ? paramSessionID : headerSessionID;
-        DateTimeFormatter dateTimeFormatter = DateTimeFormat.forPattern("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
 
         try {
             GsonBuilder gsonBuilder = new GsonBuilder();
@@ -169,67 +265,14 @@ public class PaymentRequestController {
             Gson gson = gsonBuilder.create();
             PaymentRequest paymentRequest = gson.fromJson(body, PaymentRequest.class);
 
-            String insertQuery = "INSERT INTO payment_requests (description, due_date, amount, " +
-                    "number_of_requests, session_id, creation_date) VALUES (?, ?, ?, ?, ?, ?);";
-            String idQuery = "SELECT last_insert_rowid()";
-            String timeQuery = "SELECT date FROM transactions WHERE session_id = ? ORDER BY datetime(date) DESC LIMIT" +
-                    " 1";
-
-            Connection connection = null;
-            PreparedStatement preparedStatement = null;
-            PreparedStatement idPreparedStatement = null;
-            PreparedStatement timePreparedStatement = null;
-            ResultSet resultSet = null;
-            ResultSet timeResultSet = null;
-
             try {
-                connection = DBConnection.instance.getConnection();
-                timePreparedStatement = connection.prepareStatement(timeQuery);
-                timePreparedStatement.setString(1, sessionID);
-                timeResultSet = timePreparedStatement.executeQuery();
-                DateTime dateTime = DateTime.now();
-                if (timeResultSet.next()) {
-                    dateTime = DateTime.parse(timeResultSet.getString("date"));
-                }
-
-                preparedStatement = connection.prepareStatement(insertQuery);
-
-                preparedStatement.setString(1, paymentRequest.getDescription());
-                preparedStatement.setString(2, dateTimeFormatter.print(paymentRequest.getDueDate()));
-                preparedStatement.setInt(3, paymentRequest.getAmount().getAmountMinorInt());
-                preparedStatement.setInt(4, paymentRequest.getNumberOfRequests());
-                preparedStatement.setString(5, sessionID);
-                preparedStatement.setString(6, dateTimeFormatter.print(dateTime));
-
-                if (preparedStatement.executeUpdate() != 1) {
-                    response.setStatus(405);
-                    return null;
-                }
-
-                idPreparedStatement = connection.prepareStatement(idQuery);
-                resultSet = idPreparedStatement.executeQuery();
-
-                if (resultSet.next()) {
-                    connection.commit();
-                    int id = resultSet.getInt(1);
-                    response.setStatus(201);
-                    paymentRequest.setId(id);
-                    return gson.toJson(paymentRequest);
-                }
-
-                response.setStatus(500);
-                return null;
-            } catch (SQLException e) {
+                Repositories.instance.getPaymentRequests().create(sessionID, paymentRequest);
+                response.setStatus(201);
+                return gson.toJson(paymentRequest);
+            } catch (StorageException e) {
                 e.printStackTrace();
                 response.setStatus(500);
                 return null;
-            } finally {
-                DBUtil.executeCommit(connection);
-                DbUtils.closeQuietly(preparedStatement);
-                DbUtils.closeQuietly(timeResultSet);
-
-                DbUtils.closeQuietly(timePreparedStatement);
-                DbUtils.closeQuietly(connection, idPreparedStatement, resultSet);
             }
         } catch (JsonParseException e) {
             e.printStackTrace();
@@ -0,0 +1,225 @@
+/*
+ * Copyright (c) 2018, Joost Prins <github.com/joostprins>, Tom Leemreize <https://github.com/oplosthee>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package nl.utwente.ing.controller;
+
+import nl.utwente.ing.model.PaymentRequest;
+import nl.utwente.ing.model.Transaction;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Matches deposits to the payment requests of a session. A deposit is assigned to the earliest created request which
+ * is not filled yet, has the same amount and is due after the deposit. The requests are grouped by their amount in
+ * minor units, and within a group kept ordered by due date in a segment tree holding the earliest creation rank of the
+ * open requests, so finding the request for a deposit takes logarithmic time.
+ */
+class PaymentRequestMatcher {
+
+    /**
+     * The groups of requests, indexed by their amount in minor units.
+     */
+    private final Map<Long, AmountGroup> groups = new HashMap<>();
+
+    /**
+     * The amounts of the groups in ascending order, used to filter deposits without boxing their amount.
+     */
+    private final long[] amounts;
+
+    /**
+     * The latest due date of all requests. Deposits at or after this date cannot match any request.
+     */
+    private long latestDueDate = Long.MIN_VALUE;
+
+    /**
+     * The number of requests which are not filled yet.
+     */
+    private int open;
+
+    /**
+     * @param paymentRequests the requests to match deposits to, ordered by creation date
+     */
+    PaymentRequestMatcher(List<PaymentRequest> paymentRequests) {
+        Map<Long, List<PaymentRequest>> requestsByAmount = new HashMap<>();
+        for (PaymentRequest paymentRequest : paymentRequests) {
+            requestsByAmount.computeIfAbsent(paymentRequest.getAmount().getAmountMinorLong(), amount ->
+                    new ArrayList<>()).add(paymentRequest);
+            latestDueDate = Math.max(latestDueDate, paymentRequest.getDueDate().getMillis());
+            if (!paymentRequest.getFilled()) {
+                open++;
+            }
+        }
+        for (Map.Entry<Long, List<PaymentRequest>> entry : requestsByAmount.entrySet()) {
+            groups.put(entry.getKey(), new AmountGroup(entry.getValue()));
+        }
+        amounts = new long[groups.size()];
+        int index = 0;
+        for (long amount : groups.keySet()) {
+            amounts[index++] = amount;
+        }
+        Arrays.sort(amounts);
+    }
+
+    /**
+     * @return the amounts in minor units of all requests
+     */
+    Set<Long> getAmounts() {
+        return groups.keySet();
+    }
+
+    /**
+     * @return whether there is a request with the given amount in minor units
+     */
+    boolean hasAmount(long amount) {
+        return Arrays.binarySearch(amounts, amount) >= 0;
+    }
+
+    long getLatestDueDate() {
+        return latestDueDate;
+    }
+
+    /**
+     * @return true if all requests are filled, in which case no further deposit can be matched
+     */
+    boolean isDone() {
+        return open == 0;
+    }
+
+    /**
+     * Assigns a deposit to the request it fills, if any.
+     *
+     * @param transaction the deposit
+     * @param amount the amount of the deposit in minor units
+     * @param date the date of the deposit in milliseconds since the epoch
+     */
+    void match(Transaction transaction, long amount, long date) {
+        AmountGroup group = groups.get(amount);
+        if (group == null) {
+            return;
+        }
+        int rank = group.find(date);
+        if (rank < 0) {
+            return;
+        }
+        PaymentRequest paymentRequest = group.get(rank);
+        paymentRequest.addTransaction(transaction);
+        if (paymentRequest.getTransactions().size() == paymentRequest.getNumberOfRequests()) {
+            paymentRequest.setFilled(true);
+            group.close(rank);
+            open--;
+        }
+    }
+
+    /**
+     * The requests with the same amount. The requests are sorted by due date, and the leaves of the segment tree hold
+     * the creation rank of the request at that position, or {@link Integer#MAX_VALUE} once it is filled.
+     */
+    private static class AmountGroup {
+
+        private final List<PaymentRequest> byCreation;
+        private final long[] dueDates;
+        private final int[] positions;
+        private final int[] tree;
+        private final int size;
+
+        AmountGroup(List<PaymentRequest> byCreation) {
+            this.byCreation = byCreation;
+            this.size = byCreation.size();
+
+            Integer[] ranks = new Integer[size];
+            for (int i = 0; i < size; i++) {
+                ranks[i] = i;
+            }
+            Arrays.sort(ranks, (first, second) -> {
+                int compare = Long.compare(dueDate(first), dueDate(second));
+                return compare != 0 ? compare : Integer.compare(first, second);
+            });
+
+            dueDates = new long[size];
+            positions = new int[size];
+            tree = new int[2 * size];
+            for (int position = 0; position < size; position++) {
+                int rank = ranks[position];
+                dueDates[position] = dueDate(rank);
+                positions[rank] = position;
+                tree[size + position] = byCreation.get(rank).getFilled() ? Integer.MAX_VALUE : rank;
+            }
+            for (int node = size - 1; node > 0; node--) {
+                tree[node] = Math.min(tree[2 * node], tree[2 * node + 1]);
+            }
+        }
+
+        private long dueDate(int rank) {
+            return byCreation.get(rank).getDueDate().getMillis();
+        }
+
+        PaymentRequest get(int rank) {
+            return byCreation.get(rank);
+        }
+
+        /**
+         * Returns the creation rank of the earliest created open request which is due after the given date, or -1 if
+         * there is none.
+         */
+        int find(long date) {
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (dueDates[middle] > date) {
+                    high = middle;
+                } else {
+                    low = middle + 1;
+                }
+            }
+
+            int rank = Integer.MAX_VALUE;
+            for (int left = low + size, right = 2 * size; left < right; left >>= 1, right >>= 1) {
+                if ((left & 1) == 1) {
+                    rank = Math.min(rank, tree[left++]);
+                }
+                if ((right & 1) == 1) {
+                    rank = Math.min(rank, tree[--right]);
+                }
+            }
+            return rank == Integer.MAX_VALUE ? -1 : rank;
+        }
+
+        /**
+         * Removes a filled request from the segment tree.
+         */
+        void close(int rank) {
+            int node = size + positions[rank];
+            tree[node] = Integer.MAX_VALUE;
+            for (node >>= 1; node > 0; node >>= 1) {
+                tree[node] = Math.min(tree[2 * node], tree[2 * node + 1]);
+            }
+        }
+    }
+}
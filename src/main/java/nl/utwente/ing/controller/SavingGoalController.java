@@ -23,154 +23,312 @@
  */
 package nl.utwente.ing.controller;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.gson.*;
+import nl.utwente.ing.archive.ArchiveSegment;
+import nl.utwente.ing.archive.HistoryCursor;
+import nl.utwente.ing.archive.TransactionArchive;
+import nl.utwente.ing.cache.Ledger;
+import nl.utwente.ing.cache.ResponseCache;
+import nl.utwente.ing.cache.SessionVersions;
 import nl.utwente.ing.controller.database.DBConnection;
 import nl.utwente.ing.controller.database.DBUtil;
+import nl.utwente.ing.metrics.Metrics;
+import nl.utwente.ing.model.ParsedDate;
 import nl.utwente.ing.model.SavingGoal;
-import nl.utwente.ing.model.Transaction;
 import nl.utwente.ing.model.Type;
+import nl.utwente.ing.repository.Repositories;
+import nl.utwente.ing.repository.StorageException;
 import org.apache.commons.dbutils.DbUtils;
 import org.joda.money.CurrencyUnit;
 import org.joda.money.Money;
 import org.joda.time.DateTime;
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.web.bind.annotation.*;
 
 import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.math.BigDecimal;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.locks.Lock;
+import java.util.stream.Collectors;
 
 @RestController
 @RequestMapping("/api/v1/savingGoals")
 public class SavingGoalController {
 
-    @RequestMapping(value = "", method = RequestMethod.GET)
-    public List<SavingGoal> getAllSavingGoals(@RequestHeader(value = "X-session-id", required = false) String
-                                                          headerSessionID,
-                                              @RequestParam(value = "session_id", required = false) String paramSessionID,
-                                              HttpServletResponse response) {
+    /**
+     * The maximum number of months a projection may cover.
+     */
+    private static final int MAX_PROJECTION_MONTHS = 1200;
+
+    /**
+     * The format of the months in a projection.
+     */
+    private static final DateTimeFormatter MONTH_FORMAT = DateTimeFormat.forPattern("yyyy-MM");
+
+    /**
+     * The key of the saving goals in the response cache. They only depend on the data of the session.
+     */
+    private static final String CACHE_KEY = "savingGoals";
+
+    /**
+     * The object mapper configured by Spring, with which the saving goals are serialized.
+     */
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @RequestMapping(value = "", method = RequestMethod.GET, produces = "application/json;charset=UTF-8")
+    public String getAllSavingGoals(@RequestHeader(value = "X-session-id", required = false) String headerSessionID,
+                                    @RequestParam(value = "session_id", required = false) String paramSessionID,
+                                    HttpServletResponse response) {
         String sessionID = headerSessionID == null ? paramSessionID : headerSessionID;
+        long version = SessionVersions.instance.get(sessionID);
+        String cached = ResponseCache.instance.get(sessionID, version, CACHE_KEY);
+        if (cached != null) {
+            return cached;
+        }
 
         List<SavingGoal> savingGoals = new ArrayList<>();
-        List<Transaction> transactions = new ArrayList<>();
 
-        String savingGoalQuery = "SELECT saving_goal_id AS id, name, goal, save_per_month AS spm, minimum_balance_required AS " +
-                "mbr FROM saving_goals WHERE session_id = ? ORDER BY datetime(creation_date_time) ASC;";
-        String transactionQuery = "SELECT amount, date, type FROM transactions WHERE session_id = ? ORDER BY datetime" +
-                "(date) ASC;";
+        try {
+            SavingGoalSimulation simulation = simulateHistory(sessionID, savingGoals);
+            simulation.writeBalances(savingGoals);
+            String body = objectMapper.writeValueAsString(savingGoals);
+            ResponseCache.instance.put(sessionID, version, CACHE_KEY, body, 0);
+            response.setStatus(200);
+            return body;
+        } catch (StorageException | SQLException | IOException e) {
+            e.printStackTrace();
+            response.setStatus(500);
+            return null;
+        }
+    }
+
+    /**
+     * Projects the balances of the saving goals a number of months into the future, starting from the first month
+     * after the last transaction. Every scenario in the request is simulated separately and may add a monthly income
+     * and extra saving goals to the current state. Without scenarios, only the current state is projected.
+     * @param body JSON object with the number of months and the scenarios to simulate
+     * @param response to edit the status code of the response
+     */
+    @RequestMapping(value = "/projection", method = RequestMethod.POST, produces = "application/json")
+    public String getProjection(@RequestHeader(value = "X-session-id", required = false) String headerSessionID,
+                                @RequestParam(value = "session_id", required = false) String paramSessionID,
+                                @RequestBody(required = false) String body,
+                                HttpServletResponse response) {
+        String sessionID = headerSessionID == null ? paramSessionID : headerSessionID;
+
+        int months;
+        List<ProjectionScenario> scenarios = new ArrayList<>();
+        try {
+            JsonObject request = body == null || body.trim().isEmpty() ? new JsonObject() :
+                    new JsonParser().parse(body).getAsJsonObject();
+            months = request.has("months") ? request.get("months").getAsInt() : 12;
+            if (months < 1 || months > MAX_PROJECTION_MONTHS) {
+                throw new JsonParseException("Invalid number of months");
+            }
+
+            SavingGoalAdapter savingGoalAdapter = new SavingGoalAdapter();
+            JsonArray scenarioArray = request.has("scenarios") ? request.getAsJsonArray("scenarios") : new JsonArray();
+            for (JsonElement element : scenarioArray) {
+                JsonObject scenario = element.getAsJsonObject();
+                String name = scenario.has("name") ? scenario.get("name").getAsString() : "scenario " +
+                        (scenarios.size() + 1);
+                long monthlyIncome = scenario.has("monthlyIncome") ? Money.of(CurrencyUnit.EUR,
+                        scenario.get("monthlyIncome").getAsBigDecimal()).getAmountMinorLong() : 0;
+                List<SavingGoal> extraGoals = new ArrayList<>();
+                if (scenario.has("extraGoals")) {
+                    for (JsonElement extraGoal : scenario.getAsJsonArray("extraGoals")) {
+                        extraGoals.add(savingGoalAdapter.deserialize(extraGoal, SavingGoal.class, null));
+                    }
+                }
+                scenarios.add(new ProjectionScenario(name, monthlyIncome, extraGoals));
+            }
+            if (scenarios.isEmpty()) {
+                scenarios.add(new ProjectionScenario("current", 0, new ArrayList<>()));
+            }
+        } catch (JsonParseException | IllegalStateException | ClassCastException | ArithmeticException |
+                UnsupportedOperationException | NumberFormatException e) {
+            e.printStackTrace();
+            response.setStatus(405);
+            return null;
+        }
+
+        SavingGoalSimulation simulation;
+        try {
+            simulation = simulateHistory(sessionID, new ArrayList<>());
+        } catch (StorageException | SQLException | IOException e) {
+            e.printStackTrace();
+            response.setStatus(500);
+            return null;
+        }
+
+        DateTime start = SavingGoalSimulation.getFirstMonthAfter(simulation.getSystemTime() != null ?
+                simulation.getSystemTime() : DateTime.now());
+        List<JsonObject> results = scenarios.parallelStream()
+                .map(scenario -> scenario.project(simulation, start, months))
+                .collect(Collectors.toList());
+
+        JsonObject result = new JsonObject();
+        result.addProperty("start", MONTH_FORMAT.print(start));
+        result.addProperty("months", months);
+        JsonArray scenarioResults = new JsonArray();
+        results.forEach(scenarioResults::add);
+        result.add("scenarios", scenarioResults);
+
+        response.setStatus(200);
+        return new Gson().toJson(result);
+    }
+
+    /**
+     * Loads the saving goals of a session into the given list and replays all transactions of the session to calculate
+     * their balances. The transactions are replayed from the ledger of the session merged with its archive if the
+     * storage engine keeps ledgers or the session has archived transactions.
+     *
+     * @return the simulation after the last transaction
+     */
+    private SavingGoalSimulation simulateHistory(String sessionID, List<SavingGoal> savingGoals)
+            throws StorageException, SQLException, IOException {
+        savingGoals.addAll(Repositories.instance.getSavingGoals().getAll(sessionID));
+        SavingGoalSimulation simulation = new SavingGoalSimulation(savingGoals, 0);
+
+        Lock archiveLock = TransactionArchive.instance.readLock(sessionID);
+        archiveLock.lock();
+        try {
+            Ledger ledger = Repositories.instance.getTransactions().getLedger(sessionID);
+            ArchiveSegment archive = TransactionArchive.instance.getSegment(sessionID);
+            if (ledger == null && archive != null) {
+                ledger = TransactionArchive.instance.loadLedger(sessionID);
+            }
+            if (ledger != null) {
+                ledger.readLock().lock();
+                try {
+                    HistoryCursor history = new HistoryCursor(ledger, archive, Long.MAX_VALUE);
+                    while (history.next()) {
+                        simulation.apply(history.getMillis(), history.getZone(), history.getAmount(),
+                                history.getType());
+                    }
+                    Metrics.instance.increment("rows", "saving-goals", history.getRows());
+                } finally {
+                    ledger.readLock().unlock();
+                }
+                return simulation;
+            }
+        } finally {
+            archiveLock.unlock();
+        }
+
+        String transactionQuery = "SELECT amount, date, date_millis, date_offset, type FROM transactions WHERE " +
+                "session_id = ? ORDER BY date_millis, transaction_id;";
         Connection connection = null;
-        PreparedStatement savingGoalPreparedStatement = null;
         PreparedStatement transactionPreparedStatement = null;
-        ResultSet savingGoalResultSet = null;
         ResultSet transactionResultSet = null;
         try {
-            connection = DBConnection.instance.getConnection();
-            savingGoalPreparedStatement = connection.prepareStatement(savingGoalQuery);
-            savingGoalPreparedStatement.setString(1, sessionID);
-            savingGoalResultSet = savingGoalPreparedStatement.executeQuery();
-
-            while (savingGoalResultSet.next()) {
-                SavingGoal savingGoal = new SavingGoal(
-                        savingGoalResultSet.getInt("id"),
-                        savingGoalResultSet.getString("name"),
-                        Money.ofMinor(CurrencyUnit.EUR, savingGoalResultSet.getLong("goal")),
-                        Money.ofMinor(CurrencyUnit.EUR, savingGoalResultSet.getLong("spm")),
-                        Money.ofMinor(CurrencyUnit.EUR, savingGoalResultSet.getLong("mbr")),
-                        Money.parse("EUR 0.00"));
-                savingGoals.add(savingGoal);
-            }
-
+            connection = DBConnection.instance.getReadConnection(sessionID);
             transactionPreparedStatement = connection.prepareStatement(transactionQuery);
             transactionPreparedStatement.setString(1, sessionID);
             transactionResultSet = transactionPreparedStatement.executeQuery();
 
+            long rows = 0;
             while (transactionResultSet.next()) {
-                Transaction transaction = new Transaction(
-                        null,
-                        transactionResultSet.getString("date"),
-                        Money.ofMinor(CurrencyUnit.EUR, transactionResultSet.getLong("amount")),
-                        null,
-                        Type.valueOf(transactionResultSet.getString("type")),
-                        null,
-                        null);
-                transactions.add(transaction);
+                rows++;
+                ParsedDate date = DBUtil.getTransactionDate(transactionResultSet);
+                simulation.apply(date.getMillis(), date.getZone(), transactionResultSet.getLong("amount"),
+                        Type.valueOf(transactionResultSet.getString("type")));
             }
-            response.setStatus(200);
-            return calculateSavingGoalBalances(savingGoals, transactions);
-        } catch (SQLException e) {
-            e.printStackTrace();
-            response.setStatus(500);
-            return null;
+            Metrics.instance.increment("rows", "saving-goals", rows);
+            return simulation;
         } finally {
             DBUtil.executeCommit(connection);
-            DbUtils.closeQuietly(transactionResultSet);
-            DbUtils.closeQuietly(transactionPreparedStatement);
-            DbUtils.closeQuietly(connection, savingGoalPreparedStatement, savingGoalResultSet);
+            DbUtils.closeQuietly(connection, transactionPreparedStatement, transactionResultSet);
         }
     }
 
-    private List<SavingGoal> calculateSavingGoalBalances(List<SavingGoal> savingGoals, List<Transaction> transactions) {
-        DateTime systemTime;
-        Money balance;
-
-        if (!transactions.isEmpty()) {
-            Transaction firstTransaction = transactions.get(0);
-            transactions.remove(0);
-            systemTime = DateTime.parse(firstTransaction.getDate());
-            balance = firstTransaction.getType() == Type.deposit ? firstTransaction.getAmount() :
-                    Money.of(CurrencyUnit.EUR, firstTransaction.getAmount().getAmount().negate());
-            for (Transaction transaction : transactions) {
-                DateTime transactionTime = DateTime.parse(transaction.getDate());
-
-                if (transaction.getType().equals(Type.deposit)) {
-                    balance = balance.plus(transaction.getAmount());
-                } else {
-                    balance = balance.minus(transaction.getAmount());
-                }
-
-                balance = calculateNewBalances(savingGoals, balance, systemTime, transactionTime);
-                systemTime = DateTime.parse(transaction.getDate());
-            }
+    /**
+     * Pays the saving goals for every month started between the system time and the time of a transaction.
+     *
+     * @param savingGoals the saving goals, ordered by creation date, of which the balances are updated
+     * @param balance the balance of the account before the payments
+     * @return the balance of the account after the payments
+     */
+    public Money calculateNewBalances(List<SavingGoal> savingGoals, Money balance, DateTime systemTime,
+                               DateTime transactionTime) {
+        int months = SavingGoalSimulation.getMonthsBetween(systemTime, transactionTime);
+        if (months == 0 || savingGoals.isEmpty()) {
+            return balance;
         }
-        return savingGoals;
+        SavingGoalSimulation simulation = new SavingGoalSimulation(savingGoals, balance.getAmountMinorLong());
+        simulation.advance(months, 0, null, null);
+        simulation.writeBalances(savingGoals);
+        return Money.ofMinor(CurrencyUnit.EUR, simulation.getBalance());
     }
 
-    Money calculateNewBalances(List<SavingGoal> savingGoals, Money balance, DateTime systemTime,
-                               DateTime transactionTime) {
-        int applicationTimes = getAmountOfMonthsBetweenDates(systemTime, transactionTime);
-        for (int i = 0; i < applicationTimes; i++) {
-            for (SavingGoal savingGoal : savingGoals) {
-                Money savingGoalBalance = Money.of(CurrencyUnit.EUR, savingGoal.getBalance());
-                Money savingGoalMBR = Money.of(CurrencyUnit.EUR, savingGoal.getMinimumBalanceRequired());
-                Money savingGoalGoal = Money.of(CurrencyUnit.EUR, savingGoal.getGoal());
-                Money savingGoalSPM = Money.of(CurrencyUnit.EUR, savingGoal.getSavePerMonth());
-
-                if (savingGoalMBR.isLessThan(balance) && savingGoalBalance.isLessThan(savingGoalGoal)) {
-                    if (savingGoalGoal.isLessThan(savingGoalBalance.plus(savingGoalSPM))) {
-                        savingGoalSPM = savingGoalGoal.minus(savingGoalBalance);
-                    }
+    /**
+     * A set of changes to the current state of the saving goals which is projected into the future.
+     */
+    private static class ProjectionScenario {
+        private final String name;
+        private final long monthlyIncome;
+        private final List<SavingGoal> extraGoals;
+
+        ProjectionScenario(String name, long monthlyIncome, List<SavingGoal> extraGoals) {
+            this.name = name;
+            this.monthlyIncome = monthlyIncome;
+            this.extraGoals = extraGoals;
+        }
 
-                    savingGoal.setBalance(savingGoalBalance.plus(savingGoalSPM));
-                    balance = balance.minus(savingGoalSPM);
+        JsonObject project(SavingGoalSimulation current, DateTime start, int months) {
+            SavingGoalSimulation simulation = current.copy();
+            extraGoals.forEach(simulation::addSavingGoal);
+
+            long[] balances = new long[months];
+            long[][] savingGoalBalances = new long[simulation.size()][months];
+            simulation.advance(months, monthlyIncome, balances, savingGoalBalances);
+
+            JsonObject result = new JsonObject();
+            result.addProperty("name", name);
+            result.addProperty("monthlyIncome", toMajor(monthlyIncome));
+            result.add("balance", toJsonArray(balances));
+            JsonArray savingGoals = new JsonArray();
+            for (int i = 0; i < simulation.size(); i++) {
+                JsonObject savingGoal = new JsonObject();
+                savingGoal.addProperty("id", simulation.getId(i));
+                savingGoal.addProperty("name", simulation.getName(i));
+                savingGoal.addProperty("goal", toMajor(simulation.getGoal(i)));
+                savingGoal.add("balances", toJsonArray(savingGoalBalances[i]));
+                String reached = null;
+                for (int month = 0; month < months; month++) {
+                    if (savingGoalBalances[i][month] >= simulation.getGoal(i)) {
+                        reached = MONTH_FORMAT.print(start.plusMonths(month));
+                        break;
+                    }
                 }
+                savingGoal.addProperty("reached", reached);
+                savingGoals.add(savingGoal);
             }
+            result.add("savingGoals", savingGoals);
+            return result;
         }
-        return balance;
-    }
-
-    private int getAmountOfMonthsBetweenDates(DateTime startDate, DateTime endDate) {
-        int amount = 0;
-        startDate = startDate.withTimeAtStartOfDay().withDayOfMonth(1).plusMonths(1);
 
-        while (startDate.isBefore(endDate)) {
-            amount += 1;
-            startDate = startDate.plusMonths(1);
+        private static JsonArray toJsonArray(long[] amounts) {
+            JsonArray array = new JsonArray();
+            for (long amount : amounts) {
+                array.add(toMajor(amount));
+            }
+            return array;
         }
 
-        return amount;
+        private static BigDecimal toMajor(long amount) {
+            return BigDecimal.valueOf(amount, 2);
+        }
     }
 
     @RequestMapping(value = "", method = RequestMethod.POST)
@@ -192,51 +350,14 @@ public class SavingGoalController {
                 throw new JsonParseException("Saving goal is not of valid format");
             }
 
-            String insertQuery = "INSERT INTO saving_goals (name, goal, save_per_month, minimum_balance_required, " +
-                    "session_id) VALUES (?, ?, ?, ?, ?);";
-            String idQuery = "SELECT last_insert_rowid()";
-
-            Connection connection = null;
-            PreparedStatement preparedStatement = null;
-            PreparedStatement idPreparedStatement = null;
-            ResultSet resultSet = null;
-
             try {
-                connection = DBConnection.instance.getConnection();
-                preparedStatement = connection.prepareStatement(insertQuery);
-
-                preparedStatement.setString(1, savingGoal.getName());
-                preparedStatement.setLong(2, Money.of(CurrencyUnit.EUR, savingGoal.getGoal()).getAmountMinorLong());
-                preparedStatement.setLong(3, Money.of(CurrencyUnit.EUR, savingGoal.getSavePerMonth()).getAmountMinorLong());
-                preparedStatement.setLong(4, Money.of(CurrencyUnit.EUR, savingGoal.getMinimumBalanceRequired()).getAmountMinorLong());
-                preparedStatement.setString(5, sessionID);
-
-                if (preparedStatement.executeUpdate() != 1) {
-                    response.setStatus(405);
-                    return null;
-                }
-
-                idPreparedStatement = connection.prepareStatement(idQuery);
-                resultSet = idPreparedStatement.executeQuery();
-
-                if (resultSet.next()) {
-                    connection.commit();
-                    int id = resultSet.getInt(1);
-                    response.setStatus(201);
-                    savingGoal.setId(id);
-                    return savingGoal;
-                }
-
-                response.setStatus(500);
-                return null;
-            } catch (SQLException e) {
+                Repositories.instance.getSavingGoals().create(sessionID, savingGoal);
+                response.setStatus(201);
+                return savingGoal;
+            } catch (StorageException e) {
                 e.printStackTrace();
                 response.setStatus(500);
                 return null;
-            } finally {
-                DBUtil.executeCommit(connection);
-                DbUtils.closeQuietly(preparedStatement);
-                DbUtils.closeQuietly(connection, idPreparedStatement, resultSet);
             }
         } catch (JsonParseException e) {
             e.printStackTrace();
@@ -251,10 +372,13 @@ public class SavingGoalController {
                                  @PathVariable("id") int id,
                                  HttpServletResponse response) {
         String sessionID = headerSessionID == null ? querySessionID : headerSessionID;
-        String query = "DELETE FROM saving_goals WHERE saving_goal_id = ? AND session_id = ?";
-
 
-        DBUtil.executeDelete(response, query, id, sessionID);
+        try {
+            response.setStatus(Repositories.instance.getSavingGoals().delete(sessionID, id) ? 204 : 404);
+        } catch (StorageException e) {
+            e.printStackTrace();
+            response.setStatus(500);
+        }
     }
 }
 
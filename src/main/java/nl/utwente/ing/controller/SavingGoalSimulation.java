@@ -0,0 +1,377 @@
+/*
+ * Copyright (c) 2018, Joost Prins <github.com/joostprins>, Tom Leemreize <https://github.com/oplosthee>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package nl.utwente.ing.controller;
+
+import nl.utwente.ing.model.SavingGoal;
+import nl.utwente.ing.model.Type;
+import org.joda.money.CurrencyUnit;
+import org.joda.money.Money;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.Months;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Simulates the monthly payments into saving goals on amounts in cents. At the start of every month each saving goal,
+ * in order of creation, receives its monthly amount (capped at the remainder of the goal) if the balance is above its
+ * minimum required balance and the goal is not reached yet.
+ *
+ * Months in which no goal changes from being paid to not being paid or the other way around are not simulated one by
+ * one: the number of such months is calculated from the balance, the monthly amounts and the minimum balances, and
+ * the whole stretch is applied at once. Only the months in which the state of a goal changes are simulated in full.
+ */
+class SavingGoalSimulation {
+
+    private final List<Integer> ids;
+    private final List<String> names;
+    private long[] goals;
+    private long[] savePerMonth;
+    private long[] minimumBalanceRequired;
+    private long[] savingGoalBalances;
+    private int size;
+
+    /**
+     * The balance of the account in cents.
+     */
+    private long balance;
+
+    /**
+     * The time and time zone of the last applied transaction. The zone is null if no transaction has been applied yet.
+     */
+    private long systemMillis;
+    private DateTimeZone systemZone;
+
+    /**
+     * The start of the first month after the system time, in the time zone of the system time.
+     */
+    private long nextMonth;
+
+    /**
+     * The number of month starts passed by moving the system time.
+     */
+    private long monthStarts;
+
+    /**
+     * Creates a simulation of the given saving goals, starting from their current balances.
+     *
+     * @param savingGoals the saving goals, ordered by creation date
+     * @param balance the balance of the account in cents
+     */
+    SavingGoalSimulation(List<SavingGoal> savingGoals, long balance) {
+        this.size = savingGoals.size();
+        this.ids = new ArrayList<>(size);
+        this.names = new ArrayList<>(size);
+        this.goals = new long[size];
+        this.savePerMonth = new long[size];
+        this.minimumBalanceRequired = new long[size];
+        this.savingGoalBalances = new long[size];
+        for (int i = 0; i < size; i++) {
+            SavingGoal savingGoal = savingGoals.get(i);
+            ids.add(savingGoal.getId());
+            names.add(savingGoal.getName());
+            goals[i] = toCents(savingGoal.getGoal());
+            savePerMonth[i] = toCents(savingGoal.getSavePerMonth());
+            minimumBalanceRequired[i] = toCents(savingGoal.getMinimumBalanceRequired());
+            savingGoalBalances[i] = toCents(savingGoal.getBalance());
+        }
+        this.balance = balance;
+    }
+
+    private SavingGoalSimulation(SavingGoalSimulation simulation) {
+        this.ids = new ArrayList<>(simulation.ids);
+        this.names = new ArrayList<>(simulation.names);
+        this.goals = simulation.goals.clone();
+        this.savePerMonth = simulation.savePerMonth.clone();
+        this.minimumBalanceRequired = simulation.minimumBalanceRequired.clone();
+        this.savingGoalBalances = simulation.savingGoalBalances.clone();
+        this.size = simulation.size;
+        this.balance = simulation.balance;
+        this.systemMillis = simulation.systemMillis;
+        this.systemZone = simulation.systemZone;
+        this.nextMonth = simulation.nextMonth;
+        this.monthStarts = simulation.monthStarts;
+    }
+
+    private static long toCents(BigDecimal amount) {
+        return Money.of(CurrencyUnit.EUR, amount).getAmountMinorLong();
+    }
+
+    /**
+     * @return an independent copy of this simulation
+     */
+    SavingGoalSimulation copy() {
+        return new SavingGoalSimulation(this);
+    }
+
+    /**
+     * Adds a saving goal after the existing ones, with a balance of zero.
+     */
+    void addSavingGoal(SavingGoal savingGoal) {
+        if (size == goals.length) {
+            int capacity = Math.max(4, size * 2);
+            goals = Arrays.copyOf(goals, capacity);
+            savePerMonth = Arrays.copyOf(savePerMonth, capacity);
+            minimumBalanceRequired = Arrays.copyOf(minimumBalanceRequired, capacity);
+            savingGoalBalances = Arrays.copyOf(savingGoalBalances, capacity);
+        }
+        ids.add(savingGoal.getId());
+        names.add(savingGoal.getName());
+        goals[size] = toCents(savingGoal.getGoal());
+        savePerMonth[size] = toCents(savingGoal.getSavePerMonth());
+        minimumBalanceRequired[size] = toCents(savingGoal.getMinimumBalanceRequired());
+        savingGoalBalances[size] = 0;
+        size++;
+    }
+
+    /**
+     * Applies a transaction. The transaction is added to the balance first, after which the saving goals are paid for
+     * every month started since the previous transaction, so the payments of these months already include the
+     * transaction. Callers which need the payments before the transaction call {@link #advanceTo(long, DateTimeZone)}
+     * first.
+     *
+     * @param time the time of the transaction
+     * @param amount the amount of the transaction in cents
+     * @param type the type of the transaction
+     */
+    void apply(DateTime time, long amount, Type type) {
+        apply(time.getMillis(), time.getZone(), amount, type);
+    }
+
+    /**
+     * Applies a transaction, like {@link #apply(DateTime, long, Type)}.
+     *
+     * @param millis the time of the transaction in milliseconds since the epoch
+     * @param zone the time zone of the date of the transaction
+     */
+    void apply(long millis, DateTimeZone zone, long amount, Type type) {
+        balance += type == Type.deposit ? amount : -amount;
+        advanceTo(millis, zone);
+    }
+
+    /**
+     * Moves the system time to the time of a transaction, paying the saving goals for every month started since the
+     * previous system time. Dates are only built when a month start has passed or the time zone changes.
+     *
+     * @param millis the time of the transaction in milliseconds since the epoch
+     * @param zone the time zone of the date of the transaction
+     */
+    void advanceTo(long millis, DateTimeZone zone) {
+        if (systemZone != null && millis > nextMonth) {
+            int months = getMonthsBetween(new DateTime(systemMillis, systemZone), new DateTime(millis, zone));
+            monthStarts += months;
+            advance(months, 0, null, null);
+        }
+        if (systemZone == null || millis >= nextMonth || millis < systemMillis || !zone.equals(systemZone)) {
+            nextMonth = getFirstMonthAfter(new DateTime(millis, zone)).getMillis();
+        }
+        systemMillis = millis;
+        systemZone = zone;
+    }
+
+    /**
+     * Simulates the given number of months. Every month starts with the payments into the saving goals, after which
+     * the monthly income is added to the balance.
+     *
+     * @param months the number of months to simulate
+     * @param monthlyIncome the amount in cents added to the balance every month, which may be negative
+     * @param balanceTrajectory if not null, receives the balance at the end of every month
+     * @param savingGoalTrajectories if not null, receives the balance of every saving goal at the end of every month
+     */
+    void advance(int months, long monthlyIncome, long[] balanceTrajectory, long[][] savingGoalTrajectories) {
+        boolean[] active = new boolean[size];
+        long[] before = new long[size];
+        int month = 0;
+        while (month < months) {
+            int stretch = getStretch(months - month, monthlyIncome, active, before);
+            if (stretch == 0) {
+                payMonth();
+                balance += monthlyIncome;
+                record(month, balanceTrajectory, savingGoalTrajectories);
+                month++;
+                continue;
+            }
+
+            long payments = 0;
+            for (int i = 0; i < size; i++) {
+                if (active[i]) {
+                    payments += savePerMonth[i];
+                }
+            }
+            if (balanceTrajectory != null || savingGoalTrajectories != null) {
+                long startBalance = balance;
+                long[] startBalances = Arrays.copyOf(savingGoalBalances, size);
+                for (int j = 1; j <= stretch; j++) {
+                    balance = startBalance + j * (monthlyIncome - payments);
+                    for (int i = 0; i < size; i++) {
+                        savingGoalBalances[i] = active[i] ? startBalances[i] + j * savePerMonth[i] : startBalances[i];
+                    }
+                    record(month + j - 1, balanceTrajectory, savingGoalTrajectories);
+                }
+            } else {
+                balance += stretch * (monthlyIncome - payments);
+                for (int i = 0; i < size; i++) {
+                    if (active[i]) {
+                        savingGoalBalances[i] += stretch * savePerMonth[i];
+                    }
+                }
+            }
+            month += stretch;
+        }
+    }
+
+    /**
+     * Calculates for how many of the coming months every saving goal is paid the same as in the first of them: the
+     * same goals are paid, each its full monthly amount. Returns zero if a goal only receives part of its monthly
+     * amount in the first month, in which case that month has to be simulated in full.
+     *
+     * @param active receives whether each goal is paid in the first month
+     * @param before receives the balance before the payment of each goal in the first month
+     */
+    private int getStretch(int months, long monthlyIncome, boolean[] active, long[] before) {
+        long running = balance;
+        long payments = 0;
+        for (int i = 0; i < size; i++) {
+            before[i] = running;
+            active[i] = minimumBalanceRequired[i] < running && savingGoalBalances[i] < goals[i];
+            if (active[i]) {
+                if (savingGoalBalances[i] + savePerMonth[i] > goals[i]) {
+                    return 0;
+                }
+                running -= savePerMonth[i];
+                payments += savePerMonth[i];
+            }
+        }
+
+        // The balance before the payment of a goal decreases by this amount every month.
+        long decrease = payments - monthlyIncome;
+        long stretch = months;
+        for (int i = 0; i < size; i++) {
+            if (active[i]) {
+                if (savePerMonth[i] > 0) {
+                    stretch = Math.min(stretch, (goals[i] - savingGoalBalances[i]) / savePerMonth[i]);
+                }
+                if (decrease > 0) {
+                    long margin = before[i] - minimumBalanceRequired[i];
+                    stretch = Math.min(stretch, (margin + decrease - 1) / decrease);
+                }
+            } else if (savingGoalBalances[i] < goals[i] && decrease < 0) {
+                long margin = minimumBalanceRequired[i] - before[i];
+                stretch = Math.min(stretch, margin / -decrease + 1);
+            }
+        }
+        return (int) stretch;
+    }
+
+    /**
+     * Pays the saving goals for a single month.
+     */
+    private void payMonth() {
+        for (int i = 0; i < size; i++) {
+            if (minimumBalanceRequired[i] < balance && savingGoalBalances[i] < goals[i]) {
+                long payment = Math.min(savePerMonth[i], goals[i] - savingGoalBalances[i]);
+                savingGoalBalances[i] += payment;
+                balance -= payment;
+            }
+        }
+    }
+
+    private void record(int month, long[] balanceTrajectory, long[][] savingGoalTrajectories) {
+        if (balanceTrajectory != null) {
+            balanceTrajectory[month] = balance;
+        }
+        if (savingGoalTrajectories != null) {
+            for (int i = 0; i < size; i++) {
+                savingGoalTrajectories[i][month] = savingGoalBalances[i];
+            }
+        }
+    }
+
+    /**
+     * Writes the balances of the saving goals back to the saving goals the simulation was created from.
+     */
+    void writeBalances(List<SavingGoal> savingGoals) {
+        for (int i = 0; i < savingGoals.size(); i++) {
+            savingGoals.get(i).setBalance(Money.ofMinor(CurrencyUnit.EUR, savingGoalBalances[i]));
+        }
+    }
+
+    long getBalance() {
+        return balance;
+    }
+
+    /**
+     * @return the number of month starts passed by applying transactions, in which the saving goals may have been paid
+     */
+    long getMonthStarts() {
+        return monthStarts;
+    }
+
+    /**
+     * @return the time of the last applied transaction, or null if no transaction has been applied yet
+     */
+    DateTime getSystemTime() {
+        return systemZone == null ? null : new DateTime(systemMillis, systemZone);
+    }
+
+    int size() {
+        return size;
+    }
+
+    Integer getId(int index) {
+        return ids.get(index);
+    }
+
+    String getName(int index) {
+        return names.get(index);
+    }
+
+    long getGoal(int index) {
+        return goals[index];
+    }
+
+    /**
+     * Returns the number of month starts after the start date and before the end date. Month starts are at midnight
+     * on the first day of the month, in the time zone of the start date.
+     */
+    static int getMonthsBetween(DateTime startDate, DateTime endDate) {
+        DateTime firstMonth = getFirstMonthAfter(startDate);
+        if (!firstMonth.isBefore(endDate)) {
+            return 0;
+        }
+        int months = Months.monthsBetween(firstMonth, endDate).getMonths();
+        return firstMonth.plusMonths(months).isBefore(endDate) ? months + 1 : months;
+    }
+
+    /**
+     * Returns the start of the first month after the given date.
+     */
+    static DateTime getFirstMonthAfter(DateTime date) {
+        return date.withTimeAtStartOfDay().withDayOfMonth(1).plusMonths(1);
+    }
+}
@@ -24,19 +24,14 @@
  */
 package nl.utwente.ing.controller;
 
-import nl.utwente.ing.controller.database.DBConnection;
-import nl.utwente.ing.controller.database.DBUtil;
-import org.apache.commons.dbutils.DbUtils;
+import nl.utwente.ing.cache.SessionRegistry;
+import nl.utwente.ing.repository.Repositories;
+import nl.utwente.ing.repository.StorageException;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RestController;
 
 import javax.servlet.http.HttpServletResponse;
-import java.sql.Connection;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
-import java.sql.SQLException;
-import java.util.UUID;
 
 @RestController
 @RequestMapping("/api/v1/sessions")
@@ -44,71 +39,51 @@ public class SessionController {
 
     @RequestMapping(value = "", method = RequestMethod.POST)
     public String getSession(HttpServletResponse response) {
-
-        Connection connection = null;
-        PreparedStatement preparedStatement = null;
-
         try {
-            connection = DBConnection.instance.getConnection();
-            String sessionId = UUID.randomUUID().toString();
-            while (checkSessionExists(sessionId)) {
-                sessionId = UUID.randomUUID().toString();
-            }
-
-            String query = "INSERT INTO sessions (session_id) VALUES (?);";
-            preparedStatement = connection.prepareStatement(query);
-            preparedStatement.setString(1, sessionId);
-            preparedStatement.executeUpdate();
+            String sessionId = Repositories.instance.getSessions().create();
+            SessionRegistry.instance.register(sessionId);
 
             response.setStatus(201);
 
             return String.format("{\"id\": \"%s\"}", sessionId);
-        } catch (SQLException e) {
+        } catch (StorageException e) {
             e.printStackTrace();
             response.setStatus(500);
             return null;
-        } finally {
-            DBUtil.executeCommit(connection);
-            DbUtils.closeQuietly(preparedStatement);
-            DbUtils.closeQuietly(connection);
         }
     }
 
+    /**
+     * Checks whether the given session ID belongs to an existing session. The session registry is consulted first, so
+     * only sessions which are not known to the registry require a lookup in the storage engine.
+     */
     public static boolean isValidSession(HttpServletResponse response, String sessionID) {
         if (sessionID == null) {
             response.setStatus(401);
             return false;
         }
 
+        Boolean known = SessionRegistry.instance.lookup(sessionID);
+        if (known != null) {
+            if (!known) {
+                response.setStatus(401);
+            }
+            return known;
+        }
+
         try {
-            if (SessionController.checkSessionExists(sessionID)) {
+            if (Repositories.instance.getSessions().exists(sessionID)) {
+                SessionRegistry.instance.register(sessionID);
                 return true;
             } else {
+                SessionRegistry.instance.registerUnknown(sessionID);
                 response.setStatus(401);
                 return false;
             }
-        } catch (SQLException e) {
+        } catch (StorageException e) {
             e.printStackTrace();
             response.setStatus(500);
             return false;
         }
     }
-
-    private static boolean checkSessionExists(String sessionId) throws SQLException {
-        Connection connection = null;
-        PreparedStatement preparedStatement = null;
-        ResultSet resultSet = null;
-
-        try {
-            connection = DBConnection.instance.getConnection();
-            String query = "SELECT * FROM sessions WHERE session_id = ?";
-            preparedStatement = connection.prepareStatement(query);
-            preparedStatement.setString(1,  sessionId);
-            resultSet = preparedStatement.executeQuery();
-            return resultSet.next();
-        } finally {
-            DBUtil.executeCommit(connection);
-            DbUtils.closeQuietly(connection, preparedStatement, resultSet);
-        }
-    }
 }
@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2018, Joost Prins <github.com/joostprins>, Tom Leemreize <https://github.com/oplosthee>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package nl.utwente.ing.controller;
+
+import nl.utwente.ing.model.SpendingRollup;
+import nl.utwente.ing.repository.Repositories;
+import nl.utwente.ing.repository.StorageException;
+import org.joda.time.DateTimeConstants;
+import org.joda.time.LocalDate;
+import org.springframework.web.bind.annotation.*;
+
+import javax.servlet.http.HttpServletResponse;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+@RestController
+@RequestMapping("/api/v1/rollups")
+public class SpendingRollupController {
+
+    /**
+     * Returns the totals of the transactions per period, category and type for the days between the start and end
+     * date, calculated from the per-day totals of the storage engine.
+     *
+     * @param interval the length of the periods: day, week, month or year
+     * @param start the first day to include, in the format yyyy-MM-dd
+     * @param end the last day to include, in the format yyyy-MM-dd
+     * @param response to edit the status code of the response
+     */
+    @RequestMapping(value = "", method = RequestMethod.GET)
+    public List<SpendingRollup> getSpendingRollups(@RequestHeader(value = "X-session-ID", required = false) String
+                                                           headerSessionID,
+                                                   @RequestParam(value = "session_id", required = false) String
+                                                           querySessionID,
+                                                   @RequestParam(value = "interval", defaultValue = "month") String
+                                                           interval,
+                                                   @RequestParam(value = "start", required = false) String start,
+                                                   @RequestParam(value = "end", required = false) String end,
+                                                   HttpServletResponse response) {
+        String sessionID = headerSessionID == null ? querySessionID : headerSessionID;
+        LocalDate startDay;
+        LocalDate endDay;
+        try {
+            startDay = LocalDate.parse(start);
+            endDay = LocalDate.parse(end);
+            getPeriodStart(startDay, interval);
+        } catch (NullPointerException | IllegalArgumentException e) {
+            e.printStackTrace();
+            response.setStatus(405);
+            return null;
+        }
+
+        Map<String, SpendingRollup> spendingRollups = new LinkedHashMap<>();
+        try {
+            for (SpendingRollup day : Repositories.instance.getTransactions().getDailyRollups(sessionID, startDay,
+                    endDay)) {
+                LocalDate periodStart = getPeriodStart(LocalDate.parse(day.getStart()), interval);
+                String key = periodStart + ":" + day.getCategoryId() + ":" + day.getType();
+                SpendingRollup spendingRollup = spendingRollups.get(key);
+                if (spendingRollup == null) {
+                    spendingRollup = new SpendingRollup(periodStart, day.getCategoryId(), day.getType());
+                    spendingRollups.put(key, spendingRollup);
+                }
+                spendingRollup.add(day);
+            }
+        } catch (StorageException e) {
+            e.printStackTrace();
+            response.setStatus(500);
+            return null;
+        }
+
+        List<SpendingRollup> result = new ArrayList<>(spendingRollups.values());
+        result.sort(Comparator.comparing(SpendingRollup::getStart)
+                .thenComparing(spendingRollup -> spendingRollup.getCategoryId() == null ? 0 :
+                        spendingRollup.getCategoryId())
+                .thenComparing(SpendingRollup::getType));
+        return result;
+    }
+
+    /**
+     * Returns the first day of the period of the given length containing the given day. Weeks start on Monday.
+     *
+     * @throws IllegalArgumentException if the length of the period is not valid
+     */
+    private static LocalDate getPeriodStart(LocalDate day, String interval) {
+        switch (interval.toLowerCase()) {
+            case "day"   :
+                return day;
+            case "week"  :
+                return day.withDayOfWeek(DateTimeConstants.MONDAY);
+            case "month" :
+                return day.withDayOfMonth(1);
+            case "year"  :
+                return day.withDayOfYear(1);
+            default      :
+                throw new IllegalArgumentException("interval not of valid format");
+        }
+    }
+}
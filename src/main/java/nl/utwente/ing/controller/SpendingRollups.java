@@ -0,0 +1,369 @@
+/*
+ * Copyright (c) 2018, Joost Prins <github.com/joostprins>, Tom Leemreize <https://github.com/oplosthee>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package nl.utwente.ing.controller;
+
+import org.apache.commons.dbutils.DbUtils;
+import org.joda.time.DateTimeZone;
+import org.joda.time.LocalDate;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Per-day totals of the transactions of every session, per category and type, kept up to date by every write to the
+ * transactions so that spending rollups never have to read the transactions themselves.
+ *
+ * Creates are added to the totals of their day. Other changes recalculate the totals of the days of the changed
+ * transaction, because the minimum and maximum of a day cannot be updated when a transaction is removed from it. All
+ * methods should be called on the connection which changes the transactions, before it is committed.
+ */
+public class SpendingRollups {
+
+    /**
+     * The day of a transaction, in the offset of its date or in UTC if the date has no fixed offset.
+     */
+    private static final String DAY = "date((date_millis + IFNULL(date_offset, 0)) / 1000.0, 'unixepoch')";
+
+    private static final long DAY_MILLIS = 24 * 60 * 60 * 1000L;
+
+    private SpendingRollups() {
+    }
+
+    /**
+     * Adds newly created transactions to the totals of their days.
+     *
+     * @param connection the connection on which the transactions are created
+     * @param sessionID the session which owns the transactions
+     * @param firstID the ID of the first created transaction
+     * @param lastID the ID of the last created transaction
+     */
+    public static void add(Connection connection, String sessionID, long firstID, long lastID) throws SQLException {
+        String query = "SELECT " + DAY + " AS rollup_day, IFNULL(category_id, 0) AS category, type, SUM(amount) AS " +
+                "total, COUNT(*) AS transactions, MIN(amount) AS minimum, MAX(amount) AS maximum FROM transactions " +
+                "WHERE transaction_id BETWEEN ? AND ? AND session_id = ? GROUP BY rollup_day, category, type;";
+        String insertQuery = "INSERT OR IGNORE INTO spending_rollups (session_id, day, category_id, type, total, " +
+                "transactions, minimum, maximum) VALUES (?, ?, ?, ?, 0, 0, ?, ?);";
+        String updateQuery = "UPDATE spending_rollups SET total = total + ?, transactions = transactions + ?, " +
+                "minimum = MIN(minimum, ?), maximum = MAX(maximum, ?) WHERE session_id = ? AND day = ? AND " +
+                "category_id = ? AND type = ?;";
+        PreparedStatement preparedStatement = null;
+        PreparedStatement insertPreparedStatement = null;
+        PreparedStatement updatePreparedStatement = null;
+        ResultSet resultSet = null;
+        try {
+            preparedStatement = connection.prepareStatement(query);
+            preparedStatement.setLong(1, firstID);
+            preparedStatement.setLong(2, lastID);
+            preparedStatement.setString(3, sessionID);
+            resultSet = preparedStatement.executeQuery();
+
+            insertPreparedStatement = connection.prepareStatement(insertQuery);
+            updatePreparedStatement = connection.prepareStatement(updateQuery);
+            while (resultSet.next()) {
+                String day = resultSet.getString("rollup_day");
+                if (day == null) {
+                    // SQLite only supports dates between the years 0 and 9999.
+                    continue;
+                }
+                int category = resultSet.getInt("category");
+                String type = resultSet.getString("type");
+                long minimum = resultSet.getLong("minimum");
+                long maximum = resultSet.getLong("maximum");
+
+                insertPreparedStatement.setString(1, sessionID);
+                insertPreparedStatement.setString(2, day);
+                insertPreparedStatement.setInt(3, category);
+                insertPreparedStatement.setString(4, type);
+                insertPreparedStatement.setLong(5, minimum);
+                insertPreparedStatement.setLong(6, maximum);
+                insertPreparedStatement.executeUpdate();
+
+                updatePreparedStatement.setLong(1, resultSet.getLong("total"));
+                updatePreparedStatement.setInt(2, resultSet.getInt("transactions"));
+                updatePreparedStatement.setLong(3, minimum);
+                updatePreparedStatement.setLong(4, maximum);
+                updatePreparedStatement.setString(5, sessionID);
+                updatePreparedStatement.setString(6, day);
+                updatePreparedStatement.setInt(7, category);
+                updatePreparedStatement.setString(8, type);
+                updatePreparedStatement.executeUpdate();
+            }
+        } finally {
+            DbUtils.closeQuietly(resultSet);
+            DbUtils.closeQuietly(preparedStatement);
+            DbUtils.closeQuietly(insertPreparedStatement);
+            DbUtils.closeQuietly(updatePreparedStatement);
+        }
+    }
+
+    /**
+     * Returns the day of a transaction as it is currently stored, or null if it does not exist.
+     *
+     * @param connection the connection to use
+     * @param sessionID the session which owns the transaction
+     * @param transactionID the ID of the transaction
+     */
+    public static String getDay(Connection connection, String sessionID, int transactionID) throws SQLException {
+        String query = "SELECT " + DAY + " FROM transactions WHERE transaction_id = ? AND session_id = ?;";
+        PreparedStatement preparedStatement = null;
+        ResultSet resultSet = null;
+        try {
+            preparedStatement = connection.prepareStatement(query);
+            preparedStatement.setInt(1, transactionID);
+            preparedStatement.setString(2, sessionID);
+            resultSet = preparedStatement.executeQuery();
+            return resultSet.next() ? resultSet.getString(1) : null;
+        } finally {
+            DbUtils.closeQuietly(resultSet);
+            DbUtils.closeQuietly(preparedStatement);
+        }
+    }
+
+    /**
+     * Recalculates the totals of the day of a transaction after it has been changed.
+     *
+     * @param connection the connection on which the transaction is changed
+     * @param sessionID the session which owns the transaction
+     * @param transactionID the ID of the changed transaction
+     */
+    public static void refresh(Connection connection, String sessionID, int transactionID) throws SQLException {
+        refresh(connection, sessionID, getDay(connection, sessionID, transactionID), 0);
+    }
+
+    /**
+     * Recalculates the totals of the day a transaction was moved away from and of the day it was moved to, after it has
+     * been changed.
+     *
+     * @param connection the connection on which the transaction is changed
+     * @param sessionID the session which owns the transaction
+     * @param transactionID the ID of the changed transaction
+     * @param previousDay the day of the transaction before the change, as returned by
+     * {@link #getDay(Connection, String, int)}
+     */
+    public static void update(Connection connection, String sessionID, int transactionID, String previousDay)
+            throws SQLException {
+        refresh(connection, sessionID, previousDay, 0);
+        String day = getDay(connection, sessionID, transactionID);
+        if (day != null && !day.equals(previousDay)) {
+            refresh(connection, sessionID, day, 0);
+        }
+    }
+
+    /**
+     * Removes a transaction from the totals of its day. Should be called right before the transaction is deleted.
+     *
+     * @param connection the connection on which the transaction is deleted
+     * @param sessionID the session which owns the transaction
+     * @param transactionID the ID of the transaction which is deleted
+     */
+    public static void remove(Connection connection, String sessionID, int transactionID) throws SQLException {
+        refresh(connection, sessionID, getDay(connection, sessionID, transactionID), transactionID);
+    }
+
+    /**
+     * Recalculates the totals of the days of the transactions in a range of IDs which now have the given category,
+     * after the category of these transactions has been changed.
+     *
+     * @param connection the connection on which the transactions are changed
+     * @param sessionID the session which owns the transactions
+     * @param firstID the lowest ID of the changed transactions
+     * @param lastID the highest ID of the changed transactions
+     * @param categoryID the category the transactions were changed to
+     */
+    public static void refreshCategory(Connection connection, String sessionID, long firstID, long lastID,
+                                       int categoryID) throws SQLException {
+        String query = "SELECT DISTINCT " + DAY + " FROM transactions WHERE session_id = ? AND transaction_id " +
+                "BETWEEN ? AND ? AND category_id = ?;";
+        List<String> days = new ArrayList<>();
+        PreparedStatement preparedStatement = null;
+        ResultSet resultSet = null;
+        try {
+            preparedStatement = connection.prepareStatement(query);
+            preparedStatement.setString(1, sessionID);
+            preparedStatement.setLong(2, firstID);
+            preparedStatement.setLong(3, lastID);
+            preparedStatement.setInt(4, categoryID);
+            resultSet = preparedStatement.executeQuery();
+            while (resultSet.next()) {
+                days.add(resultSet.getString(1));
+            }
+        } finally {
+            DbUtils.closeQuietly(resultSet);
+            DbUtils.closeQuietly(preparedStatement);
+        }
+        for (String day : days) {
+            refresh(connection, sessionID, day, 0);
+        }
+    }
+
+    /**
+     * Recalculates the totals of a day from the transactions of that day, leaving out the given transaction, and the
+     * archived totals of that day. Only the transactions within a day of the given day in UTC are read, as offsets are
+     * less than a day.
+     */
+    private static void refresh(Connection connection, String sessionID, String day, int excludedTransactionID)
+            throws SQLException {
+        if (day == null) {
+            return;
+        }
+        long start = LocalDate.parse(day).toDateTimeAtStartOfDay(DateTimeZone.UTC).getMillis();
+
+        String deleteQuery = "DELETE FROM spending_rollups WHERE session_id = ? AND day = ?;";
+        String insertQuery = "INSERT INTO spending_rollups (session_id, day, category_id, type, total, transactions, " +
+                "minimum, maximum) SELECT ?, ?, category_id, type, SUM(total), SUM(transactions), MIN(minimum), " +
+                "MAX(maximum) FROM (SELECT category_id, type, total, transactions, minimum, maximum FROM " +
+                "archived_spending_rollups WHERE session_id = ? AND day = ? UNION ALL SELECT IFNULL(category_id, 0), " +
+                "type, amount, 1, amount, amount FROM transactions WHERE session_id = ? AND date_millis >= ? AND " +
+                "date_millis < ? AND transaction_id != ? AND " + DAY + " = ?) GROUP BY category_id, type;";
+        PreparedStatement deletePreparedStatement = null;
+        PreparedStatement insertPreparedStatement = null;
+        try {
+            deletePreparedStatement = connection.prepareStatement(deleteQuery);
+            deletePreparedStatement.setString(1, sessionID);
+            deletePreparedStatement.setString(2, day);
+            deletePreparedStatement.executeUpdate();
+
+            insertPreparedStatement = connection.prepareStatement(insertQuery);
+            insertPreparedStatement.setString(1, sessionID);
+            insertPreparedStatement.setString(2, day);
+            insertPreparedStatement.setString(3, sessionID);
+            insertPreparedStatement.setString(4, day);
+            insertPreparedStatement.setString(5, sessionID);
+            insertPreparedStatement.setLong(6, start - DAY_MILLIS);
+            insertPreparedStatement.setLong(7, start + 2 * DAY_MILLIS);
+            insertPreparedStatement.setInt(8, excludedTransactionID);
+            insertPreparedStatement.setString(9, day);
+            insertPreparedStatement.executeUpdate();
+        } finally {
+            DbUtils.closeQuietly(deletePreparedStatement);
+            DbUtils.closeQuietly(insertPreparedStatement);
+        }
+    }
+
+    /**
+     * Moves the totals of a category to the transactions without a category. Should be called right before the
+     * category is deleted, which removes it from its transactions as well.
+     *
+     * @param connection the connection on which the category is deleted
+     * @param sessionID the session which owns the category
+     * @param categoryID the ID of the category which is deleted
+     */
+    public static void removeCategory(Connection connection, String sessionID, int categoryID) throws SQLException {
+        if (categoryID == 0) {
+            // No category has this ID, which the totals use for the transactions without a category.
+            return;
+        }
+        // The archived totals are moved as well, so they are added back to the right category when a day is
+        // recalculated.
+        for (String table : new String[]{"spending_rollups", "archived_spending_rollups"}) {
+            String mergeQuery = "INSERT OR REPLACE INTO " + table + " (session_id, day, category_id, type, total, " +
+                    "transactions, minimum, maximum) SELECT session_id, day, 0, type, SUM(total), SUM(transactions), " +
+                    "MIN(minimum), MAX(maximum) FROM " + table + " WHERE session_id = ? AND category_id IN (0, ?) " +
+                    "GROUP BY day, type HAVING MAX(category_id) = ?;";
+            String deleteQuery = "DELETE FROM " + table + " WHERE session_id = ? AND category_id = ?;";
+            PreparedStatement mergePreparedStatement = null;
+            PreparedStatement deletePreparedStatement = null;
+            try {
+                mergePreparedStatement = connection.prepareStatement(mergeQuery);
+                mergePreparedStatement.setString(1, sessionID);
+                mergePreparedStatement.setInt(2, categoryID);
+                mergePreparedStatement.setInt(3, categoryID);
+                mergePreparedStatement.executeUpdate();
+
+                deletePreparedStatement = connection.prepareStatement(deleteQuery);
+                deletePreparedStatement.setString(1, sessionID);
+                deletePreparedStatement.setInt(2, categoryID);
+                deletePreparedStatement.executeUpdate();
+            } finally {
+                DbUtils.closeQuietly(mergePreparedStatement);
+                DbUtils.closeQuietly(deletePreparedStatement);
+            }
+        }
+    }
+
+    /**
+     * Recalculates all totals of a session, for changes which affect an unknown set of transactions.
+     *
+     * @param connection the connection on which the transactions are changed
+     * @param sessionID the session of which the totals are recalculated
+     */
+    public static void rebuild(Connection connection, String sessionID) throws SQLException {
+        String deleteQuery = "DELETE FROM spending_rollups WHERE session_id = ?;";
+        String insertQuery = "INSERT INTO spending_rollups (session_id, day, category_id, type, total, transactions, " +
+                "minimum, maximum) SELECT ?, day, category_id, type, SUM(total), SUM(transactions), MIN(minimum), " +
+                "MAX(maximum) FROM (SELECT day, category_id, type, total, transactions, minimum, maximum FROM " +
+                "archived_spending_rollups WHERE session_id = ? UNION ALL SELECT " + DAY + ", IFNULL(category_id, " +
+                "0), type, amount, 1, amount, amount FROM transactions WHERE session_id = ?) WHERE day IS NOT NULL " +
+                "GROUP BY day, category_id, type;";
+        PreparedStatement deletePreparedStatement = null;
+        PreparedStatement insertPreparedStatement = null;
+        try {
+            deletePreparedStatement = connection.prepareStatement(deleteQuery);
+            deletePreparedStatement.setString(1, sessionID);
+            deletePreparedStatement.executeUpdate();
+
+            insertPreparedStatement = connection.prepareStatement(insertQuery);
+            insertPreparedStatement.setString(1, sessionID);
+            insertPreparedStatement.setString(2, sessionID);
+            insertPreparedStatement.setString(3, sessionID);
+            insertPreparedStatement.executeUpdate();
+        } finally {
+            DbUtils.closeQuietly(deletePreparedStatement);
+            DbUtils.closeQuietly(insertPreparedStatement);
+        }
+    }
+
+    /**
+     * Adds the transactions of a session before the given time to its archived totals. Should be called right before
+     * these transactions are moved to the archive, which leaves the totals themselves unchanged.
+     *
+     * @param connection the connection on which the transactions are archived
+     * @param sessionID the session which owns the transactions
+     * @param horizon the time in milliseconds since the epoch before which the transactions are archived
+     */
+    public static void archive(Connection connection, String sessionID, long horizon) throws SQLException {
+        String query = "INSERT OR REPLACE INTO archived_spending_rollups (session_id, day, category_id, type, total, " +
+                "transactions, minimum, maximum) SELECT ?, day, category_id, type, SUM(total), SUM(transactions), " +
+                "MIN(minimum), MAX(maximum) FROM (SELECT day, category_id, type, total, transactions, minimum, " +
+                "maximum FROM archived_spending_rollups WHERE session_id = ? UNION ALL SELECT " + DAY + ", " +
+                "IFNULL(category_id, 0), type, amount, 1, amount, amount FROM transactions WHERE session_id = ? AND " +
+                "date_millis < ?) WHERE day IS NOT NULL GROUP BY day, category_id, type;";
+        PreparedStatement preparedStatement = null;
+        try {
+            preparedStatement = connection.prepareStatement(query);
+            preparedStatement.setString(1, sessionID);
+            preparedStatement.setString(2, sessionID);
+            preparedStatement.setString(3, sessionID);
+            preparedStatement.setLong(4, horizon);
+            preparedStatement.executeUpdate();
+        } finally {
+            DbUtils.closeQuietly(preparedStatement);
+        }
+    }
+}
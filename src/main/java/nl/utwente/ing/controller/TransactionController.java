@@ -25,30 +25,57 @@
 package nl.utwente.ing.controller;
 
 import com.google.gson.*;
-import nl.utwente.ing.controller.database.DBConnection;
-import nl.utwente.ing.controller.database.DBUtil;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import nl.utwente.ing.Settings;
 import nl.utwente.ing.model.Category;
+import nl.utwente.ing.model.ParsedDate;
 import nl.utwente.ing.model.Transaction;
 import nl.utwente.ing.model.Type;
-import org.apache.commons.dbutils.DbUtils;
+import nl.utwente.ing.repository.Repositories;
+import nl.utwente.ing.repository.StorageException;
+import org.apache.catalina.connector.ClientAbortException;
 import org.joda.money.CurrencyUnit;
 import org.joda.money.Money;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.web.bind.annotation.*;
 
+import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import java.sql.Connection;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
-import java.sql.SQLException;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PushbackReader;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Base64;
 import java.util.List;
 
 @RestController
 @RequestMapping("api/v1/transactions")
 public class TransactionController {
 
+    private static final Logger logger = LoggerFactory.getLogger(TransactionController.class);
+
     /**
-     * Returns a list of all the transactions that are available to the session id.
+     * Separates the date in milliseconds and the transaction ID in a pagination cursor.
+     */
+    private static final char CURSOR_SEPARATOR = '|';
+
+    /**
+     * The number of rows written to the response between two flushes while exporting transactions. The first row is
+     * flushed immediately, so the client sees the export start before the rest is read.
+     */
+    private static final int EXPORT_FLUSH_ROWS = Settings.getInt("transactions.export.flush-rows", 500);
+
+    /**
+     * Returns a list of all the transactions that are available to the session id, ordered by date. Pages can be
+     * requested either with an offset or with the cursor from the X-Next-Cursor header of the previous page. A cursor
+     * continues directly after the last transaction of the previous page, so every page costs the same to retrieve.
      * @param response to edit the status code of the response
      */
     @RequestMapping(value = "", method = RequestMethod.GET, produces = "application/json")
@@ -57,71 +84,168 @@ public class TransactionController {
                                      @RequestParam(value = "offset", defaultValue = "0") int offset,
                                      @RequestParam(value = "limit", defaultValue = "20") int limit,
                                      @RequestParam(value = "category", required = false) String category,
+                                     @RequestParam(value = "cursor", required = false) String cursor,
                                      HttpServletResponse response) {
 
         String sessionID = headerSessionID != null ? headerSessionID : paramSessionID;
-        String transactionsQuery = "SELECT transaction_id, date, amount, external_iban, type, description, " +
-                "transactions.category_id, name\n" +
-                "FROM transactions\n" +
-                "INNER JOIN categories ON categories.category_id = transactions.category_id WHERE " +
-                "transactions.session_id = ?";
-        if (category != null) {
-            transactionsQuery += "AND categories.name = ?";
-        }
-        transactionsQuery += "LIMIT ? OFFSET ?;";
-
-        Connection connection = null;
-        PreparedStatement preparedStatement = null;
-        ResultSet resultSet = null;
 
-        List<Transaction> transactions = new ArrayList<>();
-
-        try {
-            connection = DBConnection.instance.getConnection();
-            preparedStatement = connection.prepareStatement(transactionsQuery);
-            preparedStatement.setString(1, sessionID);
-
-            if (category != null) {
-                preparedStatement.setString(2, category);
-                preparedStatement.setInt(3, limit);
-                preparedStatement.setInt(4, offset);
-            } else {
-                preparedStatement.setInt(2, limit);
-                preparedStatement.setInt(3, offset);
+        Long cursorMillis = null;
+        int cursorId = 0;
+        if (cursor != null && !cursor.isEmpty()) {
+            try {
+                String decodedCursor = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+                int separator = decodedCursor.lastIndexOf(CURSOR_SEPARATOR);
+                cursorMillis = Long.parseLong(decodedCursor.substring(0, separator));
+                cursorId = Integer.parseInt(decodedCursor.substring(separator + 1));
+            } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+                response.setStatus(405);
+                return null;
             }
+        }
 
-            resultSet = preparedStatement.executeQuery();
-            while (resultSet.next()) {
-                Category resultCategory = null;
-                int categoryId = resultSet.getInt("category_id");
-                if (!resultSet.wasNull()) {
-                    resultCategory = new Category(categoryId, resultSet.getString("name"));
-                }
-
-                transactions.add(new Transaction(resultSet.getInt("transaction_id"),
-                        resultSet.getString("date"),
-                        Money.ofMinor(CurrencyUnit.EUR, resultSet.getLong("amount")),
-                        resultSet.getString("external_iban"),
-                        Type.valueOf(resultSet.getString("type")),
-                        resultCategory,
-                        resultSet.getString("description")
-                        ));
+        try {
+            List<Transaction> transactions = Repositories.instance.getTransactions().getPage(sessionID, category,
+                    cursorMillis, cursorId, offset, limit);
+
+            if (!transactions.isEmpty() && transactions.size() == limit) {
+                Transaction last = transactions.get(transactions.size() - 1);
+                String nextCursor = Long.toString(last.getMillis()) + CURSOR_SEPARATOR + last.getId();
+                response.setHeader("X-Next-Cursor",
+                        Base64.getUrlEncoder().encodeToString(nextCursor.getBytes(StandardCharsets.UTF_8)));
             }
 
             response.setStatus(200);
             GsonBuilder gsonBuilder = new GsonBuilder();
             gsonBuilder.registerTypeAdapter(Transaction.class, new TransactionAdapter());
             return gsonBuilder.create().toJson(transactions);
-        } catch (SQLException e) {
+        } catch (StorageException e) {
             e.printStackTrace();
             response.setStatus(500);
             return null;
-        } finally {
-            DBUtil.executeCommit(connection);
-            DbUtils.closeQuietly(connection, preparedStatement, resultSet);
         }
     }
 
+    /**
+     * Streams all transactions of the session, ordered by date, as newline delimited JSON or as CSV. The rows are
+     * written to the response while they are read from the database, so the memory used does not depend on the number
+     * of transactions.
+     * @param format either ndjson or csv
+     * @param response to edit the status code of the response and to write the transactions to
+     */
+    @RequestMapping(value = "/export", method = RequestMethod.GET)
+    public void exportTransactions(@RequestHeader(value = "X-session-id", required = false) String headerSessionID,
+                                   @RequestParam(value = "session_id", required = false) String paramSessionID,
+                                   @RequestParam(value = "format", defaultValue = "ndjson") String format,
+                                   HttpServletResponse response) {
+        String sessionID = headerSessionID != null ? headerSessionID : paramSessionID;
+
+        boolean csv;
+        if ("csv".equalsIgnoreCase(format)) {
+            csv = true;
+        } else if ("ndjson".equalsIgnoreCase(format)) {
+            csv = false;
+        } else {
+            response.setStatus(405);
+            return;
+        }
+
+        try {
+            response.setStatus(200);
+            response.setCharacterEncoding("UTF-8");
+            response.setContentType(csv ? "text/csv" : "application/x-ndjson");
+            response.setHeader("Content-Disposition", "attachment; filename=\"transactions." +
+                    (csv ? "csv" : "ndjson") + "\"");
+
+            Writer writer = new BufferedWriter(new OutputStreamWriter(response.getOutputStream(),
+                    StandardCharsets.UTF_8));
+            JsonWriter jsonWriter = new JsonWriter(writer);
+            jsonWriter.setLenient(true);
+            if (csv) {
+                writer.write("id,date,amount,externalIBAN,type,description,categoryId,categoryName\n");
+            }
+
+            int[] rows = {0};
+            Repositories.instance.getTransactions().forEach(sessionID, transaction -> {
+                if (csv) {
+                    writeCsvRow(writer, transaction);
+                } else {
+                    writeJsonRow(jsonWriter, transaction);
+                    writer.write('\n');
+                }
+                if (++rows[0] % EXPORT_FLUSH_ROWS == 1) {
+                    writer.flush();
+                }
+            });
+            writer.flush();
+        } catch (ClientAbortException e) {
+            // The client closed the connection, so there is nobody left to send the remaining transactions to.
+            logger.debug("Client closed the connection during the export of session {}", sessionID, e);
+        } catch (StorageException | IOException e) {
+            // Once rows have been sent the status can no longer be changed, and the export ends early.
+            e.printStackTrace();
+            if (!response.isCommitted()) {
+                response.reset();
+                response.setStatus(500);
+            }
+        }
+    }
+
+    private static void writeJsonRow(JsonWriter jsonWriter, Transaction transaction) throws IOException {
+        jsonWriter.beginObject();
+        jsonWriter.name("id").value(transaction.getId());
+        jsonWriter.name("date").value(transaction.getDate());
+        jsonWriter.name("amount").value(BigDecimal.valueOf(transaction.getAmount().getAmountMinorLong(), 2));
+        jsonWriter.name("externalIBAN").value(transaction.getExternalIBAN());
+        jsonWriter.name("type").value(transaction.getType().toString());
+        jsonWriter.name("description").value(transaction.getDescription());
+        if (transaction.getCategory() != null) {
+            jsonWriter.name("category").beginObject();
+            jsonWriter.name("id").value(transaction.getCategory().getId());
+            jsonWriter.name("name").value(transaction.getCategory().getName());
+            jsonWriter.endObject();
+        }
+        jsonWriter.endObject();
+    }
+
+    private static void writeCsvRow(Writer writer, Transaction transaction) throws IOException {
+        writer.write(Integer.toString(transaction.getId()));
+        writer.write(',');
+        writeCsvField(writer, transaction.getDate());
+        writer.write(',');
+        writer.write(BigDecimal.valueOf(transaction.getAmount().getAmountMinorLong(), 2).toPlainString());
+        writer.write(',');
+        writeCsvField(writer, transaction.getExternalIBAN());
+        writer.write(',');
+        writer.write(transaction.getType().toString());
+        writer.write(',');
+        writeCsvField(writer, transaction.getDescription());
+        writer.write(',');
+        if (transaction.getCategory() != null) {
+            writer.write(Integer.toString(transaction.getCategory().getId()));
+            writer.write(',');
+            writeCsvField(writer, transaction.getCategory().getName());
+        } else {
+            writer.write(',');
+        }
+        writer.write('\n');
+    }
+
+    /**
+     * Writes a CSV field, quoting it if it contains a separator, a quote or a line break.
+     */
+    private static void writeCsvField(Writer writer, String value) throws IOException {
+        if (value == null) {
+            return;
+        }
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            writer.write(value);
+            return;
+        }
+        writer.write('"');
+        writer.write(value.replace("\"", "\"\""));
+        writer.write('"');
+    }
+
     /**
      * Creates a new transaction that is linked to the current sessions id.
      * @param response to edit the status code of the response
@@ -146,88 +270,142 @@ public class TransactionController {
                 throw new JsonSyntaxException("Transaction is missing attributes");
             }
 
-            if (DBUtil.checkCategorySession(sessionID, transaction.getCategory())) {
-                String query = "INSERT INTO transactions (date, amount, external_iban, category_id, type, session_id) VALUES " +
-                        "(?, ?, ?, ?, ?, ?);";
-                String resultQuery = "SELECT last_insert_rowid();";
-                String categoryRuleQuery = "SELECT description, iBAN, type, category_id FROM category_rules WHERE session_id = ? " +
-                        "ORDER BY datetime(creation_date_time) DESC;";
-
-                Connection connection = null;
-                PreparedStatement preparedStatement = null;
-                PreparedStatement resultPreparedStatement = null;
-                PreparedStatement categoryRulesPreparedStatement = null;
-                ResultSet resultSet = null;
-                ResultSet categoryRulesResultSet = null;
-
-                try {
-                    connection = DBConnection.instance.getConnection();
-                    resultPreparedStatement = connection.prepareStatement(resultQuery);
-                    preparedStatement = connection.prepareStatement(query);
-                    categoryRulesPreparedStatement = connection.prepareStatement(categoryRuleQuery);
-
-                    preparedStatement.setString(1, transaction.getDate());
-                    preparedStatement.setLong(2, transaction.getAmount().getAmountMinorLong());
-                    preparedStatement.setString(3, transaction.getExternalIBAN());
-                    if (transaction.getCategory() != null) {
-                        preparedStatement.setInt(4, transaction.getCategory().getId());
-                    } else {
-                        categoryRulesPreparedStatement.setString(1, sessionID);
-
-                        categoryRulesResultSet = categoryRulesPreparedStatement.executeQuery();
-
-                        while(categoryRulesResultSet.next()) {
-                            String categoryRuleDescription = categoryRulesResultSet.getString(1);
-                            String categoryRuleIBAN = categoryRulesResultSet.getString(2);
-                            String categoryRuleType = categoryRulesResultSet.getString(3);
-                            if ((categoryRuleDescription.equals("") || categoryRuleDescription.equals(transaction.getDescription())) &&
-                                    (categoryRuleIBAN.equals("") || categoryRuleIBAN.equals(transaction.getExternalIBAN())) &&
-                                    (categoryRuleType.equals("") || categoryRuleType.equals(transaction.getType().toString()))) {
-                                CategoryController categoryController = new CategoryController();
-                                transaction.setCategory(categoryController.getCategory(headerSessionID, paramSessionID, categoryRulesResultSet.getInt(4), response));
-                            }
-                        }
-                    }
+            try {
+                if (!CategoryController.belongsToSession(sessionID, transaction.getCategory())) {
+                    response.setStatus(404);
+                    return null;
+                }
 
-                    preparedStatement.setString(5, transaction.getType().toString().toLowerCase());
-                    preparedStatement.setString(6, sessionID);
+                Repositories.instance.getTransactions().create(sessionID, transaction);
+                response.setStatus(201);
+                return gson.toJson(transaction);
+            } catch (StorageException e) {
+                e.printStackTrace();
+                response.setStatus(500);
+                return null;
+            }
+        } catch (NumberFormatException | JsonParseException e) {
+            e.printStackTrace();
+            response.setStatus(405);
+            return null;
+        }
+    }
 
-                    if (preparedStatement.executeUpdate() != 1) {
-                        response.setStatus(405);
-                        return null;
-                    }
+    /**
+     * Creates all transactions in the request body in a single database transaction. The body is either a JSON array
+     * of transactions or newline-delimited JSON with one transaction per line. Transactions which are not valid are
+     * skipped and reported in the response, together with the IDs of the created transactions.
+     * @param response to edit the status code of the response
+     */
+    @RequestMapping(value = "/batch", method = RequestMethod.POST, produces = "application/json")
+    public String createTransactions(@RequestHeader(value = "X-session-id", required = false) String headerSessionID,
+                                     @RequestParam(value = "session_id", required = false) String paramSessionID,
+                                     HttpServletRequest request,
+                                     HttpServletResponse response) {
+        String sessionID = headerSessionID == null ? paramSessionID : headerSessionID;
 
-                    resultSet = resultPreparedStatement.executeQuery();
+        GsonBuilder gsonBuilder = new GsonBuilder();
+        gsonBuilder.registerTypeAdapter(Transaction.class, new TransactionAdapter());
+        Gson gson = gsonBuilder.create();
 
-                    if (resultSet.next()) {
-                        connection.commit();
-                        transaction.setId(resultSet.getInt(1));
-                        response.setStatus(201);
-                        return gson.toJson(transaction);
-                    }
-                    response.setStatus(405);
-                    return null;
+        List<Transaction> transactions = new ArrayList<>();
+        JsonArray errors = new JsonArray();
 
-                } catch (SQLException e) {
-                    e.printStackTrace();
-                    response.setStatus(500);
-                    return null;
-                } finally {
-                    DBUtil.executeCommit(connection);
-                    DbUtils.closeQuietly(categoryRulesResultSet);
-                    DbUtils.closeQuietly(categoryRulesPreparedStatement);
-                    DbUtils.closeQuietly(preparedStatement);
-                    DbUtils.closeQuietly(connection, resultPreparedStatement, resultSet);
+        try {
+            // The leading whitespace and byte order mark are skipped, so the first character shows the format.
+            PushbackReader pushbackReader = new PushbackReader(request.getReader());
+            int character = pushbackReader.read();
+            while (character != -1 && (Character.isWhitespace(character) || character == '\uFEFF')) {
+                character = pushbackReader.read();
+            }
+            if (character != -1) {
+                pushbackReader.unread(character);
+            }
+            BufferedReader reader = new BufferedReader(pushbackReader);
+
+            if (character == '[') {
+                JsonReader jsonReader = new JsonReader(reader);
+                JsonParser parser = new JsonParser();
+                jsonReader.beginArray();
+                while (jsonReader.hasNext()) {
+                    addBatchTransaction(gson, parser.parse(jsonReader), transactions, errors);
                 }
+                jsonReader.endArray();
             } else {
-                response.setStatus(404);
-                return null;
+                JsonParser parser = new JsonParser();
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.trim().isEmpty()) {
+                        continue;
+                    }
+                    try {
+                        addBatchTransaction(gson, parser.parse(line), transactions, errors);
+                    } catch (JsonParseException e) {
+                        transactions.add(null);
+                        addBatchError(errors, transactions.size() - 1, "Transaction is not valid JSON");
+                    }
+                }
             }
-        } catch (NumberFormatException | JsonParseException e) {
+        } catch (IOException | IllegalStateException | JsonParseException e) {
             e.printStackTrace();
             response.setStatus(405);
             return null;
         }
+
+        try {
+            List<Integer> rejected = Repositories.instance.getTransactions().createAll(sessionID, transactions);
+            for (int index : rejected) {
+                addBatchError(errors, index, "Category does not exist");
+            }
+
+            JsonArray ids = new JsonArray();
+            int created = 0;
+            for (Transaction transaction : transactions) {
+                if (transaction == null) {
+                    ids.add(JsonNull.INSTANCE);
+                } else {
+                    ids.add(transaction.getId());
+                    created++;
+                }
+            }
+
+            JsonObject result = new JsonObject();
+            result.addProperty("created", created);
+            result.add("ids", ids);
+            result.add("errors", errors);
+            // Like a single transaction, a batch is only refused if none of its transactions is valid.
+            response.setStatus(created == 0 && !transactions.isEmpty() ? 405 : 201);
+            return result.toString();
+        } catch (StorageException e) {
+            e.printStackTrace();
+            response.setStatus(500);
+            return null;
+        }
+    }
+
+    /**
+     * Deserializes a single transaction of a batch, adding either the transaction or an error for it.
+     */
+    private static void addBatchTransaction(Gson gson, JsonElement element, List<Transaction> transactions,
+                                            JsonArray errors) {
+        try {
+            Transaction transaction = gson.fromJson(element, Transaction.class);
+            if (transaction.getDate() == null || transaction.getAmount() == null ||
+                    transaction.getExternalIBAN() == null || transaction.getType() == null) {
+                throw new JsonSyntaxException("Transaction is missing attributes");
+            }
+            transactions.add(transaction);
+        } catch (JsonParseException | IllegalArgumentException | IllegalStateException | ArithmeticException e) {
+            transactions.add(null);
+            addBatchError(errors, transactions.size() - 1, e.getMessage());
+        }
+    }
+
+    private static void addBatchError(JsonArray errors, int index, String message) {
+        JsonObject error = new JsonObject();
+        error.addProperty("index", index);
+        error.addProperty("message", message);
+        errors.add(error);
     }
 
     /**
@@ -241,55 +419,22 @@ public class TransactionController {
                                  HttpServletResponse response) {
         String sessionID = headerSessionID == null ? querySessionID : headerSessionID;
 
-        String query = "SELECT DISTINCT transaction_id, date, amount, external_iban, type, description, transactions.category_id, name\n" +
-                "FROM transactions\n" +
-                "INNER JOIN categories on transactions.category_id = categories.category_id\n" +
-                "WHERE transactions.session_id = ? AND transactions.transaction_id = ?;";
-        Connection connection = null;
-        PreparedStatement preparedStatement = null;
-        ResultSet resultSet = null;
-
         try {
-            connection = DBConnection.instance.getConnection();
-            preparedStatement = connection.prepareStatement(query);
-
-            preparedStatement.setString(1, sessionID);
-            preparedStatement.setInt(2, transactionId);
-
-            resultSet = preparedStatement.executeQuery();
-
-            if (resultSet.next()) {
-                response.setStatus(200);
-
-                Category category = null;
-                int categoryId = resultSet.getInt("category_id");
-                if (!resultSet.wasNull()) {
-                    category = new Category(categoryId, resultSet.getString("name"));
-                }
-
-                Transaction transaction = new Transaction(resultSet.getInt("transaction_id"),
-                        resultSet.getString("date"),
-                        Money.ofMinor(CurrencyUnit.EUR, resultSet.getLong("amount")),
-                        resultSet.getString("external_iban"),
-                        Type.valueOf(resultSet.getString("type")),
-                        category,
-                        resultSet.getString("description")
-                );
-
-                GsonBuilder gsonBuilder = new GsonBuilder();
-                gsonBuilder.registerTypeAdapter(Transaction.class, new TransactionAdapter());
-                return gsonBuilder.create().toJson(transaction);
-            } else {
+            Transaction transaction = Repositories.instance.getTransactions().get(sessionID, transactionId);
+            // Transactions without a category are not listed either, so they cannot be retrieved on their own.
+            if (transaction == null || transaction.getCategory() == null) {
                 response.setStatus(404);
                 return null;
             }
-        } catch (SQLException e) {
+
+            response.setStatus(200);
+            GsonBuilder gsonBuilder = new GsonBuilder();
+            gsonBuilder.registerTypeAdapter(Transaction.class, new TransactionAdapter());
+            return gsonBuilder.create().toJson(transaction);
+        } catch (StorageException e) {
             e.printStackTrace();
             response.setStatus(500);
             return null;
-        } finally {
-            DBUtil.executeCommit(connection);
-            DbUtils.closeQuietly(connection, preparedStatement, resultSet);
         }
     }
 
@@ -318,44 +463,19 @@ public class TransactionController {
                 throw new JsonSyntaxException("Transaction body is not formatted properly");
             }
 
-            if (DBUtil.checkCategorySession(sessionID, transaction.getCategory())) {
-                String query = "UPDATE transactions SET date = ?, amount = ?, external_iban = ?, type = ?, description = ? " +
-                        "WHERE transaction_id = ? AND session_id = ?";
-                Connection connection = null;
-                PreparedStatement preparedStatement = null;
-
-                try {
-                    connection = DBConnection.instance.getConnection();
-                    preparedStatement = connection.prepareStatement(query);
-
-                    preparedStatement.setString(1, transaction.getDate());
-                    preparedStatement.setLong(2, transaction.getAmount().getAmountMinorLong());
-                    preparedStatement.setString(3, transaction.getExternalIBAN());
-                    preparedStatement.setString(4, transaction.getType().toString().toLowerCase());
-                    preparedStatement.setString(5, transaction.getDate());
-                    preparedStatement.setInt(6, transactionId);
-                    preparedStatement.setString(7, sessionID);
-
-                    if (preparedStatement.executeUpdate() == 1) {
-                        response.setStatus(200);
-                        connection.commit();
-                        return gson.toJson(transaction);
-                    } else {
-                        response.setStatus(404);
-                        return null;
-                    }
-                } catch (SQLException e) {
-                    e.printStackTrace();
-                    response.setStatus(500);
-                    return null;
-                } finally {
-                    DBUtil.executeCommit(connection);
-                    DbUtils.closeQuietly(preparedStatement);
-                    DbUtils.closeQuietly(connection);
-                }
-            } else {
+            try {
+                if (CategoryController.belongsToSession(sessionID, transaction.getCategory()) &&
+                        Repositories.instance.getTransactions().update(sessionID, transaction)) {
+                    response.setStatus(200);
+                    return gson.toJson(transaction);
+                } else {
                     response.setStatus(404);
                     return null;
+                }
+            } catch (StorageException e) {
+                e.printStackTrace();
+                response.setStatus(500);
+                return null;
             }
         } catch (JsonParseException | NumberFormatException e) {
             e.printStackTrace();
@@ -374,8 +494,12 @@ public class TransactionController {
                                   @PathVariable("transactionId") int transactionId,
                                   HttpServletResponse response) {
         String sessionID = headerSessionID == null ? querySessionID : headerSessionID;
-        String query = "DELETE FROM transactions WHERE transaction_id = ? AND session_id = ?";
-        DBUtil.executeDelete(response, query, transactionId, sessionID);
+        try {
+            response.setStatus(Repositories.instance.getTransactions().delete(sessionID, transactionId) ? 204 : 404);
+        } catch (StorageException e) {
+            e.printStackTrace();
+            response.setStatus(500);
+        }
     }
 
     /**
@@ -400,38 +524,17 @@ public class TransactionController {
             return null;
         }
 
-        String query = "UPDATE transactions SET category_id = ? WHERE transaction_id = ? AND session_id = ?";
-        Connection connection = null;
-        PreparedStatement preparedStatement = null;
-
         try {
-            connection = DBConnection.instance.getConnection();
-            preparedStatement = connection.prepareStatement(query);
-            preparedStatement.setInt(1, categoryId);
-            preparedStatement.setInt(2, transactionId);
-            preparedStatement.setString(3, sessionID);
-            if (preparedStatement.executeUpdate() == 1) {
+            if (Repositories.instance.getTransactions().setCategory(sessionID, transactionId, categoryId)) {
                 return getTransaction(headerSessionID, querySessionID, transactionId, response);
             } else {
                 response.setStatus(404);
                 return null;
             }
-        } catch (SQLException e) {
+        } catch (StorageException e) {
             e.printStackTrace();
-
-            // Since the error code is not set for this SQLException the message has to be used in order to find
-            // out what the error was, in case of a foreign key constraint a 404 should be thrown instead of a 500.
-            if (e.getMessage().startsWith("[SQLITE_CONSTRAINT]")) {
-                response.setStatus(404);
-                return null;
-            }
-
             response.setStatus(500);
             return null;
-        } finally {
-            DBUtil.executeCommit(connection);
-            DbUtils.closeQuietly(preparedStatement);
-            DbUtils.closeQuietly(connection);
         }
     }
 }
@@ -449,6 +552,12 @@ class TransactionAdapter implements JsonDeserializer<Transaction>, JsonSerialize
         }
 
         String date = jsonObject.get("date").getAsString();
+        ParsedDate parsedDate;
+        try {
+            parsedDate = ParsedDate.parse(date);
+        } catch (IllegalArgumentException e) {
+            throw new JsonParseException("Transaction date is not a valid ISO-8601 date");
+        }
         Money amount = Money.of(CurrencyUnit.EUR, jsonObject.get("amount").getAsBigDecimal());
         String externalIBAN = jsonObject.get("externalIBAN").getAsString();
         Type transactionType = Type.valueOf(jsonObject.get("type").getAsString());
@@ -460,7 +569,7 @@ class TransactionAdapter implements JsonDeserializer<Transaction>, JsonSerialize
                     jsonObject.get("category").getAsJsonObject().get("name").getAsString());
         }
 
-        return new Transaction(null, date, amount, externalIBAN, transactionType, category, description);
+        return new Transaction(null, date, parsedDate, amount, externalIBAN, transactionType, category, description);
     }
 
     @Override
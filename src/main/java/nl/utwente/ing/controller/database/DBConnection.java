@@ -24,63 +24,225 @@
  */
 package nl.utwente.ing.controller.database;
 
-import com.mchange.v2.c3p0.ComboPooledDataSource;
+import nl.utwente.ing.Settings;
+import nl.utwente.ing.metrics.Metrics;
+import org.apache.commons.dbutils.DbUtils;
 
-import java.beans.PropertyVetoException;
 import java.sql.Connection;
 import java.sql.SQLException;
-import java.util.Objects;
+import java.sql.Statement;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Manages the connections to the SQLite databases. SQLite allows a single writer at a time, so all writes to a
+ * database go through a single writer connection which is handed to one thread at a time, while reads use a pool of
+ * read-only connections. The databases run in WAL mode, in which readers and the writer do not block each other.
+ *
+ * The sessions can be spread over multiple database files, the shards, so writes to sessions in different shards do
+ * not wait for each other. A new session is assigned to a shard by a hash of its ID, which is recorded in the
+ * session_shards table of the first database, so sessions stay in their shard when the number of shards changes until
+ * they are moved by the {@link ShardRebalancer}. Data which does not belong to a session is stored in the first
+ * database.
+ */
 public class DBConnection {
 
+    private static final boolean FOREIGN_KEYS = Settings.getBoolean("database.pragma.foreign-keys", true);
+    private static final String SYNCHRONOUS = Settings.getString("database.pragma.synchronous", "NORMAL");
+    private static final int CACHE_SIZE = Settings.getInt("database.pragma.cache-size", 4000);
+    private static final long MMAP_SIZE = Settings.getLong("database.pragma.mmap-size", 268435456L);
+    private static final int BUSY_TIMEOUT = Settings.getInt("database.pragma.busy-timeout-ms", 5000);
+
     /**
-     * SQL Connection pool to the database.
+     * The maximum number of shard assignments of sessions which are kept in memory.
      */
-    private static ComboPooledDataSource databasePool;
-    public static DBConnection instance = new DBConnection();
+    private static final int ASSIGNMENT_CACHE_SIZE = Settings.getInt("database.shards.cache-size", 100000);
+
+    private static DatabaseShard[] shards;
 
     /**
-     * The name of the SQLite database in the project resources
+     * The shards of recently used sessions, as recorded in the session_shards table.
      */
-    private static final String DATABASE_NAME = "database.sqlite";
+    private static final Map<String, Integer> assignments = new ConcurrentHashMap<>();
+    public static DBConnection instance = new DBConnection();
 
     /**
-     * Creates a new connection pool to the local SQLite database.
-     * Requires the SQLite database to exist.
+     * Opens the writer connection and the pool of read-only connections to every shard. Requires the first SQLite
+     * database to exist; the other shards are created with the same schema if they do not exist.
      */
     private DBConnection() {
-        if (databasePool == null) {
-            initializePool();
+        if (shards == null) {
+            initializeShards();
+        }
+    }
+
+    private void initializeShards() {
+        int count = Math.max(1, Settings.getInt("database.shards", 1));
+        String path = DatabaseShard.getPath();
+        shards = new DatabaseShard[count];
+        shards[0] = new DatabaseShard(path, count == 1 ? "" : "-0", null);
+        for (int i = 1; i < count; i++) {
+            shards[i] = new DatabaseShard(DatabaseShard.getShardPath(path, i), "-" + i, shards[0]);
+        }
+        Metrics.instance.gauge("shards", "count", () -> shards.length);
+        Metrics.instance.gauge("shards", "cached-assignments", assignments::size);
+    }
+
+    /**
+     * Applies the configured PRAGMAs to a new connection. These only affect the connection itself, so they are applied
+     * once to every connection when it is opened.
+     */
+    static void applyPragmas(Connection connection) throws SQLException {
+        Statement statement = null;
+        try {
+            statement = connection.createStatement();
+            statement.execute("PRAGMA foreign_keys = " + (FOREIGN_KEYS ? "ON" : "OFF"));
+            statement.execute("PRAGMA synchronous = " + SYNCHRONOUS);
+            statement.execute("PRAGMA cache_size = " + CACHE_SIZE);
+            // Ignored by SQLite versions before 3.7.17, which do not support memory-mapped I/O.
+            statement.execute("PRAGMA mmap_size = " + MMAP_SIZE);
+            // The driver sets the busy timeout of the connection through the query timeout, which is in seconds.
+            statement.setQueryTimeout((int) TimeUnit.MILLISECONDS.toSeconds(BUSY_TIMEOUT + 999));
+        } finally {
+            DbUtils.closeQuietly(statement);
+        }
+    }
+
+    /**
+     * @return the number of shards the sessions are spread over
+     */
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    /**
+     * Returns the shard which stores a session: the shard recorded for it, or the shard of its hash if none is
+     * recorded.
+     *
+     * @param sessionID the ID of the session
+     * @return the index of the shard of the session
+     */
+    public int getShard(String sessionID) throws SQLException {
+        if (shards.length == 1 || sessionID == null) {
+            return 0;
+        }
+        Integer shard = assignments.get(sessionID);
+        if (shard != null) {
+            return shard;
+        }
+
+        Connection connection = null;
+        try {
+            connection = shards[0].getReadConnection();
+            shard = ShardDirectory.lookup(connection, sessionID);
+        } finally {
+            DBUtil.executeCommit(connection);
+            DbUtils.closeQuietly(connection);
+        }
+        if (shard == null) {
+            // Unknown sessions are not cached, as they are probably invalid.
+            return ShardDirectory.hash(sessionID, shards.length);
+        } else if (shard >= shards.length) {
+            throw new SQLException("Session " + sessionID + " is stored in shard " + shard + ", but only " +
+                    shards.length + " shards are configured");
         }
+        if (assignments.size() >= ASSIGNMENT_CACHE_SIZE) {
+            // Assignments are cheap to look up again, so the cache simply starts over once it is full.
+            assignments.clear();
+        }
+        assignments.put(sessionID, shard);
+        return shard;
     }
 
-    private void initializePool() {
+    /**
+     * Assigns a new session to the shard of its hash, and records the assignment. Must not be called by a thread which
+     * is using a writer.
+     *
+     * @param sessionID the ID of the new session
+     * @return the index of the shard in which the session has to be created
+     */
+    public int assignShard(String sessionID) throws SQLException {
+        int shard = ShardDirectory.hash(sessionID, shards.length);
+        Connection connection = null;
         try {
-            databasePool = new ComboPooledDataSource();
-            databasePool.setDriverClass( "org.sqlite.JDBC" ); //loads the jdbc driver
-
-            String path = "jdbc:sqlite:" + Objects.requireNonNull(this.getClass().getClassLoader().
-                    getResource(DATABASE_NAME)).getPath().replace("/", System.getProperty("file.separator")).replace("%20", " ");
-            databasePool.setJdbcUrl(path);
-
-            databasePool.setMinPoolSize(5);
-            databasePool.setAcquireIncrement(5);
-            databasePool.setMaxPoolSize(20);
-        } catch (PropertyVetoException e) {
-            e.printStackTrace();
+            connection = getConnection();
+            ShardDirectory.record(connection, sessionID, shard);
+            connection.commit();
+        } finally {
+            DbUtils.closeQuietly(connection);
         }
+        if (shards.length > 1) {
+            assignments.put(sessionID, shard);
+        }
+        return shard;
     }
 
     /**
-     * Returns an initialized connection to the SQLite database.
-     * Enables Foreign Key Support for this connection as they are disabled by default.
+     * Returns the connection through which all writes to the first database go. Only one thread can use the writer
+     * at a time, so this blocks until the writer is closed by the thread which is currently using it. Closing the
+     * returned connection rolls back any uncommitted changes and hands the writer to the next thread.
+     * With group commit, committing also hands the writer to the next thread, and only returns once the changes have
+     * been committed together with those of the other threads that committed in the meantime.
+     * Must not be called by a thread which is already using the writer.
      *
-     * @return connection to the SQLite database
+     * @return connection to the first SQLite database which can be written to
      */
     public Connection getConnection() throws SQLException {
-        Connection connection = databasePool.getConnection();
-        connection.createStatement().execute("PRAGMA foreign_keys = ON");
-        connection.setAutoCommit(false);
-        return connection;
+        return shards[0].getConnection();
+    }
+
+    /**
+     * Returns the writer connection of the shard which stores a session.
+     *
+     * @param sessionID the session of which data is written
+     * @return connection to the shard of the session which can be written to
+     * @see #getConnection()
+     */
+    public Connection getConnection(String sessionID) throws SQLException {
+        return shards[getShard(sessionID)].getConnection();
+    }
+
+    /**
+     * Returns the writer connection of a shard.
+     *
+     * @param shard the index of the shard
+     * @return connection to the shard which can be written to
+     * @see #getConnection()
+     */
+    public Connection getConnection(int shard) throws SQLException {
+        return shards[shard].getConnection();
+    }
+
+    /**
+     * Returns a read-only connection to the first SQLite database. Every transaction on the connection reads a
+     * consistent snapshot of the database, which is not blocked by the writer.
+     *
+     * @return read-only connection to the first SQLite database
+     */
+    public Connection getReadConnection() throws SQLException {
+        return shards[0].getReadConnection();
+    }
+
+    /**
+     * Returns a read-only connection to the shard which stores a session.
+     *
+     * @param sessionID the session of which data is read
+     * @return read-only connection to the shard of the session
+     * @see #getReadConnection()
+     */
+    public Connection getReadConnection(String sessionID) throws SQLException {
+        return shards[getShard(sessionID)].getReadConnection();
+    }
+
+    /**
+     * Returns a read-only connection to a shard.
+     *
+     * @param shard the index of the shard
+     * @return read-only connection to the shard
+     * @see #getReadConnection()
+     */
+    public Connection getReadConnection(int shard) throws SQLException {
+        return shards[shard].getReadConnection();
     }
 }
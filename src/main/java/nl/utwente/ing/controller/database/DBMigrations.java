@@ -0,0 +1,158 @@
+/*
+ * Copyright (c) 2018, Joost Prins <github.com/joostprins>, Tom Leemreize <https://github.com/oplosthee>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package nl.utwente.ing.controller.database;
+
+import org.apache.commons.dbutils.DbUtils;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Objects;
+import java.util.stream.Collectors;
+
+/**
+ * Brings the schema of the database up to date on startup. The migrations are SQL scripts in the db/migration resource
+ * folder which are applied in order, each in its own transaction. The version of the last applied script is stored in
+ * the schema_version table, so every script runs exactly once.
+ */
+public class DBMigrations {
+
+    /**
+     * The folder in the project resources containing the migration scripts.
+     */
+    private static final String MIGRATION_FOLDER = "db/migration/";
+
+    /**
+     * The migration scripts in the order they have to be applied. The version of a script is its position in this
+     * array, starting at 1. Scripts may only be appended, as existing databases have already applied the others.
+     */
+    private static final String[] MIGRATIONS = {
+            "V1__balance_checkpoints.sql",
+            "V2__session_indexes.sql",
+            "V3__transaction_date_millis.sql",
+            "V4__transaction_date_offset.sql",
+            "V5__spending_rollups.sql",
+            "V6__background_jobs.sql",
+            "V7__session_shards.sql",
+            "V8__transaction_archives.sql",
+            "V9__archived_spending_rollups.sql",
+            "V10__transaction_ids_autoincrement.sql",
+            "V11__balance_checkpoint_month_starts.sql"
+    };
+
+    private DBMigrations() {
+    }
+
+    /**
+     * Applies all migrations which have not been applied to the database yet.
+     *
+     * @param connection the connection to the database to migrate
+     */
+    public static void migrate(Connection connection) throws SQLException {
+        boolean autoCommit = connection.getAutoCommit();
+        try {
+            createVersionTable(connection);
+            int version = getVersion(connection);
+            for (int i = version; i < MIGRATIONS.length; i++) {
+                connection.setAutoCommit(false);
+                try {
+                    apply(connection, i + 1, MIGRATIONS[i]);
+                    connection.commit();
+                } catch (SQLException e) {
+                    connection.rollback();
+                    throw new SQLException("Migration " + MIGRATIONS[i] + " failed", e);
+                }
+            }
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
+    }
+
+    private static void createVersionTable(Connection connection) throws SQLException {
+        Statement statement = null;
+        try {
+            statement = connection.createStatement();
+            statement.executeUpdate("CREATE TABLE IF NOT EXISTS schema_version (\n" +
+                    "  version INTEGER NOT NULL PRIMARY KEY,\n" +
+                    "  script TEXT NOT NULL,\n" +
+                    "  applied_on DATETIME DEFAULT CURRENT_TIMESTAMP\n" +
+                    ");");
+        } finally {
+            DbUtils.closeQuietly(statement);
+        }
+    }
+
+    private static int getVersion(Connection connection) throws SQLException {
+        Statement statement = null;
+        ResultSet resultSet = null;
+        try {
+            statement = connection.createStatement();
+            resultSet = statement.executeQuery("SELECT MAX(version) FROM schema_version;");
+            return resultSet.next() ? resultSet.getInt(1) : 0;
+        } finally {
+            DbUtils.closeQuietly(resultSet);
+            DbUtils.closeQuietly(statement);
+        }
+    }
+
+    /**
+     * Runs a single migration script and records its version. The script is executed as a whole, so it may contain
+     * multiple statements, including triggers.
+     */
+    private static void apply(Connection connection, int version, String script) throws SQLException {
+        String insertQuery = "INSERT INTO schema_version (version, script) VALUES (?, ?);";
+        Statement statement = null;
+        PreparedStatement preparedStatement = null;
+        try {
+            statement = connection.createStatement();
+            statement.executeUpdate(readScript(script));
+
+            preparedStatement = connection.prepareStatement(insertQuery);
+            preparedStatement.setInt(1, version);
+            preparedStatement.setString(2, script);
+            preparedStatement.executeUpdate();
+        } finally {
+            DbUtils.closeQuietly(preparedStatement);
+            DbUtils.closeQuietly(statement);
+        }
+    }
+
+    private static String readScript(String script) throws SQLException {
+        InputStream inputStream = Objects.requireNonNull(DBMigrations.class.getClassLoader()
+                .getResourceAsStream(MIGRATION_FOLDER + script), "Missing migration " + script);
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8))) {
+            return reader.lines().collect(Collectors.joining("\n"));
+        } catch (IOException e) {
+            throw new SQLException("Could not read migration " + script, e);
+        }
+    }
+}
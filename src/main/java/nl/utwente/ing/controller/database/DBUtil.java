@@ -1,9 +1,8 @@
 package nl.utwente.ing.controller.database;
 
-import nl.utwente.ing.model.Category;
+import nl.utwente.ing.model.ParsedDate;
 import org.apache.commons.dbutils.DbUtils;
 
-import javax.servlet.http.HttpServletResponse;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
@@ -17,68 +16,80 @@ public class DBUtil {
      * to be the session ID of the owner of this object.
      * Example: DELETE FROM transactions WHERE transaction_id = ? AND session_id = ?
      *
-     * @param response the HttpServletResponse which will be updated with the result of the update
      * @param query the query which is to be executed, which should contain two parameters. The first parameter should
      *              be the ID of the object to delete, and the second parameter should be the session ID of the owner
      *              of this object.
      * @param id the ID of the object to delete
      * @param sessionID the session ID of the owner of the object to delete
+     * @return whether the object was deleted
      */
-    public static void executeDelete(HttpServletResponse response, String query, int id, String sessionID) {
+    public static boolean executeDelete(String query, int id, String sessionID) throws SQLException {
+        return executeDelete(query, id, sessionID, null);
+    }
+
+    /**
+     * Executes a delete on the database, like {@link #executeDelete(String, int, String)}, and calls the given
+     * callback on the same connection right before the delete is executed. This allows data which is derived from the
+     * deleted object to be updated in the same database transaction.
+     *
+     * @param query the query which is to be executed
+     * @param id the ID of the object to delete
+     * @param sessionID the session ID of the owner of the object to delete
+     * @param callback the callback to execute before the delete, or null
+     * @return whether the object was deleted
+     */
+    public static boolean executeDelete(String query, int id, String sessionID, DeleteCallback callback)
+            throws SQLException {
         Connection connection = null;
         PreparedStatement preparedStatement = null;
 
         try {
-            connection = DBConnection.instance.getConnection();
+            connection = DBConnection.instance.getConnection(sessionID);
+            if (callback != null) {
+                callback.beforeDelete(connection, id, sessionID);
+            }
             preparedStatement = connection.prepareStatement(query);
             preparedStatement.setInt(1, id);
             preparedStatement.setString(2, sessionID);
-            if (preparedStatement.executeUpdate() == 1) {
-                response.setStatus(204);
-            } else {
-                response.setStatus(404);
-            }
+            boolean deleted = preparedStatement.executeUpdate() == 1;
             connection.commit();
-        } catch (SQLException e) {
-            e.printStackTrace();
-            response.setStatus(500);
+            return deleted;
         } finally {
             DbUtils.closeQuietly(preparedStatement);
             DbUtils.closeQuietly(connection);
         }
     }
 
-    public static boolean checkCategorySession(String session_id, Category category) {
-        if (category != null) {
-            if (category.getId() != null) {
-                String query = "SELECT category_id FROM categories WHERE session_id = ? AND category_id = ?;";
-                Connection connection = null;
-                PreparedStatement preparedStatement = null;
-                ResultSet resultSet = null;
-                try {
-                    connection = DBConnection.instance.getConnection();
-                    preparedStatement = connection.prepareStatement(query);
+    /**
+     * Reads the parsed date of a transaction from the date, date_millis and date_offset columns of a result set. The
+     * date is only parsed again if it was stored without a fixed offset.
+     */
+    public static ParsedDate getTransactionDate(ResultSet resultSet) throws SQLException {
+        int offset = resultSet.getInt("date_offset");
+        return ParsedDate.of(resultSet.getLong("date_millis"), resultSet.wasNull() ? null : offset,
+                resultSet.getString("date"));
+    }
 
-                    preparedStatement.setString(1, session_id);
-                    preparedStatement.setInt(2, category.getId());
+    /**
+     * Callback which is executed on the connection of a delete before the delete itself is executed.
+     */
+    public interface DeleteCallback {
+        void beforeDelete(Connection connection, int id, String sessionID) throws SQLException;
+    }
 
-                    resultSet = preparedStatement.executeQuery();
-                    return resultSet.next();
-                } catch (SQLException e) {
-                    e.printStackTrace();
-                } finally {
-                    DbUtils.closeQuietly(connection, preparedStatement, resultSet);
-                }
+    public static void executeCommit(Connection connection) {
+        if (connection != null) {
+            try {
+                connection.commit();
+            } catch (SQLException ignored) {
             }
-            return false;
         }
-        return true;
     }
 
-    public static void executeCommit(Connection connection) {
+    public static void executeRollback(Connection connection) {
         if (connection != null) {
             try {
-                connection.commit();
+                connection.rollback();
             } catch (SQLException ignored) {
             }
         }
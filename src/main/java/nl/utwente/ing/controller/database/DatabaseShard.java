@@ -0,0 +1,330 @@
+/*
+ * Copyright (c) 2018, Joost Prins <github.com/joostprins>, Tom Leemreize <https://github.com/oplosthee>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package nl.utwente.ing.controller.database;
+
+import com.mchange.v2.c3p0.ComboPooledDataSource;
+import nl.utwente.ing.Settings;
+import nl.utwente.ing.metrics.Metrics;
+import org.apache.commons.dbutils.DbUtils;
+
+import java.beans.PropertyVetoException;
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The connections to a single SQLite database file: a writer connection which is handed to one thread at a time, and a
+ * pool of read-only connections. The database runs in WAL mode, in which readers and the writer do not block each
+ * other.
+ */
+final class DatabaseShard {
+
+    /**
+     * The open mode flag of SQLite for read-only connections, SQLITE_OPEN_READONLY.
+     */
+    private static final int OPEN_READ_ONLY = 0x00000001;
+
+    /**
+     * Whether the statements executed on the connections are timed for the metrics endpoint.
+     */
+    private static final boolean METER_STATEMENTS = Settings.getBoolean("metrics.jdbc.enabled", true);
+
+    /**
+     * The name of the SQLite database in the project resources, used unless the database.path setting points to
+     * another database file.
+     */
+    private static final String DATABASE_NAME = "database.sqlite";
+
+    private static final String JOURNAL_MODE = Settings.getString("database.journal-mode", "WAL");
+
+    /**
+     * The auto-vacuum mode of the database: NONE, FULL or INCREMENTAL. With INCREMENTAL, the transaction archive
+     * returns the space of the transactions it moves out of the database to the file system.
+     */
+    private static final String AUTO_VACUUM = Settings.getString("database.pragma.auto-vacuum", "NONE");
+
+    /**
+     * The connection through which all writes to the database go.
+     */
+    private Connection writer;
+    private final ReentrantLock writerLock = new ReentrantLock(true);
+
+    /**
+     * Commits the changes of concurrent write requests together, or null if every request commits on its own.
+     */
+    private GroupCommit groupCommit;
+
+    /**
+     * SQL Connection pool of read-only connections to the database.
+     */
+    private ComboPooledDataSource databasePool;
+
+    /**
+     * A permit for every connection in the pool. Threads wait for a permit before checking out a connection, so the
+     * pool always has a connection available and never blocks on its monitor, which would pin a virtual thread to its
+     * carrier thread.
+     */
+    private Semaphore readerPermits;
+
+    /**
+     * Returns the path of the configured database file, which is the first shard.
+     */
+    static String getPath() {
+        String path = Settings.getString("database.path", "");
+        if (path.isEmpty()) {
+            path = Objects.requireNonNull(DatabaseShard.class.getClassLoader().getResource(DATABASE_NAME)).getPath()
+                    .replace("/", System.getProperty("file.separator")).replace("%20", " ");
+        }
+        return path;
+    }
+
+    /**
+     * Returns the path of the database file of a shard. The first shard is the configured database itself; the others
+     * are stored next to it, with the number of the shard appended to its name.
+     */
+    static String getShardPath(String path, int shard) {
+        if (shard == 0) {
+            return path;
+        }
+        int extension = path.lastIndexOf('.');
+        if (extension <= path.lastIndexOf(System.getProperty("file.separator"))) {
+            return path + "-" + shard;
+        }
+        return path.substring(0, extension) + "-" + shard + path.substring(extension);
+    }
+
+    /**
+     * Opens the writer connection and the pool of read-only connections to a database file, and applies the pending
+     * schema migrations.
+     *
+     * @param path the path of the database file
+     * @param metricsSuffix appended to the names of the metrics of the shard, to tell the shards apart
+     * @param template the shard of which the schema is copied if the database file does not exist yet, or null if
+     *                 the file has to exist
+     */
+    DatabaseShard(String path, String metricsSuffix, DatabaseShard template) {
+        String url = "jdbc:sqlite:" + path;
+        try {
+            Class.forName("org.sqlite.JDBC");
+            boolean created = template != null && !new File(path).exists();
+            writer = DriverManager.getConnection(url);
+            if (created) {
+                copySchema(template.writer, writer);
+            }
+            setAutoVacuum(writer);
+            setJournalMode(writer);
+            DBConnection.applyPragmas(writer);
+            DBMigrations.migrate(writer);
+            writer.setAutoCommit(false);
+
+            if (Settings.getBoolean("database.group-commit.enabled", true)) {
+                groupCommit = new GroupCommit(writer, writerLock,
+                        Settings.getInt("database.group-commit.batch-size", 64),
+                        Settings.getLong("database.group-commit.max-latency-ms", 5));
+                groupCommit.start();
+            }
+        } catch (ClassNotFoundException | SQLException e) {
+            e.printStackTrace();
+        }
+
+        try {
+            databasePool = new ComboPooledDataSource();
+            databasePool.setDriverClass( "org.sqlite.JDBC" ); //loads the jdbc driver
+            databasePool.setJdbcUrl(url);
+
+            Properties properties = new Properties();
+            properties.setProperty("open_mode", Integer.toString(OPEN_READ_ONLY));
+            databasePool.setProperties(properties);
+            databasePool.setConnectionCustomizerClassName(ReaderCustomizer.class.getName());
+
+            int readers = Settings.getInt("database.readers", Runtime.getRuntime().availableProcessors() * 2);
+            databasePool.setMinPoolSize(Math.min(5, readers));
+            databasePool.setAcquireIncrement(Math.min(5, readers));
+            databasePool.setMaxPoolSize(readers);
+            readerPermits = new Semaphore(readers, true);
+        } catch (PropertyVetoException e) {
+            e.printStackTrace();
+        }
+
+        Metrics.instance.gauge("pool" + metricsSuffix, "busy", databasePool::getNumBusyConnectionsDefaultUser);
+        Metrics.instance.gauge("pool" + metricsSuffix, "idle", databasePool::getNumIdleConnectionsDefaultUser);
+        Metrics.instance.gauge("pool" + metricsSuffix, "connections", databasePool::getNumConnectionsDefaultUser);
+        Metrics.instance.gauge("pool" + metricsSuffix, "waiting", readerPermits::getQueueLength);
+        Metrics.instance.gauge("writer" + metricsSuffix, "held", () -> writerLock.isLocked() ? 1 : 0);
+        Metrics.instance.gauge("writer" + metricsSuffix, "waiting", writerLock::getQueueLength);
+    }
+
+    /**
+     * Sets the auto-vacuum mode of the database, which is stored in the database file. Changing the mode of an existing
+     * database requires a VACUUM, which rewrites the whole file once.
+     */
+    private static void setAutoVacuum(Connection connection) throws SQLException {
+        String[] modes = {"NONE", "FULL", "INCREMENTAL"};
+        Statement statement = null;
+        ResultSet resultSet = null;
+        try {
+            statement = connection.createStatement();
+            resultSet = statement.executeQuery("PRAGMA auto_vacuum;");
+            int mode = resultSet.next() ? resultSet.getInt(1) : 0;
+            DbUtils.closeQuietly(resultSet);
+            if (!modes[mode].equalsIgnoreCase(AUTO_VACUUM)) {
+                statement.execute("PRAGMA auto_vacuum = " + AUTO_VACUUM);
+                statement.execute("VACUUM");
+            }
+        } finally {
+            DbUtils.closeQuietly(resultSet);
+            DbUtils.closeQuietly(statement);
+        }
+    }
+
+    /**
+     * Sets the journal mode of the database. The journal mode is stored in the database file, so it only has to be set
+     * on the writer connection.
+     */
+    private static void setJournalMode(Connection connection) throws SQLException {
+        Statement statement = null;
+        try {
+            statement = connection.createStatement();
+            statement.execute("PRAGMA journal_mode = " + JOURNAL_MODE);
+        } finally {
+            DbUtils.closeQuietly(statement);
+        }
+    }
+
+    /**
+     * Creates the tables and indexes of a database in a new, empty database, together with the applied migrations, so
+     * only the migrations which the template has not applied yet are applied to the new database.
+     */
+    static void copySchema(Connection template, Connection connection) throws SQLException {
+        List<String> statements = new ArrayList<>();
+        List<Integer> versions = new ArrayList<>();
+        List<String> scripts = new ArrayList<>();
+        Statement templateStatement = null;
+        ResultSet resultSet = null;
+        try {
+            templateStatement = template.createStatement();
+            // Tables have to be created before their indexes.
+            resultSet = templateStatement.executeQuery("SELECT sql FROM sqlite_master WHERE sql IS NOT NULL AND " +
+                    "name NOT LIKE 'sqlite_%' ORDER BY type = 'table' DESC, rowid;");
+            while (resultSet.next()) {
+                statements.add(resultSet.getString(1));
+            }
+            DbUtils.closeQuietly(resultSet);
+            resultSet = templateStatement.executeQuery("SELECT version, script FROM schema_version ORDER BY version;");
+            while (resultSet.next()) {
+                versions.add(resultSet.getInt(1));
+                scripts.add(resultSet.getString(2));
+            }
+        } finally {
+            DbUtils.closeQuietly(resultSet);
+            DbUtils.closeQuietly(templateStatement);
+        }
+
+        boolean autoCommit = connection.getAutoCommit();
+        Statement statement = null;
+        PreparedStatement versionStatement = null;
+        try {
+            connection.setAutoCommit(false);
+            statement = connection.createStatement();
+            for (String sql : statements) {
+                statement.executeUpdate(sql);
+            }
+            versionStatement = connection.prepareStatement("INSERT INTO schema_version (version, script) " +
+                    "VALUES (?, ?);");
+            for (int i = 0; i < versions.size(); i++) {
+                versionStatement.setInt(1, versions.get(i));
+                versionStatement.setString(2, scripts.get(i));
+                versionStatement.executeUpdate();
+            }
+            connection.commit();
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            DbUtils.closeQuietly(statement);
+            DbUtils.closeQuietly(versionStatement);
+            connection.setAutoCommit(autoCommit);
+        }
+    }
+
+    /**
+     * Returns the writer connection of the database, blocking until the writer is closed by the thread which is
+     * currently using it.
+     *
+     * @see DBConnection#getConnection()
+     */
+    Connection getConnection() throws SQLException {
+        if (writerLock.isHeldByCurrentThread()) {
+            throw new SQLException("The writer connection is already in use by this thread");
+        }
+        long start = System.nanoTime();
+        writerLock.lock();
+        Metrics.instance.timer("database", "writer-wait").record(System.nanoTime() - start);
+
+        Connection connection;
+        try {
+            connection = WriterConnection.wrap(writer, writerLock, groupCommit);
+        } catch (SQLException e) {
+            writerLock.unlock();
+            throw e;
+        }
+        return METER_STATEMENTS ? MeteredConnection.wrap(connection) : connection;
+    }
+
+    /**
+     * Returns a read-only connection to the database.
+     *
+     * @see DBConnection#getReadConnection()
+     */
+    Connection getReadConnection() throws SQLException {
+        long start = System.nanoTime();
+        try {
+            readerPermits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a read-only connection", e);
+        }
+        Connection connection;
+        try {
+            connection = ReaderConnection.wrap(databasePool.getConnection(), readerPermits);
+        } catch (SQLException e) {
+            readerPermits.release();
+            throw e;
+        }
+        Metrics.instance.timer("database", "checkout").record(System.nanoTime() - start);
+        connection.setAutoCommit(false);
+        return METER_STATEMENTS ? MeteredConnection.wrap(connection) : connection;
+    }
+}
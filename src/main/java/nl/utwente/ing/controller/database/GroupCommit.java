@@ -0,0 +1,221 @@
+/*
+ * Copyright (c) 2018, Joost Prins <github.com/joostprins>, Tom Leemreize <https://github.com/oplosthee>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package nl.utwente.ing.controller.database;
+
+import nl.utwente.ing.metrics.Metrics;
+import org.apache.commons.dbutils.DbUtils;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Commits the changes of concurrent write requests in a single SQLite transaction. A request which commits its changes
+ * only joins the open batch and hands the writer to the next request, after which it waits until the batch is
+ * committed by the commit thread. The batch is committed once it is full, once its oldest request has waited for the
+ * maximum latency, or as soon as no other request is waiting for the writer, so a single request is not delayed.
+ */
+final class GroupCommit implements Runnable {
+
+    private final Connection writer;
+    private final ReentrantLock writerLock;
+    private final int batchSize;
+    private final long maxLatency;
+
+    /**
+     * Guards the open batch. A lock is used instead of a monitor, as waiting on a monitor pins a virtual thread to its
+     * carrier thread.
+     */
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * Signalled when a request joins a batch, releases the writer or a batch completes.
+     */
+    private final Condition changed = lock.newCondition();
+    private Batch batch = new Batch();
+
+    GroupCommit(Connection writer, ReentrantLock writerLock, int batchSize, long maxLatencyMillis) {
+        this.writer = writer;
+        this.writerLock = writerLock;
+        this.batchSize = batchSize;
+        this.maxLatency = TimeUnit.MILLISECONDS.toNanos(maxLatencyMillis);
+    }
+
+    void start() {
+        Thread thread = new Thread(this, "group-commit");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Adds the changes of the current request to the open batch. Must be called while holding the writer lock.
+     *
+     * @return the batch which contains the changes of the request
+     */
+    Batch join() {
+        lock.lock();
+        try {
+            if (batch.size == 0) {
+                batch.opened = System.nanoTime();
+            }
+            batch.size++;
+            changed.signalAll();
+            return batch;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Notifies the commit thread that the writer has been released, so it can commit if nobody else is waiting.
+     */
+    void released() {
+        lock.lock();
+        try {
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits until the given batch is committed.
+     *
+     * @throws SQLException if committing the batch failed, in which case its changes have been rolled back
+     */
+    void await(Batch batch) throws SQLException {
+        lock.lock();
+        try {
+            changed.signalAll();
+            while (!batch.done) {
+                try {
+                    changed.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new SQLException("Interrupted while waiting for the group commit", e);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (batch.failure != null) {
+            throw new SQLException("Group commit failed", batch.failure);
+        }
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            try {
+                commit(nextBatch());
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Waits until the open batch should be committed.
+     */
+    private Batch nextBatch() throws InterruptedException {
+        lock.lock();
+        try {
+            while (batch.size == 0) {
+                changed.await();
+            }
+            while (batch.size < batchSize && (writerLock.isLocked() || writerLock.hasQueuedThreads())) {
+                long remaining = batch.opened + maxLatency - System.nanoTime();
+                if (remaining <= 0) {
+                    break;
+                }
+                changed.awaitNanos(remaining);
+            }
+            return batch;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void commit(Batch committed) {
+        long start = System.nanoTime();
+        writerLock.lock();
+        try {
+            // Requests only join a batch while holding the writer, so no request can join the committed batch anymore.
+            lock.lock();
+            try {
+                batch = new Batch();
+            } finally {
+                lock.unlock();
+            }
+            writer.commit();
+        } catch (SQLException e) {
+            e.printStackTrace();
+            committed.failure = e;
+            rollback();
+        } finally {
+            writerLock.unlock();
+        }
+        Metrics.instance.timer("database", "group-commit").record(System.nanoTime() - start);
+        Metrics.instance.increment("group-commit", "batches", 1);
+        Metrics.instance.increment("group-commit", "requests", committed.size);
+
+        lock.lock();
+        try {
+            committed.done = true;
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void rollback() {
+        try {
+            writer.rollback();
+        } catch (SQLException e) {
+            // The failed commit already ended the transaction, so the next batch needs a new one.
+            Statement statement = null;
+            try {
+                statement = writer.createStatement();
+                statement.execute("BEGIN;");
+            } catch (SQLException ignored) {
+            } finally {
+                DbUtils.closeQuietly(statement);
+            }
+        }
+    }
+
+    /**
+     * The changes of a group of requests which are committed together.
+     */
+    static final class Batch {
+        private int size;
+        private long opened;
+        private boolean done;
+        private SQLException failure;
+    }
+}
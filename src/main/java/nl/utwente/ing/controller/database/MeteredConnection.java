@@ -0,0 +1,282 @@
+/*
+ * Copyright (c) 2018, Joost Prins <github.com/joostprins>, Tom Leemreize <https://github.com/oplosthee>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package nl.utwente.ing.controller.database;
+
+import nl.utwente.ing.metrics.Metrics;
+import nl.utwente.ing.metrics.SlowQueryLog;
+import org.apache.commons.dbutils.DbUtils;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Wraps connections so that every statement executed on them is timed. The time of a query includes reading its
+ * results, and is recorded when the results are read completely or closed. Statements are named by their SQL, with
+ * lists of parameters collapsed, so a statement built with a variable number of parameters has a single name.
+ */
+final class MeteredConnection {
+
+    /**
+     * The maximum length of the name of a statement.
+     */
+    private static final int MAX_NAME_LENGTH = 200;
+
+    private MeteredConnection() {
+    }
+
+    static Connection wrap(Connection connection) {
+        return (Connection) Proxy.newProxyInstance(MeteredConnection.class.getClassLoader(),
+                new Class<?>[]{Connection.class}, new ConnectionHandler(connection));
+    }
+
+    static String getName(String sql) {
+        String name = sql.replaceAll("\\s+", " ").replaceAll("\\?(, ?\\?)+", "?, ...").trim();
+        return name.length() > MAX_NAME_LENGTH ? name.substring(0, MAX_NAME_LENGTH) + "..." : name;
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static class ConnectionHandler implements InvocationHandler {
+        private final Connection connection;
+
+        ConnectionHandler(Connection connection) {
+            this.connection = connection;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "prepareStatement":
+                    return Proxy.newProxyInstance(MeteredConnection.class.getClassLoader(),
+                            new Class<?>[]{PreparedStatement.class}, new StatementHandler(connection,
+                                    (Statement) MeteredConnection.invoke(connection, method, args), (String) args[0]));
+                case "createStatement":
+                    return Proxy.newProxyInstance(MeteredConnection.class.getClassLoader(),
+                            new Class<?>[]{Statement.class}, new StatementHandler(connection,
+                                    (Statement) MeteredConnection.invoke(connection, method, args), null));
+                case "commit":
+                case "rollback":
+                    if (args == null) {
+                        long start = System.nanoTime();
+                        try {
+                            return MeteredConnection.invoke(connection, method, null);
+                        } finally {
+                            Metrics.instance.timer("database", method.getName()).record(System.nanoTime() - start);
+                        }
+                    }
+                    return MeteredConnection.invoke(connection, method, args);
+                default:
+                    return MeteredConnection.invoke(connection, method, args);
+            }
+        }
+    }
+
+    private static class StatementHandler implements InvocationHandler {
+        private final Connection connection;
+        private final Statement statement;
+        private final String sql;
+        private final List<Object> parameters = new ArrayList<>();
+        private Execution execution;
+
+        StatementHandler(Connection connection, Statement statement, String sql) {
+            this.connection = connection;
+            this.statement = statement;
+            this.sql = sql;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (name.startsWith("set") && args != null && args.length >= 2 && args[0] instanceof Integer) {
+                int index = (Integer) args[0] - 1;
+                while (parameters.size() <= index) {
+                    parameters.add(null);
+                }
+                parameters.set(index, args[1]);
+                return MeteredConnection.invoke(statement, method, args);
+            }
+
+            switch (name) {
+                case "clearParameters":
+                    parameters.clear();
+                    return MeteredConnection.invoke(statement, method, args);
+                case "executeQuery": {
+                    finish();
+                    long start = System.nanoTime();
+                    ResultSet resultSet = (ResultSet) MeteredConnection.invoke(statement, method, args);
+                    execution = new Execution(connection, args == null ? sql : (String) args[0],
+                            new ArrayList<>(parameters), System.nanoTime() - start);
+                    return Proxy.newProxyInstance(MeteredConnection.class.getClassLoader(),
+                            new Class<?>[]{ResultSet.class}, new ResultSetHandler(resultSet, execution));
+                }
+                case "execute":
+                case "executeUpdate":
+                case "executeBatch": {
+                    finish();
+                    long start = System.nanoTime();
+                    Object result = MeteredConnection.invoke(statement, method, args);
+                    long rows = 0;
+                    if (result instanceof Integer) {
+                        rows = (Integer) result;
+                    } else if (result instanceof int[]) {
+                        rows = Arrays.stream((int[]) result).filter(count -> count > 0).sum();
+                    }
+                    Execution update = new Execution(connection, args == null ? sql : (String) args[0],
+                            new ArrayList<>(parameters), System.nanoTime() - start);
+                    update.rows = rows;
+                    update.finish();
+                    return result;
+                }
+                case "close":
+                    finish();
+                    return MeteredConnection.invoke(statement, method, args);
+                default:
+                    return MeteredConnection.invoke(statement, method, args);
+            }
+        }
+
+        private void finish() {
+            if (execution != null) {
+                execution.finish();
+                execution = null;
+            }
+        }
+    }
+
+    private static class ResultSetHandler implements InvocationHandler {
+        private final ResultSet resultSet;
+        private final Execution execution;
+
+        ResultSetHandler(ResultSet resultSet, Execution execution) {
+            this.resultSet = resultSet;
+            this.execution = execution;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "next": {
+                    long start = System.nanoTime();
+                    boolean next = (Boolean) MeteredConnection.invoke(resultSet, method, args);
+                    execution.nanos += System.nanoTime() - start;
+                    if (next) {
+                        execution.rows++;
+                    } else {
+                        execution.finish();
+                    }
+                    return next;
+                }
+                case "close":
+                    execution.finish();
+                    return MeteredConnection.invoke(resultSet, method, args);
+                default:
+                    return MeteredConnection.invoke(resultSet, method, args);
+            }
+        }
+    }
+
+    /**
+     * A single execution of a statement, including reading its results.
+     */
+    private static class Execution {
+        private final Connection connection;
+        private final String sql;
+        private final List<Object> parameters;
+        private long nanos;
+        private long rows;
+        private boolean finished;
+
+        Execution(Connection connection, String sql, List<Object> parameters, long nanos) {
+            this.connection = connection;
+            this.sql = sql;
+            this.parameters = parameters;
+            this.nanos = nanos;
+        }
+
+        void finish() {
+            if (finished || sql == null) {
+                return;
+            }
+            finished = true;
+
+            String name = getName(sql);
+            Metrics.instance.timer("sql", name).record(nanos);
+            Metrics.instance.increment("sql-rows", name, rows);
+            if (SlowQueryLog.instance.isSlow(nanos)) {
+                SlowQueryLog.instance.record(name, sql, parameters, rows, nanos, explain());
+            }
+        }
+
+        /**
+         * Returns the query plan of the statement, as reported by EXPLAIN QUERY PLAN.
+         */
+        private List<String> explain() {
+            String statement = sql.trim().toUpperCase(Locale.ROOT);
+            if (!statement.startsWith("SELECT") && !statement.startsWith("UPDATE") &&
+                    !statement.startsWith("DELETE") && !statement.startsWith("INSERT")) {
+                return Collections.emptyList();
+            }
+
+            List<String> plan = new ArrayList<>();
+            PreparedStatement preparedStatement = null;
+            ResultSet resultSet = null;
+            try {
+                preparedStatement = connection.prepareStatement("EXPLAIN QUERY PLAN " + sql);
+                for (int i = 0; i < parameters.size(); i++) {
+                    preparedStatement.setObject(i + 1, parameters.get(i));
+                }
+                resultSet = preparedStatement.executeQuery();
+                int detail = resultSet.getMetaData().getColumnCount();
+                while (resultSet.next()) {
+                    plan.add(resultSet.getString(detail));
+                }
+            } catch (SQLException e) {
+                plan.add("Query plan unavailable: " + e.getMessage());
+            } finally {
+                DbUtils.closeQuietly(resultSet);
+                DbUtils.closeQuietly(preparedStatement);
+            }
+            return plan;
+        }
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2018, Joost Prins <github.com/joostprins>, Tom Leemreize <https://github.com/oplosthee>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package nl.utwente.ing.controller.database;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.util.concurrent.Semaphore;
+
+/**
+ * A read-only connection checked out of the pool while holding one of the permits of the pool. Closing it returns the
+ * connection to the pool and releases the permit, once.
+ */
+final class ReaderConnection implements InvocationHandler {
+
+    private final Connection connection;
+    private final Semaphore permits;
+    private boolean closed;
+
+    private ReaderConnection(Connection connection, Semaphore permits) {
+        this.connection = connection;
+        this.permits = permits;
+    }
+
+    /**
+     * Wraps a connection checked out of the pool, for which the current thread holds a permit.
+     */
+    static Connection wrap(Connection connection, Semaphore permits) {
+        return (Connection) Proxy.newProxyInstance(ReaderConnection.class.getClassLoader(),
+                new Class<?>[]{Connection.class}, new ReaderConnection(connection, permits));
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        switch (method.getName()) {
+            case "close":
+                if (!closed) {
+                    closed = true;
+                    try {
+                        connection.close();
+                    } finally {
+                        permits.release();
+                    }
+                }
+                return null;
+            case "isClosed":
+                if (closed) {
+                    return true;
+                }
+                // An open connection may still have been closed by the pool, which the connection itself knows.
+                return invokeConnection(method, args);
+            default:
+                return invokeConnection(method, args);
+        }
+    }
+
+    private Object invokeConnection(Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(connection, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+}
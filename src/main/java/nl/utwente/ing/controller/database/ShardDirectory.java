@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2018, Joost Prins <github.com/joostprins>, Tom Leemreize <https://github.com/oplosthee>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package nl.utwente.ing.controller.database;
+
+import org.apache.commons.dbutils.DbUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.zip.CRC32;
+
+/**
+ * Records the shard in which every session is stored, in the session_shards table of the first database.
+ */
+final class ShardDirectory {
+
+    private ShardDirectory() {
+    }
+
+    /**
+     * Returns the shard a session belongs in for the given number of shards. The hash only depends on the ID of the
+     * session, so it is the same in every run of the application.
+     */
+    static int hash(String sessionID, int shards) {
+        CRC32 crc = new CRC32();
+        crc.update(sessionID.getBytes(StandardCharsets.UTF_8));
+        return (int) (crc.getValue() % shards);
+    }
+
+    /**
+     * @param connection a connection to the first database
+     * @param sessionID the ID of the session
+     * @return the shard recorded for the session, or null if none is recorded
+     */
+    static Integer lookup(Connection connection, String sessionID) throws SQLException {
+        PreparedStatement preparedStatement = null;
+        ResultSet resultSet = null;
+        try {
+            preparedStatement = connection.prepareStatement("SELECT shard FROM session_shards WHERE session_id = ?;");
+            preparedStatement.setString(1, sessionID);
+            resultSet = preparedStatement.executeQuery();
+            return resultSet.next() ? resultSet.getInt(1) : null;
+        } finally {
+            DbUtils.closeQuietly(resultSet);
+            DbUtils.closeQuietly(preparedStatement);
+        }
+    }
+
+    /**
+     * Records the shard of a session, replacing the shard recorded before.
+     *
+     * @param connection the writer of the first database
+     * @param sessionID the ID of the session
+     * @param shard the shard in which the session is stored
+     */
+    static void record(Connection connection, String sessionID, int shard) throws SQLException {
+        PreparedStatement preparedStatement = null;
+        try {
+            preparedStatement = connection.prepareStatement("INSERT OR REPLACE INTO session_shards (session_id, " +
+                    "shard) VALUES (?, ?);");
+            preparedStatement.setString(1, sessionID);
+            preparedStatement.setInt(2, shard);
+            preparedStatement.executeUpdate();
+        } finally {
+            DbUtils.closeQuietly(preparedStatement);
+        }
+    }
+}
@@ -0,0 +1,378 @@
+/*
+ * Copyright (c) 2018, Joost Prins <github.com/joostprins>, Tom Leemreize <https://github.com/oplosthee>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package nl.utwente.ing.controller.database;
+
+import nl.utwente.ing.Settings;
+import org.apache.commons.dbutils.DbUtils;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Moves every session to the shard of its hash for the configured number of shards, so the sessions are spread evenly
+ * after shards have been added or removed. Must only be run while the application is stopped:
+ *
+ * <pre>mvn -Prebalance-shards process-classes -Drebalance.args="shards=4 [path=database.sqlite] [dry-run=true]"</pre>
+ *
+ * A session is moved by copying its rows to its new shard, recording the new shard and then deleting the rows from
+ * the old shard, each in its own transaction, so a run which is interrupted can simply be repeated. Rows get new IDs
+ * in their new shard, as the IDs are only unique within a database file, so clients have to reload the resources of
+ * moved sessions. The balance checkpoints are not copied, as they are recalculated when they are missing. Sessions
+ * with unfinished background jobs are skipped, as the jobs refer to the IDs of the transactions.
+ */
+public class ShardRebalancer {
+
+    /**
+     * Tables which are derived from the other tables and recalculated when they are missing.
+     */
+    private static final List<String> DERIVED_TABLES = Arrays.asList("balance_checkpoints",
+            "balance_checkpoint_sessions");
+
+    /**
+     * Tables which do not store the data of sessions.
+     */
+    private static final List<String> GLOBAL_TABLES = Arrays.asList("schema_version", "session_shards");
+
+    private final Connection[] shards;
+    private final int shardCount;
+    private final boolean dryRun;
+
+    /**
+     * The tables which store the data of sessions, with the sessions and categories first as the others refer to
+     * them.
+     */
+    private List<String> tables;
+
+    private ShardRebalancer(Connection[] shards, int shardCount, boolean dryRun) {
+        this.shards = shards;
+        this.shardCount = shardCount;
+        this.dryRun = dryRun;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            int separator = arg.indexOf('=');
+            if (separator < 0) {
+                throw new IllegalArgumentException("Expected key=value, got " + arg);
+            }
+            options.put(arg.substring(0, separator), arg.substring(separator + 1));
+        }
+        String path = options.containsKey("path") ? options.get("path") : DatabaseShard.getPath();
+        int shardCount = options.containsKey("shards") ? Integer.parseInt(options.get("shards")) :
+                Settings.getInt("database.shards", 1);
+        boolean dryRun = Boolean.parseBoolean(options.get("dry-run"));
+        if (shardCount < 1) {
+            throw new IllegalArgumentException("The number of shards must be positive");
+        }
+
+        // Shards beyond the configured number are emptied into the others.
+        int existing = 1;
+        while (new File(DatabaseShard.getShardPath(path, existing)).exists()) {
+            existing++;
+        }
+        Class.forName("org.sqlite.JDBC");
+        Connection[] connections = new Connection[Math.max(existing, shardCount)];
+        try {
+            for (int i = 0; i < connections.length; i++) {
+                String shardPath = DatabaseShard.getShardPath(path, i);
+                boolean created = i > 0 && !new File(shardPath).exists();
+                if (created && dryRun) {
+                    continue;
+                }
+                connections[i] = DriverManager.getConnection("jdbc:sqlite:" + shardPath);
+                if (created) {
+                    DatabaseShard.copySchema(connections[0], connections[i]);
+                    System.out.println("Created shard " + i + " at " + shardPath);
+                }
+                DBMigrations.migrate(connections[i]);
+                connections[i].setAutoCommit(false);
+            }
+            new ShardRebalancer(connections, shardCount, dryRun).run();
+        } finally {
+            for (Connection connection : connections) {
+                DbUtils.closeQuietly(connection);
+            }
+        }
+    }
+
+    private void run() throws SQLException {
+        tables = getSessionTables(shards[0]);
+        int[] moved = new int[shards.length];
+        int skipped = 0;
+        for (int source = 0; source < shards.length; source++) {
+            if (shards[source] == null) {
+                continue;
+            }
+            for (String sessionID : getSessions(shards[source])) {
+                int target = ShardDirectory.hash(sessionID, shardCount);
+                if (target == source) {
+                    if (!dryRun && !Integer.valueOf(source).equals(ShardDirectory.lookup(shards[0], sessionID))) {
+                        ShardDirectory.record(shards[0], sessionID, source);
+                        shards[0].commit();
+                    }
+                    continue;
+                }
+                if (hasUnfinishedJobs(shards[source], sessionID)) {
+                    System.out.println("Skipped session " + sessionID + " in shard " + source +
+                            ", which has unfinished background jobs");
+                    skipped++;
+                    continue;
+                }
+                if (!dryRun) {
+                    move(sessionID, source, target);
+                }
+                moved[target]++;
+            }
+        }
+
+        for (int i = 0; i < shards.length; i++) {
+            System.out.println((dryRun ? "Would move " : "Moved ") + moved[i] + " sessions to shard " + i +
+                    (i >= shardCount ? ", which is no longer used" : ""));
+        }
+        if (skipped > 0) {
+            System.out.println("Skipped " + skipped + " sessions; run again once their jobs have finished");
+        }
+    }
+
+    /**
+     * Copies the rows of a session to its new shard, records the new shard and deletes the rows from the old shard.
+     */
+    private void move(String sessionID, int source, int target) throws SQLException {
+        try {
+            // Rows left behind by an interrupted run are replaced.
+            delete(shards[target], sessionID);
+            Map<Long, Long> categories = new HashMap<>();
+            for (String table : tables) {
+                copy(shards[source], shards[target], table, sessionID, categories);
+            }
+            shards[target].commit();
+        } catch (SQLException e) {
+            shards[target].rollback();
+            throw e;
+        }
+
+        ShardDirectory.record(shards[0], sessionID, target);
+        shards[0].commit();
+
+        try {
+            delete(shards[source], sessionID);
+            shards[source].commit();
+        } catch (SQLException e) {
+            shards[source].rollback();
+            throw e;
+        }
+    }
+
+    /**
+     * Copies the rows of a session in a table to another shard. The rows get new IDs in the order of their old IDs, so
+     * the order of the rows is kept, and references to categories are replaced by the new IDs of the categories.
+     *
+     * @param categories the new IDs of the categories of the session, filled when the categories are copied
+     */
+    private static void copy(Connection source, Connection target, String table, String sessionID,
+                             Map<Long, Long> categories) throws SQLException {
+        String idColumn = getIdColumn(source, table);
+        PreparedStatement selectStatement = null;
+        PreparedStatement insertStatement = null;
+        PreparedStatement idStatement = null;
+        ResultSet resultSet = null;
+        try {
+            selectStatement = source.prepareStatement("SELECT * FROM " + table + " WHERE session_id = ?" +
+                    (idColumn == null ? "" : " ORDER BY " + idColumn) + ";");
+            selectStatement.setString(1, sessionID);
+            resultSet = selectStatement.executeQuery();
+            ResultSetMetaData metaData = resultSet.getMetaData();
+
+            List<String> columns = new ArrayList<>();
+            for (int i = 1; i <= metaData.getColumnCount(); i++) {
+                if (!metaData.getColumnName(i).equals(idColumn)) {
+                    columns.add(metaData.getColumnName(i));
+                }
+            }
+            StringBuilder insertQuery = new StringBuilder("INSERT INTO ").append(table).append(" (")
+                    .append(String.join(", ", columns)).append(") VALUES (");
+            for (int i = 0; i < columns.size(); i++) {
+                insertQuery.append(i == 0 ? "?" : ", ?");
+            }
+            insertStatement = target.prepareStatement(insertQuery.append(");").toString());
+            idStatement = target.prepareStatement("SELECT last_insert_rowid();");
+
+            boolean isCategories = "categories".equals(table);
+            while (resultSet.next()) {
+                for (int i = 0; i < columns.size(); i++) {
+                    Object value = resultSet.getObject(columns.get(i));
+                    if (!isCategories && "category_id".equals(columns.get(i)) && value instanceof Number &&
+                            categories.containsKey(((Number) value).longValue())) {
+                        value = categories.get(((Number) value).longValue());
+                    }
+                    insertStatement.setObject(i + 1, value);
+                }
+                insertStatement.executeUpdate();
+                if (isCategories) {
+                    ResultSet idResultSet = idStatement.executeQuery();
+                    try {
+                        idResultSet.next();
+                        categories.put(resultSet.getLong(idColumn), idResultSet.getLong(1));
+                    } finally {
+                        DbUtils.closeQuietly(idResultSet);
+                    }
+                }
+            }
+        } finally {
+            DbUtils.closeQuietly(resultSet);
+            DbUtils.closeQuietly(selectStatement);
+            DbUtils.closeQuietly(insertStatement);
+            DbUtils.closeQuietly(idStatement);
+        }
+    }
+
+    /**
+     * Deletes the rows of a session from every table of a shard, the referring tables first.
+     */
+    private void delete(Connection connection, String sessionID) throws SQLException {
+        List<String> deleteOrder = new ArrayList<>(DERIVED_TABLES);
+        for (int i = tables.size() - 1; i >= 0; i--) {
+            deleteOrder.add(tables.get(i));
+        }
+        for (String table : deleteOrder) {
+            PreparedStatement preparedStatement = null;
+            try {
+                preparedStatement = connection.prepareStatement("DELETE FROM " + table + " WHERE session_id = ?;");
+                preparedStatement.setString(1, sessionID);
+                preparedStatement.executeUpdate();
+            } finally {
+                DbUtils.closeQuietly(preparedStatement);
+            }
+        }
+    }
+
+    /**
+     * Returns the tables which have a session_id column, except for the derived and global tables.
+     */
+    private static List<String> getSessionTables(Connection connection) throws SQLException {
+        List<String> tables = new ArrayList<>();
+        Statement statement = null;
+        ResultSet resultSet = null;
+        try {
+            statement = connection.createStatement();
+            resultSet = statement.executeQuery("SELECT name FROM sqlite_master WHERE type = 'table' AND name NOT " +
+                    "LIKE 'sqlite_%' ORDER BY name = 'sessions' DESC, name = 'categories' DESC, name;");
+            while (resultSet.next()) {
+                String table = resultSet.getString(1);
+                if (!DERIVED_TABLES.contains(table) && !GLOBAL_TABLES.contains(table) &&
+                        getColumns(connection, table).containsKey("session_id")) {
+                    tables.add(table);
+                }
+            }
+            return tables;
+        } finally {
+            DbUtils.closeQuietly(resultSet);
+            DbUtils.closeQuietly(statement);
+        }
+    }
+
+    /**
+     * Returns the INTEGER PRIMARY KEY column of a table, which is an alias of the row ID, or null if it has none.
+     */
+    private static String getIdColumn(Connection connection, String table) throws SQLException {
+        String idColumn = null;
+        for (Map.Entry<String, String[]> column : getColumns(connection, table).entrySet()) {
+            String type = column.getValue()[0];
+            String primaryKey = column.getValue()[1];
+            if (!"0".equals(primaryKey)) {
+                if (idColumn != null || !"INTEGER".equalsIgnoreCase(type)) {
+                    return null;
+                }
+                idColumn = column.getKey();
+            }
+        }
+        return idColumn;
+    }
+
+    /**
+     * Returns the columns of a table, mapped to their type and their position in the primary key.
+     */
+    private static Map<String, String[]> getColumns(Connection connection, String table) throws SQLException {
+        Map<String, String[]> columns = new HashMap<>();
+        Statement statement = null;
+        ResultSet resultSet = null;
+        try {
+            statement = connection.createStatement();
+            resultSet = statement.executeQuery("PRAGMA table_info(" + table + ");");
+            while (resultSet.next()) {
+                columns.put(resultSet.getString("name"), new String[] {resultSet.getString("type"),
+                        resultSet.getString("pk")});
+            }
+            return columns;
+        } finally {
+            DbUtils.closeQuietly(resultSet);
+            DbUtils.closeQuietly(statement);
+        }
+    }
+
+    private static List<String> getSessions(Connection connection) throws SQLException {
+        List<String> sessions = new ArrayList<>();
+        Statement statement = null;
+        ResultSet resultSet = null;
+        try {
+            statement = connection.createStatement();
+            resultSet = statement.executeQuery("SELECT session_id FROM sessions ORDER BY session_id;");
+            while (resultSet.next()) {
+                sessions.add(resultSet.getString(1));
+            }
+            return sessions;
+        } finally {
+            DbUtils.closeQuietly(resultSet);
+            DbUtils.closeQuietly(statement);
+        }
+    }
+
+    private static boolean hasUnfinishedJobs(Connection connection, String sessionID) throws SQLException {
+        PreparedStatement preparedStatement = null;
+        ResultSet resultSet = null;
+        try {
+            preparedStatement = connection.prepareStatement("SELECT 1 FROM jobs WHERE session_id = ? AND status IN " +
+                    "('queued', 'running');");
+            preparedStatement.setString(1, sessionID);
+            resultSet = preparedStatement.executeQuery();
+            return resultSet.next();
+        } finally {
+            DbUtils.closeQuietly(resultSet);
+            DbUtils.closeQuietly(preparedStatement);
+        }
+    }
+}
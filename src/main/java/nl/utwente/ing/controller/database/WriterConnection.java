@@ -0,0 +1,230 @@
+/*
+ * Copyright (c) 2018, Joost Prins <github.com/joostprins>, Tom Leemreize <https://github.com/oplosthee>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package nl.utwente.ing.controller.database;
+
+import org.apache.commons.dbutils.DbUtils;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A single use of the writer connection by one thread. Closing it does not close the writer, but closes the
+ * statements created through it, rolls back uncommitted changes and releases the writer lock, so the writer is
+ * handed to the next thread in the same state as it was received.
+ *
+ * With group commit, the changes of every use are made within a savepoint of the transaction shared by the batch.
+ * Committing releases the savepoint, hands the writer to the next thread and waits for the batch to be committed, and
+ * rolling back only rolls back to the savepoint. The writer is locked again when the connection is used after a
+ * commit.
+ */
+final class WriterConnection implements InvocationHandler {
+
+    private static final String SAVEPOINT = "writer_connection";
+
+    private final Connection connection;
+    private final ReentrantLock lock;
+    private final GroupCommit groupCommit;
+    private final List<Statement> statements = new ArrayList<>();
+    private boolean locked = true;
+    private boolean closed;
+
+    private WriterConnection(Connection connection, ReentrantLock lock, GroupCommit groupCommit) {
+        this.connection = connection;
+        this.lock = lock;
+        this.groupCommit = groupCommit;
+    }
+
+    /**
+     * Wraps the writer connection, which must be locked by the current thread.
+     *
+     * @param groupCommit the group commit to join when committing, or null to commit directly
+     */
+    static Connection wrap(Connection connection, ReentrantLock lock, GroupCommit groupCommit) throws SQLException {
+        WriterConnection writerConnection = new WriterConnection(connection, lock, groupCommit);
+        if (groupCommit != null) {
+            writerConnection.execute("SAVEPOINT " + SAVEPOINT);
+        }
+        return (Connection) Proxy.newProxyInstance(WriterConnection.class.getClassLoader(),
+                new Class<?>[]{Connection.class}, writerConnection);
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        switch (method.getName()) {
+            case "close":
+                close();
+                return null;
+            case "isClosed":
+                return closed;
+            case "setAutoCommit":
+                // The writer stays in manual commit mode, as it is shared by all threads.
+                return null;
+            case "commit":
+                commit();
+                return null;
+            case "rollback":
+                if (args == null) {
+                    rollback();
+                    return null;
+                }
+                // Rolling back to a savepoint of the caller is passed on to the connection.
+                return invokeConnection(method, args);
+            default:
+                return invokeConnection(method, args);
+        }
+    }
+
+    /**
+     * Invokes a method on the writer connection, locking the writer again if needed.
+     */
+    private Object invokeConnection(Method method, Object[] args) throws Throwable {
+        if (closed) {
+            throw new SQLException("The writer connection has been released");
+        }
+        lock();
+        Object result;
+        try {
+            result = method.invoke(connection, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+        if (result instanceof Statement) {
+            statements.add((Statement) result);
+            if (groupCommit != null) {
+                return wrapStatement((Statement) result);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Wraps a statement so that executing it after a commit locks the writer again.
+     */
+    private Statement wrapStatement(Statement statement) {
+        Class<?> type = statement instanceof PreparedStatement ? PreparedStatement.class : Statement.class;
+        return (Statement) Proxy.newProxyInstance(WriterConnection.class.getClassLoader(), new Class<?>[]{type},
+                (proxy, method, args) -> {
+                    if (method.getName().startsWith("execute")) {
+                        if (closed) {
+                            throw new SQLException("The writer connection has been released");
+                        }
+                        lock();
+                    }
+                    try {
+                        return method.invoke(statement, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                });
+    }
+
+    /**
+     * Locks the writer again if it was handed to another thread by a group commit.
+     */
+    private void lock() throws SQLException {
+        if (!locked) {
+            lock.lock();
+            locked = true;
+            try {
+                execute("SAVEPOINT " + SAVEPOINT);
+            } catch (SQLException e) {
+                unlock();
+                throw e;
+            }
+        }
+    }
+
+    private void unlock() {
+        locked = false;
+        lock.unlock();
+        if (groupCommit != null) {
+            groupCommit.released();
+        }
+    }
+
+    private void commit() throws SQLException {
+        if (groupCommit == null) {
+            connection.commit();
+        } else if (locked) {
+            execute("RELEASE " + SAVEPOINT);
+            GroupCommit.Batch batch = groupCommit.join();
+            unlock();
+            groupCommit.await(batch);
+        }
+    }
+
+    private void rollback() throws SQLException {
+        if (groupCommit == null) {
+            connection.rollback();
+        } else if (locked) {
+            execute("ROLLBACK TO " + SAVEPOINT);
+        }
+    }
+
+    private void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            for (Statement statement : statements) {
+                DbUtils.closeQuietly(statement);
+            }
+            if (locked) {
+                if (groupCommit == null) {
+                    DBUtil.executeRollback(connection);
+                } else {
+                    execute("ROLLBACK TO " + SAVEPOINT);
+                    execute("RELEASE " + SAVEPOINT);
+                }
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+        } finally {
+            if (locked) {
+                unlock();
+            }
+        }
+    }
+
+    private void execute(String sql) throws SQLException {
+        Statement statement = null;
+        try {
+            statement = connection.createStatement();
+            statement.execute(sql);
+        } finally {
+            DbUtils.closeQuietly(statement);
+        }
+    }
+}
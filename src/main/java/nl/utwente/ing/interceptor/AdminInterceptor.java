@@ -0,0 +1,63 @@
+/*
+ * Copyright (c) 2018, Joost Prins <github.com/joostprins>, Tom Leemreize <https://github.com/oplosthee>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package nl.utwente.ing.interceptor;
+
+import nl.utwente.ing.Settings;
+import org.springframework.web.servlet.handler.HandlerInterceptorAdapter;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+public class AdminInterceptor extends HandlerInterceptorAdapter {
+
+    /**
+     * The token required to access the administrative endpoints, or empty to only allow requests from the local host.
+     */
+    private static final String ADMIN_TOKEN = Settings.getString("admin.token", "");
+
+    /**
+     * Verifies whether the user may access the administrative endpoints, which expose data of every session and are
+     * therefore not protected by a session ID.
+     */
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        boolean allowed;
+        if (ADMIN_TOKEN.isEmpty()) {
+            try {
+                allowed = InetAddress.getByName(request.getRemoteAddr()).isLoopbackAddress();
+            } catch (UnknownHostException e) {
+                allowed = false;
+            }
+        } else {
+            allowed = ADMIN_TOKEN.equals(request.getHeader("X-admin-token"));
+        }
+
+        if (!allowed) {
+            response.setStatus(401);
+        }
+        return allowed;
+    }
+}
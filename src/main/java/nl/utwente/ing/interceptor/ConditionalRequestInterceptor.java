@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) 2018, Joost Prins <github.com/joostprins>, Tom Leemreize <https://github.com/oplosthee>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package nl.utwente.ing.interceptor;
+
+import nl.utwente.ing.cache.ResponseCache;
+import nl.utwente.ing.cache.SessionVersions;
+import nl.utwente.ing.metrics.Metrics;
+import org.springframework.web.servlet.handler.HandlerInterceptorAdapter;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.nio.charset.StandardCharsets;
+
+public class ConditionalRequestInterceptor extends HandlerInterceptorAdapter {
+
+    /**
+     * The request attribute holding the tag of a read, which {@link EntityTagAdvice} sets on a successful response.
+     */
+    static final String TAG_ATTRIBUTE = ConditionalRequestInterceptor.class.getName() + ".tag";
+
+    /**
+     * Balance histories end at the current time, so their tag also changes every second.
+     */
+    private static final String TIME_DEPENDENT_PATH = "/api/v1/balance/history";
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    /**
+     * Tags a read with the version of the data of the session, and answers with 304 Not Modified without reading the
+     * database when the client already has the response with that tag. The tag is taken before the data is read, so it
+     * never claims newer data than the response contains, and is only sent with a successful response. Marks the data
+     * of the session as changed before any other request, which also invalidates its cached responses.
+     */
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        String sessionID = getSessionID(request);
+        if (sessionID == null) {
+            return true;
+        }
+        if (!isRead(request)) {
+            SessionVersions.instance.bump(sessionID);
+            ResponseCache.instance.invalidate(sessionID);
+            return true;
+        }
+
+        String tag = getTag(request, sessionID);
+        if (matches(request.getHeader("If-None-Match"), tag)) {
+            response.setHeader("ETag", tag);
+            response.setStatus(304);
+            Metrics.instance.increment("http", "not-modified", 1);
+            return false;
+        }
+        request.setAttribute(TAG_ATTRIBUTE, tag);
+        return true;
+    }
+
+    /**
+     * Marks the data of the session as changed again once a request which may have changed it is complete. The
+     * change was only committed after the first bump, so a read in between may have tagged the old data with the new
+     * version.
+     */
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler,
+                                Exception ex) {
+        String sessionID = getSessionID(request);
+        if (sessionID != null && !isRead(request)) {
+            SessionVersions.instance.bump(sessionID);
+            ResponseCache.instance.invalidate(sessionID);
+        }
+    }
+
+    private static boolean isRead(HttpServletRequest request) {
+        return "GET".equals(request.getMethod()) || "HEAD".equals(request.getMethod());
+    }
+
+    private static String getSessionID(HttpServletRequest request) {
+        String headerSessionID = request.getHeader("X-session-ID");
+        return headerSessionID == null ? request.getParameter("session_id") : headerSessionID;
+    }
+
+    /**
+     * Returns a weak entity tag which changes whenever the data of the session, the requested resource or its
+     * parameters change.
+     */
+    private static String getTag(HttpServletRequest request, String sessionID) {
+        long hash = hash(FNV_OFFSET_BASIS, sessionID);
+        hash = hash(hash, request.getRequestURI());
+        if (request.getQueryString() != null) {
+            hash = hash(hash, request.getQueryString());
+        }
+
+        StringBuilder tag = new StringBuilder("W/\"")
+                .append(Long.toString(SessionVersions.instance.getEpoch(), 36)).append('-')
+                .append(Long.toString(SessionVersions.instance.get(sessionID), 36)).append('-')
+                .append(Long.toHexString(hash));
+        if (request.getRequestURI().startsWith(TIME_DEPENDENT_PATH)) {
+            tag.append('-').append(Long.toString(System.currentTimeMillis() / 1000, 36));
+        }
+        return tag.append('"').toString();
+    }
+
+    private static long hash(long hash, String value) {
+        for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= FNV_PRIME;
+        }
+        // Separates the values, so they cannot be shifted into each other.
+        hash ^= 0xff;
+        return hash * FNV_PRIME;
+    }
+
+    /**
+     * Compares the tags of an If-None-Match header to a tag, ignoring whether they are weak.
+     */
+    private static boolean matches(String ifNoneMatch, String tag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        String opaqueTag = tag.substring(2);
+        for (String candidate : ifNoneMatch.split(",")) {
+            candidate = candidate.trim();
+            if (candidate.startsWith("W/")) {
+                candidate = candidate.substring(2);
+            }
+            if (candidate.equals("*") || candidate.equals(opaqueTag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
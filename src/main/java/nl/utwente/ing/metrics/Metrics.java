@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2018, Joost Prins <github.com/joostprins>, Tom Leemreize <https://github.com/oplosthee>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package nl.utwente.ing.metrics;
+
+import com.google.gson.JsonObject;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Registry of the timers, counters and gauges of the service, served by the metrics endpoint. Every metric belongs to
+ * a group, such as http for the request handlers or sql for the statements sent to the database.
+ */
+public class Metrics {
+
+    public static final Metrics instance = new Metrics();
+
+    private final ConcurrentMap<String, ConcurrentMap<String, Timer>> timers = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, ConcurrentMap<String, LongAdder>> counters = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, ConcurrentMap<String, Callable<Number>>> gauges = new ConcurrentHashMap<>();
+
+    private Metrics() {
+    }
+
+    public Timer timer(String group, String name) {
+        return timers.computeIfAbsent(group, key -> new ConcurrentHashMap<>())
+                .computeIfAbsent(name, key -> new Timer());
+    }
+
+    public void increment(String group, String name, long amount) {
+        counters.computeIfAbsent(group, key -> new ConcurrentHashMap<>())
+                .computeIfAbsent(name, key -> new LongAdder()).add(amount);
+    }
+
+    /**
+     * Registers a value which is read every time the metrics are requested.
+     */
+    public void gauge(String group, String name, Callable<Number> gauge) {
+        gauges.computeIfAbsent(group, key -> new ConcurrentHashMap<>()).put(name, gauge);
+    }
+
+    public JsonObject toJson() {
+        Map<String, JsonObject> groups = new TreeMap<>();
+        for (Map.Entry<String, ConcurrentMap<String, Timer>> group : timers.entrySet()) {
+            JsonObject json = groups.computeIfAbsent(group.getKey(), key -> new JsonObject());
+            new TreeMap<>(group.getValue()).forEach((name, timer) -> json.add(name, timer.toJson()));
+        }
+        for (Map.Entry<String, ConcurrentMap<String, LongAdder>> group : counters.entrySet()) {
+            JsonObject json = groups.computeIfAbsent(group.getKey(), key -> new JsonObject());
+            new TreeMap<>(group.getValue()).forEach((name, counter) -> json.addProperty(name, counter.sum()));
+        }
+        for (Map.Entry<String, ConcurrentMap<String, Callable<Number>>> group : gauges.entrySet()) {
+            JsonObject json = groups.computeIfAbsent(group.getKey(), key -> new JsonObject());
+            new TreeMap<>(group.getValue()).forEach((name, gauge) -> {
+                try {
+                    json.addProperty(name, gauge.call());
+                } catch (Exception e) {
+                    json.addProperty(name, (Number) null);
+                }
+            });
+        }
+
+        JsonObject result = new JsonObject();
+        groups.forEach(result::add);
+        return result;
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright (c) 2018, Joost Prins <github.com/joostprins>, Tom Leemreize <https://github.com/oplosthee>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package nl.utwente.ing.metrics;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import nl.utwente.ing.Settings;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Logs the SQL statements which take longer than a threshold, including the time spent reading their results, and
+ * keeps the slowest of them in memory. Session IDs in the bound parameters are redacted, as they grant access to the
+ * data of a session.
+ */
+public class SlowQueryLog {
+
+    public static final SlowQueryLog instance = new SlowQueryLog(
+            Settings.getLong("metrics.slow-query.threshold-ms", 200),
+            Settings.getInt("metrics.slow-query.top-n", 20));
+
+    private static final Logger logger = LoggerFactory.getLogger(SlowQueryLog.class);
+
+    private static final Pattern SESSION_ID = Pattern.compile(
+            "[0-9a-fA-F]{8}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{12}");
+
+    /**
+     * The maximum length of a logged parameter value.
+     */
+    private static final int MAX_PARAMETER_LENGTH = 100;
+
+    private final long thresholdNanos;
+    private final int size;
+
+    /**
+     * The slowest execution of each statement, indexed by the name of the statement.
+     */
+    private final Map<String, Entry> slowest = new HashMap<>();
+
+    public SlowQueryLog(long thresholdMillis, int size) {
+        this.thresholdNanos = thresholdMillis * 1000000;
+        this.size = size;
+    }
+
+    public boolean isSlow(long nanos) {
+        return nanos >= thresholdNanos;
+    }
+
+    /**
+     * Logs a slow execution of a statement and stores it if it is among the slowest executions.
+     *
+     * @param name the name of the statement
+     * @param sql the SQL of the statement
+     * @param parameters the parameters bound to the statement
+     * @param rows the number of rows read or changed
+     * @param nanos the duration of the execution, including reading the results
+     * @param plan the query plan of the statement
+     */
+    public void record(String name, String sql, List<Object> parameters, long rows, long nanos, List<String> plan) {
+        List<String> redacted = new ArrayList<>(parameters.size());
+        for (Object parameter : parameters) {
+            redacted.add(redact(parameter));
+        }
+        logger.warn("Slow query took {} ms for {} rows: {} with parameters {}, plan {}", nanos / 1000000, rows, sql,
+                redacted, plan);
+
+        synchronized (slowest) {
+            Entry entry = slowest.get(name);
+            if (entry == null) {
+                if (slowest.size() >= size) {
+                    Entry fastest = null;
+                    for (Entry candidate : slowest.values()) {
+                        if (fastest == null || candidate.maxNanos < fastest.maxNanos) {
+                            fastest = candidate;
+                        }
+                    }
+                    if (fastest == null || fastest.maxNanos >= nanos) {
+                        return;
+                    }
+                    slowest.remove(fastest.name);
+                }
+                entry = new Entry(name, sql);
+                slowest.put(name, entry);
+            }
+            entry.count++;
+            entry.totalNanos += nanos;
+            if (nanos >= entry.maxNanos) {
+                entry.maxNanos = nanos;
+                entry.rows = rows;
+                entry.parameters = redacted;
+                entry.plan = plan;
+                entry.timestamp = System.currentTimeMillis();
+            }
+        }
+    }
+
+    private static String redact(Object parameter) {
+        if (parameter == null) {
+            return "NULL";
+        }
+        String value = SESSION_ID.matcher(parameter.toString()).replaceAll("<session>");
+        return value.length() > MAX_PARAMETER_LENGTH ? value.substring(0, MAX_PARAMETER_LENGTH) + "..." : value;
+    }
+
+    /**
+     * @return the slowest statements, slowest first
+     */
+    public JsonArray toJson() {
+        List<Entry> entries;
+        synchronized (slowest) {
+            entries = new ArrayList<>(slowest.values());
+        }
+        entries.sort((first, second) -> Long.compare(second.maxNanos, first.maxNanos));
+
+        JsonArray result = new JsonArray();
+        for (Entry entry : entries) {
+            JsonObject json = new JsonObject();
+            synchronized (slowest) {
+                json.addProperty("sql", entry.sql);
+                json.addProperty("count", entry.count);
+                json.addProperty("maxMs", entry.maxNanos / 1e6);
+                json.addProperty("meanMs", entry.totalNanos / 1e6 / entry.count);
+                json.addProperty("rows", entry.rows);
+                json.addProperty("timestamp", entry.timestamp);
+                JsonArray parameters = new JsonArray();
+                entry.parameters.forEach(parameters::add);
+                json.add("parameters", parameters);
+                JsonArray plan = new JsonArray();
+                entry.plan.forEach(plan::add);
+                json.add("plan", plan);
+            }
+            result.add(json);
+        }
+        return result;
+    }
+
+    private static class Entry {
+        private final String name;
+        private final String sql;
+        private long count;
+        private long totalNanos;
+        private long maxNanos;
+        private long rows;
+        private long timestamp;
+        private List<String> parameters;
+        private List<String> plan;
+
+        Entry(String name, String sql) {
+            this.name = name;
+            this.sql = sql;
+        }
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2018, Joost Prins <github.com/joostprins>, Tom Leemreize <https://github.com/oplosthee>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package nl.utwente.ing.model;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+
+/**
+ * A long-running operation on the history of a session, which is executed in chunks in the background.
+ */
+public class Job {
+
+    public static final String QUEUED = "queued";
+    public static final String RUNNING = "running";
+    public static final String COMPLETED = "completed";
+    public static final String CANCELLED = "cancelled";
+    public static final String FAILED = "failed";
+
+    private int id;
+    private String type;
+    private String status;
+    private long examined;
+    private long updated;
+    private long total;
+    private String error;
+    private long createdAt;
+    private long modifiedAt;
+
+    public Job(int id, String type, String status, long examined, long updated, long total, String error,
+               long createdAt, long modifiedAt) {
+        this.id = id;
+        this.type = type;
+        this.status = status;
+        this.examined = examined;
+        this.updated = updated;
+        this.total = total;
+        this.error = error;
+        this.createdAt = createdAt;
+        this.modifiedAt = modifiedAt;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    /**
+     * @return the number of transactions which have been examined
+     */
+    public long getExamined() {
+        return examined;
+    }
+
+    /**
+     * @return the number of transactions which have been changed
+     */
+    public long getUpdated() {
+        return updated;
+    }
+
+    /**
+     * @return the number of transactions of the session when the job was created
+     */
+    public long getTotal() {
+        return total;
+    }
+
+    /**
+     * @return the fraction of the transactions which have been examined, between 0 and 1
+     */
+    public double getProgress() {
+        if (COMPLETED.equals(status)) {
+            return 1;
+        }
+        return total == 0 ? 0 : Math.min(1, (double) examined / total);
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public String getCreatedAt() {
+        return new DateTime(createdAt, DateTimeZone.UTC).toString();
+    }
+
+    public String getModifiedAt() {
+        return new DateTime(modifiedAt, DateTimeZone.UTC).toString();
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright (c) 2018, Joost Prins <github.com/joostprins>, Tom Leemreize <https://github.com/oplosthee>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package nl.utwente.ing.model;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+
+/**
+ * An ISO-8601 date parsed into milliseconds since the epoch and the time zone it was written in. Month starts are
+ * calculated in the time zone of a date, so the time zone is kept next to the time.
+ *
+ * Dates of the form yyyy-MM-ddTHH:mm:ss[.fraction] followed by Z or an offset of the form +HH:mm, which is the form
+ * used by the API, are parsed directly from the characters. Any other date is parsed by Joda-Time, which gives the
+ * same result for these dates.
+ */
+public final class ParsedDate {
+
+    private static final int[] DAYS_IN_MONTH = {31, 28, 31, 30, 31, 30, 31, 31, 30, 31, 30, 31};
+
+    private final long millis;
+    private final DateTimeZone zone;
+
+    /**
+     * The offset of the time zone in milliseconds, or null if the time zone is not a fixed offset.
+     */
+    private final Integer offset;
+
+    private ParsedDate(long millis, DateTimeZone zone, Integer offset) {
+        this.millis = millis;
+        this.zone = zone;
+        this.offset = offset;
+    }
+
+    /**
+     * Parses an ISO-8601 date. A date without an offset is in the default time zone.
+     *
+     * @throws IllegalArgumentException if the date cannot be parsed
+     */
+    public static ParsedDate parse(String date) {
+        ParsedDate parsedDate = parseOffsetDate(date);
+        if (parsedDate != null) {
+            return parsedDate;
+        }
+        DateTime time = DateTime.parse(date);
+        DateTimeZone zone = time.getZone();
+        return new ParsedDate(time.getMillis(), zone, zone.isFixed() ? zone.getOffset(time.getMillis()) : null);
+    }
+
+    /**
+     * Restores a date from its stored time and offset. The date itself is only parsed if it has no fixed offset.
+     *
+     * @param millis the time in milliseconds since the epoch
+     * @param offset the offset of the time zone in milliseconds, or null if it was not stored
+     * @param date the date, parsed when the offset is null
+     */
+    public static ParsedDate of(long millis, Integer offset, String date) {
+        if (offset == null) {
+            return parse(date);
+        }
+        return new ParsedDate(millis, DateTimeZone.forOffsetMillis(offset), offset);
+    }
+
+    public long getMillis() {
+        return millis;
+    }
+
+    public DateTimeZone getZone() {
+        return zone;
+    }
+
+    /**
+     * @return the offset of the time zone in milliseconds, or null if the time zone is not a fixed offset
+     */
+    public Integer getOffset() {
+        return offset;
+    }
+
+    public DateTime toDateTime() {
+        return new DateTime(millis, zone);
+    }
+
+    /**
+     * Parses a date with an explicit offset, returning null if the date is not of that form or not valid, in which
+     * case Joda-Time decides whether it can be parsed.
+     */
+    private static ParsedDate parseOffsetDate(String date) {
+        int length = date.length();
+        if (length < 20 || date.charAt(4) != '-' || date.charAt(7) != '-' || date.charAt(10) != 'T' ||
+                date.charAt(13) != ':' || date.charAt(16) != ':') {
+            return null;
+        }
+        int year = digits(date, 0, 4);
+        int month = digits(date, 5, 2);
+        int day = digits(date, 8, 2);
+        int hour = digits(date, 11, 2);
+        int minute = digits(date, 14, 2);
+        int second = digits(date, 17, 2);
+        if (year < 0 || month < 1 || month > 12 || day < 1 || day > getDaysInMonth(year, month) || hour < 0 ||
+                hour > 23 || minute < 0 || minute > 59 || second < 0 || second > 59) {
+            return null;
+        }
+
+        int index = 19;
+        int fraction = 0;
+        if (date.charAt(index) == '.') {
+            int start = ++index;
+            while (index < length && index - start < 9 && isDigit(date.charAt(index))) {
+                if (index - start < 3) {
+                    fraction = fraction * 10 + date.charAt(index) - '0';
+                }
+                index++;
+            }
+            if (index == start || index == length || isDigit(date.charAt(index))) {
+                return null;
+            }
+            for (int digits = index - start; digits < 3; digits++) {
+                fraction *= 10;
+            }
+        }
+
+        int offset;
+        if (date.charAt(index) == 'Z' && index + 1 == length) {
+            offset = 0;
+        } else if ((date.charAt(index) == '+' || date.charAt(index) == '-') && index + 6 == length &&
+                date.charAt(index + 3) == ':') {
+            int offsetHours = digits(date, index + 1, 2);
+            int offsetMinutes = digits(date, index + 4, 2);
+            if (offsetHours < 0 || offsetHours > 23 || offsetMinutes < 0 || offsetMinutes > 59) {
+                return null;
+            }
+            offset = (offsetHours * 60 + offsetMinutes) * 60000;
+            if (date.charAt(index) == '-') {
+                offset = -offset;
+            }
+        } else {
+            return null;
+        }
+
+        long seconds = ((getEpochDay(year, month, day) * 24 + hour) * 60 + minute) * 60 + second;
+        return new ParsedDate(seconds * 1000 + fraction - offset,
+                offset == 0 ? DateTimeZone.UTC : DateTimeZone.forOffsetMillis(offset), offset);
+    }
+
+    /**
+     * Returns the value of a number of decimal digits, or -1 if one of the characters is not a digit.
+     */
+    private static int digits(String date, int start, int count) {
+        int value = 0;
+        for (int i = start; i < start + count; i++) {
+            char character = date.charAt(i);
+            if (!isDigit(character)) {
+                return -1;
+            }
+            value = value * 10 + character - '0';
+        }
+        return value;
+    }
+
+    private static boolean isDigit(char character) {
+        return character >= '0' && character <= '9';
+    }
+
+    private static int getDaysInMonth(int year, int month) {
+        if (month == 2 && year % 4 == 0 && (year % 100 != 0 || year % 400 == 0)) {
+            return 29;
+        }
+        return DAYS_IN_MONTH[month - 1];
+    }
+
+    /**
+     * Returns the number of days between 1970-01-01 and the given date in the proleptic Gregorian calendar.
+     */
+    private static long getEpochDay(int year, int month, int day) {
+        long shiftedYear = month <= 2 ? year - 1 : year;
+        long era = Math.floorDiv(shiftedYear, 400);
+        long yearOfEra = shiftedYear - era * 400;
+        long dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2018, Joost Prins <github.com/joostprins>, Tom Leemreize <https://github.com/oplosthee>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package nl.utwente.ing.model;
+
+import org.joda.time.LocalDate;
+
+import java.math.BigDecimal;
+
+/**
+ * The totals of the transactions of a single category and type in a period, with amounts in cents.
+ */
+public class SpendingRollup {
+    private LocalDate start;
+    private Integer categoryId;
+    private Type type;
+    private long sum;
+    private long count;
+    private long min;
+    private long max;
+
+    public SpendingRollup(LocalDate start, Integer categoryId, Type type) {
+        this.start = start;
+        this.categoryId = categoryId;
+        this.type = type;
+        this.min = Long.MAX_VALUE;
+        this.max = Long.MIN_VALUE;
+    }
+
+    /**
+     * Adds the totals of a day to this period.
+     */
+    public void add(long sum, long count, long min, long max) {
+        this.sum += sum;
+        this.count += count;
+        this.min = Math.min(this.min, min);
+        this.max = Math.max(this.max, max);
+    }
+
+    /**
+     * Adds the totals of another period, such as a day within this period, to this period.
+     */
+    public void add(SpendingRollup other) {
+        add(other.sum, other.count, other.min, other.max);
+    }
+
+    public String getStart() {
+        return start.toString();
+    }
+
+    public Integer getCategoryId() {
+        return categoryId;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public BigDecimal getSum() {
+        return BigDecimal.valueOf(sum, 2);
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public BigDecimal getMin() {
+        return BigDecimal.valueOf(min, 2);
+    }
+
+    public BigDecimal getMax() {
+        return BigDecimal.valueOf(max, 2);
+    }
+}
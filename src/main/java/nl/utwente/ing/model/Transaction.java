@@ -25,11 +25,18 @@
 package nl.utwente.ing.model;
 
 import org.joda.money.Money;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
 
 public class Transaction {
 
     private Integer id;
     private String date;
+
+    /**
+     * The parsed date, which is parsed from the date string when it is first needed if it was not given.
+     */
+    private ParsedDate parsedDate;
     private Money amount;
     private String externalIBAN;
     private Type type;
@@ -55,6 +62,18 @@ public class Transaction {
         this.description = description;
     }
 
+    /**
+     * Constructor to create a transaction of which the date has already been parsed, for example because it was
+     * stored next to the date string.
+     * @param date the date as it was received, which is kept for serialization
+     * @param parsedDate the parsed date
+     */
+    public Transaction(Integer id, String date, ParsedDate parsedDate, Money amount, String externalIBAN, Type type,
+                       Category category, String description) {
+        this(id, date, amount, externalIBAN, type, category, description);
+        this.parsedDate = parsedDate;
+    }
+
     public Integer getId() {
         return id;
     }
@@ -63,6 +82,35 @@ public class Transaction {
         return date;
     }
 
+    /**
+     * @return the parsed date of the transaction
+     * @throws IllegalArgumentException if the date cannot be parsed
+     */
+    public ParsedDate getParsedDate() {
+        if (parsedDate == null) {
+            parsedDate = ParsedDate.parse(date);
+        }
+        return parsedDate;
+    }
+
+    /**
+     * @return the date of the transaction in milliseconds since the epoch
+     */
+    public long getMillis() {
+        return getParsedDate().getMillis();
+    }
+
+    /**
+     * @return the time zone the date of the transaction was written in
+     */
+    public DateTimeZone getZone() {
+        return getParsedDate().getZone();
+    }
+
+    public DateTime getTime() {
+        return getParsedDate().toDateTime();
+    }
+
     public Money getAmount() {
         return amount;
     }
@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2018, Joost Prins <github.com/joostprins>, Tom Leemreize <https://github.com/oplosthee>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package nl.utwente.ing.repository;
+
+import nl.utwente.ing.model.Category;
+
+import java.util.List;
+
+/**
+ * Stores the categories of the sessions.
+ */
+public interface CategoryRepository {
+
+    /**
+     * @return the categories of the session, in order of creation
+     */
+    List<Category> getAll(String sessionID) throws StorageException;
+
+    /**
+     * @return the category with the given ID, or null if the session has no such category
+     */
+    Category get(String sessionID, int id) throws StorageException;
+
+    /**
+     * @return whether the session has a category with the given ID
+     */
+    boolean exists(String sessionID, int id) throws StorageException;
+
+    /**
+     * Creates a category with the given name.
+     *
+     * @return the new category
+     */
+    Category create(String sessionID, String name) throws StorageException;
+
+    /**
+     * Renames a category.
+     *
+     * @return whether the session has the category
+     */
+    boolean update(String sessionID, Category category) throws StorageException;
+
+    /**
+     * Deletes a category, removing it from the transactions which have it. Categories which are used by a category
+     * rule cannot be deleted.
+     *
+     * @return whether the session had the category
+     * @throws StorageException if the category is used by a category rule
+     */
+    boolean delete(String sessionID, int id) throws StorageException;
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright (c) 2018, Joost Prins <github.com/joostprins>, Tom Leemreize <https://github.com/oplosthee>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package nl.utwente.ing.repository;
+
+import nl.utwente.ing.model.CategoryRule;
+
+import java.util.List;
+
+/**
+ * Stores the category rules of the sessions. The categories of the rules only have an ID.
+ */
+public interface CategoryRuleRepository {
+
+    /**
+     * @return the category rules of the session, in order of creation
+     */
+    List<CategoryRule> getAll(String sessionID) throws StorageException;
+
+    /**
+     * @return the category rule with the given ID, or null if the session has no such rule
+     */
+    CategoryRule get(String sessionID, int id) throws StorageException;
+
+    /**
+     * Creates a category rule, setting its ID. If the rule applies on history, every existing transaction of the
+     * session it matches is assigned its category, which the engine may do in a background job.
+     *
+     * @return the ID of the background job which applies the rule to the existing transactions, or null if there is
+     * no such job
+     */
+    Integer create(String sessionID, CategoryRule categoryRule) throws StorageException;
+
+    /**
+     * Replaces the description, IBAN, type and category of a category rule.
+     *
+     * @return whether the session has the rule
+     */
+    boolean update(String sessionID, CategoryRule categoryRule) throws StorageException;
+
+    /**
+     * @return whether the session had the rule
+     */
+    boolean delete(String sessionID, int id) throws StorageException;
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2018, Joost Prins <github.com/joostprins>, Tom Leemreize <https://github.com/oplosthee>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package nl.utwente.ing.repository;
+
+import nl.utwente.ing.Settings;
+import nl.utwente.ing.controller.database.DBConnection;
+import nl.utwente.ing.repository.memory.MemoryCategoryRepository;
+import nl.utwente.ing.repository.memory.MemoryCategoryRuleRepository;
+import nl.utwente.ing.repository.memory.MemoryPaymentRequestRepository;
+import nl.utwente.ing.repository.memory.MemorySavingGoalRepository;
+import nl.utwente.ing.repository.memory.MemorySessionRepository;
+import nl.utwente.ing.repository.memory.MemoryStore;
+import nl.utwente.ing.repository.memory.MemoryTransactionRepository;
+import nl.utwente.ing.repository.sqlite.SQLiteCategoryRepository;
+import nl.utwente.ing.repository.sqlite.SQLiteCategoryRuleRepository;
+import nl.utwente.ing.repository.sqlite.SQLitePaymentRequestRepository;
+import nl.utwente.ing.repository.sqlite.SQLiteSavingGoalRepository;
+import nl.utwente.ing.repository.sqlite.SQLiteSessionRepository;
+import nl.utwente.ing.repository.sqlite.SQLiteTransactionRepository;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.Objects;
+
+/**
+ * The repositories of the configured storage engine, either the SQLite databases or the {@link MemoryStore}, which
+ * keeps all data in memory and only writes a journal of the changes to disk.
+ * <p>
+ * Not all access to the data goes through the repositories. The following still query the SQLite databases through
+ * {@link DBConnection} directly, and are therefore only used when {@link #isSQLite()}:
+ * <ul>
+ *     <li>the balance history, the saving goal simulation and the matching of deposits to payment requests, when the
+ *     ledger cache is disabled, which scan the transactions or use the aggregation and the balance checkpoints of
+ *     {@code BalanceAggregation} and {@code BalanceCheckpoints};</li>
+ *     <li>the background jobs of {@code JobRunner} and the endpoints of {@code JobController};</li>
+ *     <li>the archiving of old transactions by {@code TransactionArchive}.</li>
+ * </ul>
+ * With the memory engine every session has a ledger, from which these analytics are computed instead.
+ */
+public class Repositories {
+
+    public static final String SQLITE = "sqlite";
+    public static final String MEMORY = "memory";
+
+    public static Repositories instance = create(Settings.getString("storage.engine", SQLITE));
+
+    private final String engine;
+    private final SessionRepository sessions;
+    private final CategoryRepository categories;
+    private final CategoryRuleRepository categoryRules;
+    private final TransactionRepository transactions;
+    private final SavingGoalRepository savingGoals;
+    private final PaymentRequestRepository paymentRequests;
+
+    public Repositories(String engine, SessionRepository sessions, CategoryRepository categories,
+                        CategoryRuleRepository categoryRules, TransactionRepository transactions,
+                        SavingGoalRepository savingGoals, PaymentRequestRepository paymentRequests) {
+        this.engine = engine;
+        this.sessions = sessions;
+        this.categories = categories;
+        this.categoryRules = categoryRules;
+        this.transactions = transactions;
+        this.savingGoals = savingGoals;
+        this.paymentRequests = paymentRequests;
+    }
+
+    private static Repositories create(String engine) {
+        switch (engine.toLowerCase()) {
+            case SQLITE :
+                // Creating the connection pool applies the pending schema migrations before any request is handled.
+                Objects.requireNonNull(DBConnection.instance);
+                return new Repositories(SQLITE, new SQLiteSessionRepository(), new SQLiteCategoryRepository(),
+                        new SQLiteCategoryRuleRepository(), new SQLiteTransactionRepository(),
+                        new SQLiteSavingGoalRepository(), new SQLitePaymentRequestRepository());
+            case MEMORY :
+                MemoryStore store;
+                try {
+                    store = MemoryStore.open(Paths.get(Settings.getString("storage.memory.directory", "data")));
+                } catch (IOException e) {
+                    // Starting without the stored data would let the next snapshot replace it by an empty one.
+                    throw new IllegalStateException("The memory store cannot be loaded", e);
+                }
+                return new Repositories(MEMORY, new MemorySessionRepository(store),
+                        new MemoryCategoryRepository(store), new MemoryCategoryRuleRepository(store),
+                        new MemoryTransactionRepository(store), new MemorySavingGoalRepository(store),
+                        new MemoryPaymentRequestRepository(store));
+            default :
+                throw new IllegalArgumentException("Unknown storage engine: " + engine);
+        }
+    }
+
+    /**
+     * @return whether the data is stored in the SQLite databases, which the background jobs and the analytics which
+     * do not use a ledger require
+     */
+    public boolean isSQLite() {
+        return SQLITE.equals(engine);
+    }
+
+    public SessionRepository getSessions() {
+        return sessions;
+    }
+
+    public CategoryRepository getCategories() {
+        return categories;
+    }
+
+    public CategoryRuleRepository getCategoryRules() {
+        return categoryRules;
+    }
+
+    public TransactionRepository getTransactions() {
+        return transactions;
+    }
+
+    public SavingGoalRepository getSavingGoals() {
+        return savingGoals;
+    }
+
+    public PaymentRequestRepository getPaymentRequests() {
+        return paymentRequests;
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2018, Joost Prins <github.com/joostprins>, Tom Leemreize <https://github.com/oplosthee>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package nl.utwente.ing.repository;
+
+import nl.utwente.ing.cache.Ledger;
+import nl.utwente.ing.model.SpendingRollup;
+import nl.utwente.ing.model.Transaction;
+import org.joda.time.LocalDate;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Stores the transactions of the sessions. Transactions are ordered by date and then by ID. Transactions which are
+ * returned have their category with its name, if they have one.
+ */
+public interface TransactionRepository {
+
+    /**
+     * Returns a page of the transactions of a session which have a category.
+     *
+     * @param category the name of the category of the transactions, or null for transactions of any category
+     * @param cursorMillis the date in milliseconds of the transaction after which the page starts, or null to start
+     *                     at the offset instead
+     * @param cursorID the ID of the transaction after which the page starts, if the cursor is given
+     * @param offset the number of transactions to skip, if no cursor is given
+     * @param limit the maximum number of transactions on the page
+     */
+    List<Transaction> getPage(String sessionID, String category, Long cursorMillis, int cursorID, int offset,
+                              int limit) throws StorageException;
+
+    /**
+     * @return the transaction with the given ID, or null if the session has no such transaction
+     */
+    Transaction get(String sessionID, int id) throws StorageException;
+
+    /**
+     * @return the transactions with the given IDs, by ID; IDs which the session has no transaction for are left out
+     */
+    Map<Integer, Transaction> get(String sessionID, Collection<Integer> ids) throws StorageException;
+
+    /**
+     * Passes all transactions of a session to the visitor, in order. The transactions are read while they are
+     * visited, so the memory used does not depend on the number of transactions.
+     *
+     * @throws IOException if the visitor throws it, which stops the iteration
+     */
+    void forEach(String sessionID, Visitor visitor) throws StorageException, IOException;
+
+    /**
+     * Creates a transaction, setting its ID. A transaction without a category is assigned the category of the newest
+     * category rule it matches, if any. The description is only used to match the rules.
+     */
+    void create(String sessionID, Transaction transaction) throws StorageException;
+
+    /**
+     * Creates a number of transactions at once, setting their IDs and categorizing them like
+     * {@link #create(String, Transaction)}. Null elements are skipped.
+     *
+     * @param transactions the transactions to create, of which the transactions that are not created are replaced by
+     *                     null
+     * @return the indices of the transactions which were not created because the session has no such category
+     */
+    List<Integer> createAll(String sessionID, List<Transaction> transactions) throws StorageException;
+
+    /**
+     * Replaces the date, amount, IBAN and type of a transaction, keeping its category. The date is stored as its
+     * description as well.
+     *
+     * @return whether the session has the transaction
+     */
+    boolean update(String sessionID, Transaction transaction) throws StorageException;
+
+    /**
+     * @return whether the session had the transaction
+     */
+    boolean delete(String sessionID, int id) throws StorageException;
+
+    /**
+     * Assigns a category to a transaction.
+     *
+     * @return whether the session has both the transaction and the category
+     */
+    boolean setCategory(String sessionID, int id, int categoryID) throws StorageException;
+
+    /**
+     * Returns the ledger of a session, from which the analytics replay the transactions.
+     *
+     * @return the ledger, or null if the engine does not keep ledgers, in which case the analytics read the SQLite
+     * database themselves
+     */
+    Ledger getLedger(String sessionID) throws StorageException;
+
+    /**
+     * Returns the totals of the transactions of a session per day, category and type, for the days between the start
+     * and end day. The day of a transaction is taken in the offset of its date, or in UTC if it has no fixed offset.
+     *
+     * @return the totals of every day, of which the start is the day; transactions without a category have no
+     * category ID
+     */
+    List<SpendingRollup> getDailyRollups(String sessionID, LocalDate start, LocalDate end) throws StorageException;
+
+    /**
+     * Receives the transactions of a session one by one.
+     */
+    interface Visitor {
+        void visit(Transaction transaction) throws IOException;
+    }
+}
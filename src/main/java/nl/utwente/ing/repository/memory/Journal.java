@@ -0,0 +1,341 @@
+/*
+ * Copyright (c) 2018, Joost Prins <github.com/joostprins>, Tom Leemreize <https://github.com/oplosthee>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package nl.utwente.ing.repository.memory;
+
+import nl.utwente.ing.metrics.Metrics;
+import nl.utwente.ing.repository.StorageException;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * The append-only journal of the changes to the memory store. The journal is split into numbered segments, so the
+ * segments which are covered by a snapshot can be deleted.
+ *
+ * Every record is written as its length, the CRC-32 checksum of its contents and the contents themselves. Writers only
+ * add their records to the pending records and wait until these are durable. The journal thread writes all pending
+ * records and forces them to disk at once, so concurrent writers share a single fsync: while one group of records is
+ * forced to disk, the next group collects. Once writing fails, the journal rejects all further records, as the
+ * records after a gap in the journal could not be replayed.
+ */
+final class Journal implements Runnable {
+
+    private static final String SEGMENT_PREFIX = "journal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    /**
+     * The maximum length of a single record, above which a length read from a segment is considered corrupt.
+     */
+    private static final int MAX_RECORD_LENGTH = 256 * 1024 * 1024;
+
+    private final Path directory;
+    private final boolean sync;
+
+    /**
+     * Guards the pending records and the sequence numbers. A lock is used instead of a monitor, as waiting on a
+     * monitor pins a virtual thread to its carrier thread.
+     */
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * Signalled when records are added and when a group of records has been written.
+     */
+    private final Condition changed = lock.newCondition();
+    private final ByteArrayOutputStream pending = new ByteArrayOutputStream();
+    private final DataOutputStream pendingOut = new DataOutputStream(pending);
+    private long appended;
+    private long durable;
+    private IOException failure;
+
+    /**
+     * Guards the channel of the current segment, which is replaced when the journal is rotated.
+     */
+    private final ReentrantLock channelLock = new ReentrantLock();
+    private FileChannel channel;
+    private int segment;
+
+    /**
+     * Creates a journal which writes to a new segment with the given number.
+     *
+     * @param sync whether the records are forced to disk before they are durable, instead of leaving it to the
+     *             operating system
+     */
+    Journal(Path directory, int segment, boolean sync) throws IOException {
+        this.directory = directory;
+        this.sync = sync;
+        this.segment = segment;
+        this.channel = openSegment(segment);
+    }
+
+    void start() {
+        Thread thread = new Thread(this, "memory-journal");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * @throws StorageException if writing the journal failed before, in which case no changes can be made anymore
+     */
+    void checkWritable() throws StorageException {
+        lock.lock();
+        try {
+            if (failure != null) {
+                throw new StorageException(failure);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Adds a record to the pending records.
+     *
+     * @return the sequence number of the record, to wait for with {@link #await(long)}
+     */
+    long append(byte[] payload) throws StorageException {
+        lock.lock();
+        try {
+            if (failure != null) {
+                throw new StorageException(failure);
+            }
+            write(pendingOut, payload);
+            changed.signalAll();
+            return ++appended;
+        } catch (IOException e) {
+            // Writing to a byte array does not fail.
+            throw new StorageException(e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the sequence number of the last record which was added
+     */
+    long getAppended() {
+        lock.lock();
+        try {
+            return appended;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits until the record with the given sequence number, and all records before it, are durable.
+     *
+     * @throws StorageException if the record could not be written
+     */
+    void await(long sequence) throws StorageException {
+        lock.lock();
+        try {
+            while (durable < sequence && failure == null) {
+                try {
+                    changed.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new StorageException("Interrupted while waiting for the journal");
+                }
+            }
+            if (durable < sequence) {
+                throw new StorageException(failure);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Continues the journal in a new segment. Records which are written afterwards end up in the new segment, even if
+     * they were added before.
+     *
+     * @return the number of the new segment
+     */
+    int rotate() throws IOException {
+        channelLock.lock();
+        try {
+            FileChannel next = openSegment(segment + 1);
+            channel.close();
+            channel = next;
+            return ++segment;
+        } finally {
+            channelLock.unlock();
+        }
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            byte[] records;
+            long written;
+            lock.lock();
+            try {
+                while (pending.size() == 0) {
+                    changed.await();
+                }
+                records = pending.toByteArray();
+                pending.reset();
+                written = appended;
+            } catch (InterruptedException e) {
+                return;
+            } finally {
+                lock.unlock();
+            }
+
+            long start = System.nanoTime();
+            IOException error = null;
+            channelLock.lock();
+            try {
+                ByteBuffer buffer = ByteBuffer.wrap(records);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                if (sync) {
+                    channel.force(false);
+                }
+            } catch (IOException e) {
+                error = e;
+            } finally {
+                channelLock.unlock();
+            }
+            Metrics.instance.timer("journal", "write").record(System.nanoTime() - start);
+            Metrics.instance.increment("journal", "bytes", records.length);
+
+            lock.lock();
+            try {
+                if (error != null) {
+                    failure = error;
+                } else {
+                    durable = written;
+                }
+                changed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+            if (error != null) {
+                error.printStackTrace();
+                return;
+            }
+        }
+    }
+
+    private FileChannel openSegment(int number) throws IOException {
+        FileChannel segmentChannel = FileChannel.open(getSegmentPath(directory, number), StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        syncDirectory(directory);
+        return segmentChannel;
+    }
+
+    static Path getSegmentPath(Path directory, int segment) {
+        return directory.resolve(SEGMENT_PREFIX + segment + SEGMENT_SUFFIX);
+    }
+
+    /**
+     * @return the number of the segment stored in the given file, or -1 if the file is not a segment
+     */
+    static int getSegment(Path file) {
+        String name = file.getFileName().toString();
+        if (!name.startsWith(SEGMENT_PREFIX) || !name.endsWith(SEGMENT_SUFFIX)) {
+            return -1;
+        }
+        try {
+            return Integer.parseInt(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Reads the records from a stream of records, until its end or the first record which is incomplete or of which
+     * the checksum does not match.
+     *
+     * @return the number of bytes of the complete records which were read
+     */
+    static long read(InputStream stream, RecordHandler handler) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(stream, 1 << 16));
+        long position = 0;
+        while (true) {
+            int length;
+            int expected;
+            byte[] payload;
+            try {
+                length = in.readInt();
+                if (length < 0 || length > MAX_RECORD_LENGTH) {
+                    return position;
+                }
+                expected = in.readInt();
+                payload = new byte[length];
+                in.readFully(payload);
+            } catch (EOFException e) {
+                return position;
+            }
+            CRC32 checksum = new CRC32();
+            checksum.update(payload, 0, length);
+            if ((int) checksum.getValue() != expected) {
+                return position;
+            }
+            handler.handle(payload);
+            position += 8 + length;
+        }
+    }
+
+    /**
+     * Writes a record to a stream in the format of the journal.
+     */
+    static void write(DataOutputStream out, byte[] payload) throws IOException {
+        CRC32 checksum = new CRC32();
+        checksum.update(payload, 0, payload.length);
+        out.writeInt(payload.length);
+        out.writeInt((int) checksum.getValue());
+        out.write(payload);
+    }
+
+    /**
+     * Forces the entries of a directory to disk, so files which were created or renamed in it are not lost.
+     */
+    static void syncDirectory(Path directory) {
+        try (FileChannel directoryChannel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            directoryChannel.force(true);
+        } catch (IOException ignored) {
+            // Not every platform allows a directory to be opened, in which case its entries are synced with its files.
+        }
+    }
+
+    interface RecordHandler {
+        void handle(byte[] payload) throws IOException;
+    }
+}
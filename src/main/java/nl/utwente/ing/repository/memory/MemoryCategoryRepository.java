@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2018, Joost Prins <github.com/joostprins>, Tom Leemreize <https://github.com/oplosthee>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package nl.utwente.ing.repository.memory;
+
+import nl.utwente.ing.model.Category;
+import nl.utwente.ing.model.CategoryRule;
+import nl.utwente.ing.repository.CategoryRepository;
+import nl.utwente.ing.repository.StorageException;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Stores the categories in the {@link MemoryStore}.
+ */
+public class MemoryCategoryRepository implements CategoryRepository {
+
+    private final MemoryStore store;
+
+    public MemoryCategoryRepository(MemoryStore store) {
+        this.store = store;
+    }
+
+    @Override
+    public List<Category> getAll(String sessionID) {
+        List<Category> categories = new ArrayList<>();
+        SessionData session = store.getSession(sessionID);
+        if (session != null) {
+            session.categories.forEach((id, name) -> categories.add(new Category(id, name)));
+        }
+        return categories;
+    }
+
+    @Override
+    public Category get(String sessionID, int id) {
+        SessionData session = store.getSession(sessionID);
+        String name = session == null ? null : session.categories.get(id);
+        return name == null ? null : new Category(id, name);
+    }
+
+    @Override
+    public boolean exists(String sessionID, int id) {
+        SessionData session = store.getSession(sessionID);
+        return session != null && session.categories.containsKey(id);
+    }
+
+    @Override
+    public Category create(String sessionID, String name) throws StorageException {
+        SessionData session = store.requireSession(sessionID);
+        int id = store.nextCategoryId();
+        long sequence;
+        session.lock.lock();
+        try {
+            sequence = store.commit(encode(sessionID, id, name));
+        } finally {
+            session.lock.unlock();
+        }
+        store.await(sequence);
+        return new Category(id, name);
+    }
+
+    @Override
+    public boolean update(String sessionID, Category category) throws StorageException {
+        SessionData session = store.getSession(sessionID);
+        if (session == null) {
+            return false;
+        }
+        long sequence;
+        session.lock.lock();
+        try {
+            if (!session.categories.containsKey(category.getId())) {
+                return false;
+            }
+            sequence = store.commit(encode(sessionID, category.getId(), category.getName()));
+        } finally {
+            session.lock.unlock();
+        }
+        store.await(sequence);
+        return true;
+    }
+
+    @Override
+    public boolean delete(String sessionID, int id) throws StorageException {
+        SessionData session = store.getSession(sessionID);
+        if (session == null) {
+            return false;
+        }
+        long sequence;
+        session.lock.lock();
+        try {
+            if (!session.categories.containsKey(id)) {
+                return false;
+            }
+            for (CategoryRule categoryRule : session.categoryRules.values()) {
+                if (categoryRule.getCategory().getId() == id) {
+                    throw new StorageException("Category " + id + " is used by category rule " +
+                            categoryRule.getId());
+                }
+            }
+            sequence = store.commit(new Record.Writer(Record.DELETE_CATEGORY, sessionID).writeInt(id).toByteArray());
+        } finally {
+            session.lock.unlock();
+        }
+        store.await(sequence);
+        return true;
+    }
+
+    private static byte[] encode(String sessionID, int id, String name) {
+        return new Record.Writer(Record.PUT_CATEGORY, sessionID).writeInt(id).writeString(name).toByteArray();
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright (c) 2018, Joost Prins <github.com/joostprins>, Tom Leemreize <https://github.com/oplosthee>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package nl.utwente.ing.repository.memory;
+
+import nl.utwente.ing.model.Category;
+import nl.utwente.ing.model.CategoryRule;
+import nl.utwente.ing.model.Transaction;
+import nl.utwente.ing.repository.CategoryRuleRepository;
+import nl.utwente.ing.repository.StorageException;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Stores the category rules in the {@link MemoryStore}. Rules which apply on history are applied to the existing
+ * transactions right away, in the same way as the background job of the SQLite engine applies them, so there is no
+ * job to report.
+ */
+public class MemoryCategoryRuleRepository implements CategoryRuleRepository {
+
+    private final MemoryStore store;
+
+    public MemoryCategoryRuleRepository(MemoryStore store) {
+        this.store = store;
+    }
+
+    @Override
+    public List<CategoryRule> getAll(String sessionID) {
+        List<CategoryRule> categoryRules = new ArrayList<>();
+        SessionData session = store.getSession(sessionID);
+        if (session != null) {
+            for (CategoryRule categoryRule : session.categoryRules.values()) {
+                categoryRules.add(copy(categoryRule));
+            }
+        }
+        return categoryRules;
+    }
+
+    @Override
+    public CategoryRule get(String sessionID, int id) {
+        SessionData session = store.getSession(sessionID);
+        CategoryRule categoryRule = session == null ? null : session.categoryRules.get(id);
+        return categoryRule == null ? null : copy(categoryRule);
+    }
+
+    @Override
+    public Integer create(String sessionID, CategoryRule categoryRule) throws StorageException {
+        SessionData session = store.requireSession(sessionID);
+        int id = store.nextCategoryRuleId();
+        int categoryId = categoryRule.getCategory().getId();
+        long sequence;
+        session.lock.lock();
+        try {
+            checkCategory(session, categoryId);
+            categoryRule.setId(id);
+            sequence = store.commit(MemoryStore.encodeRule(sessionID, categoryRule));
+
+            if (categoryRule.getApplyOnHistory()) {
+                List<Integer> matches = new ArrayList<>();
+                for (Transaction transaction : session.transactions.values()) {
+                    if (matches(categoryRule.getDescription(), transaction.getDescription()) &&
+                            matches(categoryRule.getiBAN(), transaction.getExternalIBAN()) &&
+                            matches(categoryRule.getType(), transaction.getType().toString())) {
+                        matches.add(transaction.getId());
+                    }
+                }
+                if (!matches.isEmpty()) {
+                    Record.Writer writer = new Record.Writer(Record.SET_CATEGORY, sessionID)
+                            .writeInt(categoryId)
+                            .writeInt(matches.size());
+                    matches.forEach(writer::writeInt);
+                    sequence = store.commit(writer.toByteArray());
+                }
+            }
+        } finally {
+            session.lock.unlock();
+        }
+        store.await(sequence);
+        return null;
+    }
+
+    @Override
+    public boolean update(String sessionID, CategoryRule categoryRule) throws StorageException {
+        SessionData session = store.getSession(sessionID);
+        if (session == null) {
+            return false;
+        }
+        long sequence;
+        session.lock.lock();
+        try {
+            CategoryRule current = session.categoryRules.get(categoryRule.getId());
+            if (current == null) {
+                return false;
+            }
+            checkCategory(session, categoryRule.getCategory().getId());
+            sequence = store.commit(MemoryStore.encodeRule(sessionID, new CategoryRule(categoryRule.getId(),
+                    categoryRule.getDescription(), categoryRule.getiBAN(), categoryRule.getType(),
+                    categoryRule.getCategory(), current.getApplyOnHistory())));
+        } finally {
+            session.lock.unlock();
+        }
+        store.await(sequence);
+        return true;
+    }
+
+    @Override
+    public boolean delete(String sessionID, int id) throws StorageException {
+        SessionData session = store.getSession(sessionID);
+        if (session == null) {
+            return false;
+        }
+        long sequence;
+        session.lock.lock();
+        try {
+            if (!session.categoryRules.containsKey(id)) {
+                return false;
+            }
+            sequence = store.commit(new Record.Writer(Record.DELETE_RULE, sessionID).writeInt(id).toByteArray());
+        } finally {
+            session.lock.unlock();
+        }
+        store.await(sequence);
+        return true;
+    }
+
+    /**
+     * Finds the category of the newest rule of a session which matches the given transaction attributes. Empty fields
+     * of a rule match everything.
+     *
+     * @return the category of the matching rule, or null if no rule matches
+     */
+    static Category match(SessionData session, String description, String iBAN, String type) {
+        for (CategoryRule categoryRule : session.categoryRules.descendingMap().values()) {
+            if (isWildcardOrEqual(categoryRule.getDescription(), description) &&
+                    isWildcardOrEqual(categoryRule.getiBAN(), iBAN) &&
+                    isWildcardOrEqual(categoryRule.getType(), type)) {
+                int categoryId = categoryRule.getCategory().getId();
+                String name = session.categories.get(categoryId);
+                return name == null ? null : new Category(categoryId, name);
+            }
+        }
+        return null;
+    }
+
+    private static boolean isWildcardOrEqual(String field, String value) {
+        return field == null || field.isEmpty() || field.equals(value);
+    }
+
+    /**
+     * Whether a field of a rule which is applied on history matches the value of a transaction.
+     */
+    private static boolean matches(String field, String value) {
+        return field != null && (field.isEmpty() || field.equals(value));
+    }
+
+    private static void checkCategory(SessionData session, int categoryId) throws StorageException {
+        if (!session.categories.containsKey(categoryId)) {
+            throw new StorageException("Category " + categoryId + " does not exist");
+        }
+    }
+
+    private static CategoryRule copy(CategoryRule categoryRule) {
+        return new CategoryRule(categoryRule.getId(), categoryRule.getDescription(), categoryRule.getiBAN(),
+                categoryRule.getType(), new Category(categoryRule.getCategory().getId(), null),
+                categoryRule.getApplyOnHistory());
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2018, Joost Prins <github.com/joostprins>, Tom Leemreize <https://github.com/oplosthee>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package nl.utwente.ing.repository.memory;
+
+import nl.utwente.ing.cache.Ledger;
+import nl.utwente.ing.model.PaymentRequest;
+import nl.utwente.ing.repository.PaymentRequestRepository;
+import nl.utwente.ing.repository.StorageException;
+import org.joda.money.CurrencyUnit;
+import org.joda.money.Money;
+import org.joda.time.DateTime;
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Stores the payment requests in the {@link MemoryStore}, with their dates formatted in the same way as the SQLite
+ * engine stores them, so they are returned and ordered in the same way.
+ */
+public class MemoryPaymentRequestRepository implements PaymentRequestRepository {
+
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormat.forPattern("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+
+    private final MemoryStore store;
+
+    public MemoryPaymentRequestRepository(MemoryStore store) {
+        this.store = store;
+    }
+
+    @Override
+    public List<PaymentRequest> getAll(String sessionID) {
+        List<SessionData.StoredPaymentRequest> storedPaymentRequests = new ArrayList<>();
+        SessionData session = store.getSession(sessionID);
+        if (session != null) {
+            storedPaymentRequests.addAll(session.paymentRequests.values());
+        }
+        storedPaymentRequests.sort(Comparator.<SessionData.StoredPaymentRequest, String>comparing(
+                paymentRequest -> paymentRequest.creationDate).thenComparingInt(paymentRequest -> paymentRequest.id));
+
+        List<PaymentRequest> paymentRequests = new ArrayList<>();
+        for (SessionData.StoredPaymentRequest paymentRequest : storedPaymentRequests) {
+            paymentRequests.add(new PaymentRequest(paymentRequest.id, paymentRequest.description,
+                    DateTime.parse(paymentRequest.dueDate), Money.ofMinor(CurrencyUnit.EUR, paymentRequest.amount),
+                    paymentRequest.numberOfRequests, false));
+        }
+        return paymentRequests;
+    }
+
+    @Override
+    public void create(String sessionID, PaymentRequest paymentRequest) throws StorageException {
+        SessionData session = store.requireSession(sessionID);
+        int id = store.nextPaymentRequestId();
+        long sequence;
+        session.lock.lock();
+        try {
+            DateTime creationDate = DateTime.now();
+            Ledger ledger = session.ledger;
+            ledger.readLock().lock();
+            try {
+                if (ledger.size() > 0) {
+                    creationDate = DateTime.parse(session.transactions.get(ledger.getId(ledger.size() - 1))
+                            .getDate());
+                }
+            } finally {
+                ledger.readLock().unlock();
+            }
+
+            sequence = store.commit(MemoryStore.encodePaymentRequest(sessionID, new SessionData.StoredPaymentRequest(
+                    id, paymentRequest.getDescription(), DATE_FORMAT.print(paymentRequest.getDueDate()),
+                    paymentRequest.getAmount().getAmountMinorInt(), paymentRequest.getNumberOfRequests(),
+                    DATE_FORMAT.print(creationDate))));
+        } finally {
+            session.lock.unlock();
+        }
+        store.await(sequence);
+        paymentRequest.setId(id);
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2018, Joost Prins <github.com/joostprins>, Tom Leemreize <https://github.com/oplosthee>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package nl.utwente.ing.repository.memory;
+
+import nl.utwente.ing.model.SavingGoal;
+import nl.utwente.ing.repository.SavingGoalRepository;
+import nl.utwente.ing.repository.StorageException;
+import org.joda.money.CurrencyUnit;
+import org.joda.money.Money;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Stores the saving goals in the {@link MemoryStore}. IDs are handed out in order, so the saving goals are ordered by
+ * creation when they are ordered by ID.
+ */
+public class MemorySavingGoalRepository implements SavingGoalRepository {
+
+    private final MemoryStore store;
+
+    public MemorySavingGoalRepository(MemoryStore store) {
+        this.store = store;
+    }
+
+    @Override
+    public List<SavingGoal> getAll(String sessionID) {
+        List<SavingGoal> savingGoals = new ArrayList<>();
+        SessionData session = store.getSession(sessionID);
+        if (session != null) {
+            for (SessionData.StoredSavingGoal savingGoal : session.savingGoals.values()) {
+                savingGoals.add(new SavingGoal(savingGoal.id, savingGoal.name,
+                        Money.ofMinor(CurrencyUnit.EUR, savingGoal.goal),
+                        Money.ofMinor(CurrencyUnit.EUR, savingGoal.savePerMonth),
+                        Money.ofMinor(CurrencyUnit.EUR, savingGoal.minimumBalanceRequired),
+                        Money.parse("EUR 0.00")));
+            }
+        }
+        return savingGoals;
+    }
+
+    @Override
+    public void create(String sessionID, SavingGoal savingGoal) throws StorageException {
+        SessionData session = store.requireSession(sessionID);
+        SessionData.StoredSavingGoal storedSavingGoal = new SessionData.StoredSavingGoal(store.nextSavingGoalId(),
+                savingGoal.getName(),
+                Money.of(CurrencyUnit.EUR, savingGoal.getGoal()).getAmountMinorLong(),
+                Money.of(CurrencyUnit.EUR, savingGoal.getSavePerMonth()).getAmountMinorLong(),
+                Money.of(CurrencyUnit.EUR, savingGoal.getMinimumBalanceRequired()).getAmountMinorLong());
+        long sequence;
+        session.lock.lock();
+        try {
+            sequence = store.commit(MemoryStore.encodeSavingGoal(sessionID, storedSavingGoal));
+        } finally {
+            session.lock.unlock();
+        }
+        store.await(sequence);
+        savingGoal.setId(storedSavingGoal.id);
+    }
+
+    @Override
+    public boolean delete(String sessionID, int id) throws StorageException {
+        SessionData session = store.getSession(sessionID);
+        if (session == null) {
+            return false;
+        }
+        long sequence;
+        session.lock.lock();
+        try {
+            if (!session.savingGoals.containsKey(id)) {
+                return false;
+            }
+            sequence = store.commit(new Record.Writer(Record.DELETE_SAVING_GOAL, sessionID).writeInt(id)
+                    .toByteArray());
+        } finally {
+            session.lock.unlock();
+        }
+        store.await(sequence);
+        return true;
+    }
+}
@@ -0,0 +1,532 @@
+/*
+ * Copyright (c) 2018, Joost Prins <github.com/joostprins>, Tom Leemreize <https://github.com/oplosthee>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package nl.utwente.ing.repository.memory;
+
+import nl.utwente.ing.Settings;
+import nl.utwente.ing.cache.Ledger;
+import nl.utwente.ing.metrics.Metrics;
+import nl.utwente.ing.model.Category;
+import nl.utwente.ing.model.CategoryRule;
+import nl.utwente.ing.model.Transaction;
+import nl.utwente.ing.repository.StorageException;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * Keeps the data of all sessions in memory. Every change is encoded as a {@link Record}, applied to the data in memory
+ * and added to the {@link Journal}, after which the request waits until the journal is durable.
+ *
+ * A snapshot of all data is written periodically, after which the journal segments it covers are deleted. The journal
+ * continues in a new segment before the snapshot is taken, and every session is copied while holding its lock, so all
+ * changes in the deleted segments are part of the snapshot. Changes in the new segment may be part of the snapshot as
+ * well; replaying them again has no effect, as the records describe the resulting state. On startup the snapshot is
+ * loaded and the segments after it are replayed.
+ */
+public final class MemoryStore {
+
+    private static final String SNAPSHOT = "snapshot.dat";
+    private static final String SNAPSHOT_TEMPORARY = "snapshot.tmp";
+    private static final int SNAPSHOT_MAGIC = 0x44504153;
+
+    /**
+     * The maximum number of transactions in a single record of a snapshot.
+     */
+    private static final int SNAPSHOT_BATCH_SIZE = 1000;
+
+    /**
+     * Whether the journal is forced to disk before a change is acknowledged. Without it, changes which were
+     * acknowledged shortly before the machine fails may be lost, but not before the application fails.
+     */
+    private static final boolean SYNC = Settings.getBoolean("storage.memory.journal.sync", true);
+
+    /**
+     * The time between two snapshots, or 0 to never take a snapshot.
+     */
+    private static final long SNAPSHOT_INTERVAL_MS = Settings.getLong("storage.memory.snapshot-interval-ms", 60000);
+
+    private final Path directory;
+    private final ConcurrentHashMap<String, SessionData> sessions = new ConcurrentHashMap<>();
+
+    private final AtomicInteger nextCategoryId = new AtomicInteger(1);
+    private final AtomicInteger nextCategoryRuleId = new AtomicInteger(1);
+    private final AtomicInteger nextTransactionId = new AtomicInteger(1);
+    private final AtomicInteger nextSavingGoalId = new AtomicInteger(1);
+    private final AtomicInteger nextPaymentRequestId = new AtomicInteger(1);
+
+    private Journal journal;
+
+    /**
+     * The sequence number of the last record in the journal when the last snapshot was taken.
+     */
+    private long snapshotSequence;
+
+    private MemoryStore(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Loads the data stored in the given directory, creating the directory if it does not exist, and starts writing
+     * the journal and taking snapshots.
+     *
+     * @throws IOException if the stored data cannot be read, or is corrupt
+     */
+    public static MemoryStore open(Path directory) throws IOException {
+        MemoryStore store = new MemoryStore(directory);
+        store.load();
+        store.journal.start();
+        if (SNAPSHOT_INTERVAL_MS > 0) {
+            ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "memory-snapshot");
+                thread.setDaemon(true);
+                return thread;
+            });
+            executor.scheduleWithFixedDelay(() -> {
+                try {
+                    store.snapshot();
+                } catch (IOException | RuntimeException e) {
+                    // The journal segments are only deleted after a snapshot succeeded, so no data is lost.
+                    e.printStackTrace();
+                }
+            }, SNAPSHOT_INTERVAL_MS, SNAPSHOT_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        }
+        return store;
+    }
+
+    /**
+     * @return the data of a session, or null if the session does not exist
+     */
+    SessionData getSession(String sessionID) {
+        return sessionID == null ? null : sessions.get(sessionID);
+    }
+
+    /**
+     * @return the data of a session to which something is added
+     * @throws StorageException if the session does not exist
+     */
+    SessionData requireSession(String sessionID) throws StorageException {
+        SessionData session = getSession(sessionID);
+        if (session == null) {
+            throw new StorageException("Unknown session " + sessionID);
+        }
+        return session;
+    }
+
+    int nextCategoryId() {
+        return nextCategoryId.getAndIncrement();
+    }
+
+    int nextCategoryRuleId() {
+        return nextCategoryRuleId.getAndIncrement();
+    }
+
+    int nextTransactionId() {
+        return nextTransactionId.getAndIncrement();
+    }
+
+    int nextSavingGoalId() {
+        return nextSavingGoalId.getAndIncrement();
+    }
+
+    int nextPaymentRequestId() {
+        return nextPaymentRequestId.getAndIncrement();
+    }
+
+    /**
+     * Applies a change and adds it to the journal. Changes to a session must be committed while holding its lock,
+     * after validating them against its current state.
+     *
+     * @return the sequence number of the change, to wait for with {@link #await(long)} after releasing the lock
+     */
+    long commit(byte[] record) throws StorageException {
+        // Changes are only applied if they can be added to the journal, so the data does not get ahead of it.
+        journal.checkWritable();
+        try {
+            apply(record);
+        } catch (IOException e) {
+            throw new StorageException(e);
+        }
+        return journal.append(record);
+    }
+
+    /**
+     * Waits until the change with the given sequence number is durable.
+     */
+    void await(long sequence) throws StorageException {
+        journal.await(sequence);
+    }
+
+    /**
+     * Returns a copy of a transaction with the given category, which only has an ID.
+     */
+    static Transaction withCategory(Transaction transaction, int categoryId) {
+        return new Transaction(transaction.getId(), transaction.getDate(), transaction.getParsedDate(),
+                transaction.getAmount(), transaction.getExternalIBAN(), transaction.getType(),
+                categoryId == 0 ? null : new Category(categoryId, null), transaction.getDescription());
+    }
+
+    private void apply(byte[] record) throws IOException {
+        Record.Reader reader = new Record.Reader(record);
+        byte operation = reader.readByte();
+        String sessionID = reader.readString();
+        if (operation == Record.CREATE_SESSION) {
+            sessions.putIfAbsent(sessionID, new SessionData(sessionID));
+            return;
+        } else if (operation == Record.COUNTERS) {
+            advance(nextCategoryId, reader.readInt());
+            advance(nextCategoryRuleId, reader.readInt());
+            advance(nextTransactionId, reader.readInt());
+            advance(nextSavingGoalId, reader.readInt());
+            advance(nextPaymentRequestId, reader.readInt());
+            return;
+        }
+
+        SessionData session = sessions.get(sessionID);
+        if (session == null) {
+            throw new IOException("Record of unknown session " + sessionID);
+        }
+        switch (operation) {
+            case Record.PUT_CATEGORY : {
+                int id = reader.readInt();
+                session.categories.put(id, reader.readString());
+                advance(nextCategoryId, id + 1);
+                break;
+            }
+            case Record.DELETE_CATEGORY : {
+                int id = reader.readInt();
+                session.categories.remove(id);
+                for (Transaction transaction : session.transactions.values()) {
+                    if (transaction.getCategory() != null && transaction.getCategory().getId() == id) {
+                        session.transactions.put(transaction.getId(), withCategory(transaction, 0));
+                    }
+                }
+                session.ledger.clearCategory(id);
+                break;
+            }
+            case Record.PUT_RULE : {
+                int id = reader.readInt();
+                String description = reader.readString();
+                String iBAN = reader.readString();
+                String type = reader.readString();
+                int categoryId = reader.readInt();
+                boolean applyOnHistory = reader.readBoolean();
+                session.categoryRules.put(id, new CategoryRule(id, description, iBAN, type,
+                        new Category(categoryId, null), applyOnHistory));
+                advance(nextCategoryRuleId, id + 1);
+                break;
+            }
+            case Record.DELETE_RULE :
+                session.categoryRules.remove(reader.readInt());
+                break;
+            case Record.PUT_TRANSACTIONS : {
+                int count = reader.readInt();
+                List<Transaction> added = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    Transaction transaction = reader.readTransaction();
+                    advance(nextTransactionId, transaction.getId() + 1);
+                    // The transaction is stored before it is added to the ledger, so it can be looked up by everyone
+                    // who finds it in the ledger.
+                    if (session.transactions.put(transaction.getId(), transaction) == null) {
+                        added.add(transaction);
+                    } else {
+                        session.ledger.update(transaction);
+                        session.ledger.setCategory(transaction.getId(), getCategoryId(transaction));
+                    }
+                }
+                if (added.size() == 1) {
+                    session.ledger.add(added.get(0));
+                } else if (!added.isEmpty()) {
+                    session.ledger.addAll(added);
+                }
+                break;
+            }
+            case Record.DELETE_TRANSACTION : {
+                int id = reader.readInt();
+                session.ledger.remove(id);
+                session.transactions.remove(id);
+                break;
+            }
+            case Record.SET_CATEGORY : {
+                int categoryId = reader.readInt();
+                int count = reader.readInt();
+                Set<Integer> ids = new HashSet<>();
+                for (int i = 0; i < count; i++) {
+                    int id = reader.readInt();
+                    Transaction transaction = session.transactions.get(id);
+                    if (transaction != null) {
+                        session.transactions.put(id, withCategory(transaction, categoryId));
+                        ids.add(id);
+                    }
+                }
+                if (ids.size() == 1) {
+                    session.ledger.setCategory(ids.iterator().next(), categoryId);
+                } else if (!ids.isEmpty()) {
+                    session.ledger.setCategory(ids, categoryId);
+                }
+                break;
+            }
+            case Record.PUT_SAVING_GOAL : {
+                int id = reader.readInt();
+                session.savingGoals.put(id, new SessionData.StoredSavingGoal(id, reader.readString(),
+                        reader.readLong(), reader.readLong(), reader.readLong()));
+                advance(nextSavingGoalId, id + 1);
+                break;
+            }
+            case Record.DELETE_SAVING_GOAL :
+                session.savingGoals.remove(reader.readInt());
+                break;
+            case Record.PUT_PAYMENT_REQUEST : {
+                int id = reader.readInt();
+                session.paymentRequests.put(id, new SessionData.StoredPaymentRequest(id, reader.readString(),
+                        reader.readString(), reader.readInt(), reader.readInt(), reader.readString()));
+                advance(nextPaymentRequestId, id + 1);
+                break;
+            }
+            default :
+                throw new IOException("Record of unknown operation " + operation);
+        }
+    }
+
+    private static void advance(AtomicInteger counter, int next) {
+        counter.accumulateAndGet(next, Math::max);
+    }
+
+    private static int getCategoryId(Transaction transaction) {
+        return transaction.getCategory() == null ? 0 : transaction.getCategory().getId();
+    }
+
+    /**
+     * Loads the snapshot and replays the journal segments after it, after which a new journal segment is started.
+     */
+    private void load() throws IOException {
+        Files.createDirectories(directory);
+
+        int firstSegment = 0;
+        Path snapshot = directory.resolve(SNAPSHOT);
+        if (Files.exists(snapshot)) {
+            try (InputStream in = Files.newInputStream(snapshot)) {
+                DataInputStream data = new DataInputStream(in);
+                if (data.readInt() != SNAPSHOT_MAGIC) {
+                    throw new IOException(snapshot + " is not a snapshot");
+                }
+                firstSegment = data.readInt();
+                if (Journal.read(data, this::apply) != Files.size(snapshot) - 8) {
+                    throw new IOException(snapshot + " is corrupt");
+                }
+            }
+        }
+
+        List<Integer> segments = new ArrayList<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            files.mapToInt(Journal::getSegment).filter(segment -> segment >= 0).sorted().forEach(segments::add);
+        }
+        int lastWritten = -1;
+        for (int i = 0; i < segments.size(); i++) {
+            if (Files.size(Journal.getSegmentPath(directory, segments.get(i))) > 0) {
+                lastWritten = i;
+            }
+        }
+
+        int nextSegment = firstSegment;
+        for (int i = 0; i < segments.size(); i++) {
+            int segment = segments.get(i);
+            Path file = Journal.getSegmentPath(directory, segment);
+            nextSegment = Math.max(nextSegment, segment + 1);
+            if (segment < firstSegment) {
+                // Left behind by a snapshot which was taken right before the application stopped.
+                Files.delete(file);
+                continue;
+            }
+
+            long length;
+            try (InputStream in = Files.newInputStream(file)) {
+                length = Journal.read(in, this::apply);
+            }
+            if (length != Files.size(file)) {
+                if (i < lastWritten) {
+                    throw new IOException(file + " is corrupt");
+                }
+                // The last records were only partly written when the application stopped, so they were never
+                // acknowledged. They are removed, so the segment can be read after the segments which follow it.
+                try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                    channel.truncate(length);
+                    channel.force(true);
+                }
+            }
+        }
+
+        journal = new Journal(directory, nextSegment, SYNC);
+    }
+
+    /**
+     * Writes a snapshot of all data and deletes the journal segments it covers. Does nothing if nothing changed since
+     * the last snapshot.
+     */
+    void snapshot() throws IOException {
+        long sequence = journal.getAppended();
+        if (sequence == snapshotSequence) {
+            return;
+        }
+        long start = System.nanoTime();
+        int segment = journal.rotate();
+
+        Path temporary = directory.resolve(SNAPSHOT_TEMPORARY);
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel),
+                    1 << 16));
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeInt(segment);
+            for (SessionData session : sessions.values()) {
+                for (byte[] record : copy(session)) {
+                    Journal.write(out, record);
+                }
+            }
+            Journal.write(out, new Record.Writer(Record.COUNTERS, null)
+                    .writeInt(nextCategoryId.get())
+                    .writeInt(nextCategoryRuleId.get())
+                    .writeInt(nextTransactionId.get())
+                    .writeInt(nextSavingGoalId.get())
+                    .writeInt(nextPaymentRequestId.get())
+                    .toByteArray());
+            out.flush();
+            channel.force(true);
+        }
+        Files.move(temporary, directory.resolve(SNAPSHOT), StandardCopyOption.ATOMIC_MOVE,
+                StandardCopyOption.REPLACE_EXISTING);
+        Journal.syncDirectory(directory);
+
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                int fileSegment = Journal.getSegment(file);
+                if (fileSegment >= 0 && fileSegment < segment) {
+                    Files.delete(file);
+                }
+            }
+        }
+        snapshotSequence = sequence;
+        Metrics.instance.timer("journal", "snapshot").record(System.nanoTime() - start);
+    }
+
+    /**
+     * Encodes the data of a session as the records which recreate it.
+     */
+    private static List<byte[]> copy(SessionData session) {
+        List<byte[]> records = new ArrayList<>();
+        session.lock.lock();
+        try {
+            records.add(new Record.Writer(Record.CREATE_SESSION, session.id).toByteArray());
+            session.categories.forEach((id, name) -> records.add(new Record.Writer(Record.PUT_CATEGORY, session.id)
+                    .writeInt(id)
+                    .writeString(name)
+                    .toByteArray()));
+            for (CategoryRule categoryRule : session.categoryRules.values()) {
+                records.add(encodeRule(session.id, categoryRule));
+            }
+
+            // The transactions are written in order of date, so they are appended to the ledger when they are loaded.
+            Ledger ledger = session.ledger;
+            int[] ids;
+            ledger.readLock().lock();
+            try {
+                ids = new int[ledger.size()];
+                for (int i = 0; i < ids.length; i++) {
+                    ids[i] = ledger.getId(i);
+                }
+            } finally {
+                ledger.readLock().unlock();
+            }
+            for (int start = 0; start < ids.length; start += SNAPSHOT_BATCH_SIZE) {
+                int end = Math.min(ids.length, start + SNAPSHOT_BATCH_SIZE);
+                Record.Writer writer = new Record.Writer(Record.PUT_TRANSACTIONS, session.id).writeInt(end - start);
+                for (int i = start; i < end; i++) {
+                    writer.writeTransaction(session.transactions.get(ids[i]));
+                }
+                records.add(writer.toByteArray());
+            }
+
+            for (SessionData.StoredSavingGoal savingGoal : session.savingGoals.values()) {
+                records.add(encodeSavingGoal(session.id, savingGoal));
+            }
+            for (SessionData.StoredPaymentRequest paymentRequest : session.paymentRequests.values()) {
+                records.add(encodePaymentRequest(session.id, paymentRequest));
+            }
+        } finally {
+            session.lock.unlock();
+        }
+        return records;
+    }
+
+    static byte[] encodeRule(String sessionID, CategoryRule categoryRule) {
+        return new Record.Writer(Record.PUT_RULE, sessionID)
+                .writeInt(categoryRule.getId())
+                .writeString(categoryRule.getDescription())
+                .writeString(categoryRule.getiBAN())
+                .writeString(categoryRule.getType())
+                .writeInt(categoryRule.getCategory().getId())
+                .writeBoolean(categoryRule.getApplyOnHistory())
+                .toByteArray();
+    }
+
+    static byte[] encodeSavingGoal(String sessionID, SessionData.StoredSavingGoal savingGoal) {
+        return new Record.Writer(Record.PUT_SAVING_GOAL, sessionID)
+                .writeInt(savingGoal.id)
+                .writeString(savingGoal.name)
+                .writeLong(savingGoal.goal)
+                .writeLong(savingGoal.savePerMonth)
+                .writeLong(savingGoal.minimumBalanceRequired)
+                .toByteArray();
+    }
+
+    static byte[] encodePaymentRequest(String sessionID, SessionData.StoredPaymentRequest paymentRequest) {
+        return new Record.Writer(Record.PUT_PAYMENT_REQUEST, sessionID)
+                .writeInt(paymentRequest.id)
+                .writeString(paymentRequest.description)
+                .writeString(paymentRequest.dueDate)
+                .writeInt(paymentRequest.amount)
+                .writeInt(paymentRequest.numberOfRequests)
+                .writeString(paymentRequest.creationDate)
+                .toByteArray();
+    }
+}
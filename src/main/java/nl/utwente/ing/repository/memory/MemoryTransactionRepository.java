@@ -0,0 +1,390 @@
+/*
+ * Copyright (c) 2018, Joost Prins <github.com/joostprins>, Tom Leemreize <https://github.com/oplosthee>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package nl.utwente.ing.repository.memory;
+
+import nl.utwente.ing.cache.Ledger;
+import nl.utwente.ing.metrics.Metrics;
+import nl.utwente.ing.model.Category;
+import nl.utwente.ing.model.SpendingRollup;
+import nl.utwente.ing.model.Transaction;
+import nl.utwente.ing.model.Type;
+import nl.utwente.ing.repository.StorageException;
+import nl.utwente.ing.repository.TransactionRepository;
+import org.joda.time.DateTimeZone;
+import org.joda.time.LocalDate;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Stores the transactions in the {@link MemoryStore}. The transactions are looked up by ID, while lists are read from
+ * the ledger of the session, which keeps them ordered by date. Readers only hold the read lock of the ledger while
+ * collecting the IDs of the transactions they need.
+ */
+public class MemoryTransactionRepository implements TransactionRepository {
+
+    private final MemoryStore store;
+
+    public MemoryTransactionRepository(MemoryStore store) {
+        this.store = store;
+    }
+
+    @Override
+    public List<Transaction> getPage(String sessionID, String category, Long cursorMillis, int cursorID, int offset,
+                                     int limit) {
+        List<Transaction> transactions = new ArrayList<>();
+        SessionData session = store.getSession(sessionID);
+        if (session == null || limit == 0) {
+            return transactions;
+        }
+
+        Set<Integer> categoryIds = null;
+        if (category != null) {
+            categoryIds = new HashSet<>();
+            for (Map.Entry<Integer, String> entry : session.categories.entrySet()) {
+                if (entry.getValue().equals(category)) {
+                    categoryIds.add(entry.getKey());
+                }
+            }
+        }
+
+        // Like SQLite, a negative limit means that there is no limit.
+        int maximum = limit < 0 ? Integer.MAX_VALUE : limit;
+        List<Integer> ids = new ArrayList<>();
+        Ledger ledger = session.ledger;
+        ledger.readLock().lock();
+        try {
+            int index = 0;
+            int skipped = Math.max(0, offset);
+            if (cursorMillis != null) {
+                index = ledger.indexOf(cursorMillis);
+                while (index < ledger.size() && ledger.getMillis(index) == cursorMillis &&
+                        ledger.getId(index) <= cursorID) {
+                    index++;
+                }
+                skipped = 0;
+            }
+            for (; index < ledger.size() && ids.size() < maximum; index++) {
+                int categoryId = ledger.getCategory(index);
+                if (categoryId == 0 || (categoryIds != null && !categoryIds.contains(categoryId))) {
+                    continue;
+                }
+                if (skipped > 0) {
+                    skipped--;
+                    continue;
+                }
+                ids.add(ledger.getId(index));
+            }
+        } finally {
+            ledger.readLock().unlock();
+        }
+
+        for (int id : ids) {
+            Transaction transaction = get(session, id);
+            if (transaction != null && transaction.getCategory() != null) {
+                transactions.add(transaction);
+            }
+        }
+        return transactions;
+    }
+
+    @Override
+    public Transaction get(String sessionID, int id) {
+        SessionData session = store.getSession(sessionID);
+        return session == null ? null : get(session, id);
+    }
+
+    @Override
+    public Map<Integer, Transaction> get(String sessionID, Collection<Integer> ids) {
+        Map<Integer, Transaction> transactions = new HashMap<>();
+        SessionData session = store.getSession(sessionID);
+        if (session != null) {
+            for (int id : ids) {
+                Transaction transaction = get(session, id);
+                if (transaction != null) {
+                    transactions.put(id, transaction);
+                }
+            }
+        }
+        return transactions;
+    }
+
+    @Override
+    public void forEach(String sessionID, Visitor visitor) throws IOException {
+        SessionData session = store.getSession(sessionID);
+        if (session == null) {
+            return;
+        }
+
+        int[] ids;
+        Ledger ledger = session.ledger;
+        ledger.readLock().lock();
+        try {
+            ids = new int[ledger.size()];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = ledger.getId(i);
+            }
+        } finally {
+            ledger.readLock().unlock();
+        }
+
+        for (int id : ids) {
+            Transaction transaction = get(session, id);
+            if (transaction != null) {
+                visitor.visit(transaction);
+            }
+        }
+    }
+
+    @Override
+    public void create(String sessionID, Transaction transaction) throws StorageException {
+        SessionData session = store.requireSession(sessionID);
+        int id = store.nextTransactionId();
+        long sequence;
+        session.lock.lock();
+        try {
+            categorize(session, transaction);
+            transaction.setId(id);
+            sequence = store.commit(new Record.Writer(Record.PUT_TRANSACTIONS, sessionID)
+                    .writeInt(1)
+                    .writeTransaction(toStored(transaction, null))
+                    .toByteArray());
+        } finally {
+            session.lock.unlock();
+        }
+        store.await(sequence);
+    }
+
+    @Override
+    public List<Integer> createAll(String sessionID, List<Transaction> transactions) throws StorageException {
+        SessionData session = store.requireSession(sessionID);
+        List<Integer> rejected = new ArrayList<>();
+        long sequence;
+        session.lock.lock();
+        try {
+            List<Transaction> created = new ArrayList<>();
+            for (int i = 0; i < transactions.size(); i++) {
+                Transaction transaction = transactions.get(i);
+                if (transaction == null) {
+                    continue;
+                }
+                if (transaction.getCategory() != null &&
+                        !session.categories.containsKey(transaction.getCategory().getId())) {
+                    transactions.set(i, null);
+                    rejected.add(i);
+                    continue;
+                }
+                categorize(session, transaction);
+                transaction.setId(store.nextTransactionId());
+                created.add(transaction);
+            }
+            if (created.isEmpty()) {
+                return rejected;
+            }
+
+            // All transactions are written in a single record, so either all or none of them are created.
+            Record.Writer writer = new Record.Writer(Record.PUT_TRANSACTIONS, sessionID).writeInt(created.size());
+            for (Transaction transaction : created) {
+                writer.writeTransaction(toStored(transaction, transaction.getDescription()));
+            }
+            sequence = store.commit(writer.toByteArray());
+        } finally {
+            session.lock.unlock();
+        }
+        store.await(sequence);
+        return rejected;
+    }
+
+    @Override
+    public boolean update(String sessionID, Transaction transaction) throws StorageException {
+        SessionData session = store.getSession(sessionID);
+        if (session == null) {
+            return false;
+        }
+        long sequence;
+        session.lock.lock();
+        try {
+            Transaction current = session.transactions.get(transaction.getId());
+            if (current == null) {
+                return false;
+            }
+            sequence = store.commit(new Record.Writer(Record.PUT_TRANSACTIONS, sessionID)
+                    .writeInt(1)
+                    .writeTransaction(new Transaction(transaction.getId(), transaction.getDate(),
+                            transaction.getParsedDate(), transaction.getAmount(), transaction.getExternalIBAN(),
+                            transaction.getType(), current.getCategory(), transaction.getDate()))
+                    .toByteArray());
+        } finally {
+            session.lock.unlock();
+        }
+        store.await(sequence);
+        return true;
+    }
+
+    @Override
+    public boolean delete(String sessionID, int id) throws StorageException {
+        SessionData session = store.getSession(sessionID);
+        if (session == null) {
+            return false;
+        }
+        long sequence;
+        session.lock.lock();
+        try {
+            if (!session.transactions.containsKey(id)) {
+                return false;
+            }
+            sequence = store.commit(new Record.Writer(Record.DELETE_TRANSACTION, sessionID).writeInt(id)
+                    .toByteArray());
+        } finally {
+            session.lock.unlock();
+        }
+        store.await(sequence);
+        return true;
+    }
+
+    @Override
+    public boolean setCategory(String sessionID, int id, int categoryID) throws StorageException {
+        SessionData session = store.getSession(sessionID);
+        if (session == null) {
+            return false;
+        }
+        long sequence;
+        session.lock.lock();
+        try {
+            if (!session.transactions.containsKey(id) || !session.categories.containsKey(categoryID)) {
+                return false;
+            }
+            sequence = store.commit(new Record.Writer(Record.SET_CATEGORY, sessionID)
+                    .writeInt(categoryID)
+                    .writeInt(1)
+                    .writeInt(id)
+                    .toByteArray());
+        } finally {
+            session.lock.unlock();
+        }
+        store.await(sequence);
+        return true;
+    }
+
+    @Override
+    public Ledger getLedger(String sessionID) {
+        SessionData session = store.getSession(sessionID);
+        return session == null ? new Ledger() : session.ledger;
+    }
+
+    @Override
+    public List<SpendingRollup> getDailyRollups(String sessionID, LocalDate start, LocalDate end) {
+        Map<String, SpendingRollup> spendingRollups = new LinkedHashMap<>();
+        SessionData session = store.getSession(sessionID);
+        if (session == null) {
+            return new ArrayList<>();
+        }
+
+        // The day of a transaction depends on its offset, which is less than a day.
+        long from = start.minusDays(1).toDateTimeAtStartOfDay(DateTimeZone.UTC).getMillis();
+        long to = end.plusDays(2).toDateTimeAtStartOfDay(DateTimeZone.UTC).getMillis();
+        Ledger ledger = session.ledger;
+        ledger.readLock().lock();
+        try {
+            int last = ledger.indexOf(to);
+            for (int i = ledger.indexOf(from); i < last; i++) {
+                long millis = ledger.getMillis(i);
+                DateTimeZone zone = ledger.getZone(i);
+                LocalDate day = new LocalDate(millis + (zone.isFixed() ? zone.getOffset(millis) : 0),
+                        DateTimeZone.UTC);
+                if (day.isBefore(start) || day.isAfter(end)) {
+                    continue;
+                }
+
+                int categoryId = ledger.getCategory(i);
+                Type type = ledger.getType(i);
+                String key = day + ":" + categoryId + ":" + type;
+                SpendingRollup spendingRollup = spendingRollups.get(key);
+                if (spendingRollup == null) {
+                    spendingRollup = new SpendingRollup(day, categoryId == 0 ? null : categoryId, type);
+                    spendingRollups.put(key, spendingRollup);
+                }
+                long amount = ledger.getAmount(i);
+                spendingRollup.add(amount, 1, amount, amount);
+            }
+            Metrics.instance.increment("rows", "spending-rollups", Math.max(0, last - ledger.indexOf(from)));
+        } finally {
+            ledger.readLock().unlock();
+        }
+        return new ArrayList<>(spendingRollups.values());
+    }
+
+    /**
+     * Assigns the category of the newest matching category rule to a transaction without a category.
+     *
+     * @throws StorageException if the transaction has a category which does not exist
+     */
+    private static void categorize(SessionData session, Transaction transaction) throws StorageException {
+        if (transaction.getCategory() == null) {
+            transaction.setCategory(MemoryCategoryRuleRepository.match(session, transaction.getDescription(),
+                    transaction.getExternalIBAN(), transaction.getType().toString()));
+        } else if (!session.categories.containsKey(transaction.getCategory().getId())) {
+            throw new StorageException("Category " + transaction.getCategory().getId() + " does not exist");
+        }
+    }
+
+    /**
+     * Returns the transaction as it is stored, of which the category only has an ID.
+     */
+    private static Transaction toStored(Transaction transaction, String description) {
+        return new Transaction(transaction.getId(), transaction.getDate(), transaction.getParsedDate(),
+                transaction.getAmount(), transaction.getExternalIBAN(), transaction.getType(),
+                transaction.getCategory() == null ? null : new Category(transaction.getCategory().getId(), null),
+                description);
+    }
+
+    /**
+     * Returns a copy of a stored transaction with the name of its category, or null if the session has no such
+     * transaction.
+     */
+    private static Transaction get(SessionData session, int id) {
+        Transaction transaction = session.transactions.get(id);
+        if (transaction == null) {
+            return null;
+        }
+        Category category = null;
+        if (transaction.getCategory() != null) {
+            String name = session.categories.get(transaction.getCategory().getId());
+            if (name != null) {
+                category = new Category(transaction.getCategory().getId(), name);
+            }
+        }
+        return new Transaction(transaction.getId(), transaction.getDate(), transaction.getParsedDate(),
+                transaction.getAmount(), transaction.getExternalIBAN(), transaction.getType(), category,
+                transaction.getDescription());
+    }
+}
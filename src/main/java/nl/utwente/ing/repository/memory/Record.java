@@ -0,0 +1,222 @@
+/*
+ * Copyright (c) 2018, Joost Prins <github.com/joostprins>, Tom Leemreize <https://github.com/oplosthee>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package nl.utwente.ing.repository.memory;
+
+import nl.utwente.ing.model.Category;
+import nl.utwente.ing.model.ParsedDate;
+import nl.utwente.ing.model.Transaction;
+import nl.utwente.ing.model.Type;
+import org.joda.money.CurrencyUnit;
+import org.joda.money.Money;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A change to the data of the memory store, as it is written to the journal and the snapshots. Every record describes
+ * the resulting state of the objects it changes instead of the operation which changed them, so applying a record
+ * twice has the same effect as applying it once. This allows a snapshot to be taken while the journal is written.
+ *
+ * Every record starts with its operation and the session it belongs to. Strings are written as their length in bytes
+ * followed by their UTF-8 encoding, where a length of -1 stands for null.
+ */
+final class Record {
+
+    static final byte CREATE_SESSION = 1;
+    static final byte PUT_CATEGORY = 2;
+    static final byte DELETE_CATEGORY = 3;
+    static final byte PUT_RULE = 4;
+    static final byte DELETE_RULE = 5;
+    static final byte PUT_TRANSACTIONS = 6;
+    static final byte DELETE_TRANSACTION = 7;
+    static final byte SET_CATEGORY = 8;
+    static final byte PUT_SAVING_GOAL = 9;
+    static final byte DELETE_SAVING_GOAL = 10;
+    static final byte PUT_PAYMENT_REQUEST = 11;
+    static final byte COUNTERS = 12;
+
+    private static final Type[] TYPES = Type.values();
+
+    private Record() {
+    }
+
+    /**
+     * Encodes a record.
+     */
+    static final class Writer {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        private final DataOutputStream out = new DataOutputStream(bytes);
+
+        Writer(byte operation, String sessionID) {
+            writeByte(operation);
+            writeString(sessionID);
+        }
+
+        Writer writeByte(int value) {
+            try {
+                out.writeByte(value);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return this;
+        }
+
+        Writer writeBoolean(boolean value) {
+            return writeByte(value ? 1 : 0);
+        }
+
+        Writer writeInt(int value) {
+            try {
+                out.writeInt(value);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return this;
+        }
+
+        Writer writeLong(long value) {
+            try {
+                out.writeLong(value);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return this;
+        }
+
+        Writer writeString(String value) {
+            if (value == null) {
+                return writeInt(-1);
+            }
+            byte[] encoded = value.getBytes(StandardCharsets.UTF_8);
+            writeInt(encoded.length);
+            try {
+                out.write(encoded);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return this;
+        }
+
+        /**
+         * Writes a transaction, including its parsed date so it does not have to be parsed again when it is read.
+         */
+        Writer writeTransaction(Transaction transaction) {
+            ParsedDate date = transaction.getParsedDate();
+            writeInt(transaction.getId());
+            writeString(transaction.getDate());
+            writeLong(date.getMillis());
+            writeBoolean(date.getOffset() != null);
+            writeInt(date.getOffset() != null ? date.getOffset() : 0);
+            writeLong(transaction.getAmount().getAmountMinorLong());
+            writeString(transaction.getExternalIBAN());
+            writeByte(transaction.getType().ordinal());
+            writeInt(transaction.getCategory() == null ? 0 : transaction.getCategory().getId());
+            return writeString(transaction.getDescription());
+        }
+
+        byte[] toByteArray() {
+            return bytes.toByteArray();
+        }
+    }
+
+    /**
+     * Decodes a record.
+     */
+    static final class Reader {
+        private final ByteBuffer buffer;
+
+        Reader(byte[] payload) {
+            this.buffer = ByteBuffer.wrap(payload);
+        }
+
+        byte readByte() throws IOException {
+            try {
+                return buffer.get();
+            } catch (BufferUnderflowException e) {
+                throw new IOException("Record is truncated", e);
+            }
+        }
+
+        boolean readBoolean() throws IOException {
+            return readByte() != 0;
+        }
+
+        int readInt() throws IOException {
+            try {
+                return buffer.getInt();
+            } catch (BufferUnderflowException e) {
+                throw new IOException("Record is truncated", e);
+            }
+        }
+
+        long readLong() throws IOException {
+            try {
+                return buffer.getLong();
+            } catch (BufferUnderflowException e) {
+                throw new IOException("Record is truncated", e);
+            }
+        }
+
+        String readString() throws IOException {
+            int length = readInt();
+            if (length == -1) {
+                return null;
+            }
+            if (length < 0 || length > buffer.remaining()) {
+                throw new IOException("Record is truncated");
+            }
+            String value = new String(buffer.array(), buffer.position(), length, StandardCharsets.UTF_8);
+            buffer.position(buffer.position() + length);
+            return value;
+        }
+
+        /**
+         * Reads a transaction written by {@link Writer#writeTransaction(Transaction)}. Its category only has an ID.
+         */
+        Transaction readTransaction() throws IOException {
+            int id = readInt();
+            String date = readString();
+            long millis = readLong();
+            boolean hasOffset = readBoolean();
+            int offset = readInt();
+            long amount = readLong();
+            String externalIBAN = readString();
+            int type = readByte();
+            int category = readInt();
+            String description = readString();
+            if (type < 0 || type >= TYPES.length) {
+                throw new IOException("Record has an unknown transaction type");
+            }
+            return new Transaction(id, date, ParsedDate.of(millis, hasOffset ? offset : null, date),
+                    Money.ofMinor(CurrencyUnit.EUR, amount), externalIBAN, TYPES[type],
+                    category == 0 ? null : new Category(category, null), description);
+        }
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2018, Joost Prins <github.com/joostprins>, Tom Leemreize <https://github.com/oplosthee>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package nl.utwente.ing.repository.memory;
+
+import nl.utwente.ing.cache.Ledger;
+import nl.utwente.ing.model.CategoryRule;
+import nl.utwente.ing.model.Transaction;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The data of a single session in the memory store. The maps can be read without locking; changes are made while
+ * holding the lock of the session, so they are validated against, and written to the journal in the order of, the
+ * state they are applied to. The objects in the maps are never changed, only replaced, and must not be handed out.
+ */
+final class SessionData {
+
+    final String id;
+    final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * The names of the categories, by ID.
+     */
+    final ConcurrentSkipListMap<Integer, String> categories = new ConcurrentSkipListMap<>();
+    final ConcurrentSkipListMap<Integer, CategoryRule> categoryRules = new ConcurrentSkipListMap<>();
+
+    /**
+     * The transactions by ID. Their categories only have an ID, as the name of a category may change.
+     */
+    final ConcurrentHashMap<Integer, Transaction> transactions = new ConcurrentHashMap<>();
+
+    /**
+     * The transactions in order of date, which is kept up to date with the transactions by ID.
+     */
+    final Ledger ledger = new Ledger();
+    final ConcurrentSkipListMap<Integer, StoredSavingGoal> savingGoals = new ConcurrentSkipListMap<>();
+    final ConcurrentSkipListMap<Integer, StoredPaymentRequest> paymentRequests = new ConcurrentSkipListMap<>();
+
+    SessionData(String id) {
+        this.id = id;
+    }
+
+    /**
+     * A saving goal, with amounts in cents.
+     */
+    static final class StoredSavingGoal {
+        final int id;
+        final String name;
+        final long goal;
+        final long savePerMonth;
+        final long minimumBalanceRequired;
+
+        StoredSavingGoal(int id, String name, long goal, long savePerMonth, long minimumBalanceRequired) {
+            this.id = id;
+            this.name = name;
+            this.goal = goal;
+            this.savePerMonth = savePerMonth;
+            this.minimumBalanceRequired = minimumBalanceRequired;
+        }
+    }
+
+    /**
+     * A payment request, with its dates as they are formatted when it is created and its amount in cents.
+     */
+    static final class StoredPaymentRequest {
+        final int id;
+        final String description;
+        final String dueDate;
+        final int amount;
+        final int numberOfRequests;
+
+        /**
+         * The date of the latest transaction when the request was created, by which the requests are ordered.
+         */
+        final String creationDate;
+
+        StoredPaymentRequest(int id, String description, String dueDate, int amount, int numberOfRequests,
+                             String creationDate) {
+            this.id = id;
+            this.description = description;
+            this.dueDate = dueDate;
+            this.amount = amount;
+            this.numberOfRequests = numberOfRequests;
+            this.creationDate = creationDate;
+        }
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright (c) 2018, Joost Prins <github.com/joostprins>, Tom Leemreize <https://github.com/oplosthee>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package nl.utwente.ing.repository.sqlite;
+
+import nl.utwente.ing.archive.TransactionArchive;
+import nl.utwente.ing.cache.CategoryRuleIndex;
+import nl.utwente.ing.cache.LedgerCache;
+import nl.utwente.ing.controller.SpendingRollups;
+import nl.utwente.ing.controller.database.DBConnection;
+import nl.utwente.ing.controller.database.DBUtil;
+import nl.utwente.ing.model.Category;
+import nl.utwente.ing.repository.CategoryRepository;
+import nl.utwente.ing.repository.StorageException;
+import org.apache.commons.dbutils.DbUtils;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Stores the categories in the categories table.
+ */
+public class SQLiteCategoryRepository implements CategoryRepository {
+
+    static final String ALL_QUERY = "SELECT c.category_id, c.name FROM categories c WHERE c.session_id = ?;";
+
+    @Override
+    public List<Category> getAll(String sessionID) throws StorageException {
+        Connection connection = null;
+        PreparedStatement preparedStatement = null;
+        ResultSet resultSet = null;
+
+        try {
+            connection = DBConnection.instance.getReadConnection(sessionID);
+            preparedStatement = connection.prepareStatement(ALL_QUERY);
+            preparedStatement.setString(1, sessionID);
+            resultSet = preparedStatement.executeQuery();
+
+            List<Category> results = new ArrayList<>();
+            while (resultSet.next()) {
+                results.add(new Category(resultSet.getInt(1), resultSet.getString(2)));
+            }
+            return results;
+        } catch (SQLException e) {
+            throw new StorageException(e);
+        } finally {
+            DBUtil.executeCommit(connection);
+            DbUtils.closeQuietly(connection, preparedStatement, resultSet);
+        }
+    }
+
+    @Override
+    public Category get(String sessionID, int id) throws StorageException {
+        String query = "SELECT c.category_id, c.name FROM categories c WHERE category_id = ? AND session_id = ?";
+        Connection connection = null;
+        PreparedStatement preparedStatement = null;
+        ResultSet resultSet = null;
+
+        try {
+            connection = DBConnection.instance.getReadConnection(sessionID);
+            preparedStatement = connection.prepareStatement(query);
+            preparedStatement.setInt(1, id);
+            preparedStatement.setString(2, sessionID);
+            resultSet = preparedStatement.executeQuery();
+            return resultSet.next() ? new Category(id, resultSet.getString(2)) : null;
+        } catch (SQLException e) {
+            throw new StorageException(e);
+        } finally {
+            DBUtil.executeCommit(connection);
+            DbUtils.closeQuietly(connection, preparedStatement, resultSet);
+        }
+    }
+
+    @Override
+    public boolean exists(String sessionID, int id) throws StorageException {
+        return get(sessionID, id) != null;
+    }
+
+    @Override
+    public Category create(String sessionID, String name) throws StorageException {
+        String insertQuery = "INSERT INTO categories (name, session_id) VALUES (?, ?);";
+        String idQuery = "SELECT last_insert_rowid()";
+
+        Connection connection = null;
+        PreparedStatement preparedStatement = null;
+        PreparedStatement idPreparedStatement = null;
+        ResultSet resultSet = null;
+
+        try {
+            connection = DBConnection.instance.getConnection(sessionID);
+            preparedStatement = connection.prepareStatement(insertQuery);
+            preparedStatement.setString(1, name);
+            preparedStatement.setString(2, sessionID);
+            preparedStatement.executeUpdate();
+
+            idPreparedStatement = connection.prepareStatement(idQuery);
+            resultSet = idPreparedStatement.executeQuery();
+            int id = resultSet.getInt(1);
+            connection.commit();
+            return new Category(id, name);
+        } catch (SQLException e) {
+            throw new StorageException(e);
+        } finally {
+            DBUtil.executeCommit(connection);
+            DbUtils.closeQuietly(preparedStatement);
+            DbUtils.closeQuietly(connection, idPreparedStatement, resultSet);
+        }
+    }
+
+    @Override
+    public boolean update(String sessionID, Category category) throws StorageException {
+        String query = "UPDATE categories SET name = ? WHERE category_id = ? AND session_id = ?";
+        Connection connection = null;
+        PreparedStatement preparedStatement = null;
+
+        try {
+            connection = DBConnection.instance.getConnection(sessionID);
+            preparedStatement = connection.prepareStatement(query);
+            preparedStatement.setString(1, category.getName());
+            preparedStatement.setInt(2, category.getId());
+            preparedStatement.setString(3, sessionID);
+
+            if (preparedStatement.executeUpdate() != 1) {
+                return false;
+            }
+            connection.commit();
+            CategoryRuleIndex.instance.invalidate(sessionID);
+            return true;
+        } catch (SQLException e) {
+            throw new StorageException(e);
+        } finally {
+            DBUtil.executeCommit(connection);
+            DbUtils.closeQuietly(preparedStatement);
+            DbUtils.closeQuietly(connection);
+        }
+    }
+
+    @Override
+    public boolean delete(String sessionID, int id) throws StorageException {
+        String query = "DELETE FROM categories WHERE category_id = ? AND session_id = ?";
+        Lock lock = TransactionArchive.instance.compactionLock(sessionID);
+        boolean committed = false;
+        lock.lock();
+        try {
+            // Archived transactions would keep the ID of the category.
+            SQLiteTransactionRepository.restoreArchive(sessionID, cursor -> cursor.getCategory() == id);
+            // Transactions of the deleted category lose their category in the database as well.
+            boolean deleted = DBUtil.executeDelete(query, id, sessionID,
+                    (connection, categoryID, categorySessionID) -> {
+                        SpendingRollups.removeCategory(connection, categorySessionID, categoryID);
+                        LedgerCache.instance.apply(categorySessionID, ledger -> ledger.clearCategory(categoryID));
+                    });
+            committed = true;
+            return deleted;
+        } catch (SQLException e) {
+            throw new StorageException(e);
+        } finally {
+            LedgerCache.instance.completed(sessionID, committed);
+            CategoryRuleIndex.instance.invalidate(sessionID);
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,225 @@
+/*
+ * Copyright (c) 2018, Joost Prins <github.com/joostprins>, Tom Leemreize <https://github.com/oplosthee>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package nl.utwente.ing.repository.sqlite;
+
+import nl.utwente.ing.archive.TransactionArchive;
+import nl.utwente.ing.cache.CategoryRuleIndex;
+import nl.utwente.ing.controller.CategoryRuleHistoryTask;
+import nl.utwente.ing.controller.JobRunner;
+import nl.utwente.ing.controller.database.DBConnection;
+import nl.utwente.ing.controller.database.DBUtil;
+import nl.utwente.ing.model.Category;
+import nl.utwente.ing.model.CategoryRule;
+import nl.utwente.ing.repository.CategoryRuleRepository;
+import nl.utwente.ing.repository.StorageException;
+import org.apache.commons.dbutils.DbUtils;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Stores the category rules in the category_rules table. Rules which apply on history are applied to the existing
+ * transactions by a background job of the {@link JobRunner}, which is created in the same database transaction as the
+ * rule.
+ */
+public class SQLiteCategoryRuleRepository implements CategoryRuleRepository {
+
+    static final String ALL_QUERY = "SELECT category_rule_id, description, iBAN, type, category_id, " +
+            "apply_on_history FROM category_rules WHERE session_id = ?;";
+
+    @Override
+    public List<CategoryRule> getAll(String sessionID) throws StorageException {
+        Connection connection = null;
+        PreparedStatement preparedStatement = null;
+        ResultSet resultSet = null;
+
+        try {
+            connection = DBConnection.instance.getReadConnection(sessionID);
+            preparedStatement = connection.prepareStatement(ALL_QUERY);
+            preparedStatement.setString(1, sessionID);
+            resultSet = preparedStatement.executeQuery();
+
+            List<CategoryRule> categoryRules = new ArrayList<>();
+            while (resultSet.next()) {
+                categoryRules.add(getCategoryRule(resultSet));
+            }
+            return categoryRules;
+        } catch (SQLException e) {
+            throw new StorageException(e);
+        } finally {
+            DBUtil.executeCommit(connection);
+            DbUtils.closeQuietly(connection, preparedStatement, resultSet);
+        }
+    }
+
+    @Override
+    public CategoryRule get(String sessionID, int id) throws StorageException {
+        String query = "SELECT category_rule_id, description, iBAN, type, category_id, apply_on_history " +
+                "FROM category_rules WHERE session_id = ? AND category_rule_id = ?";
+        Connection connection = null;
+        PreparedStatement preparedStatement = null;
+        ResultSet resultSet = null;
+
+        try {
+            connection = DBConnection.instance.getReadConnection(sessionID);
+            preparedStatement = connection.prepareStatement(query);
+            preparedStatement.setString(1, sessionID);
+            preparedStatement.setInt(2, id);
+            resultSet = preparedStatement.executeQuery();
+            return resultSet.next() ? getCategoryRule(resultSet) : null;
+        } catch (SQLException e) {
+            throw new StorageException(e);
+        } finally {
+            DBUtil.executeCommit(connection);
+            DbUtils.closeQuietly(connection, preparedStatement, resultSet);
+        }
+    }
+
+    @Override
+    public Integer create(String sessionID, CategoryRule categoryRule) throws StorageException {
+        String query = "INSERT INTO category_rules (description, iBAN, type, category_id, apply_on_history, " +
+                "session_id) VALUES (?, ?, ?, ?, ?, ?)";
+        String resultQuery = "SELECT last_insert_rowid() FROM category_rules LIMIT 1;";
+
+        Lock lock = TransactionArchive.instance.compactionLock(sessionID);
+        Connection connection = null;
+        PreparedStatement preparedStatement = null;
+        PreparedStatement resultPreparedStatement = null;
+        ResultSet resultSet = null;
+        Integer jobID = null;
+
+        lock.lock();
+        try {
+            if (categoryRule.getApplyOnHistory()) {
+                // The job only applies the rule to the transactions table, and the session is not compacted while
+                // the job has not finished.
+                SQLiteTransactionRepository.restoreArchive(sessionID, cursor ->
+                        matches(categoryRule.getDescription(), cursor.getDescription()) &&
+                        matches(categoryRule.getiBAN(), cursor.getExternalIBAN()) &&
+                        matches(categoryRule.getType(), cursor.getType().toString()));
+            }
+            connection = DBConnection.instance.getConnection(sessionID);
+            preparedStatement = connection.prepareStatement(query);
+            resultPreparedStatement = connection.prepareStatement(resultQuery);
+
+            preparedStatement.setString(1, categoryRule.getDescription());
+            preparedStatement.setString(2, categoryRule.getiBAN());
+            preparedStatement.setString(3, categoryRule.getType());
+            preparedStatement.setInt(4, categoryRule.getCategory().getId());
+            preparedStatement.setBoolean(5, categoryRule.getApplyOnHistory());
+            preparedStatement.setString(6, sessionID);
+            preparedStatement.executeUpdate();
+
+            resultSet = resultPreparedStatement.executeQuery();
+            if (!resultSet.next()) {
+                throw new SQLException("The ID of the category rule is not known");
+            }
+            categoryRule.setId(resultSet.getInt(1));
+
+            if (categoryRule.getApplyOnHistory()) {
+                jobID = JobRunner.create(connection, sessionID, JobRunner.APPLY_CATEGORY_RULE,
+                        CategoryRuleHistoryTask.getParameters(categoryRule.getCategory().getId(),
+                                categoryRule.getDescription(), categoryRule.getiBAN(), categoryRule.getType()));
+            }
+            connection.commit();
+        } catch (SQLException e) {
+            throw new StorageException(e);
+        } finally {
+            DBUtil.executeCommit(connection);
+            DbUtils.closeQuietly(preparedStatement);
+            DbUtils.closeQuietly(connection, resultPreparedStatement, resultSet);
+            lock.unlock();
+        }
+
+        CategoryRuleIndex.instance.invalidate(sessionID);
+        if (jobID != null) {
+            // The rule is applied to the existing transactions in the background.
+            JobRunner.instance.submit(sessionID, jobID);
+        }
+        return jobID;
+    }
+
+    @Override
+    public boolean update(String sessionID, CategoryRule categoryRule) throws StorageException {
+        String query = "UPDATE category_rules SET description = ?, iBAN = ?, type = ?, category_id = ? WHERE " +
+                "category_rule_id = ? AND session_id = ?";
+        Connection connection = null;
+        PreparedStatement preparedStatement = null;
+
+        try {
+            connection = DBConnection.instance.getConnection(sessionID);
+            preparedStatement = connection.prepareStatement(query);
+            preparedStatement.setString(1, categoryRule.getDescription());
+            preparedStatement.setString(2, categoryRule.getiBAN());
+            preparedStatement.setString(3, categoryRule.getType());
+            preparedStatement.setInt(4, categoryRule.getCategory().getId());
+            preparedStatement.setInt(5, categoryRule.getId());
+            preparedStatement.setString(6, sessionID);
+
+            if (preparedStatement.executeUpdate() != 1) {
+                return false;
+            }
+            connection.commit();
+            CategoryRuleIndex.instance.invalidate(sessionID);
+            return true;
+        } catch (SQLException e) {
+            throw new StorageException(e);
+        } finally {
+            DBUtil.executeCommit(connection);
+            DbUtils.closeQuietly(preparedStatement);
+            DbUtils.closeQuietly(connection);
+        }
+    }
+
+    @Override
+    public boolean delete(String sessionID, int id) throws StorageException {
+        String query = "DELETE FROM category_rules WHERE category_rule_id = ? AND session_id = ?";
+        try {
+            return DBUtil.executeDelete(query, id, sessionID);
+        } catch (SQLException e) {
+            throw new StorageException(e);
+        } finally {
+            CategoryRuleIndex.instance.invalidate(sessionID);
+        }
+    }
+
+    private static CategoryRule getCategoryRule(ResultSet resultSet) throws SQLException {
+        return new CategoryRule(resultSet.getInt(1), resultSet.getString(2), resultSet.getString(3),
+                resultSet.getString(4), new Category(resultSet.getInt(5), null), resultSet.getBoolean(6));
+    }
+
+    /**
+     * @return whether a value matches an attribute of a rule which is applied to the history, where an empty attribute
+     * matches any value
+     */
+    private static boolean matches(String attribute, String value) {
+        return attribute == null || attribute.isEmpty() || attribute.equals(value);
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright (c) 2018, Joost Prins <github.com/joostprins>, Tom Leemreize <https://github.com/oplosthee>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package nl.utwente.ing.repository.sqlite;
+
+import nl.utwente.ing.controller.database.DBConnection;
+import nl.utwente.ing.controller.database.DBUtil;
+import nl.utwente.ing.model.PaymentRequest;
+import nl.utwente.ing.repository.PaymentRequestRepository;
+import nl.utwente.ing.repository.StorageException;
+import org.apache.commons.dbutils.DbUtils;
+import org.joda.money.CurrencyUnit;
+import org.joda.money.Money;
+import org.joda.time.DateTime;
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Stores the payment requests in the payment_requests table, with amounts in cents.
+ */
+public class SQLitePaymentRequestRepository implements PaymentRequestRepository {
+
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormat.forPattern("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+
+    static final String ALL_QUERY = "SELECT payment_request_id AS id, description, due_date, amount, " +
+            "number_of_requests FROM payment_requests WHERE session_id = ? ORDER BY creation_date, payment_request_id;";
+
+    /**
+     * Selects the date of the last transaction of a session, which is the creation date of a new payment request.
+     */
+    static final String LATEST_TRANSACTION_QUERY = "SELECT date FROM transactions WHERE session_id = ? ORDER BY " +
+            "date_millis DESC, transaction_id DESC LIMIT 1";
+
+    @Override
+    public List<PaymentRequest> getAll(String sessionID) throws StorageException {
+        Connection connection = null;
+        PreparedStatement preparedStatement = null;
+        ResultSet resultSet = null;
+
+        try {
+            connection = DBConnection.instance.getReadConnection(sessionID);
+            preparedStatement = connection.prepareStatement(ALL_QUERY);
+            preparedStatement.setString(1, sessionID);
+            resultSet = preparedStatement.executeQuery();
+
+            List<PaymentRequest> paymentRequests = new ArrayList<>();
+            while (resultSet.next()) {
+                int id = resultSet.getInt("id");
+                String description = resultSet.getString("description");
+                DateTime dueDate = DateTime.parse(resultSet.getString("due_date"));
+                Money amount = Money.ofMinor(CurrencyUnit.EUR, resultSet.getLong("amount"));
+                int numberOfRequests = resultSet.getInt("number_of_requests");
+                paymentRequests.add(new PaymentRequest(id, description, dueDate, amount, numberOfRequests, false));
+            }
+            return paymentRequests;
+        } catch (SQLException e) {
+            throw new StorageException(e);
+        } finally {
+            DBUtil.executeCommit(connection);
+            DbUtils.closeQuietly(connection, preparedStatement, resultSet);
+        }
+    }
+
+    @Override
+    public void create(String sessionID, PaymentRequest paymentRequest) throws StorageException {
+        String insertQuery = "INSERT INTO payment_requests (description, due_date, amount, " +
+                "number_of_requests, session_id, creation_date) VALUES (?, ?, ?, ?, ?, ?);";
+        String idQuery = "SELECT last_insert_rowid()";
+
+        Connection connection = null;
+        PreparedStatement preparedStatement = null;
+        PreparedStatement idPreparedStatement = null;
+        PreparedStatement timePreparedStatement = null;
+        ResultSet resultSet = null;
+        ResultSet timeResultSet = null;
+
+        try {
+            connection = DBConnection.instance.getConnection(sessionID);
+            timePreparedStatement = connection.prepareStatement(LATEST_TRANSACTION_QUERY);
+            timePreparedStatement.setString(1, sessionID);
+            timeResultSet = timePreparedStatement.executeQuery();
+            DateTime dateTime = DateTime.now();
+            if (timeResultSet.next()) {
+                dateTime = DateTime.parse(timeResultSet.getString("date"));
+            }
+
+            preparedStatement = connection.prepareStatement(insertQuery);
+            preparedStatement.setString(1, paymentRequest.getDescription());
+            preparedStatement.setString(2, DATE_FORMAT.print(paymentRequest.getDueDate()));
+            preparedStatement.setInt(3, paymentRequest.getAmount().getAmountMinorInt());
+            preparedStatement.setInt(4, paymentRequest.getNumberOfRequests());
+            preparedStatement.setString(5, sessionID);
+            preparedStatement.setString(6, DATE_FORMAT.print(dateTime));
+            preparedStatement.executeUpdate();
+
+            idPreparedStatement = connection.prepareStatement(idQuery);
+            resultSet = idPreparedStatement.executeQuery();
+            if (!resultSet.next()) {
+                throw new SQLException("The ID of the payment request is not known");
+            }
+            paymentRequest.setId(resultSet.getInt(1));
+            connection.commit();
+        } catch (SQLException e) {
+            throw new StorageException(e);
+        } finally {
+            DBUtil.executeCommit(connection);
+            DbUtils.closeQuietly(preparedStatement);
+            DbUtils.closeQuietly(timeResultSet);
+            DbUtils.closeQuietly(timePreparedStatement);
+            DbUtils.closeQuietly(connection, idPreparedStatement, resultSet);
+        }
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2018, Joost Prins <github.com/joostprins>, Tom Leemreize <https://github.com/oplosthee>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package nl.utwente.ing.repository.sqlite;
+
+import nl.utwente.ing.controller.BalanceCheckpoints;
+import nl.utwente.ing.controller.database.DBConnection;
+import nl.utwente.ing.controller.database.DBUtil;
+import nl.utwente.ing.model.SavingGoal;
+import nl.utwente.ing.repository.SavingGoalRepository;
+import nl.utwente.ing.repository.StorageException;
+import org.apache.commons.dbutils.DbUtils;
+import org.joda.money.CurrencyUnit;
+import org.joda.money.Money;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Stores the saving goals in the saving_goals table, with amounts in cents. Every change invalidates the balance
+ * checkpoints of the session, as the saving goals are part of the balances.
+ */
+public class SQLiteSavingGoalRepository implements SavingGoalRepository {
+
+    static final String ALL_QUERY = "SELECT saving_goal_id AS id, name, goal, save_per_month AS spm, " +
+            "minimum_balance_required AS mbr FROM saving_goals WHERE session_id = ? ORDER BY creation_date_time, " +
+            "saving_goal_id;";
+
+    @Override
+    public List<SavingGoal> getAll(String sessionID) throws StorageException {
+        Connection connection = null;
+        PreparedStatement preparedStatement = null;
+        ResultSet resultSet = null;
+
+        try {
+            connection = DBConnection.instance.getReadConnection(sessionID);
+            preparedStatement = connection.prepareStatement(ALL_QUERY);
+            preparedStatement.setString(1, sessionID);
+            resultSet = preparedStatement.executeQuery();
+
+            List<SavingGoal> savingGoals = new ArrayList<>();
+            while (resultSet.next()) {
+                savingGoals.add(new SavingGoal(
+                        resultSet.getInt("id"),
+                        resultSet.getString("name"),
+                        Money.ofMinor(CurrencyUnit.EUR, resultSet.getLong("goal")),
+                        Money.ofMinor(CurrencyUnit.EUR, resultSet.getLong("spm")),
+                        Money.ofMinor(CurrencyUnit.EUR, resultSet.getLong("mbr")),
+                        Money.parse("EUR 0.00")));
+            }
+            return savingGoals;
+        } catch (SQLException e) {
+            throw new StorageException(e);
+        } finally {
+            DBUtil.executeCommit(connection);
+            DbUtils.closeQuietly(connection, preparedStatement, resultSet);
+        }
+    }
+
+    @Override
+    public void create(String sessionID, SavingGoal savingGoal) throws StorageException {
+        String insertQuery = "INSERT INTO saving_goals (name, goal, save_per_month, minimum_balance_required, " +
+                "session_id) VALUES (?, ?, ?, ?, ?);";
+        String idQuery = "SELECT last_insert_rowid()";
+
+        Connection connection = null;
+        PreparedStatement preparedStatement = null;
+        PreparedStatement idPreparedStatement = null;
+        ResultSet resultSet = null;
+
+        try {
+            connection = DBConnection.instance.getConnection(sessionID);
+            preparedStatement = connection.prepareStatement(insertQuery);
+            preparedStatement.setString(1, savingGoal.getName());
+            preparedStatement.setLong(2, Money.of(CurrencyUnit.EUR, savingGoal.getGoal()).getAmountMinorLong());
+            preparedStatement.setLong(3, Money.of(CurrencyUnit.EUR, savingGoal.getSavePerMonth()).getAmountMinorLong());
+            preparedStatement.setLong(4, Money.of(CurrencyUnit.EUR, savingGoal.getMinimumBalanceRequired())
+                    .getAmountMinorLong());
+            preparedStatement.setString(5, sessionID);
+            preparedStatement.executeUpdate();
+
+            idPreparedStatement = connection.prepareStatement(idQuery);
+            resultSet = idPreparedStatement.executeQuery();
+            if (!resultSet.next()) {
+                throw new SQLException("The ID of the saving goal is not known");
+            }
+            BalanceCheckpoints.invalidateAll(connection, sessionID);
+            savingGoal.setId(resultSet.getInt(1));
+            connection.commit();
+        } catch (SQLException e) {
+            throw new StorageException(e);
+        } finally {
+            DBUtil.executeCommit(connection);
+            DbUtils.closeQuietly(preparedStatement);
+            DbUtils.closeQuietly(connection, idPreparedStatement, resultSet);
+        }
+    }
+
+    @Override
+    public boolean delete(String sessionID, int id) throws StorageException {
+        String query = "DELETE FROM saving_goals WHERE saving_goal_id = ? AND session_id = ?";
+        try {
+            return DBUtil.executeDelete(query, id, sessionID,
+                    (connection, savingGoalID, savingGoalSessionID) ->
+                            BalanceCheckpoints.invalidateAll(connection, savingGoalSessionID));
+        } catch (SQLException e) {
+            throw new StorageException(e);
+        }
+    }
+}
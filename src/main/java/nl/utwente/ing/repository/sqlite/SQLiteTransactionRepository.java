@@ -0,0 +1,766 @@
+/*
+ * Copyright (c) 2018, Joost Prins <github.com/joostprins>, Tom Leemreize <https://github.com/oplosthee>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package nl.utwente.ing.repository.sqlite;
+
+import nl.utwente.ing.Settings;
+import nl.utwente.ing.archive.ArchiveSegment;
+import nl.utwente.ing.archive.TransactionArchive;
+import nl.utwente.ing.cache.CategoryRuleIndex;
+import nl.utwente.ing.cache.Ledger;
+import nl.utwente.ing.cache.LedgerCache;
+import nl.utwente.ing.controller.BalanceCheckpoints;
+import nl.utwente.ing.controller.SpendingRollups;
+import nl.utwente.ing.controller.database.DBConnection;
+import nl.utwente.ing.controller.database.DBUtil;
+import nl.utwente.ing.metrics.Metrics;
+import nl.utwente.ing.model.Category;
+import nl.utwente.ing.model.ParsedDate;
+import nl.utwente.ing.model.SpendingRollup;
+import nl.utwente.ing.model.Transaction;
+import nl.utwente.ing.model.Type;
+import nl.utwente.ing.repository.StorageException;
+import nl.utwente.ing.repository.TransactionRepository;
+import org.apache.commons.dbutils.DbUtils;
+import org.joda.money.CurrencyUnit;
+import org.joda.money.Money;
+import org.joda.time.LocalDate;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.Lock;
+import java.util.function.Predicate;
+
+/**
+ * Stores the transactions in the transactions table. Every change also updates the data derived from the transactions
+ * in the same database transaction: the {@link BalanceCheckpoints}, the {@link SpendingRollups} and the cached
+ * {@link Ledger} of the session.
+ *
+ * Transactions which have been moved to the {@link TransactionArchive} are merged into every read. Before an archived
+ * transaction is changed the archive of its session is restored into the transactions table.
+ */
+public class SQLiteTransactionRepository implements TransactionRepository {
+
+    /**
+     * The number of rows which are sent to the database at once when creating a number of transactions.
+     */
+    private static final int BATCH_SIZE = 1000;
+
+    /**
+     * The maximum number of transactions which are loaded by ID in a single query.
+     */
+    private static final int MAX_ID_FILTER = 500;
+
+    /**
+     * The number of rows the JDBC driver fetches from the database at once while visiting all transactions of a
+     * session, as for an export. How often the export flushes its response is configured separately.
+     */
+    private static final int FETCH_SIZE = Settings.getInt("transactions.export.fetch-size", 500);
+
+    /**
+     * Selects all transactions of a session in chronological order, with their category if they have one.
+     */
+    static final String FOR_EACH_QUERY = "SELECT transaction_id, date, date_millis, amount, external_iban, type, " +
+            "description, transactions.category_id, name\n" +
+            "FROM transactions\n" +
+            "LEFT JOIN categories ON categories.category_id = transactions.category_id\n" +
+            "WHERE transactions.session_id = ? ORDER BY transactions.date_millis, transactions.transaction_id;";
+
+    @Override
+    public List<Transaction> getPage(String sessionID, String category, Long cursorMillis, int cursorID, int offset,
+                                     int limit) throws StorageException {
+        Lock lock = TransactionArchive.instance.readLock(sessionID);
+        lock.lock();
+        try {
+            ArchiveSegment segment = TransactionArchive.instance.getSegment(sessionID);
+            if (segment == null) {
+                return getLivePage(sessionID, category, cursorMillis, cursorID, offset, limit);
+            }
+
+            // The page is taken from the live and the archived transactions merged in order, of which at most the
+            // skipped and the listed ones are read.
+            int skipped = cursorMillis != null ? 0 : offset;
+            int count = (int) Math.min(Integer.MAX_VALUE, (long) skipped + limit);
+            List<Transaction> live = getLivePage(sessionID, category, cursorMillis, cursorID, 0, count);
+            Map<Integer, Category> categories = getCategories(sessionID);
+            List<Transaction> archived = new ArrayList<>();
+            ArchiveSegment.Cursor cursor = segment.cursor();
+            while (archived.size() < count && cursor.next()) {
+                Category transactionCategory = categories.get(cursor.getCategory());
+                if (transactionCategory != null && (category == null || category.equals(transactionCategory.getName()))
+                        && (cursorMillis == null || cursor.getMillis() > cursorMillis ||
+                        (cursor.getMillis() == cursorMillis && cursor.getId() > cursorID))) {
+                    archived.add(getTransaction(cursor, categories));
+                }
+            }
+
+            List<Transaction> transactions = new ArrayList<>();
+            int liveIndex = 0;
+            int archivedIndex = 0;
+            for (int i = 0; i < count && (liveIndex < live.size() || archivedIndex < archived.size()); i++) {
+                Transaction next;
+                if (archivedIndex == archived.size() || (liveIndex < live.size() &&
+                        isBefore(live.get(liveIndex), archived.get(archivedIndex)))) {
+                    next = live.get(liveIndex++);
+                } else {
+                    next = archived.get(archivedIndex++);
+                }
+                if (i >= skipped) {
+                    transactions.add(next);
+                }
+            }
+            return transactions;
+        } catch (IOException e) {
+            throw new StorageException(e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private List<Transaction> getLivePage(String sessionID, String category, Long cursorMillis, int cursorID,
+                                          int offset, int limit) throws StorageException {
+        String query = getPageQuery(category != null, cursorMillis != null);
+        Connection connection = null;
+        PreparedStatement preparedStatement = null;
+        ResultSet resultSet = null;
+
+        try {
+            connection = DBConnection.instance.getReadConnection(sessionID);
+            preparedStatement = connection.prepareStatement(query);
+
+            int index = 1;
+            preparedStatement.setString(index++, sessionID);
+            if (category != null) {
+                preparedStatement.setString(index++, category);
+            }
+            if (cursorMillis != null) {
+                preparedStatement.setLong(index++, cursorMillis);
+                preparedStatement.setLong(index++, cursorMillis);
+                preparedStatement.setInt(index++, cursorID);
+            }
+            preparedStatement.setInt(index++, limit);
+            preparedStatement.setInt(index, cursorMillis != null ? 0 : offset);
+
+            resultSet = preparedStatement.executeQuery();
+            List<Transaction> transactions = new ArrayList<>();
+            while (resultSet.next()) {
+                transactions.add(new Transaction(resultSet.getInt("transaction_id"), resultSet.getString("date"),
+                        DBUtil.getTransactionDate(resultSet),
+                        Money.ofMinor(CurrencyUnit.EUR, resultSet.getLong("amount")),
+                        resultSet.getString("external_iban"), Type.valueOf(resultSet.getString("type")),
+                        getCategory(resultSet), resultSet.getString("description")));
+            }
+            return transactions;
+        } catch (SQLException e) {
+            throw new StorageException(e);
+        } finally {
+            DBUtil.executeCommit(connection);
+            DbUtils.closeQuietly(connection, preparedStatement, resultSet);
+        }
+    }
+
+    /**
+     * Returns the query for a page of the categorized transactions of a session, with a parameter for the session, the
+     * category name if filtered by category, the time and ID of the cursor if after a cursor, the limit and the offset.
+     */
+    static String getPageQuery(boolean byCategory, boolean afterCursor) {
+        String query = "SELECT transaction_id, date, date_millis, date_offset, amount, external_iban, type, " +
+                "description, transactions.category_id, name\n" +
+                "FROM transactions\n" +
+                "INNER JOIN categories ON categories.category_id = transactions.category_id WHERE " +
+                "transactions.session_id = ? ";
+        if (byCategory) {
+            query += "AND categories.name = ? ";
+        }
+        if (afterCursor) {
+            query += "AND transactions.date_millis >= ? AND (transactions.date_millis > ? OR " +
+                    "transactions.transaction_id > ?) ";
+        }
+        return query + "ORDER BY transactions.date_millis, transactions.transaction_id LIMIT ? OFFSET ?;";
+    }
+
+    @Override
+    public Transaction get(String sessionID, int id) throws StorageException {
+        return get(sessionID, Collections.singletonList(id)).get(id);
+    }
+
+    @Override
+    public Map<Integer, Transaction> get(String sessionID, Collection<Integer> ids) throws StorageException {
+        List<Integer> idList = new ArrayList<>(ids);
+        Map<Integer, Transaction> transactions = new HashMap<>();
+
+        Lock lock = TransactionArchive.instance.readLock(sessionID);
+        Connection connection = null;
+        lock.lock();
+        try {
+            connection = DBConnection.instance.getReadConnection(sessionID);
+            for (int start = 0; start < idList.size(); start += MAX_ID_FILTER) {
+                List<Integer> chunk = idList.subList(start, Math.min(idList.size(), start + MAX_ID_FILTER));
+                StringBuilder query = new StringBuilder("SELECT transaction_id, date, amount, external_iban, type, " +
+                        "description, transactions.category_id, name\n" +
+                        "FROM transactions LEFT JOIN categories ON transactions.category_id = " +
+                        "categories.category_id\n" +
+                        "WHERE transactions.session_id = ? AND transaction_id IN (");
+                for (int i = 0; i < chunk.size(); i++) {
+                    query.append(i == 0 ? "?" : ", ?");
+                }
+                query.append(");");
+
+                PreparedStatement preparedStatement = null;
+                ResultSet resultSet = null;
+                try {
+                    preparedStatement = connection.prepareStatement(query.toString());
+                    int index = 1;
+                    preparedStatement.setString(index++, sessionID);
+                    for (int id : chunk) {
+                        preparedStatement.setInt(index++, id);
+                    }
+                    resultSet = preparedStatement.executeQuery();
+
+                    while (resultSet.next()) {
+                        Transaction transaction = getTransaction(resultSet);
+                        transactions.put(transaction.getId(), transaction);
+                    }
+                } finally {
+                    DbUtils.closeQuietly(resultSet);
+                    DbUtils.closeQuietly(preparedStatement);
+                }
+            }
+
+            ArchiveSegment segment = TransactionArchive.instance.getSegment(sessionID);
+            Set<Integer> missing = new HashSet<>(idList);
+            missing.removeAll(transactions.keySet());
+            if (segment != null && !missing.isEmpty()) {
+                Map<Integer, Category> categories = getCategories(connection, sessionID);
+                ArchiveSegment.Cursor cursor = segment.cursor();
+                while (cursor.next()) {
+                    if (missing.contains(cursor.getId())) {
+                        transactions.put(cursor.getId(), getTransaction(cursor, categories));
+                    }
+                }
+            }
+            return transactions;
+        } catch (SQLException | IOException e) {
+            throw new StorageException(e);
+        } finally {
+            DBUtil.executeCommit(connection);
+            DbUtils.closeQuietly(connection);
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void forEach(String sessionID, Visitor visitor) throws StorageException, IOException {
+        Lock lock = TransactionArchive.instance.readLock(sessionID);
+        Connection connection = null;
+        PreparedStatement preparedStatement = null;
+        ResultSet resultSet = null;
+        try {
+            ArchiveSegment segment;
+            Map<Integer, Category> categories;
+            // The lock is only held until the read of the database has started, which fixes the transactions it sees.
+            lock.lock();
+            try {
+                segment = TransactionArchive.instance.getSegment(sessionID);
+                connection = DBConnection.instance.getReadConnection(sessionID);
+                categories = segment == null ? null : getCategories(connection, sessionID);
+                preparedStatement = connection.prepareStatement(FOR_EACH_QUERY, ResultSet.TYPE_FORWARD_ONLY,
+                        ResultSet.CONCUR_READ_ONLY);
+                preparedStatement.setFetchSize(FETCH_SIZE);
+                preparedStatement.setString(1, sessionID);
+                resultSet = preparedStatement.executeQuery();
+            } finally {
+                lock.unlock();
+            }
+
+            ArchiveSegment.Cursor cursor = segment == null ? null : segment.cursor();
+            boolean hasArchived = cursor != null && cursor.next();
+            while (resultSet.next()) {
+                Transaction transaction = getTransaction(resultSet);
+                long millis = resultSet.getLong("date_millis");
+                while (hasArchived && (cursor.getMillis() < millis || (cursor.getMillis() == millis &&
+                        cursor.getId() < transaction.getId()))) {
+                    visitor.visit(getTransaction(cursor, categories));
+                    hasArchived = cursor.next();
+                }
+                visitor.visit(transaction);
+            }
+            while (hasArchived) {
+                visitor.visit(getTransaction(cursor, categories));
+                hasArchived = cursor.next();
+            }
+        } catch (SQLException e) {
+            throw new StorageException(e);
+        } finally {
+            DBUtil.executeCommit(connection);
+            DbUtils.closeQuietly(connection, preparedStatement, resultSet);
+        }
+    }
+
+    @Override
+    public void create(String sessionID, Transaction transaction) throws StorageException {
+        String query = "INSERT INTO transactions (date, date_millis, date_offset, amount, external_iban, " +
+                "category_id, type, session_id) VALUES (?, ?, ?, ?, ?, ?, ?, ?);";
+        String resultQuery = "SELECT last_insert_rowid();";
+
+        Connection connection = null;
+        PreparedStatement preparedStatement = null;
+        PreparedStatement resultPreparedStatement = null;
+        ResultSet resultSet = null;
+
+        try {
+            connection = DBConnection.instance.getConnection(sessionID);
+            resultPreparedStatement = connection.prepareStatement(resultQuery);
+            preparedStatement = connection.prepareStatement(query);
+
+            setDate(preparedStatement, 1, transaction);
+            preparedStatement.setLong(4, transaction.getAmount().getAmountMinorLong());
+            preparedStatement.setString(5, transaction.getExternalIBAN());
+            if (transaction.getCategory() == null) {
+                transaction.setCategory(CategoryRuleIndex.instance.match(connection, sessionID,
+                        transaction.getDescription(), transaction.getExternalIBAN(),
+                        transaction.getType().toString()));
+            }
+            if (transaction.getCategory() != null) {
+                preparedStatement.setInt(6, transaction.getCategory().getId());
+            } else {
+                preparedStatement.setNull(6, java.sql.Types.INTEGER);
+            }
+            preparedStatement.setString(7, transaction.getType().toString().toLowerCase());
+            preparedStatement.setString(8, sessionID);
+            preparedStatement.executeUpdate();
+
+            resultSet = resultPreparedStatement.executeQuery();
+            if (!resultSet.next()) {
+                throw new SQLException("The ID of the transaction is not known");
+            }
+            BalanceCheckpoints.invalidate(connection, sessionID, transaction.getMillis());
+            transaction.setId(resultSet.getInt(1));
+            SpendingRollups.add(connection, sessionID, transaction.getId(), transaction.getId());
+            LedgerCache.instance.commit(connection, sessionID, ledger -> ledger.add(transaction));
+        } catch (SQLException e) {
+            // The transaction is only committed together with its rollups and checkpoints.
+            DBUtil.executeRollback(connection);
+            throw new StorageException(e);
+        } finally {
+            DbUtils.closeQuietly(preparedStatement);
+            DbUtils.closeQuietly(connection, resultPreparedStatement, resultSet);
+        }
+    }
+
+    @Override
+    public List<Integer> createAll(String sessionID, List<Transaction> transactions) throws StorageException {
+        String categoryQuery = "SELECT category_id FROM categories WHERE session_id = ?;";
+        String insertQuery = "INSERT INTO transactions (date, date_millis, date_offset, amount, external_iban, " +
+                "category_id, type, description, session_id) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?);";
+        String resultQuery = "SELECT last_insert_rowid();";
+
+        Connection connection = null;
+        PreparedStatement categoryPreparedStatement = null;
+        PreparedStatement insertPreparedStatement = null;
+        PreparedStatement resultPreparedStatement = null;
+        ResultSet categoryResultSet = null;
+        ResultSet resultSet = null;
+
+        try {
+            connection = DBConnection.instance.getConnection(sessionID);
+            categoryPreparedStatement = connection.prepareStatement(categoryQuery);
+            categoryPreparedStatement.setString(1, sessionID);
+            categoryResultSet = categoryPreparedStatement.executeQuery();
+            Set<Integer> categoryIds = new HashSet<>();
+            while (categoryResultSet.next()) {
+                categoryIds.add(categoryResultSet.getInt(1));
+            }
+
+            insertPreparedStatement = connection.prepareStatement(insertQuery);
+            List<Integer> rejected = new ArrayList<>();
+            List<Long> dates = new ArrayList<>();
+            int batchSize = 0;
+            for (int i = 0; i < transactions.size(); i++) {
+                Transaction transaction = transactions.get(i);
+                if (transaction == null) {
+                    continue;
+                }
+                if (transaction.getCategory() != null && !categoryIds.contains(transaction.getCategory().getId())) {
+                    transactions.set(i, null);
+                    rejected.add(i);
+                    continue;
+                }
+                if (transaction.getCategory() == null) {
+                    transaction.setCategory(CategoryRuleIndex.instance.match(connection, sessionID,
+                            transaction.getDescription(), transaction.getExternalIBAN(),
+                            transaction.getType().toString()));
+                }
+
+                setDate(insertPreparedStatement, 1, transaction);
+                insertPreparedStatement.setLong(4, transaction.getAmount().getAmountMinorLong());
+                insertPreparedStatement.setString(5, transaction.getExternalIBAN());
+                if (transaction.getCategory() != null) {
+                    insertPreparedStatement.setInt(6, transaction.getCategory().getId());
+                } else {
+                    insertPreparedStatement.setNull(6, java.sql.Types.INTEGER);
+                }
+                insertPreparedStatement.setString(7, transaction.getType().toString().toLowerCase());
+                insertPreparedStatement.setString(8, transaction.getDescription());
+                insertPreparedStatement.setString(9, sessionID);
+                insertPreparedStatement.addBatch();
+                dates.add(transaction.getMillis());
+
+                if (++batchSize == BATCH_SIZE) {
+                    insertPreparedStatement.executeBatch();
+                    batchSize = 0;
+                }
+            }
+            if (batchSize > 0) {
+                insertPreparedStatement.executeBatch();
+            }
+
+            // Rows are inserted by a single writer without explicit IDs, so SQLite assigns consecutive row IDs ending
+            // at the last inserted one.
+            resultPreparedStatement = connection.prepareStatement(resultQuery);
+            resultSet = resultPreparedStatement.executeQuery();
+            long nextId = resultSet.next() ? resultSet.getLong(1) - dates.size() + 1 : 0;
+            long firstId = nextId;
+
+            List<Transaction> created = new ArrayList<>();
+            for (Transaction transaction : transactions) {
+                if (transaction != null) {
+                    transaction.setId((int) nextId++);
+                    created.add(transaction);
+                }
+            }
+
+            BalanceCheckpoints.invalidate(connection, sessionID, dates);
+            if (!created.isEmpty()) {
+                SpendingRollups.add(connection, sessionID, firstId, nextId - 1);
+            }
+            LedgerCache.instance.commit(connection, sessionID, ledger -> ledger.addAll(created));
+            return rejected;
+        } catch (SQLException e) {
+            DBUtil.executeRollback(connection);
+            throw new StorageException(e);
+        } finally {
+            DbUtils.closeQuietly(categoryResultSet);
+            DbUtils.closeQuietly(categoryPreparedStatement);
+            DbUtils.closeQuietly(insertPreparedStatement);
+            DbUtils.closeQuietly(connection, resultPreparedStatement, resultSet);
+        }
+    }
+
+    @Override
+    public boolean update(String sessionID, Transaction transaction) throws StorageException {
+        String query = "UPDATE transactions SET date = ?, date_millis = ?, date_offset = ?, amount = ?, " +
+                "external_iban = ?, type = ?, description = ? WHERE transaction_id = ? AND session_id = ?";
+        Lock lock = TransactionArchive.instance.compactionLock(sessionID);
+        Connection connection = null;
+        PreparedStatement preparedStatement = null;
+
+        lock.lock();
+        try {
+            restoreArchive(sessionID, cursor -> cursor.getId() == transaction.getId());
+            connection = DBConnection.instance.getConnection(sessionID);
+            Long previousDate = getDate(connection, transaction.getId(), sessionID);
+            String previousDay = SpendingRollups.getDay(connection, sessionID, transaction.getId());
+            preparedStatement = connection.prepareStatement(query);
+
+            setDate(preparedStatement, 1, transaction);
+            preparedStatement.setLong(4, transaction.getAmount().getAmountMinorLong());
+            preparedStatement.setString(5, transaction.getExternalIBAN());
+            preparedStatement.setString(6, transaction.getType().toString().toLowerCase());
+            preparedStatement.setString(7, transaction.getDate());
+            preparedStatement.setInt(8, transaction.getId());
+            preparedStatement.setString(9, sessionID);
+
+            if (preparedStatement.executeUpdate() != 1) {
+                return false;
+            }
+            BalanceCheckpoints.invalidate(connection, sessionID, previousDate);
+            BalanceCheckpoints.invalidate(connection, sessionID, transaction.getMillis());
+            SpendingRollups.update(connection, sessionID, transaction.getId(), previousDay);
+            LedgerCache.instance.commit(connection, sessionID, ledger -> ledger.update(transaction));
+            return true;
+        } catch (SQLException e) {
+            // The transaction is only committed together with its rollups and checkpoints.
+            DBUtil.executeRollback(connection);
+            throw new StorageException(e);
+        } finally {
+            DbUtils.closeQuietly(preparedStatement);
+            DbUtils.closeQuietly(connection);
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean delete(String sessionID, int id) throws StorageException {
+        String query = "DELETE FROM transactions WHERE transaction_id = ? AND session_id = ?";
+        Lock lock = TransactionArchive.instance.compactionLock(sessionID);
+        boolean committed = false;
+        lock.lock();
+        try {
+            restoreArchive(sessionID, cursor -> cursor.getId() == id);
+            boolean deleted = DBUtil.executeDelete(query, id, sessionID,
+                    (connection, transactionID, transactionSessionID) -> {
+                        Long date = getDate(connection, transactionID, transactionSessionID);
+                        if (date != null) {
+                            BalanceCheckpoints.invalidate(connection, transactionSessionID, date);
+                            SpendingRollups.remove(connection, transactionSessionID, transactionID);
+                            LedgerCache.instance.apply(transactionSessionID, ledger -> ledger.remove(transactionID));
+                        }
+                    });
+            committed = true;
+            return deleted;
+        } catch (SQLException e) {
+            throw new StorageException(e);
+        } finally {
+            LedgerCache.instance.completed(sessionID, committed);
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean setCategory(String sessionID, int id, int categoryID) throws StorageException {
+        String query = "UPDATE transactions SET category_id = ? WHERE transaction_id = ? AND session_id = ?";
+        Lock lock = TransactionArchive.instance.compactionLock(sessionID);
+        Connection connection = null;
+        PreparedStatement preparedStatement = null;
+
+        lock.lock();
+        try {
+            restoreArchive(sessionID, cursor -> cursor.getId() == id);
+            connection = DBConnection.instance.getConnection(sessionID);
+            preparedStatement = connection.prepareStatement(query);
+            preparedStatement.setInt(1, categoryID);
+            preparedStatement.setInt(2, id);
+            preparedStatement.setString(3, sessionID);
+            if (preparedStatement.executeUpdate() != 1) {
+                return false;
+            }
+            SpendingRollups.refresh(connection, sessionID, id);
+            LedgerCache.instance.commit(connection, sessionID, ledger -> ledger.setCategory(id, categoryID));
+            return true;
+        } catch (SQLException e) {
+            DBUtil.executeRollback(connection);
+            // Since the error code is not set for this SQLException the message has to be used in order to find
+            // out what the error was: a foreign key constraint means that the category does not exist.
+            if (e.getMessage().startsWith("[SQLITE_CONSTRAINT]")) {
+                return false;
+            }
+            throw new StorageException(e);
+        } finally {
+            DbUtils.closeQuietly(preparedStatement);
+            DbUtils.closeQuietly(connection);
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Ledger getLedger(String sessionID) throws StorageException {
+        if (!LedgerCache.instance.isEnabled()) {
+            return null;
+        }
+        Connection connection = null;
+        try {
+            connection = DBConnection.instance.getReadConnection(sessionID);
+            return LedgerCache.instance.get(connection, sessionID);
+        } catch (SQLException e) {
+            throw new StorageException(e);
+        } finally {
+            DBUtil.executeCommit(connection);
+            DbUtils.closeQuietly(connection);
+        }
+    }
+
+    @Override
+    public List<SpendingRollup> getDailyRollups(String sessionID, LocalDate start, LocalDate end)
+            throws StorageException {
+        String query = "SELECT day, category_id, type, total, transactions, minimum, maximum FROM spending_rollups " +
+                "WHERE session_id = ? AND day >= ? AND day <= ? ORDER BY day;";
+        Connection connection = null;
+        PreparedStatement preparedStatement = null;
+        ResultSet resultSet = null;
+        try {
+            connection = DBConnection.instance.getReadConnection(sessionID);
+            preparedStatement = connection.prepareStatement(query);
+            preparedStatement.setString(1, sessionID);
+            preparedStatement.setString(2, start.toString());
+            preparedStatement.setString(3, end.toString());
+            resultSet = preparedStatement.executeQuery();
+
+            List<SpendingRollup> spendingRollups = new ArrayList<>();
+            while (resultSet.next()) {
+                int categoryId = resultSet.getInt("category_id");
+                SpendingRollup spendingRollup = new SpendingRollup(LocalDate.parse(resultSet.getString("day")),
+                        categoryId == 0 ? null : categoryId, Type.valueOf(resultSet.getString("type")));
+                spendingRollup.add(resultSet.getLong("total"), resultSet.getLong("transactions"),
+                        resultSet.getLong("minimum"), resultSet.getLong("maximum"));
+                spendingRollups.add(spendingRollup);
+            }
+            Metrics.instance.increment("rows", "spending-rollups", spendingRollups.size());
+            return spendingRollups;
+        } catch (SQLException e) {
+            throw new StorageException(e);
+        } finally {
+            DBUtil.executeCommit(connection);
+            DbUtils.closeQuietly(connection, preparedStatement, resultSet);
+        }
+    }
+
+    /**
+     * Returns the date in milliseconds of the given transaction as it is currently stored, or null if it does not
+     * exist.
+     */
+    private static Long getDate(Connection connection, int transactionId, String sessionID) throws SQLException {
+        String query = "SELECT date_millis FROM transactions WHERE transaction_id = ? AND session_id = ?;";
+        PreparedStatement preparedStatement = null;
+        ResultSet resultSet = null;
+
+        try {
+            preparedStatement = connection.prepareStatement(query);
+            preparedStatement.setInt(1, transactionId);
+            preparedStatement.setString(2, sessionID);
+            resultSet = preparedStatement.executeQuery();
+            return resultSet.next() ? resultSet.getLong(1) : null;
+        } finally {
+            DbUtils.closeQuietly(resultSet);
+            DbUtils.closeQuietly(preparedStatement);
+        }
+    }
+
+    /**
+     * Sets the date of a transaction, its time in milliseconds and the offset of its time zone as three consecutive
+     * parameters, starting at the given index.
+     */
+    private static void setDate(PreparedStatement preparedStatement, int index, Transaction transaction)
+            throws SQLException {
+        ParsedDate parsedDate = transaction.getParsedDate();
+        preparedStatement.setString(index, transaction.getDate());
+        preparedStatement.setLong(index + 1, parsedDate.getMillis());
+        if (parsedDate.getOffset() != null) {
+            preparedStatement.setInt(index + 2, parsedDate.getOffset());
+        } else {
+            preparedStatement.setNull(index + 2, java.sql.Types.INTEGER);
+        }
+    }
+
+    /**
+     * Reads a transaction from a row with its transaction_id, date, amount, external_iban, type, description,
+     * category_id and the name of its category.
+     */
+    private static Transaction getTransaction(ResultSet resultSet) throws SQLException {
+        return new Transaction(resultSet.getInt("transaction_id"), resultSet.getString("date"),
+                Money.ofMinor(CurrencyUnit.EUR, resultSet.getLong("amount")), resultSet.getString("external_iban"),
+                Type.valueOf(resultSet.getString("type")), getCategory(resultSet),
+                resultSet.getString("description"));
+    }
+
+    /**
+     * @return the category of the current row, or null if it has none
+     */
+    private static Category getCategory(ResultSet resultSet) throws SQLException {
+        int categoryId = resultSet.getInt("category_id");
+        return resultSet.wasNull() ? null : new Category(categoryId, resultSet.getString("name"));
+    }
+
+    /**
+     * Reads the archived transaction the cursor is positioned on.
+     *
+     * @param categories the categories of the session by ID, as returned by
+     * {@link #getCategories(Connection, String)}; archived transactions keep the ID of a category which has been
+     * deleted since, which is left out
+     */
+    private static Transaction getTransaction(ArchiveSegment.Cursor cursor, Map<Integer, Category> categories) {
+        return new Transaction(cursor.getId(), cursor.getDate(), cursor.getParsedDate(),
+                Money.ofMinor(CurrencyUnit.EUR, cursor.getAmount()), cursor.getExternalIBAN(), cursor.getType(),
+                categories.get(cursor.getCategory()), cursor.getDescription());
+    }
+
+    /**
+     * @return whether the first transaction is ordered before the second one
+     */
+    private static boolean isBefore(Transaction first, Transaction second) {
+        return first.getMillis() < second.getMillis() || (first.getMillis() == second.getMillis() &&
+                first.getId() < second.getId());
+    }
+
+    private static Map<Integer, Category> getCategories(String sessionID) throws StorageException {
+        Connection connection = null;
+        try {
+            connection = DBConnection.instance.getReadConnection(sessionID);
+            return getCategories(connection, sessionID);
+        } catch (SQLException e) {
+            throw new StorageException(e);
+        } finally {
+            DBUtil.executeCommit(connection);
+            DbUtils.closeQuietly(connection);
+        }
+    }
+
+    /**
+     * @return the categories of a session by ID
+     */
+    private static Map<Integer, Category> getCategories(Connection connection, String sessionID)
+            throws SQLException {
+        String query = "SELECT category_id, name FROM categories WHERE session_id = ?;";
+        PreparedStatement preparedStatement = null;
+        ResultSet resultSet = null;
+        try {
+            preparedStatement = connection.prepareStatement(query);
+            preparedStatement.setString(1, sessionID);
+            resultSet = preparedStatement.executeQuery();
+            Map<Integer, Category> categories = new HashMap<>();
+            while (resultSet.next()) {
+                categories.put(resultSet.getInt(1), new Category(resultSet.getInt(1), resultSet.getString(2)));
+            }
+            return categories;
+        } finally {
+            DbUtils.closeQuietly(resultSet);
+            DbUtils.closeQuietly(preparedStatement);
+        }
+    }
+
+    /**
+     * Restores the archive of a session into the transactions table if any of its transactions matches the condition,
+     * so that they can be changed. Has to be called while holding the {@link TransactionArchive#compactionLock(String)}
+     * of the session, before its writer is taken.
+     */
+    static void restoreArchive(String sessionID, Predicate<ArchiveSegment.Cursor> condition)
+            throws StorageException {
+        try {
+            TransactionArchive.instance.restore(sessionID, condition);
+        } catch (SQLException | IOException e) {
+            throw new StorageException(e);
+        }
+    }
+}
@@ -0,0 +1,28 @@
+-- Recreates the transactions table with an AUTOINCREMENT key. Without it SQLite reuses the ID of the newest transaction
+-- once it is deleted or archived, so a new transaction could get the ID of an archived one.
+CREATE TABLE transactions_autoincrement (
+  transaction_id INTEGER PRIMARY KEY AUTOINCREMENT,
+  amount INTEGER NOT NULL,
+  category_id INTEGER,
+  date DATETIME NOT NULL,
+  external_iban TEXT NOT NULL,
+  type TEXT NOT NULL,
+  session_id TEXT NOT NULL,
+  description TEXT,
+  date_millis INTEGER,
+  date_offset INTEGER,
+  FOREIGN KEY (category_id) REFERENCES categories (category_id) ON DELETE SET NULL,
+  FOREIGN KEY (session_id) REFERENCES sessions (session_id) ON DELETE CASCADE
+);
+
+INSERT INTO transactions_autoincrement (transaction_id, amount, category_id, date, external_iban, type, session_id,
+  description, date_millis, date_offset)
+SELECT transaction_id, amount, category_id, date, external_iban, type, session_id, description, date_millis,
+  date_offset
+FROM transactions;
+
+DROP TABLE transactions;
+ALTER TABLE transactions_autoincrement RENAME TO transactions;
+
+CREATE INDEX transactions_session_date_millis ON transactions (session_id, date_millis, transaction_id);
+CREATE INDEX transactions_session_id ON transactions (session_id, transaction_id);
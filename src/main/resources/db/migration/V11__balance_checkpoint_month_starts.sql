@@ -0,0 +1,6 @@
+-- The number of month starts the replay passed within every checkpoint bucket. Checkpoints now store the replay in
+-- which every transaction is applied before the saving goals are paid for the months before it; the existing
+-- checkpoints were made in the other order and are rebuilt on the next balance history request.
+ALTER TABLE balance_checkpoints ADD COLUMN month_starts INTEGER NOT NULL DEFAULT 0;
+DELETE FROM balance_checkpoints;
+DELETE FROM balance_checkpoint_sessions;
@@ -0,0 +1,23 @@
+-- Tables holding the balance checkpoints used to serve the balance history.
+CREATE TABLE IF NOT EXISTS balance_checkpoints (
+  session_id TEXT NOT NULL,
+  bucket_start INTEGER NOT NULL,
+  open INTEGER NOT NULL,
+  close INTEGER NOT NULL,
+  high INTEGER,
+  low INTEGER,
+  low_reset INTEGER,
+  volume INTEGER NOT NULL,
+  transaction_count INTEGER NOT NULL,
+  last_date TEXT NOT NULL,
+  saving_goal_balances TEXT NOT NULL,
+  PRIMARY KEY (session_id, bucket_start),
+  FOREIGN KEY (session_id) REFERENCES sessions (session_id) ON DELETE CASCADE
+);
+
+CREATE TABLE IF NOT EXISTS balance_checkpoint_sessions (
+  session_id TEXT NOT NULL PRIMARY KEY,
+  valid_until INTEGER NOT NULL,
+  bucket_size INTEGER NOT NULL,
+  FOREIGN KEY (session_id) REFERENCES sessions (session_id) ON DELETE CASCADE
+);
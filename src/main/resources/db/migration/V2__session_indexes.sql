@@ -0,0 +1,7 @@
+-- Indexes on the session of every table, extended with the columns the controllers order by where these are stored
+-- in a single format.
+CREATE INDEX IF NOT EXISTS categories_session ON categories (session_id, category_id);
+CREATE INDEX IF NOT EXISTS category_rules_session ON category_rules (session_id, creation_date_time,
+  category_rule_id);
+CREATE INDEX IF NOT EXISTS saving_goals_session ON saving_goals (session_id, creation_date_time, saving_goal_id);
+CREATE INDEX IF NOT EXISTS payment_requests_session ON payment_requests (session_id);
@@ -0,0 +1,20 @@
+-- Stores the date of a transaction as milliseconds since the epoch, so ranges and ordering on it can use an index.
+-- The column is filled by triggers, which keeps it in sync with every insert and update of the date.
+ALTER TABLE transactions ADD COLUMN date_millis INTEGER;
+
+UPDATE transactions SET date_millis = CAST(ROUND((julianday(date) - 2440587.5) * 86400000) AS INTEGER);
+
+CREATE TRIGGER transactions_date_millis_insert AFTER INSERT ON transactions
+BEGIN
+  UPDATE transactions SET date_millis = CAST(ROUND((julianday(NEW.date) - 2440587.5) * 86400000) AS INTEGER)
+  WHERE transaction_id = NEW.transaction_id;
+END;
+
+CREATE TRIGGER transactions_date_millis_update AFTER UPDATE OF date ON transactions
+BEGIN
+  UPDATE transactions SET date_millis = CAST(ROUND((julianday(NEW.date) - 2440587.5) * 86400000) AS INTEGER)
+  WHERE transaction_id = NEW.transaction_id;
+END;
+
+DROP INDEX IF EXISTS transactions_session_date;
+CREATE INDEX transactions_session_date_millis ON transactions (session_id, date_millis, transaction_id);
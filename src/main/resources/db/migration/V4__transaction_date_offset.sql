@@ -0,0 +1,16 @@
+-- Stores the offset of the time zone of a transaction date in milliseconds next to its time, so the transactions can
+-- be replayed without parsing their dates. The offset is NULL for dates without a fixed offset, which are parsed.
+ALTER TABLE transactions ADD COLUMN date_offset INTEGER;
+
+UPDATE transactions SET date_offset = CASE
+  WHEN date LIKE '%Z' THEN 0
+  WHEN substr(date, -6, 1) IN ('+', '-') AND substr(date, -3, 1) = ':' AND length(date) > 19 THEN
+    (CASE substr(date, -6, 1) WHEN '-' THEN -1 ELSE 1 END) *
+    (CAST(substr(date, -5, 2) AS INTEGER) * 60 + CAST(substr(date, -2, 2) AS INTEGER)) * 60000
+  ELSE NULL
+END;
+
+-- The application parses every date once and stores date_millis and date_offset itself, so the triggers which
+-- calculated date_millis are no longer needed.
+DROP TRIGGER IF EXISTS transactions_date_millis_insert;
+DROP TRIGGER IF EXISTS transactions_date_millis_update;
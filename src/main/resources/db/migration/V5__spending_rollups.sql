@@ -0,0 +1,22 @@
+-- Per-day totals of the transactions of every session, per category and type, used by the spending rollups. The day
+-- of a transaction is taken in the offset of its date, or in UTC for dates without a fixed offset. Transactions
+-- without a category are stored under category 0, as NULL values would not be unique in the primary key.
+CREATE TABLE IF NOT EXISTS spending_rollups (
+  session_id TEXT NOT NULL,
+  day TEXT NOT NULL,
+  category_id INTEGER NOT NULL,
+  type TEXT NOT NULL,
+  total INTEGER NOT NULL,
+  transactions INTEGER NOT NULL,
+  minimum INTEGER NOT NULL,
+  maximum INTEGER NOT NULL,
+  PRIMARY KEY (session_id, day, category_id, type),
+  FOREIGN KEY (session_id) REFERENCES sessions (session_id) ON DELETE CASCADE
+);
+
+INSERT INTO spending_rollups (session_id, day, category_id, type, total, transactions, minimum, maximum)
+SELECT session_id, date((date_millis + IFNULL(date_offset, 0)) / 1000.0, 'unixepoch') AS rollup_day,
+  IFNULL(category_id, 0), type, SUM(amount), COUNT(*), MIN(amount), MAX(amount)
+FROM transactions
+GROUP BY session_id, rollup_day, IFNULL(category_id, 0), type
+HAVING rollup_day IS NOT NULL;
@@ -0,0 +1,23 @@
+-- Long-running operations on the history of a session, executed in chunks by the background job runner. The cursor is
+-- the ID of the last transaction that has been processed, so an interrupted job resumes after the last committed chunk.
+CREATE TABLE IF NOT EXISTS jobs (
+  job_id INTEGER PRIMARY KEY AUTOINCREMENT,
+  session_id TEXT NOT NULL,
+  type TEXT NOT NULL,
+  parameters TEXT NOT NULL,
+  status TEXT NOT NULL,
+  cursor INTEGER NOT NULL DEFAULT 0,
+  examined INTEGER NOT NULL DEFAULT 0,
+  updated INTEGER NOT NULL DEFAULT 0,
+  total INTEGER NOT NULL,
+  error TEXT,
+  created_at INTEGER NOT NULL,
+  modified_at INTEGER NOT NULL,
+  FOREIGN KEY (session_id) REFERENCES sessions (session_id) ON DELETE CASCADE
+);
+
+CREATE INDEX IF NOT EXISTS jobs_session ON jobs (session_id, job_id);
+CREATE INDEX IF NOT EXISTS jobs_status ON jobs (status);
+
+-- Walks the transactions of a session in order of ID, as the jobs do chunk by chunk.
+CREATE INDEX IF NOT EXISTS transactions_session_id ON transactions (session_id, transaction_id);
@@ -0,0 +1,8 @@
+-- The shard in which every session is stored. Only the table in the first database is used; the existing sessions are
+-- all stored in the first database.
+CREATE TABLE IF NOT EXISTS session_shards (
+  session_id TEXT NOT NULL PRIMARY KEY,
+  shard INTEGER NOT NULL
+);
+
+INSERT OR IGNORE INTO session_shards (session_id, shard) SELECT session_id, 0 FROM sessions;
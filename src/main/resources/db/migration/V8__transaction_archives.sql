@@ -0,0 +1,9 @@
+-- The current generation of the archive of every session with archived transactions, which have been moved out of the
+-- transactions table into the segment file of that generation in the archive directory. Segment files of other
+-- generations are left over from an interrupted compaction.
+CREATE TABLE IF NOT EXISTS transaction_archives (
+  session_id TEXT NOT NULL PRIMARY KEY,
+  generation INTEGER NOT NULL,
+  transactions INTEGER NOT NULL,
+  FOREIGN KEY (session_id) REFERENCES sessions (session_id) ON DELETE CASCADE
+);
@@ -0,0 +1,15 @@
+-- Per-day totals of the archived transactions of every session, in the same form as spending_rollups. The totals in
+-- spending_rollups include the archived transactions; days which are recalculated from the transactions table add these
+-- totals back, as the archived transactions are no longer in that table.
+CREATE TABLE IF NOT EXISTS archived_spending_rollups (
+  session_id TEXT NOT NULL,
+  day TEXT NOT NULL,
+  category_id INTEGER NOT NULL,
+  type TEXT NOT NULL,
+  total INTEGER NOT NULL,
+  transactions INTEGER NOT NULL,
+  minimum INTEGER NOT NULL,
+  maximum INTEGER NOT NULL,
+  PRIMARY KEY (session_id, day, category_id, type),
+  FOREIGN KEY (session_id) REFERENCES sessions (session_id) ON DELETE CASCADE
+);
@@ -0,0 +1,256 @@
+/*
+ * Copyright (c) 2018, Joost Prins <github.com/joostprins>, Tom Leemreize <https://github.com/oplosthee>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package nl.utwente.ing.archive;
+
+import nl.utwente.ing.cache.Ledger;
+import nl.utwente.ing.model.Category;
+import nl.utwente.ing.model.ParsedDate;
+import nl.utwente.ing.model.Transaction;
+import nl.utwente.ing.model.Type;
+import org.joda.money.CurrencyUnit;
+import org.joda.money.Money;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Writes random transactions to archive segments and checks that they are read back unchanged, both on their own and
+ * merged with the live transactions of a ledger.
+ */
+public class ArchiveSegmentTest {
+
+    private static final DateTime START = new DateTime(1969, 12, 1, 0, 0, DateTimeZone.UTC);
+    private static final DateTimeZone[] ZONES = {DateTimeZone.UTC, DateTimeZone.forOffsetHours(2),
+            DateTimeZone.forOffsetHoursMinutes(-5, -30), DateTimeZone.forID("Europe/Amsterdam")};
+    private static final String[] IBANS = {"NL39RABO0300065264", "NL91ABNA0417164300", null};
+    private static final String[] DESCRIPTIONS = {null, "", "Groceries", "Café € 4,50"};
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void rowsAreReadBackUnchanged() throws IOException {
+        Random random = new Random(25);
+        for (int run = 0; run < 20; run++) {
+            List<Row> rows = randomRows(random, random.nextInt(500), 1);
+            ArchiveSegment segment = write(rows);
+            assertEquals(rows.size(), segment.size());
+
+            ArchiveSegment.Cursor cursor = segment.cursor();
+            for (Row row : rows) {
+                assertTrue(cursor.next());
+                assertEquals(row.id, cursor.getId());
+                assertEquals(row.millis, cursor.getMillis());
+                assertEquals(row.zone, cursor.getZone());
+                assertEquals(row.amount, cursor.getAmount());
+                assertEquals(row.type, cursor.getType());
+                assertEquals(row.category, cursor.getCategory());
+                assertEquals(row.iban == null ? "" : row.iban, cursor.getExternalIBAN());
+                assertEquals(row.getDate(), cursor.getDate());
+                assertEquals(row.description, cursor.getDescription());
+                ParsedDate date = cursor.getParsedDate();
+                assertEquals(row.millis, date.getMillis());
+                assertEquals(row.zone.getOffset(row.millis), date.toDateTime().getZone().getOffset(row.millis));
+            }
+            assertFalse(cursor.next());
+            assertFalse(cursor.next());
+        }
+    }
+
+    @Test
+    public void rowsHaveToBeAddedInOrder() {
+        ArchiveSegment.Writer writer = new ArchiveSegment.Writer();
+        writer.add(5, 1000, DateTimeZone.UTC, 100, Type.deposit, 0, null, null, null);
+        for (long[] row : new long[][]{{6, 999}, {5, 1000}, {4, 1000}}) {
+            try {
+                writer.add((int) row[0], row[1], DateTimeZone.UTC, 100, Type.deposit, 0, null, null, null);
+                fail();
+            } catch (IllegalArgumentException e) {
+                // The row is older than the previous one.
+            }
+        }
+        writer.add(4, 1001, DateTimeZone.UTC, 100, Type.deposit, 0, null, null, null);
+        assertEquals(2, writer.size());
+    }
+
+    @Test
+    public void damagedSegmentsAreRejected() throws IOException {
+        ArchiveSegment.Writer writer = new ArchiveSegment.Writer();
+        for (Row row : randomRows(new Random(25), 50, 1)) {
+            row.addTo(writer);
+        }
+        Path path = folder.getRoot().toPath().resolve("segment");
+        writer.write(path);
+        byte[] bytes = Files.readAllBytes(path);
+
+        Random random = new Random(25);
+        for (int run = 0; run < 50; run++) {
+            byte[] damaged = bytes.clone();
+            damaged[random.nextInt(damaged.length)] ^= 1 << random.nextInt(8);
+            assertRejected(path, damaged);
+        }
+        assertRejected(path, Arrays.copyOf(bytes, bytes.length - 1));
+        assertRejected(path, Arrays.copyOf(bytes, 12));
+        assertRejected(path, new byte[0]);
+    }
+
+    @Test
+    public void historyMergesArchiveAndLedger() throws IOException {
+        Random random = new Random(25);
+        for (int run = 0; run < 50; run++) {
+            // The archived and live rows share times, so the merge has to order them by ID as well.
+            List<Row> archived = randomRows(random, random.nextInt(200), 1);
+            List<Row> live = randomRows(random, random.nextInt(200), archived.size() + 1);
+            ArchiveSegment segment = archived.isEmpty() && random.nextBoolean() ? null : write(archived);
+            Ledger ledger = new Ledger();
+            for (Row row : live) {
+                ledger.add(row.toTransaction());
+            }
+
+            List<Row> rows = new ArrayList<>(archived);
+            rows.addAll(live);
+            rows.sort(Comparator.<Row>comparingLong(row -> row.millis).thenComparingInt(row -> row.id));
+            long until = START.plusHours(random.nextInt(24 * 40)).getMillis();
+            HistoryCursor cursor = new HistoryCursor(ledger, segment, until);
+            int count = 0;
+            for (Row row : rows) {
+                if (row.millis >= until) {
+                    break;
+                }
+                assertTrue(cursor.next());
+                assertEquals(row.id, cursor.getId());
+                assertEquals(row.millis, cursor.getMillis());
+                // The ledger keeps the offset the date was parsed with instead of the named time zone.
+                assertEquals(row.zone.getOffset(row.millis), cursor.getZone().getOffset(row.millis));
+                assertEquals(row.amount, cursor.getAmount());
+                assertEquals(row.type, cursor.getType());
+                if (row.id <= archived.size()) {
+                    assertNotNull(cursor.getArchived());
+                    assertEquals(row.id, cursor.getArchived().getId());
+                    assertEquals(row.description, cursor.getArchived().getDescription());
+                } else {
+                    assertNull(cursor.getArchived());
+                }
+                count++;
+            }
+            assertFalse(cursor.next());
+            assertEquals(count, cursor.getRows());
+        }
+    }
+
+    private ArchiveSegment write(List<Row> rows) throws IOException {
+        ArchiveSegment.Writer writer = new ArchiveSegment.Writer();
+        for (Row row : rows) {
+            row.addTo(writer);
+        }
+        assertEquals(rows.size(), writer.size());
+        Path path = folder.newFile().toPath();
+        writer.write(path);
+        return ArchiveSegment.open(path);
+    }
+
+    private static void assertRejected(Path path, byte[] bytes) throws IOException {
+        Files.write(path, bytes);
+        try {
+            ArchiveSegment.open(path);
+            fail();
+        } catch (IOException e) {
+            // The segment is damaged.
+        }
+    }
+
+    /**
+     * Returns rows with the given consecutive IDs, sorted by date and ID, whose times often coincide and start before
+     * 1970, so the first time of a segment is negative.
+     */
+    private static List<Row> randomRows(Random random, int count, int firstId) {
+        List<Row> rows = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Row row = new Row();
+            row.id = firstId + i;
+            row.millis = START.plusHours(random.nextInt(24 * 40)).getMillis();
+            row.zone = ZONES[random.nextInt(ZONES.length)];
+            row.amount = random.nextInt(3) == 0 ? random.nextLong() : random.nextInt(100000);
+            row.type = random.nextBoolean() ? Type.deposit : Type.withdrawal;
+            row.category = random.nextInt(3) == 0 ? 0 : random.nextInt(1000) + 1;
+            row.iban = IBANS[random.nextInt(IBANS.length)];
+            if (random.nextInt(3) == 0) {
+                row.date = new DateTime(row.millis, row.zone).toString("yyyy-MM-dd'T'HH:mm:ssZZ");
+            }
+            row.description = DESCRIPTIONS[random.nextInt(DESCRIPTIONS.length)];
+            rows.add(row);
+        }
+        rows.sort(Comparator.<Row>comparingLong(row -> row.millis).thenComparingInt(row -> row.id));
+        return rows;
+    }
+
+    private static class Row {
+        private int id;
+        private long millis;
+        private DateTimeZone zone;
+        private long amount;
+        private Type type;
+        private int category;
+        private String iban;
+        private String date;
+        private String description;
+
+        /**
+         * @return the date as it was written, or its ISO-8601 form if none was given
+         */
+        String getDate() {
+            return date == null ? new DateTime(millis, zone).toString() : date;
+        }
+
+        void addTo(ArchiveSegment.Writer writer) {
+            writer.add(id, millis, zone, amount, type, category, iban, date, description);
+        }
+
+        Transaction toTransaction() {
+            return new Transaction(id, getDate(), ParsedDate.parse(new DateTime(millis, zone).toString()),
+                    Money.ofMinor(CurrencyUnit.EUR, amount), iban, type,
+                    category == 0 ? null : new Category(category, "category " + category), description);
+        }
+    }
+}
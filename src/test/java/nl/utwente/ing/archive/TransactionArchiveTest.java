@@ -0,0 +1,257 @@
+/*
+ * Copyright (c) 2018, Joost Prins <github.com/joostprins>, Tom Leemreize <https://github.com/oplosthee>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package nl.utwente.ing.archive;
+
+import nl.utwente.ing.controller.database.TestDatabase;
+import nl.utwente.ing.model.Category;
+import nl.utwente.ing.model.SpendingRollup;
+import nl.utwente.ing.model.Transaction;
+import nl.utwente.ing.model.Type;
+import nl.utwente.ing.repository.Repositories;
+import nl.utwente.ing.repository.StorageException;
+import nl.utwente.ing.repository.TransactionRepository;
+import org.joda.money.CurrencyUnit;
+import org.joda.money.Money;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.LocalDate;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Archives the old transactions of a session and checks that the transaction endpoints read the same transactions as
+ * before, and that changing an archived transaction restores the archive.
+ */
+public class TransactionArchiveTest {
+
+    private static final long HORIZON = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(365);
+
+    @ClassRule
+    public static TemporaryFolder folder = new TemporaryFolder();
+
+    @BeforeClass
+    public static void configure() throws IOException {
+        TestDatabase.useForConnections(folder.getRoot());
+        System.setProperty("archive.directory", folder.newFolder("archive").getAbsolutePath());
+    }
+
+    @Test
+    public void readsAreUnchangedByArchiving() throws Exception {
+        String sessionID = createSession(new Random(1));
+        Map<String, List<String>> expected = read(sessionID);
+
+        assertTrue(TransactionArchive.instance.compact(sessionID, HORIZON) > 0);
+        assertNotNull(TransactionArchive.instance.getSegment(sessionID));
+        assertEquals(expected, read(sessionID));
+
+        // A second generation merges the first one with the transactions archived since.
+        TransactionRepository transactions = Repositories.instance.getTransactions();
+        Transaction transaction = new Transaction(null, "2016-06-01T12:00:00.000Z",
+                Money.ofMinor(CurrencyUnit.EUR, 1234), "NL39RABO0300065264", Type.deposit, null, "late");
+        transactions.create(sessionID, transaction);
+        expected = read(sessionID);
+        assertEquals(1, TransactionArchive.instance.compact(sessionID, HORIZON));
+        assertEquals(expected, read(sessionID));
+    }
+
+    @Test
+    public void changingArchivedTransactionsRestoresTheArchive() throws Exception {
+        String sessionID = createSession(new Random(2));
+        Map<String, List<String>> expected = read(sessionID);
+        List<Transaction> all = all(sessionID);
+        Transaction archived = all.get(0);
+        assertTrue(archived.getMillis() < HORIZON);
+        assertTrue(TransactionArchive.instance.compact(sessionID, HORIZON) > 0);
+
+        TransactionRepository transactions = Repositories.instance.getTransactions();
+        Transaction updated = new Transaction(archived.getId(), archived.getDate(),
+                Money.ofMinor(CurrencyUnit.EUR, 4242), archived.getExternalIBAN(), archived.getType(), null, null);
+        assertTrue(transactions.update(sessionID, updated));
+        assertNull(TransactionArchive.instance.getSegment(sessionID));
+        assertEquals(0, new java.math.BigDecimal("42.42").compareTo(transactions.get(sessionID,
+                archived.getId()).getAmount().getAmount()));
+
+        // Only the changed transaction differs from the reads before archiving.
+        List<String> before = expected.get("all");
+        List<String> after = read(sessionID).get("all");
+        assertEquals(before.size(), after.size());
+        for (int i = 0; i < before.size(); i++) {
+            if (before.get(i).startsWith(archived.getId() + " ")) {
+                assertNotEquals(before.get(i), after.get(i));
+            } else {
+                assertEquals(before.get(i), after.get(i));
+            }
+        }
+
+        // Deleting an archived transaction or the category of archived transactions restores them as well.
+        expected = read(sessionID);
+        assertTrue(TransactionArchive.instance.compact(sessionID, HORIZON) > 0);
+        Transaction deleted = all.get(1);
+        assertTrue(deleted.getMillis() < HORIZON);
+        assertTrue(transactions.delete(sessionID, deleted.getId()));
+        assertNull(transactions.get(sessionID, deleted.getId()));
+        assertEquals(expected.get("all").size() - 1, read(sessionID).get("all").size());
+
+        assertTrue(TransactionArchive.instance.compact(sessionID, HORIZON) > 0);
+        Category category = Repositories.instance.getCategories().getAll(sessionID).get(0);
+        assertTrue(Repositories.instance.getCategories().delete(sessionID, category.getId()));
+        assertNull(TransactionArchive.instance.getSegment(sessionID));
+        for (Transaction transaction : all(sessionID)) {
+            assertTrue(transaction.getCategory() == null || !category.getId().equals(
+                    transaction.getCategory().getId()));
+        }
+    }
+
+    @Test
+    public void spendingRollupsSurviveRestoring() throws Exception {
+        String sessionID = createSession(new Random(3));
+        List<String> expected = rollups(sessionID);
+        assertTrue(TransactionArchive.instance.compact(sessionID, HORIZON) > 0);
+        assertEquals(expected, rollups(sessionID));
+
+        Transaction archived = all(sessionID).get(0);
+        assertTrue(Repositories.instance.getTransactions().setCategory(sessionID, archived.getId(),
+                archived.getCategory() == null ? Repositories.instance.getCategories().getAll(sessionID).get(0)
+                        .getId() : archived.getCategory().getId()));
+        assertNull(TransactionArchive.instance.getSegment(sessionID));
+        assertTrue(TransactionArchive.instance.compact(sessionID, HORIZON) > 0);
+        // The rollups are recalculated for the changed day, from the live and the archived totals.
+        assertEquals(all(sessionID).size(), count(rollups(sessionID)));
+    }
+
+    private static String createSession(Random random) throws StorageException {
+        String sessionID = Repositories.instance.getSessions().create();
+        List<Category> categories = Arrays.asList(Repositories.instance.getCategories().create(sessionID, "food"),
+                Repositories.instance.getCategories().create(sessionID, "rent"));
+
+        List<Transaction> transactions = new ArrayList<>();
+        DateTime time = new DateTime(HORIZON, DateTimeZone.UTC).minusDays(400);
+        for (int i = 0; i < 60; i++) {
+            time = time.plusMinutes(random.nextInt(20 * 24 * 60));
+            DateTimeZone zone = random.nextInt(3) == 0 ? DateTimeZone.forOffsetHours(random.nextInt(25) - 12) :
+                    DateTimeZone.UTC;
+            Category category = random.nextInt(4) == 0 ? null : categories.get(random.nextInt(2));
+            transactions.add(new Transaction(null, time.withZone(zone).toString(),
+                    Money.ofMinor(CurrencyUnit.EUR, random.nextInt(100000) + 1), "NL39RABO030006526" +
+                    random.nextInt(3), random.nextBoolean() ? Type.deposit : Type.withdrawal, category,
+                    random.nextInt(3) == 0 ? null : "description " + random.nextInt(5)));
+        }
+        // Live transactions are ordered between and before archived ones as well.
+        transactions.add(new Transaction(null, new DateTime(HORIZON, DateTimeZone.UTC).minusDays(500).toString(),
+                Money.ofMinor(CurrencyUnit.EUR, 100), "NL39RABO0300065264", Type.deposit, categories.get(0), null));
+        Repositories.instance.getTransactions().createAll(sessionID, transactions);
+        return sessionID;
+    }
+
+    /**
+     * Reads the transactions of a session through every read of the repository.
+     */
+    private static Map<String, List<String>> read(String sessionID) throws StorageException, IOException {
+        TransactionRepository transactions = Repositories.instance.getTransactions();
+        Map<String, List<String>> reads = new LinkedHashMap<>();
+        reads.put("all", format(all(sessionID)));
+        reads.put("page", format(transactions.getPage(sessionID, null, null, 0, 0, 1000)));
+        reads.put("offset", format(transactions.getPage(sessionID, null, null, 0, 7, 11)));
+        reads.put("category", format(transactions.getPage(sessionID, "food", null, 0, 3, 5)));
+        List<Transaction> page = transactions.getPage(sessionID, null, null, 0, 0, 1000);
+        Transaction cursor = page.get(page.size() / 2);
+        reads.put("cursor", format(transactions.getPage(sessionID, null, cursor.getMillis(), cursor.getId(), 0,
+                20)));
+
+        List<Integer> ids = new ArrayList<>();
+        List<String> byID = new ArrayList<>();
+        for (Transaction transaction : all(sessionID)) {
+            ids.add(transaction.getId());
+            byID.add(format(transactions.get(sessionID, transaction.getId())));
+        }
+        reads.put("id", byID);
+        Map<Integer, Transaction> byIDs = transactions.get(sessionID, ids);
+        List<String> batch = new ArrayList<>();
+        for (int id : ids) {
+            batch.add(format(byIDs.get(id)));
+        }
+        reads.put("ids", batch);
+        return reads;
+    }
+
+    private static List<Transaction> all(String sessionID) throws StorageException, IOException {
+        List<Transaction> transactions = new ArrayList<>();
+        Repositories.instance.getTransactions().forEach(sessionID, transactions::add);
+        return transactions;
+    }
+
+    private static List<String> rollups(String sessionID) throws StorageException {
+        List<String> rollups = new ArrayList<>();
+        for (SpendingRollup rollup : Repositories.instance.getTransactions().getDailyRollups(sessionID,
+                new LocalDate(2000, 1, 1), new LocalDate(2100, 1, 1))) {
+            rollups.add(rollup.getStart() + " " + rollup.getCategoryId() + " " + rollup.getType() + " " +
+                    rollup.getSum() + " " + rollup.getCount() + " " + rollup.getMin() + " " + rollup.getMax());
+        }
+        return rollups;
+    }
+
+    private static long count(List<String> rollups) {
+        long count = 0;
+        for (String rollup : rollups) {
+            count += Long.parseLong(rollup.split(" ")[4]);
+        }
+        return count;
+    }
+
+    private static List<String> format(List<Transaction> transactions) {
+        List<String> formatted = new ArrayList<>();
+        for (Transaction transaction : transactions) {
+            formatted.add(format(transaction));
+        }
+        return formatted;
+    }
+
+    private static String format(Transaction transaction) {
+        Category category = transaction.getCategory();
+        return transaction.getId() + " " + transaction.getDate() + " " + transaction.getAmount() + " " +
+                transaction.getExternalIBAN() + " " + transaction.getType() + " " +
+                (category == null ? null : category.getId() + ":" + category.getName()) + " " +
+                transaction.getDescription();
+    }
+}
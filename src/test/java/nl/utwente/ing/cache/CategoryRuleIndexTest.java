@@ -0,0 +1,163 @@
+/*
+ * Copyright (c) 2018, Joost Prins <github.com/joostprins>, Tom Leemreize <https://github.com/oplosthee>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package nl.utwente.ing.cache;
+
+import nl.utwente.ing.controller.database.QueryPlan;
+import nl.utwente.ing.controller.database.TestDatabase;
+import nl.utwente.ing.model.Category;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static nl.utwente.ing.controller.database.QueryPlan.assertOrderedByIndex;
+import static nl.utwente.ing.controller.database.QueryPlan.assertUsesIndex;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Checks the compiled category rule index against a scan of all rules of a session, in which the newest rule whose
+ * fields are all empty or equal to those of the transaction wins.
+ */
+public class CategoryRuleIndexTest {
+
+    private static final String SESSION_ID = "session";
+
+    private static final String[] DESCRIPTIONS = {"", "rent", "groceries", "salary"};
+    private static final String[] IBANS = {"", "NL39RABO0300065264", "NL44RABO0123456789"};
+    private static final String[] TYPES = {"", "deposit", "withdrawal"};
+
+    @Rule
+    public TestDatabase database = new TestDatabase();
+
+    @Test
+    public void newestMatchingRuleWins() throws SQLException {
+        Connection connection = database.getConnection();
+        Random random = new Random(3);
+        List<Integer> categories = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            categories.add(insertCategory(connection, "category " + i));
+        }
+        // Rules of a deleted category match without a category.
+        categories.add(1000);
+
+        List<String[]> rules = new ArrayList<>();
+        List<Integer> ruleCategories = new ArrayList<>();
+        CategoryRuleIndex index = new CategoryRuleIndex(10);
+        for (int run = 0; run < 30; run++) {
+            String[] rule = {DESCRIPTIONS[random.nextInt(DESCRIPTIONS.length)],
+                    IBANS[random.nextInt(IBANS.length)], TYPES[random.nextInt(TYPES.length)]};
+            int ruleCategory = categories.get(random.nextInt(categories.size()));
+            insertRule(connection, rule, ruleCategory);
+            rules.add(rule);
+            ruleCategories.add(ruleCategory);
+            index.invalidate(SESSION_ID);
+
+            for (String description : DESCRIPTIONS) {
+                for (String iBAN : IBANS) {
+                    for (String type : new String[]{"deposit", "withdrawal"}) {
+                        Integer expected = scan(rules, ruleCategories, description, iBAN, type);
+                        Category category = index.match(connection, SESSION_ID, description, iBAN, type);
+                        assertEquals(expected == null || expected == 1000 ? null : expected,
+                                category == null ? null : category.getId());
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void rulesAreCachedUntilInvalidated() throws SQLException {
+        Connection connection = database.getConnection();
+        int rent = insertCategory(connection, "rent");
+        int housing = insertCategory(connection, "housing");
+        CategoryRuleIndex index = new CategoryRuleIndex(10);
+        assertNull(index.match(connection, SESSION_ID, "rent", "NL39RABO0300065264", "withdrawal"));
+
+        insertRule(connection, new String[]{"rent", "", ""}, rent);
+        assertNull(index.match(connection, SESSION_ID, "rent", "NL39RABO0300065264", "withdrawal"));
+        index.invalidate(SESSION_ID);
+        assertEquals("rent", index.match(connection, SESSION_ID, "rent", "NL39RABO0300065264", "withdrawal")
+                .getName());
+
+        insertRule(connection, new String[]{"", "NL39RABO0300065264", "withdrawal"}, housing);
+        index.invalidate(SESSION_ID);
+        assertEquals("housing", index.match(connection, SESSION_ID, "rent", "NL39RABO0300065264", "withdrawal")
+                .getName());
+        assertEquals("rent", index.match(connection, SESSION_ID, "rent", "NL39RABO0300065264", "deposit")
+                .getName());
+    }
+
+    @Test
+    public void rulesReadInIndexOrder() throws SQLException {
+        String plan = QueryPlan.explain(database.getConnection(), CategoryRuleIndex.RULES_QUERY);
+        assertUsesIndex(plan, "category_rules_session");
+        assertOrderedByIndex(plan);
+    }
+
+    /**
+     * Returns the category of the newest rule which matches the transaction, like the scan the index replaced.
+     */
+    private static Integer scan(List<String[]> rules, List<Integer> categories, String description, String iBAN,
+                                String type) {
+        for (int i = rules.size() - 1; i >= 0; i--) {
+            String[] rule = rules.get(i);
+            if ((rule[0].isEmpty() || rule[0].equals(description)) && (rule[1].isEmpty() || rule[1].equals(iBAN)) &&
+                    (rule[2].isEmpty() || rule[2].equals(type))) {
+                return categories.get(i);
+            }
+        }
+        return null;
+    }
+
+    private static int insertCategory(Connection connection, String name) throws SQLException {
+        try (PreparedStatement preparedStatement = connection.prepareStatement(
+                "INSERT INTO categories (name, session_id) VALUES (?, ?);")) {
+            preparedStatement.setString(1, name);
+            preparedStatement.setString(2, SESSION_ID);
+            preparedStatement.executeUpdate();
+        }
+        try (PreparedStatement preparedStatement = connection.prepareStatement("SELECT last_insert_rowid();")) {
+            return preparedStatement.executeQuery().getInt(1);
+        }
+    }
+
+    private static void insertRule(Connection connection, String[] rule, int category) throws SQLException {
+        try (PreparedStatement preparedStatement = connection.prepareStatement("INSERT INTO category_rules " +
+                "(description, iBAN, type, category_id, apply_on_history, session_id) VALUES (?, ?, ?, ?, 0, ?);")) {
+            preparedStatement.setString(1, rule[0]);
+            preparedStatement.setString(2, rule[1]);
+            preparedStatement.setString(3, rule[2]);
+            preparedStatement.setInt(4, category);
+            preparedStatement.setString(5, SESSION_ID);
+            preparedStatement.executeUpdate();
+        }
+    }
+}
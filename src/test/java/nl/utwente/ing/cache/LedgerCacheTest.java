@@ -0,0 +1,183 @@
+/*
+ * Copyright (c) 2018, Joost Prins <github.com/joostprins>, Tom Leemreize <https://github.com/oplosthee>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package nl.utwente.ing.cache;
+
+import nl.utwente.ing.controller.database.TestDatabase;
+import nl.utwente.ing.model.ParsedDate;
+import nl.utwente.ing.model.Transaction;
+import nl.utwente.ing.model.Type;
+import org.joda.money.CurrencyUnit;
+import org.joda.money.Money;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Checks that the ledger cache serves the ledgers it loaded, writes changes through to them and drops them whenever
+ * they may differ from the database.
+ */
+public class LedgerCacheTest {
+
+    @Rule
+    public TestDatabase database = new TestDatabase();
+
+    private Connection connection;
+
+    @Before
+    public void setUp() throws SQLException {
+        connection = database.getConnection();
+        connection.setAutoCommit(false);
+    }
+
+    @Test
+    public void changesAreWrittenThrough() throws SQLException {
+        LedgerCache cache = new LedgerCache(true, 1 << 20);
+        insert("a", "2018-01-05T10:00:00.000Z", 1000, Type.deposit);
+        insert("a", "2018-01-03T10:00:00.000+01:00", 250, Type.withdrawal);
+        connection.commit();
+
+        Ledger ledger = cache.get(connection, "a");
+        assertEquals(2, ledger.size());
+        assertSame(ledger, cache.get(connection, "a"));
+        assertEquals(1, cache.getMisses());
+        assertEquals(1, cache.getHits());
+
+        Transaction transaction = insert("a", "2018-01-04T10:00:00.000-05:00", 75, Type.deposit);
+        cache.commit(connection, "a", cached -> cached.add(transaction));
+        assertSame(ledger, cache.get(connection, "a"));
+        assertLedgersEqual(LedgerCache.load(connection, "a"), ledger);
+    }
+
+    @Test
+    public void failedCommitDropsTheLedger() throws SQLException {
+        LedgerCache cache = new LedgerCache(true, 1 << 20);
+        insert("a", "2018-01-05T10:00:00.000Z", 1000, Type.deposit);
+        connection.commit();
+        Ledger ledger = cache.get(connection, "a");
+
+        Transaction transaction = insert("a", "2018-01-06T10:00:00.000Z", 500, Type.deposit);
+        cache.apply("a", cached -> cached.add(transaction));
+        connection.rollback();
+        cache.completed("a", false);
+
+        assertEquals(0, cache.getSize());
+        Ledger reloaded = cache.get(connection, "a");
+        assertNotSame(ledger, reloaded);
+        assertEquals(1, reloaded.size());
+    }
+
+    @Test
+    public void ledgerLoadedDuringChangeIsNotCached() throws SQLException {
+        LedgerCache cache = new LedgerCache(true, 1 << 20);
+        insert("a", "2018-01-05T10:00:00.000Z", 1000, Type.deposit);
+        connection.commit();
+
+        // Another writer changes the session after the version was read, before the snapshot of the load.
+        Connection racing = (Connection) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[]{Connection.class}, (proxy, method, arguments) -> {
+                    if (method.getName().equals("commit")) {
+                        Transaction transaction = insert("a", "2018-01-06T10:00:00.000Z", 500, Type.deposit);
+                        cache.apply("a", cached -> cached.add(transaction));
+                        connection.commit();
+                        cache.completed("a", true);
+                    }
+                    try {
+                        return method.invoke(connection, arguments);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                });
+        assertEquals(2, cache.get(racing, "a").size());
+        assertEquals(0, cache.getSize());
+
+        cache.get(connection, "a");
+        assertEquals(1, cache.getSize());
+    }
+
+    @Test
+    public void leastRecentlyUsedLedgersAreEvicted() throws SQLException {
+        for (String sessionID : new String[]{"a", "b", "c"}) {
+            insert(sessionID, "2018-01-05T10:00:00.000Z", 1000, Type.deposit);
+        }
+        connection.commit();
+        long bytes = LedgerCache.load(connection, "a").getBytes();
+        LedgerCache cache = new LedgerCache(true, 2 * bytes);
+
+        Ledger a = cache.get(connection, "a");
+        cache.get(connection, "b");
+        assertSame(a, cache.get(connection, "a"));
+        cache.get(connection, "c");
+
+        assertEquals(2, cache.getSize());
+        assertEquals(2 * bytes, cache.getBytes());
+        assertEquals(1, cache.getEvictions());
+        assertSame(a, cache.get(connection, "a"));
+        long misses = cache.getMisses();
+        cache.get(connection, "b");
+        assertEquals(misses + 1, cache.getMisses());
+    }
+
+    private static void assertLedgersEqual(Ledger expected, Ledger ledger) {
+        assertEquals(expected.size(), ledger.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.getId(i), ledger.getId(i));
+            assertEquals(expected.getTime(i), ledger.getTime(i));
+            assertEquals(expected.getAmount(i), ledger.getAmount(i));
+            assertEquals(expected.getType(i), ledger.getType(i));
+            assertEquals(expected.getCategory(i), ledger.getCategory(i));
+        }
+    }
+
+    private Transaction insert(String sessionID, String date, long amount, Type type) throws SQLException {
+        ParsedDate parsedDate = ParsedDate.parse(date);
+        String query = "INSERT INTO transactions (date, date_millis, date_offset, amount, external_iban, type, " +
+                "session_id) VALUES (?, ?, ?, ?, ?, ?, ?);";
+        try (PreparedStatement preparedStatement = connection.prepareStatement(query);
+             Statement statement = connection.createStatement()) {
+            preparedStatement.setString(1, date);
+            preparedStatement.setLong(2, parsedDate.getMillis());
+            preparedStatement.setObject(3, parsedDate.getOffset());
+            preparedStatement.setLong(4, amount);
+            preparedStatement.setString(5, "NL39RABO0300065264");
+            preparedStatement.setString(6, type.toString());
+            preparedStatement.setString(7, sessionID);
+            preparedStatement.executeUpdate();
+            int id = statement.executeQuery("SELECT last_insert_rowid();").getInt(1);
+            return new Transaction(id, date, parsedDate, Money.ofMinor(CurrencyUnit.EUR, amount),
+                    "NL39RABO0300065264", type, null, null);
+        }
+    }
+}
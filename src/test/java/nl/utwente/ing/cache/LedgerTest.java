@@ -0,0 +1,190 @@
+/*
+ * Copyright (c) 2018, Joost Prins <github.com/joostprins>, Tom Leemreize <https://github.com/oplosthee>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package nl.utwente.ing.cache;
+
+import nl.utwente.ing.model.Category;
+import nl.utwente.ing.model.ParsedDate;
+import nl.utwente.ing.model.Transaction;
+import nl.utwente.ing.model.Type;
+import org.joda.money.CurrencyUnit;
+import org.joda.money.Money;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Applies random changes to a ledger and to a list of transactions sorted by date and ID, and checks that the ledger
+ * holds the same rows after every change.
+ */
+public class LedgerTest {
+
+    private static final DateTime START = new DateTime(2018, 1, 1, 0, 0, DateTimeZone.UTC);
+
+    @Test
+    public void changesKeepRowsSorted() {
+        Random random = new Random(15);
+        Ledger ledger = new Ledger(4);
+        List<Row> rows = new ArrayList<>();
+        int nextId = 1;
+        for (int step = 0; step < 2000; step++) {
+            int operation = random.nextInt(10);
+            if (operation < 3 || rows.isEmpty()) {
+                Row row = randomRow(random, nextId++);
+                ledger.add(row.toTransaction());
+                rows.add(row);
+            } else if (operation < 5) {
+                List<Transaction> transactions = new ArrayList<>();
+                for (int i = random.nextInt(20); i > 0; i--) {
+                    Row row = randomRow(random, nextId++);
+                    transactions.add(row.toTransaction());
+                    rows.add(row);
+                }
+                ledger.addAll(transactions);
+            } else if (operation == 5) {
+                // An update keeps the category of the transaction.
+                Row old = rows.remove(random.nextInt(rows.size()));
+                Row row = randomRow(random, old.id);
+                row.category = old.category;
+                ledger.update(row.toTransaction());
+                rows.add(row);
+            } else if (operation == 6) {
+                ledger.remove(rows.remove(random.nextInt(rows.size())).id);
+            } else if (operation == 7) {
+                Set<Integer> ids = randomIds(random, rows, nextId);
+                ledger.removeAll(ids);
+                rows.removeIf(row -> ids.contains(row.id));
+            } else if (operation == 8) {
+                int category = random.nextInt(4) + 1;
+                if (random.nextBoolean()) {
+                    Row row = rows.get(random.nextInt(rows.size()));
+                    ledger.setCategory(row.id, category);
+                    row.category = category;
+                } else {
+                    Set<Integer> ids = randomIds(random, rows, nextId);
+                    ledger.setCategory(ids, category);
+                    rows.stream().filter(row -> ids.contains(row.id)).forEach(row -> row.category = category);
+                }
+            } else {
+                int category = random.nextInt(4) + 1;
+                ledger.clearCategory(category);
+                rows.stream().filter(row -> row.category == category).forEach(row -> row.category = 0);
+            }
+
+            rows.sort(Comparator.<Row>comparingLong(row -> row.date.getMillis()).thenComparingInt(row -> row.id));
+            assertRowsEqual(rows, ledger);
+            long time = START.plusMinutes(random.nextInt(24 * 60 * 40)).getMillis();
+            int expected = 0;
+            while (expected < rows.size() && rows.get(expected).date.getMillis() < time) {
+                expected++;
+            }
+            assertEquals(expected, ledger.indexOf(time));
+        }
+    }
+
+    @Test
+    public void missingTransactionsAreIgnored() {
+        Ledger ledger = new Ledger();
+        Row row = new Row(1, ParsedDate.parse("2018-03-01T10:00:00.000+02:00"), 1500, Type.deposit, 2);
+        ledger.add(row.toTransaction());
+
+        ledger.update(new Row(2, ParsedDate.parse("2018-03-02T10:00:00.000Z"), 100, Type.withdrawal, 0)
+                .toTransaction());
+        ledger.remove(2);
+        ledger.setCategory(2, 3);
+        List<Row> rows = new ArrayList<>();
+        rows.add(row);
+        assertRowsEqual(rows, ledger);
+        assertEquals(DateTimeZone.forOffsetHours(2), ledger.getZone(0));
+    }
+
+    private static void assertRowsEqual(List<Row> rows, Ledger ledger) {
+        assertEquals(rows.size(), ledger.size());
+        for (int i = 0; i < rows.size(); i++) {
+            Row row = rows.get(i);
+            assertEquals(row.id, ledger.getId(i));
+            assertEquals(row.date.getMillis(), ledger.getMillis(i));
+            assertEquals(row.date.getZone(), ledger.getZone(i));
+            assertEquals(row.amount, ledger.getAmount(i));
+            assertEquals(row.type, ledger.getType(i));
+            assertEquals(row.category, ledger.getCategory(i));
+        }
+    }
+
+    /**
+     * Returns a random date within a few weeks, so rows often share their time and are ordered by ID.
+     */
+    private static Row randomRow(Random random, int id) {
+        DateTimeZone zone = random.nextInt(3) == 0 ? DateTimeZone.forOffsetHours(random.nextInt(25) - 12) :
+                DateTimeZone.UTC;
+        String date = START.plusHours(random.nextInt(24 * 40)).withZone(zone).toString();
+        return new Row(id, ParsedDate.parse(date), random.nextInt(100000), random.nextBoolean() ? Type.deposit :
+                Type.withdrawal, random.nextInt(5));
+    }
+
+    /**
+     * Returns the IDs of some of the rows, and an ID which is not in the ledger.
+     */
+    private static Set<Integer> randomIds(Random random, List<Row> rows, int nextId) {
+        Set<Integer> ids = new HashSet<>();
+        for (Row row : rows) {
+            if (random.nextInt(4) == 0) {
+                ids.add(row.id);
+            }
+        }
+        ids.add(nextId);
+        return ids;
+    }
+
+    private static class Row {
+        private final int id;
+        private final ParsedDate date;
+        private final long amount;
+        private final Type type;
+        private int category;
+
+        Row(int id, ParsedDate date, long amount, Type type, int category) {
+            this.id = id;
+            this.date = date;
+            this.amount = amount;
+            this.type = type;
+            this.category = category;
+        }
+
+        Transaction toTransaction() {
+            return new Transaction(id, new DateTime(date.getMillis(), date.getZone()).toString(), date,
+                    Money.ofMinor(CurrencyUnit.EUR, amount), "NL39RABO0300065264", type,
+                    category == 0 ? null : new Category(category, "category " + category), null);
+        }
+    }
+}
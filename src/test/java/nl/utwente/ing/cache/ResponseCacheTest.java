@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2018, Joost Prins <github.com/joostprins>, Tom Leemreize <https://github.com/oplosthee>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package nl.utwente.ing.cache;
+
+import nl.utwente.ing.interceptor.ConditionalRequestInterceptor;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Checks that cached responses are only returned for the version of the session they were calculated for, so that
+ * every write invalidates the responses of its session.
+ */
+public class ResponseCacheTest {
+
+    @Test
+    public void writeInvalidatesResponses() {
+        ResponseCache cache = new ResponseCache(true, 1 << 20);
+        long version = SessionVersions.instance.get("written");
+        cache.put("written", version, "savingGoals", "[]", 0);
+        cache.put("written", version, "paymentRequests", "[]", 0);
+        assertEquals("[]", cache.get("written", version, "savingGoals"));
+
+        SessionVersions.instance.bump("written");
+        long newVersion = SessionVersions.instance.get("written");
+        assertNull(cache.get("written", newVersion, "savingGoals"));
+        // The responses of the older version are dropped on the first lookup with the newer one.
+        assertEquals(0, cache.getSize());
+        assertEquals(0, cache.getBytes());
+        assertNull(cache.get("written", version, "paymentRequests"));
+    }
+
+    @Test
+    public void responseCalculatedDuringWriteIsNotCached() {
+        ResponseCache cache = new ResponseCache(true, 1 << 20);
+        long version = SessionVersions.instance.get("racing");
+        SessionVersions.instance.bump("racing");
+        cache.put("racing", version, "savingGoals", "[]", 0);
+
+        assertEquals(0, cache.getSize());
+        assertNull(cache.get("racing", SessionVersions.instance.get("racing"), "savingGoals"));
+    }
+
+    @Test
+    public void requestsWhichMayWriteInvalidateResponses() {
+        for (String method : new String[]{"POST", "PUT", "PATCH", "DELETE"}) {
+            String sessionID = "request " + method;
+            long version = SessionVersions.instance.get(sessionID);
+            ResponseCache.instance.put(sessionID, version, "savingGoals", "[]", 0);
+            assertEquals("[]", ResponseCache.instance.get(sessionID, version, "savingGoals"));
+
+            MockHttpServletRequest request = new MockHttpServletRequest(method, "/api/v1/savingGoals");
+            request.addHeader("X-session-ID", sessionID);
+            MockHttpServletResponse response = new MockHttpServletResponse();
+            ConditionalRequestInterceptor interceptor = new ConditionalRequestInterceptor();
+            interceptor.preHandle(request, response, null);
+            long writeVersion = SessionVersions.instance.get(sessionID);
+            assertNull(ResponseCache.instance.get(sessionID, writeVersion, "savingGoals"));
+
+            // A response calculated while the write is in progress is dropped once the write completes.
+            ResponseCache.instance.put(sessionID, writeVersion, "savingGoals", "[]", 0);
+            interceptor.afterCompletion(request, response, null, null);
+            assertNull(ResponseCache.instance.get(sessionID, SessionVersions.instance.get(sessionID),
+                    "savingGoals"));
+        }
+
+        // Reads leave the version and the cached responses alone.
+        long version = SessionVersions.instance.get("read");
+        ResponseCache.instance.put("read", version, "savingGoals", "[]", 0);
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/api/v1/savingGoals");
+        request.addHeader("X-session-ID", "read");
+        new ConditionalRequestInterceptor().preHandle(request, new MockHttpServletResponse(), null);
+        assertEquals("[]", ResponseCache.instance.get("read", SessionVersions.instance.get("read"), "savingGoals"));
+    }
+
+    @Test
+    public void responsesExpire() throws InterruptedException {
+        ResponseCache cache = new ResponseCache(true, 1 << 20);
+        long version = SessionVersions.instance.get("expiring");
+        cache.put("expiring", version, "balance/history", "[]", 1);
+        Thread.sleep(5);
+        assertNull(cache.get("expiring", version, "balance/history"));
+    }
+
+    @Test
+    public void leastRecentlyUsedSessionsAreEvicted() {
+        String body = new String(new char[100]).replace('\0', 'x');
+        // Each response takes 128 bytes besides its key and body, so two sessions fit.
+        ResponseCache cache = new ResponseCache(true, 700);
+        for (String sessionID : new String[]{"a", "b"}) {
+            cache.put(sessionID, SessionVersions.instance.get(sessionID), "k", body, 0);
+        }
+        assertEquals(body, cache.get("a", SessionVersions.instance.get("a"), "k"));
+        cache.put("c", SessionVersions.instance.get("c"), "k", body, 0);
+
+        assertEquals(2, cache.getSize());
+        assertEquals(1, cache.getEvictions());
+        assertNull(cache.get("b", SessionVersions.instance.get("b"), "k"));
+        assertEquals(body, cache.get("a", SessionVersions.instance.get("a"), "k"));
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright (c) 2018, Joost Prins <github.com/joostprins>, Tom Leemreize <https://github.com/oplosthee>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package nl.utwente.ing.controller;
+
+import nl.utwente.ing.controller.database.QueryPlan;
+import nl.utwente.ing.controller.database.TestDatabase;
+import nl.utwente.ing.model.BalanceHistory;
+import nl.utwente.ing.model.SavingGoal;
+import nl.utwente.ing.model.Transaction;
+import nl.utwente.ing.model.Type;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+
+import static nl.utwente.ing.controller.BalanceCheckpointsTest.SESSION_ID;
+import static nl.utwente.ing.controller.BalanceCheckpointsTest.format;
+import static nl.utwente.ing.controller.BalanceCheckpointsTest.insert;
+import static nl.utwente.ing.controller.BalanceCheckpointsTest.insertSession;
+import static nl.utwente.ing.controller.BalanceCheckpointsTest.intervals;
+import static nl.utwente.ing.controller.BalanceCheckpointsTest.randomIntervals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares the balance history calculated from the aggregates with a full replay of the transactions, and checks that
+ * sessions which cannot be aggregated are reported as such.
+ */
+public class BalanceAggregationTest {
+
+    @Rule
+    public TestDatabase database = new TestDatabase();
+
+    @Test
+    public void savingGoalsWithOneOffsetMatchFullReplay() throws SQLException {
+        Random random = new Random(3);
+        Connection connection = database.getConnection();
+        for (int run = 0; run < 30; run++) {
+            DateTimeZone zone = random.nextBoolean() ? DateTimeZone.UTC :
+                    DateTimeZone.forOffsetHours(random.nextInt(25) - 12);
+            List<SavingGoal> savingGoals = SavingGoalSimulationTest.randomSavingGoals(random);
+            List<Transaction> transactions = insertRandom(connection, random, savingGoals, zone);
+
+            for (int window = 0; window < 5; window++) {
+                assertAggregatedHistoriesEqual(connection, transactions, savingGoals, randomIntervals(random));
+            }
+        }
+    }
+
+    @Test
+    public void mixedOffsetsWithoutSavingGoalsMatchFullReplay() throws SQLException {
+        Random random = new Random(4);
+        Connection connection = database.getConnection();
+        for (int run = 0; run < 10; run++) {
+            List<SavingGoal> savingGoals = new ArrayList<>();
+            List<Transaction> transactions = insertRandom(connection, random, savingGoals, null);
+
+            for (int window = 0; window < 5; window++) {
+                assertAggregatedHistoriesEqual(connection, transactions, savingGoals, randomIntervals(random));
+            }
+        }
+    }
+
+    @Test
+    public void mixedOffsetsWithSavingGoalsAreReplayed() throws SQLException {
+        Connection connection = database.getConnection();
+        List<SavingGoal> savingGoals = new ArrayList<>();
+        savingGoals.add(SavingGoalSimulationTest.savingGoal(1000, 50, 10));
+        insertSession(connection, savingGoals);
+
+        List<Transaction> transactions = new ArrayList<>();
+        transactions.add(insert(connection, "2018-01-15T10:00:00.000Z", 12000, Type.deposit));
+        // Still January in UTC, but the start of February in this offset.
+        transactions.add(insert(connection, "2018-02-01T00:30:00.000+01:00", 3000, Type.withdrawal));
+        transactions.add(insert(connection, "2018-03-10T10:00:00.000Z", 2000, Type.deposit));
+        List<DateTime> timeIntervals = intervals(new DateTime(2018, 1, 1, 0, 0, DateTimeZone.UTC), "month", 4);
+
+        assertFalse(BalanceAggregation.getBalanceHistories(connection, SESSION_ID, timeIntervals).isPresent());
+        // The balance history is then calculated from the checkpoints.
+        assertEquals(format(replay(transactions, savingGoals, timeIntervals)),
+                format(BalanceCheckpoints.getBalanceHistories(connection, SESSION_ID, timeIntervals)));
+    }
+
+    @Test
+    public void groupsReplayedFromIndex() throws SQLException {
+        String plan = QueryPlan.explain(database.getConnection(), BalanceAggregation.GROUP_QUERY);
+        QueryPlan.assertUsesIndex(plan, "transactions_session_date_millis");
+        QueryPlan.assertOrderedByIndex(plan);
+    }
+
+    /**
+     * Replaces the session by one with the given saving goals and random transactions.
+     *
+     * @param zone the time zone of all transactions, or null for transactions in different offsets
+     */
+    private static List<Transaction> insertRandom(Connection connection, Random random, List<SavingGoal> savingGoals,
+                                                  DateTimeZone zone) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.executeUpdate("DELETE FROM transactions;");
+            statement.executeUpdate("DELETE FROM saving_goals;");
+            statement.executeUpdate("DELETE FROM sessions;");
+        }
+        insertSession(connection, savingGoals);
+
+        List<Transaction> transactions = new ArrayList<>();
+        for (String date : SavingGoalSimulationTest.randomDates(random)) {
+            if (zone != null) {
+                date = DateTime.parse(date).withZone(zone).toString();
+            }
+            // Some transactions share their time with the previous one.
+            int count = random.nextInt(8) == 0 ? 2 : 1;
+            for (int i = 0; i < count; i++) {
+                transactions.add(insert(connection, date, random.nextInt(50000) + 1,
+                        random.nextInt(3) == 0 ? Type.withdrawal : Type.deposit));
+            }
+        }
+        return transactions;
+    }
+
+    private static void assertAggregatedHistoriesEqual(Connection connection, List<Transaction> transactions,
+                                                       List<SavingGoal> savingGoals, List<DateTime> timeIntervals)
+            throws SQLException {
+        Optional<List<BalanceHistory>> aggregated = BalanceAggregation.getBalanceHistories(connection, SESSION_ID,
+                timeIntervals);
+        assertTrue(aggregated.isPresent());
+        assertEquals(format(replay(transactions, savingGoals, timeIntervals)), format(aggregated.get()));
+    }
+
+    private static List<BalanceHistory> replay(List<Transaction> transactions, List<SavingGoal> savingGoals,
+                                               List<DateTime> timeIntervals) {
+        return BalanceHistoryController.getBalanceHistories(BalanceHistoryController.parseTransactions(
+                new ArrayList<>(transactions), timeIntervals), timeIntervals, SavingGoalSimulationTest.copy(savingGoals));
+    }
+}
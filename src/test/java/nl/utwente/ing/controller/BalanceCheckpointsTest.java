@@ -0,0 +1,225 @@
+/*
+ * Copyright (c) 2018, Joost Prins <github.com/joostprins>, Tom Leemreize <https://github.com/oplosthee>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package nl.utwente.ing.controller;
+
+import nl.utwente.ing.cache.Ledger;
+import nl.utwente.ing.controller.database.QueryPlan;
+import nl.utwente.ing.controller.database.TestDatabase;
+import nl.utwente.ing.model.BalanceHistory;
+import nl.utwente.ing.model.ParsedDate;
+import nl.utwente.ing.model.SavingGoal;
+import nl.utwente.ing.model.Transaction;
+import nl.utwente.ing.model.Type;
+import org.joda.money.CurrencyUnit;
+import org.joda.money.Money;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compares the balance history calculated from the checkpoints and from the ledger with a full replay of the
+ * transactions, for sessions with saving goals.
+ */
+public class BalanceCheckpointsTest {
+
+    static final String SESSION_ID = "session";
+
+    @Rule
+    public TestDatabase database = new TestDatabase();
+
+    @Test
+    public void firstTransactionWithinTheIntervals() throws SQLException {
+        Connection connection = database.getConnection();
+        List<SavingGoal> savingGoals = new ArrayList<>();
+        savingGoals.add(SavingGoalSimulationTest.savingGoal(1000, 50, 10));
+        insertSession(connection, savingGoals);
+
+        List<Transaction> transactions = new ArrayList<>();
+        transactions.add(insert(connection, "2018-01-15T10:00:00.000Z", 12000, Type.deposit));
+        transactions.add(insert(connection, "2018-03-10T10:00:00.000Z", 3000, Type.withdrawal));
+
+        assertHistoriesEqual(connection, transactions, savingGoals, intervals(
+                new DateTime(2018, 1, 1, 0, 0, DateTimeZone.UTC), "month", 4));
+    }
+
+    @Test
+    public void checkpointsMatchFullReplay() throws SQLException {
+        Random random = new Random(2);
+        Connection connection = database.getConnection();
+        for (int run = 0; run < 20; run++) {
+            try (Statement statement = connection.createStatement()) {
+                statement.executeUpdate("DELETE FROM transactions;");
+                statement.executeUpdate("DELETE FROM saving_goals;");
+                statement.executeUpdate("DELETE FROM sessions;");
+            }
+            BalanceCheckpoints.invalidateAll(connection, SESSION_ID);
+
+            List<SavingGoal> savingGoals = SavingGoalSimulationTest.randomSavingGoals(random);
+            insertSession(connection, savingGoals);
+            List<Transaction> transactions = new ArrayList<>();
+            for (String date : SavingGoalSimulationTest.randomDates(random)) {
+                transactions.add(insert(connection, date, random.nextInt(50000) + 1,
+                        random.nextInt(3) == 0 ? Type.withdrawal : Type.deposit));
+            }
+
+            for (int window = 0; window < 5; window++) {
+                assertHistoriesEqual(connection, transactions, savingGoals, randomIntervals(random));
+            }
+
+            // A transaction before the last one invalidates the checkpoints from its bucket onwards.
+            if (!transactions.isEmpty()) {
+                Transaction last = transactions.get(transactions.size() - 1);
+                String date = new DateTime(last.getMillis() - random.nextInt(200 * 24) * 3600000L,
+                        DateTimeZone.UTC).toString();
+                Transaction transaction = insert(connection, date, random.nextInt(50000) + 1, Type.deposit);
+                transactions.add(transaction);
+                transactions.sort((first, second) -> Long.compare(first.getMillis(), second.getMillis()));
+                BalanceCheckpoints.invalidate(connection, SESSION_ID, transaction.getMillis());
+                assertHistoriesEqual(connection, transactions, savingGoals, randomIntervals(random));
+            }
+        }
+    }
+
+    @Test
+    public void bucketsReadFromIndex() throws SQLException {
+        String plan = QueryPlan.explain(database.getConnection(), BalanceCheckpoints.BUCKET_QUERY);
+        QueryPlan.assertUsesIndex(plan, "transactions_session_date_millis");
+        QueryPlan.assertOrderedByIndex(plan);
+    }
+
+    private static void assertHistoriesEqual(Connection connection, List<Transaction> transactions,
+                                             List<SavingGoal> savingGoals, List<DateTime> timeIntervals)
+            throws SQLException {
+        List<BalanceHistory> expected = BalanceHistoryController.getBalanceHistories(
+                BalanceHistoryController.parseTransactions(new ArrayList<>(transactions), timeIntervals),
+                timeIntervals, SavingGoalSimulationTest.copy(savingGoals));
+
+        Ledger ledger = new Ledger();
+        ledger.addAll(transactions);
+        List<BalanceHistory> fromLedger = BalanceHistoryController.getBalanceHistories(ledger, null,
+                SavingGoalSimulationTest.copy(savingGoals), timeIntervals);
+        List<BalanceHistory> fromCheckpoints = BalanceCheckpoints.getBalanceHistories(connection, SESSION_ID,
+                timeIntervals);
+
+        assertEquals(format(expected), format(fromLedger));
+        assertEquals(format(expected), format(fromCheckpoints));
+    }
+
+    static List<DateTime> randomIntervals(Random random) {
+        String[] intervals = {"hour", "day", "week", "month", "year"};
+        DateTime start = new DateTime(2014, 12, 1, 0, 0, DateTimeZone.UTC)
+                .plusMinutes(random.nextInt(5 * 365 * 24 * 60));
+        return intervals(start, intervals[random.nextInt(intervals.length)], random.nextInt(30) + 1);
+    }
+
+    static List<DateTime> intervals(DateTime start, String interval, int intervals) {
+        List<DateTime> timeIntervals = new ArrayList<>();
+        for (int i = 0; i <= intervals; i++) {
+            switch (interval) {
+                case "hour":
+                    timeIntervals.add(start.plusHours(i));
+                    break;
+                case "day":
+                    timeIntervals.add(start.plusDays(i));
+                    break;
+                case "week":
+                    timeIntervals.add(start.plusWeeks(i));
+                    break;
+                case "month":
+                    timeIntervals.add(start.plusMonths(i));
+                    break;
+                default:
+                    timeIntervals.add(start.plusYears(i));
+                    break;
+            }
+        }
+        return timeIntervals;
+    }
+
+    static List<String> format(List<BalanceHistory> balanceHistories) {
+        List<String> formatted = new ArrayList<>();
+        for (BalanceHistory balanceHistory : balanceHistories) {
+            formatted.add(balanceHistory.getTimestamp() + " " + balanceHistory.getOpen() + " " +
+                    balanceHistory.getClose() + " " + balanceHistory.getHigh() + " " + balanceHistory.getLow() + " " +
+                    balanceHistory.getVolume());
+        }
+        return formatted;
+    }
+
+    static void insertSession(Connection connection, List<SavingGoal> savingGoals) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.executeUpdate("INSERT INTO sessions (session_id) VALUES ('" + SESSION_ID + "');");
+        }
+        String query = "INSERT INTO saving_goals (name, goal, save_per_month, minimum_balance_required, session_id) " +
+                "VALUES (?, ?, ?, ?, ?);";
+        try (PreparedStatement preparedStatement = connection.prepareStatement(query)) {
+            for (SavingGoal savingGoal : savingGoals) {
+                preparedStatement.setString(1, "goal");
+                preparedStatement.setLong(2, minor(savingGoal.getGoal().longValue()));
+                preparedStatement.setLong(3, minor(savingGoal.getSavePerMonth().longValue()));
+                preparedStatement.setLong(4, minor(savingGoal.getMinimumBalanceRequired().longValue()));
+                preparedStatement.setString(5, SESSION_ID);
+                preparedStatement.executeUpdate();
+            }
+        }
+    }
+
+    static Transaction insert(Connection connection, String date, long amount, Type type)
+            throws SQLException {
+        ParsedDate parsedDate = ParsedDate.parse(date);
+        String query = "INSERT INTO transactions (date, date_millis, date_offset, amount, external_iban, type, " +
+                "session_id) VALUES (?, ?, ?, ?, ?, ?, ?);";
+        try (PreparedStatement preparedStatement = connection.prepareStatement(query);
+             Statement statement = connection.createStatement()) {
+            preparedStatement.setString(1, date);
+            preparedStatement.setLong(2, parsedDate.getMillis());
+            preparedStatement.setObject(3, parsedDate.getOffset());
+            preparedStatement.setLong(4, amount);
+            preparedStatement.setString(5, "NL39RABO0300065264");
+            preparedStatement.setString(6, type.toString().toLowerCase());
+            preparedStatement.setString(7, SESSION_ID);
+            preparedStatement.executeUpdate();
+            int id = statement.executeQuery("SELECT last_insert_rowid();").getInt(1);
+            return new Transaction(id, date, parsedDate, Money.ofMinor(CurrencyUnit.EUR, amount),
+                    "NL39RABO0300065264", type, null, null);
+        }
+    }
+
+    private static long minor(long major) {
+        return major * 100;
+    }
+}
@@ -0,0 +1,264 @@
+/*
+ * Copyright (c) 2018, Joost Prins <github.com/joostprins>, Tom Leemreize <https://github.com/oplosthee>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package nl.utwente.ing.controller;
+
+import com.google.gson.JsonParser;
+import nl.utwente.ing.controller.database.DBConnection;
+import nl.utwente.ing.controller.database.TestDatabase;
+import nl.utwente.ing.model.Category;
+import nl.utwente.ing.model.Job;
+import nl.utwente.ing.model.SpendingRollup;
+import nl.utwente.ing.model.Transaction;
+import nl.utwente.ing.model.Type;
+import nl.utwente.ing.repository.Repositories;
+import org.joda.money.CurrencyUnit;
+import org.joda.money.Money;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.LocalDate;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Applies category rules to the history of a session in small chunks, and checks that the same transactions are
+ * changed as by applying the rule at once, that the spending rollups are kept up to date, and that cancelled, failed
+ * and resumed jobs stop and continue where they should.
+ */
+public class JobRunnerTest {
+
+    private static final int CHUNK_SIZE = 7;
+    private static final String[] DESCRIPTIONS = {"", "groceries", "rent"};
+    private static final String[] IBANS = {"", "NL39RABO0300065264", "NL91ABNA0417164300"};
+    private static final String[] TYPES = {"", "deposit", "withdrawal"};
+
+    @ClassRule
+    public static TemporaryFolder folder = new TemporaryFolder();
+
+    private final JobRunner runner = new JobRunner(1, CHUNK_SIZE, 0);
+
+    @BeforeClass
+    public static void configure() throws IOException {
+        TestDatabase.useForConnections(folder.getRoot());
+    }
+
+    @Test
+    public void rulesAreAppliedInChunks() throws Exception {
+        Random random = new Random(22);
+        for (int run = 0; run < 10; run++) {
+            String sessionID = Repositories.instance.getSessions().create();
+            Category category = Repositories.instance.getCategories().create(sessionID, "category");
+            List<Transaction> transactions = createTransactions(random, sessionID, random.nextInt(60));
+            String description = DESCRIPTIONS[random.nextInt(DESCRIPTIONS.length)];
+            String iBAN = IBANS[random.nextInt(IBANS.length)];
+            String type = TYPES[random.nextInt(TYPES.length)];
+
+            int jobID = create(sessionID, JobRunner.APPLY_CATEGORY_RULE,
+                    CategoryRuleHistoryTask.getParameters(category.getId(), description, iBAN, type).toString());
+            runner.submit(sessionID, jobID);
+            Job job = await(sessionID, jobID);
+
+            int updated = 0;
+            for (Transaction transaction : transactions) {
+                boolean matches = (description.isEmpty() || description.equals(transaction.getDescription())) &&
+                        (iBAN.isEmpty() || iBAN.equals(transaction.getExternalIBAN())) &&
+                        (type.isEmpty() || type.equals(transaction.getType().toString()));
+                Category expected = matches ? category : transaction.getCategory();
+                Category actual = Repositories.instance.getTransactions().get(sessionID, transaction.getId())
+                        .getCategory();
+                assertEquals(expected == null ? null : expected.getId(), actual == null ? null : actual.getId());
+                updated += matches ? 1 : 0;
+            }
+            assertEquals(Job.COMPLETED, job.getStatus());
+            assertEquals(transactions.size(), job.getTotal());
+            assertEquals(transactions.size(), job.getExamined());
+            assertEquals(updated, job.getUpdated());
+            assertRollupsRebuilt(sessionID);
+        }
+    }
+
+    @Test
+    public void resumedJobsContinueAfterTheirCursor() throws Exception {
+        String sessionID = Repositories.instance.getSessions().create();
+        Category category = Repositories.instance.getCategories().create(sessionID, "category");
+        List<Transaction> transactions = createTransactions(new Random(22), sessionID, 30);
+        int jobID = create(sessionID, JobRunner.APPLY_CATEGORY_RULE,
+                CategoryRuleHistoryTask.getParameters(category.getId(), "", "", "").toString());
+        // The job was interrupted by a restart after committing the chunk up to the tenth transaction.
+        int cursor = transactions.get(9).getId();
+        execute(sessionID, "UPDATE jobs SET status = '" + Job.RUNNING + "', cursor = " + cursor + ", examined = 10 " +
+                "WHERE job_id = " + jobID + ";");
+
+        runner.resume();
+        Job job = await(sessionID, jobID);
+        assertEquals(Job.COMPLETED, job.getStatus());
+        assertEquals(30, job.getExamined());
+        assertEquals(20, job.getUpdated());
+        for (Transaction transaction : transactions) {
+            Category actual = Repositories.instance.getTransactions().get(sessionID, transaction.getId())
+                    .getCategory();
+            if (transaction.getId() <= cursor) {
+                assertEquals(transaction.getCategory() == null ? null : transaction.getCategory().getId(),
+                        actual == null ? null : actual.getId());
+            } else {
+                assertEquals(category.getId(), actual.getId());
+            }
+        }
+        assertRollupsRebuilt(sessionID);
+    }
+
+    @Test
+    public void cancelledJobsAreNotExecuted() throws Exception {
+        String sessionID = Repositories.instance.getSessions().create();
+        Category category = Repositories.instance.getCategories().create(sessionID, "category");
+        createTransactions(new Random(22), sessionID, 20);
+        int jobID = create(sessionID, JobRunner.APPLY_CATEGORY_RULE,
+                CategoryRuleHistoryTask.getParameters(category.getId(), "", "", "").toString());
+        try (Connection connection = DBConnection.instance.getConnection(sessionID)) {
+            assertTrue(JobRunner.cancel(connection, sessionID, jobID));
+            connection.commit();
+        }
+
+        runner.submit(sessionID, jobID);
+        Job job = await(sessionID, jobID);
+        assertEquals(Job.CANCELLED, job.getStatus());
+        assertEquals(0, job.getExamined());
+        for (Transaction transaction : Repositories.instance.getTransactions().getPage(sessionID, null, null, 0, 0,
+                100)) {
+            assertTrue(transaction.getCategory() == null || transaction.getCategory().getId() != category.getId());
+        }
+        try (Connection connection = DBConnection.instance.getConnection(sessionID)) {
+            // A job which has finished cannot be cancelled again.
+            assertFalse(JobRunner.cancel(connection, sessionID, jobID));
+            connection.commit();
+        }
+    }
+
+    @Test
+    public void unknownJobsFail() throws Exception {
+        String sessionID = Repositories.instance.getSessions().create();
+        int jobID = create(sessionID, "unknown", "{}");
+        runner.submit(sessionID, jobID);
+        Job job = await(sessionID, jobID);
+        assertEquals(Job.FAILED, job.getStatus());
+        assertEquals("Unknown job type unknown", job.getError());
+    }
+
+    /**
+     * Creates transactions with random descriptions, IBANs, types and categories, and returns them in order of ID.
+     */
+    private static List<Transaction> createTransactions(Random random, String sessionID, int count) throws Exception {
+        Category other = Repositories.instance.getCategories().create(sessionID, "other");
+        List<Transaction> transactions = new ArrayList<>();
+        DateTime time = new DateTime(2018, 1, 1, 0, 0, DateTimeZone.UTC);
+        for (int i = 0; i < count; i++) {
+            time = time.plusMinutes(random.nextInt(3 * 24 * 60));
+            DateTimeZone zone = random.nextBoolean() ? DateTimeZone.UTC :
+                    DateTimeZone.forOffsetHours(random.nextInt(25) - 12);
+            String description = DESCRIPTIONS[random.nextInt(DESCRIPTIONS.length)];
+            Transaction transaction = new Transaction(null, time.withZone(zone).toString(),
+                    Money.ofMinor(CurrencyUnit.EUR, random.nextInt(100000) + 1),
+                    IBANS[random.nextInt(IBANS.length - 1) + 1], random.nextBoolean() ? Type.deposit :
+                    Type.withdrawal, random.nextBoolean() ? other : null, description.isEmpty() ? null : description);
+            transactions.add(transaction);
+        }
+        assertTrue(Repositories.instance.getTransactions().createAll(sessionID, transactions).isEmpty());
+        return transactions;
+    }
+
+    private static int create(String sessionID, String type, String parameters) throws Exception {
+        try (Connection connection = DBConnection.instance.getConnection(sessionID)) {
+            int jobID = JobRunner.create(connection, sessionID, type,
+                    new JsonParser().parse(parameters).getAsJsonObject());
+            connection.commit();
+            return jobID;
+        }
+    }
+
+    private static void execute(String sessionID, String sql) throws Exception {
+        try (Connection connection = DBConnection.instance.getConnection(sessionID);
+             PreparedStatement statement = connection.prepareStatement(sql)) {
+            statement.executeUpdate();
+            connection.commit();
+        }
+    }
+
+    /**
+     * Waits until a job has stopped, and returns it.
+     */
+    private static Job await(String sessionID, int jobID) throws Exception {
+        for (int attempt = 0; attempt < 500; attempt++) {
+            Job job;
+            try (Connection connection = DBConnection.instance.getReadConnection(sessionID)) {
+                job = JobRunner.get(connection, sessionID, jobID);
+                connection.commit();
+            }
+            assertNotNull(job);
+            if (!Job.QUEUED.equals(job.getStatus()) && !Job.RUNNING.equals(job.getStatus())) {
+                return job;
+            }
+            Thread.sleep(10);
+        }
+        throw new AssertionError("The job did not finish");
+    }
+
+    /**
+     * Checks that the spending rollups which the job kept up to date equal the rollups calculated from scratch.
+     */
+    private static void assertRollupsRebuilt(String sessionID) throws Exception {
+        List<String> rollups = rollups(sessionID);
+        try (Connection connection = DBConnection.instance.getConnection(sessionID)) {
+            SpendingRollups.rebuild(connection, sessionID);
+            connection.commit();
+        }
+        assertEquals(rollups(sessionID), rollups);
+    }
+
+    private static List<String> rollups(String sessionID) throws Exception {
+        List<String> rollups = new ArrayList<>();
+        for (SpendingRollup rollup : Repositories.instance.getTransactions().getDailyRollups(sessionID,
+                new LocalDate(2000, 1, 1), new LocalDate(2100, 1, 1))) {
+            rollups.add(rollup.getStart() + " " + rollup.getCategoryId() + " " + rollup.getType() + " " +
+                    rollup.getSum() + " " + rollup.getCount() + " " + Objects.toString(rollup.getMin()) + " " +
+                    rollup.getMax());
+        }
+        return rollups;
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2018, Joost Prins <github.com/joostprins>, Tom Leemreize <https://github.com/oplosthee>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package nl.utwente.ing.controller;
+
+import nl.utwente.ing.model.PaymentRequest;
+import nl.utwente.ing.model.Transaction;
+import nl.utwente.ing.model.Type;
+import org.joda.money.CurrencyUnit;
+import org.joda.money.Money;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the payment request matcher against the original matching, which assigned every deposit to the first
+ * request in order of creation which was open, due after the deposit and of the same amount.
+ */
+public class PaymentRequestMatcherTest {
+
+    private static final long[] AMOUNTS = {500, 1000, 1250, 2000};
+
+    @Test
+    public void matchesLikeScanInCreationOrder() {
+        Random random = new Random(8);
+        DateTime start = new DateTime(2018, 1, 1, 0, 0, DateTimeZone.UTC);
+        for (int run = 0; run < 300; run++) {
+            List<PaymentRequest> paymentRequests = new ArrayList<>();
+            List<PaymentRequest> expected = new ArrayList<>();
+            int count = random.nextInt(30) + 1;
+            for (int i = 0; i < count; i++) {
+                DateTime dueDate = start.plusHours(random.nextInt(24 * 90));
+                Money amount = Money.ofMinor(CurrencyUnit.EUR, AMOUNTS[random.nextInt(AMOUNTS.length)]);
+                int numberOfRequests = random.nextInt(3) + 1;
+                paymentRequests.add(new PaymentRequest(i, null, dueDate, amount, numberOfRequests, false));
+                expected.add(new PaymentRequest(i, null, dueDate, amount, numberOfRequests, false));
+            }
+
+            List<DateTime> dates = new ArrayList<>();
+            for (int i = random.nextInt(100); i > 0; i--) {
+                // Some deposits are made exactly at a due date, when the request can no longer be filled.
+                dates.add(random.nextInt(5) == 0 ? paymentRequests.get(random.nextInt(count)).getDueDate() :
+                        start.plusHours(random.nextInt(24 * 100)));
+            }
+            dates.sort(DateTime::compareTo);
+
+            List<Transaction> deposits = new ArrayList<>();
+            for (int i = 0; i < dates.size(); i++) {
+                long amount = random.nextInt(6) == 0 ? 700 : AMOUNTS[random.nextInt(AMOUNTS.length)];
+                deposits.add(new Transaction(i, dates.get(i).toString(), Money.ofMinor(CurrencyUnit.EUR, amount),
+                        "NL39RABO0300065264", Type.deposit, null, null));
+            }
+            scan(expected, deposits);
+
+            PaymentRequestMatcher matcher = new PaymentRequestMatcher(paymentRequests);
+            for (int i = 0; i < deposits.size() && !matcher.isDone(); i++) {
+                Transaction deposit = deposits.get(i);
+                matcher.match(deposit, deposit.getAmount().getAmountMinorLong(), dates.get(i).getMillis());
+            }
+
+            boolean done = true;
+            for (int i = 0; i < count; i++) {
+                assertEquals(expected.get(i).getFilled(), paymentRequests.get(i).getFilled());
+                assertEquals(ids(expected.get(i).getTransactions()), ids(paymentRequests.get(i).getTransactions()));
+                done &= expected.get(i).getFilled();
+            }
+            assertEquals(done, matcher.isDone());
+        }
+    }
+
+    @Test
+    public void amountsAndLatestDueDate() {
+        DateTime dueDate = new DateTime(2018, 5, 1, 0, 0, DateTimeZone.UTC);
+        List<PaymentRequest> paymentRequests = new ArrayList<>();
+        paymentRequests.add(new PaymentRequest(1, null, dueDate, Money.ofMinor(CurrencyUnit.EUR, 1250), 1, false));
+        paymentRequests.add(new PaymentRequest(2, null, dueDate.minusDays(3), Money.ofMinor(CurrencyUnit.EUR, 500), 2,
+                false));
+        PaymentRequestMatcher matcher = new PaymentRequestMatcher(paymentRequests);
+
+        assertTrue(matcher.hasAmount(1250));
+        assertTrue(matcher.hasAmount(500));
+        assertFalse(matcher.hasAmount(1000));
+        assertEquals(dueDate.getMillis(), matcher.getLatestDueDate());
+        assertFalse(matcher.isDone());
+    }
+
+    /**
+     * Matches the deposits like the original endpoint did.
+     */
+    private static void scan(List<PaymentRequest> paymentRequests, List<Transaction> deposits) {
+        for (Transaction deposit : deposits) {
+            for (PaymentRequest paymentRequest : paymentRequests) {
+                if (!paymentRequest.getFilled() &&
+                        paymentRequest.getDueDate().isAfter(DateTime.parse(deposit.getDate())) &&
+                        paymentRequest.getAmount().isEqual(deposit.getAmount())) {
+                    paymentRequest.addTransaction(deposit);
+                    if (paymentRequest.getTransactions().size() == paymentRequest.getNumberOfRequests()) {
+                        paymentRequest.setFilled(true);
+                    }
+                    break;
+                }
+            }
+        }
+    }
+
+    private static List<Integer> ids(List<Transaction> transactions) {
+        List<Integer> ids = new ArrayList<>();
+        for (Transaction transaction : transactions) {
+            ids.add(transaction.getId());
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright (c) 2018, Joost Prins <github.com/joostprins>, Tom Leemreize <https://github.com/oplosthee>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package nl.utwente.ing.controller;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import nl.utwente.ing.controller.database.TestDatabase;
+import nl.utwente.ing.model.SavingGoal;
+import nl.utwente.ing.model.Transaction;
+import nl.utwente.ing.model.Type;
+import nl.utwente.ing.repository.Repositories;
+import org.joda.money.CurrencyUnit;
+import org.joda.money.Money;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Checks the projections of the saving goal endpoint against a month-by-month replay of the history of a session,
+ * followed by a month-by-month projection of every scenario.
+ */
+public class SavingGoalControllerTest {
+
+    @ClassRule
+    public static TemporaryFolder folder = new TemporaryFolder();
+
+    @BeforeClass
+    public static void configure() throws IOException {
+        TestDatabase.useForConnections(folder.getRoot());
+    }
+
+    @Test
+    public void projectionMatchesMonthByMonth() throws Exception {
+        Random random = new Random(5);
+        String sessionID = Repositories.instance.getSessions().create();
+        Repositories.instance.getSavingGoals().create(sessionID, savingGoal("holiday", 3000, 150, 500));
+        Repositories.instance.getSavingGoals().create(sessionID, savingGoal("bike", 800, 300, 0));
+
+        List<String> dates = new ArrayList<>();
+        List<Long> amounts = new ArrayList<>();
+        List<Type> types = new ArrayList<>();
+        List<Transaction> transactions = new ArrayList<>();
+        DateTime time = new DateTime(2016, 3, 10, 12, 0, DateTimeZone.UTC);
+        for (int i = 0; i < 40; i++) {
+            time = time.plusDays(random.nextInt(40));
+            dates.add(time.toString());
+            amounts.add((long) random.nextInt(80000) + 1);
+            types.add(random.nextInt(3) == 0 ? Type.withdrawal : Type.deposit);
+            transactions.add(new Transaction(null, dates.get(i), Money.ofMinor(CurrencyUnit.EUR, amounts.get(i)),
+                    "NL39RABO0300065264", types.get(i), null, null));
+        }
+        Repositories.instance.getTransactions().createAll(sessionID, transactions);
+
+        List<SavingGoal> savingGoals = Repositories.instance.getSavingGoals().getAll(sessionID);
+        long balance = SavingGoalSimulationTest.replay(savingGoals, dates, amounts, types).getAmountMinorLong();
+
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        String body = new SavingGoalController().getProjection(sessionID, null, "{\"months\": 36, \"scenarios\": [" +
+                "{\"name\": \"raise\", \"monthlyIncome\": 250.50, \"extraGoals\": [{\"name\": \"car\", \"goal\": " +
+                "5000, \"savePerMonth\": 200, \"minBalanceRequired\": 100}]}, {\"monthlyIncome\": -20}]}", response);
+        assertEquals(200, response.getStatus());
+
+        JsonObject result = new JsonParser().parse(body).getAsJsonObject();
+        DateTime start = SavingGoalSimulation.getFirstMonthAfter(time);
+        assertEquals(start.toString("yyyy-MM"), result.get("start").getAsString());
+        assertEquals(36, result.get("months").getAsInt());
+
+        JsonArray scenarios = result.getAsJsonArray("scenarios");
+        assertEquals(2, scenarios.size());
+        assertScenario(scenarios.get(0).getAsJsonObject(), "raise", savingGoals, savingGoal("car", 5000, 200, 100),
+                balance, 25050, start);
+        assertScenario(scenarios.get(1).getAsJsonObject(), "scenario 2", savingGoals, null, balance, -2000, start);
+    }
+
+    @Test
+    public void invalidProjectionIsRejected() throws Exception {
+        String sessionID = Repositories.instance.getSessions().create();
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        assertNull(new SavingGoalController().getProjection(sessionID, null, "{\"months\": 0}", response));
+        assertEquals(405, response.getStatus());
+    }
+
+    private static SavingGoal savingGoal(String name, long goal, long savePerMonth, long minimumBalanceRequired) {
+        return new SavingGoal(null, name, Money.ofMajor(CurrencyUnit.EUR, goal),
+                Money.ofMajor(CurrencyUnit.EUR, savePerMonth), Money.ofMajor(CurrencyUnit.EUR, minimumBalanceRequired),
+                Money.zero(CurrencyUnit.EUR));
+    }
+
+    private static void assertScenario(JsonObject scenario, String name, List<SavingGoal> savingGoals,
+                                       SavingGoal extraGoal, long balance, long monthlyIncome, DateTime start) {
+        int months = 36;
+        List<SavingGoal> expectedGoals = SavingGoalSimulationTest.copy(savingGoals);
+        if (extraGoal != null) {
+            expectedGoals.add(extraGoal);
+        }
+        long[] balances = new long[months];
+        long[][] savingGoalBalances = new long[expectedGoals.size()][months];
+        SavingGoalSimulationTest.project(expectedGoals, balance, monthlyIncome, months, balances, savingGoalBalances);
+
+        assertEquals(name, scenario.get("name").getAsString());
+        assertEquals(monthlyIncome, toCents(scenario.get("monthlyIncome").getAsBigDecimal()));
+        assertAmountsEqual(balances, scenario.getAsJsonArray("balance"));
+        JsonArray goals = scenario.getAsJsonArray("savingGoals");
+        assertEquals(expectedGoals.size(), goals.size());
+        for (int i = 0; i < goals.size(); i++) {
+            JsonObject goal = goals.get(i).getAsJsonObject();
+            assertEquals(expectedGoals.get(i).getName(), goal.get("name").getAsString());
+            assertAmountsEqual(savingGoalBalances[i], goal.getAsJsonArray("balances"));
+
+            String reached = null;
+            long target = toCents(expectedGoals.get(i).getGoal());
+            for (int month = 0; month < months && reached == null; month++) {
+                if (savingGoalBalances[i][month] >= target) {
+                    reached = start.plusMonths(month).toString("yyyy-MM");
+                }
+            }
+            assertEquals(reached, goal.get("reached").isJsonNull() ? null : goal.get("reached").getAsString());
+        }
+    }
+
+    private static void assertAmountsEqual(long[] expected, JsonArray amounts) {
+        assertEquals(expected.length, amounts.size());
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], toCents(amounts.get(i).getAsBigDecimal()));
+        }
+    }
+
+    private static long toCents(BigDecimal amount) {
+        return Money.of(CurrencyUnit.EUR, amount).getAmountMinorLong();
+    }
+}
@@ -0,0 +1,247 @@
+/*
+ * Copyright (c) 2018, Joost Prins <github.com/joostprins>, Tom Leemreize <https://github.com/oplosthee>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package nl.utwente.ing.controller;
+
+import nl.utwente.ing.model.ParsedDate;
+import nl.utwente.ing.model.SavingGoal;
+import nl.utwente.ing.model.Type;
+import org.joda.money.CurrencyUnit;
+import org.joda.money.Money;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks the saving goal simulation against a month-by-month replay in the order of the original saving goal
+ * endpoint: every transaction is added to the balance before the months started since the previous transaction are
+ * paid.
+ */
+public class SavingGoalSimulationTest {
+
+    @Test
+    public void transactionIsAppliedBeforeTheMonthsBeforeIt() {
+        List<SavingGoal> savingGoals = new ArrayList<>();
+        savingGoals.add(savingGoal(1000, 50, 100));
+        SavingGoalSimulation simulation = new SavingGoalSimulation(savingGoals, 0);
+
+        simulation.apply(DateTime.parse("2018-01-15T10:00:00.000Z"), 12000, Type.deposit);
+        // February would be paid from the balance of 120.00, but the withdrawal is applied first.
+        simulation.apply(DateTime.parse("2018-03-10T10:00:00.000Z"), 3000, Type.withdrawal);
+        simulation.writeBalances(savingGoals);
+
+        assertEquals(9000, simulation.getBalance());
+        assertEquals(Money.zero(CurrencyUnit.EUR), Money.of(CurrencyUnit.EUR, savingGoals.get(0).getBalance()));
+    }
+
+    @Test
+    public void historyMatchesMonthByMonthReplay() {
+        Random random = new Random(9);
+        for (int run = 0; run < 200; run++) {
+            List<SavingGoal> savingGoals = randomSavingGoals(random);
+            List<String> dates = randomDates(random);
+            List<Long> amounts = new ArrayList<>();
+            List<Type> types = new ArrayList<>();
+            for (int i = 0; i < dates.size(); i++) {
+                amounts.add((long) random.nextInt(50000));
+                types.add(random.nextInt(3) == 0 ? Type.withdrawal : Type.deposit);
+            }
+
+            List<SavingGoal> expectedGoals = copy(savingGoals);
+            Money expectedBalance = replay(expectedGoals, dates, amounts, types);
+
+            SavingGoalSimulation simulation = new SavingGoalSimulation(savingGoals, 0);
+            for (int i = 0; i < dates.size(); i++) {
+                ParsedDate date = ParsedDate.parse(dates.get(i));
+                simulation.apply(date.getMillis(), date.getZone(), amounts.get(i), types.get(i));
+            }
+            simulation.writeBalances(savingGoals);
+
+            assertEquals(expectedBalance.getAmountMinorLong(), simulation.getBalance());
+            for (int i = 0; i < savingGoals.size(); i++) {
+                assertEquals(expectedGoals.get(i).getBalance(), savingGoals.get(i).getBalance());
+            }
+        }
+    }
+
+    @Test
+    public void advanceMatchesMonthByMonth() {
+        Random random = new Random(11);
+        for (int run = 0; run < 2000; run++) {
+            List<SavingGoal> savingGoals = randomSavingGoals(random);
+            for (SavingGoal savingGoal : savingGoals) {
+                long goal = Money.of(CurrencyUnit.EUR, savingGoal.getGoal()).getAmountMinorLong();
+                savingGoal.setBalance(Money.ofMinor(CurrencyUnit.EUR, random.nextInt(3) == 0 ? 0 :
+                        random.nextInt((int) goal + 1)));
+            }
+            // Whole euros, like the saving goals, so the balance often reaches a minimum balance exactly.
+            long balance = (random.nextInt(4000) - 1000) * 100L;
+            long monthlyIncome = random.nextInt(3) == 0 ? 0 : (random.nextInt(1000) - 400) * 100L;
+            int months = random.nextInt(120) + 1;
+
+            List<SavingGoal> expectedGoals = copy(savingGoals);
+            long[] expectedBalances = new long[months];
+            long[][] expectedSavingGoalBalances = new long[savingGoals.size()][months];
+            long expectedBalance = project(expectedGoals, balance, monthlyIncome, months, expectedBalances,
+                    expectedSavingGoalBalances);
+
+            SavingGoalSimulation simulation = new SavingGoalSimulation(savingGoals, balance);
+            long[] balances = new long[months];
+            long[][] savingGoalBalances = new long[savingGoals.size()][months];
+            simulation.advance(months, monthlyIncome, balances, savingGoalBalances);
+            assertArrayEquals(expectedBalances, balances);
+            assertArrayEquals(expectedSavingGoalBalances, savingGoalBalances);
+
+            // Without trajectories the skipped months are only applied to the final balances.
+            simulation = new SavingGoalSimulation(savingGoals, balance);
+            simulation.advance(months, monthlyIncome, null, null);
+            simulation.writeBalances(savingGoals);
+            assertEquals(expectedBalance, simulation.getBalance());
+            for (int i = 0; i < savingGoals.size(); i++) {
+                assertEquals(expectedGoals.get(i).getBalance(), savingGoals.get(i).getBalance());
+            }
+        }
+    }
+
+    static SavingGoal savingGoal(long goal, long savePerMonth, long minimumBalanceRequired) {
+        return new SavingGoal(null, null, Money.ofMajor(CurrencyUnit.EUR, goal),
+                Money.ofMajor(CurrencyUnit.EUR, savePerMonth), Money.ofMajor(CurrencyUnit.EUR, minimumBalanceRequired),
+                Money.zero(CurrencyUnit.EUR));
+    }
+
+    static List<SavingGoal> randomSavingGoals(Random random) {
+        List<SavingGoal> savingGoals = new ArrayList<>();
+        int count = random.nextInt(4);
+        for (int i = 0; i < count; i++) {
+            savingGoals.add(savingGoal(random.nextInt(2000) + 1, random.nextInt(300), random.nextInt(600)));
+        }
+        return savingGoals;
+    }
+
+    /**
+     * Returns ascending dates over a few years, mostly in UTC and sometimes with another offset.
+     */
+    static List<String> randomDates(Random random) {
+        List<String> dates = new ArrayList<>();
+        DateTime time = new DateTime(2015, 1, 1, 0, 0, DateTimeZone.UTC);
+        int count = random.nextInt(60);
+        for (int i = 0; i < count; i++) {
+            time = time.plusMinutes(random.nextInt(90 * 24 * 60));
+            DateTimeZone zone = random.nextInt(4) == 0 ? DateTimeZone.forOffsetHours(random.nextInt(25) - 12) :
+                    DateTimeZone.UTC;
+            dates.add(time.withZone(zone).toString());
+        }
+        return dates;
+    }
+
+    static List<SavingGoal> copy(List<SavingGoal> savingGoals) {
+        List<SavingGoal> copy = new ArrayList<>();
+        for (SavingGoal savingGoal : savingGoals) {
+            copy.add(new SavingGoal(savingGoal.getId(), savingGoal.getName(),
+                    Money.of(CurrencyUnit.EUR, savingGoal.getGoal()),
+                    Money.of(CurrencyUnit.EUR, savingGoal.getSavePerMonth()),
+                    Money.of(CurrencyUnit.EUR, savingGoal.getMinimumBalanceRequired()),
+                    Money.of(CurrencyUnit.EUR, savingGoal.getBalance())));
+        }
+        return copy;
+    }
+
+    /**
+     * Replays the transactions month by month, in the order of the original saving goal endpoint.
+     *
+     * @return the balance of the account after the last transaction
+     */
+    static Money replay(List<SavingGoal> savingGoals, List<String> dates, List<Long> amounts, List<Type> types) {
+        Money balance = Money.zero(CurrencyUnit.EUR);
+        DateTime systemTime = null;
+        for (int i = 0; i < dates.size(); i++) {
+            DateTime time = DateTime.parse(dates.get(i));
+            Money amount = Money.ofMinor(CurrencyUnit.EUR, amounts.get(i));
+            balance = types.get(i) == Type.deposit ? balance.plus(amount) : balance.minus(amount);
+            if (systemTime != null) {
+                balance = payMonths(savingGoals, balance, systemTime, time);
+            }
+            systemTime = time;
+        }
+        return balance;
+    }
+
+    /**
+     * Pays the saving goals for every month started after the start time and before the end time, one month at a time.
+     */
+    static Money payMonths(List<SavingGoal> savingGoals, Money balance, DateTime start, DateTime end) {
+        for (DateTime month = start.withTimeAtStartOfDay().withDayOfMonth(1).plusMonths(1); month.isBefore(end);
+             month = month.plusMonths(1)) {
+            balance = payMonth(savingGoals, balance);
+        }
+        return balance;
+    }
+
+    /**
+     * Projects the given number of months one month at a time: the saving goals are paid, after which the monthly
+     * income is added to the balance.
+     *
+     * @param balances receives the balance in cents at the end of every month
+     * @param savingGoalBalances receives the balance in cents of every saving goal at the end of every month
+     * @return the balance in cents at the end of the last month
+     */
+    static long project(List<SavingGoal> savingGoals, long balance, long monthlyIncome, int months, long[] balances,
+                        long[][] savingGoalBalances) {
+        Money money = Money.ofMinor(CurrencyUnit.EUR, balance);
+        for (int month = 0; month < months; month++) {
+            money = payMonth(savingGoals, money).plus(Money.ofMinor(CurrencyUnit.EUR, monthlyIncome));
+            balances[month] = money.getAmountMinorLong();
+            for (int i = 0; i < savingGoals.size(); i++) {
+                savingGoalBalances[i][month] = Money.of(CurrencyUnit.EUR, savingGoals.get(i).getBalance())
+                        .getAmountMinorLong();
+            }
+        }
+        return money.getAmountMinorLong();
+    }
+
+    private static Money payMonth(List<SavingGoal> savingGoals, Money balance) {
+        for (SavingGoal savingGoal : savingGoals) {
+            Money savingGoalBalance = Money.of(CurrencyUnit.EUR, savingGoal.getBalance());
+            Money goal = Money.of(CurrencyUnit.EUR, savingGoal.getGoal());
+            Money payment = Money.of(CurrencyUnit.EUR, savingGoal.getSavePerMonth());
+            if (Money.of(CurrencyUnit.EUR, savingGoal.getMinimumBalanceRequired()).isLessThan(balance) &&
+                    savingGoalBalance.isLessThan(goal)) {
+                if (goal.isLessThan(savingGoalBalance.plus(payment))) {
+                    payment = goal.minus(savingGoalBalance);
+                }
+                savingGoal.setBalance(savingGoalBalance.plus(payment));
+                balance = balance.minus(payment);
+            }
+        }
+        return balance;
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright (c) 2018, Joost Prins <github.com/joostprins>, Tom Leemreize <https://github.com/oplosthee>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package nl.utwente.ing.controller.database;
+
+import com.google.gson.JsonObject;
+import nl.utwente.ing.metrics.Metrics;
+import nl.utwente.ing.model.Category;
+import nl.utwente.ing.model.PaymentRequest;
+import nl.utwente.ing.model.SavingGoal;
+import nl.utwente.ing.repository.Repositories;
+import org.joda.money.CurrencyUnit;
+import org.joda.money.Money;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Writes to the database from many threads at once, so their changes are committed in shared batches, and checks
+ * that every insert reads its own ID and that a rolled back request does not affect the others.
+ */
+public class GroupCommitTest {
+
+    private static final int THREADS = 16;
+    private static final int INSERTS = 10;
+
+    @ClassRule
+    public static TemporaryFolder folder = new TemporaryFolder();
+
+    @BeforeClass
+    public static void configure() throws IOException {
+        TestDatabase.useForConnections(folder.getRoot());
+    }
+
+    @Test
+    public void concurrentInsertsReadTheirOwnIds() throws Exception {
+        String sessionID = Repositories.instance.getSessions().create();
+        Map<String, Integer> categories = new ConcurrentHashMap<>();
+        Map<String, Integer> savingGoals = new ConcurrentHashMap<>();
+        Map<String, Integer> paymentRequests = new ConcurrentHashMap<>();
+        long batches = getCounter("batches");
+        long requests = getCounter("requests");
+
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<Void>> futures = new ArrayList<>();
+            for (int thread = 0; thread < THREADS; thread++) {
+                int number = thread;
+                futures.add(executor.submit((Callable<Void>) () -> {
+                    for (int i = 0; i < INSERTS; i++) {
+                        String name = number + "-" + i;
+                        Category category = Repositories.instance.getCategories().create(sessionID, name);
+                        categories.put(name, category.getId());
+
+                        SavingGoal savingGoal = new SavingGoal(null, name, Money.ofMajor(CurrencyUnit.EUR, 100),
+                                Money.ofMajor(CurrencyUnit.EUR, 10), Money.zero(CurrencyUnit.EUR),
+                                Money.zero(CurrencyUnit.EUR));
+                        Repositories.instance.getSavingGoals().create(sessionID, savingGoal);
+                        savingGoals.put(name, savingGoal.getId());
+
+                        PaymentRequest paymentRequest = new PaymentRequest(null, name,
+                                new DateTime(2018, 6, 1, 0, 0, DateTimeZone.UTC), Money.ofMajor(CurrencyUnit.EUR, 5), 1,
+                                false);
+                        Repositories.instance.getPaymentRequests().create(sessionID, paymentRequest);
+                        paymentRequests.put(name, paymentRequest.getId());
+                    }
+                    return null;
+                }));
+            }
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        Map<String, Integer> stored = new ConcurrentHashMap<>();
+        Repositories.instance.getCategories().getAll(sessionID).forEach(category ->
+                stored.put(category.getName(), category.getId()));
+        assertEquals(THREADS * INSERTS, categories.size());
+        assertEquals(categories, stored);
+
+        stored.clear();
+        Repositories.instance.getSavingGoals().getAll(sessionID).forEach(savingGoal ->
+                stored.put(savingGoal.getName(), savingGoal.getId()));
+        assertEquals(savingGoals, stored);
+
+        stored.clear();
+        Repositories.instance.getPaymentRequests().getAll(sessionID).forEach(paymentRequest ->
+                stored.put(paymentRequest.getDescription(), paymentRequest.getId()));
+        assertEquals(paymentRequests, stored);
+
+        // The writes were committed in fewer batches than requests.
+        assertTrue(getCounter("requests") - requests > getCounter("batches") - batches);
+    }
+
+    @Test
+    public void rolledBackRequestsAreNotCommitted() throws Exception {
+        String sessionID = Repositories.instance.getSessions().create();
+
+        Connection connection = DBConnection.instance.getConnection(sessionID);
+        insertCategory(connection, sessionID, "rolled back");
+        connection.rollback();
+        insertCategory(connection, sessionID, "committed");
+        connection.commit();
+        connection.close();
+
+        connection = DBConnection.instance.getConnection(sessionID);
+        insertCategory(connection, sessionID, "closed");
+        connection.close();
+
+        List<String> names = new ArrayList<>();
+        Repositories.instance.getCategories().getAll(sessionID).forEach(category -> names.add(category.getName()));
+        List<String> expected = new ArrayList<>();
+        expected.add("committed");
+        assertEquals(expected, names);
+    }
+
+    private static void insertCategory(Connection connection, String sessionID, String name) throws SQLException {
+        try (PreparedStatement preparedStatement = connection.prepareStatement(
+                "INSERT INTO categories (name, session_id) VALUES (?, ?);")) {
+            preparedStatement.setString(1, name);
+            preparedStatement.setString(2, sessionID);
+            preparedStatement.executeUpdate();
+        }
+    }
+
+    private static long getCounter(String name) {
+        JsonObject group = Metrics.instance.toJson().getAsJsonObject("group-commit");
+        return group == null || !group.has(name) ? 0 : group.get(name).getAsLong();
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2018, Joost Prins <github.com/joostprins>, Tom Leemreize <https://github.com/oplosthee>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package nl.utwente.ing.controller.database;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Explains queries and checks their plans. Queries may contain parameters, which are left unbound.
+ */
+public final class QueryPlan {
+
+    private QueryPlan() {
+    }
+
+    /**
+     * Returns the details of the query plan of a query, one step per line.
+     */
+    public static String explain(Connection connection, String query) throws SQLException {
+        StringBuilder plan = new StringBuilder();
+        try (PreparedStatement preparedStatement = connection.prepareStatement("EXPLAIN QUERY PLAN " + query);
+             ResultSet resultSet = preparedStatement.executeQuery()) {
+            while (resultSet.next()) {
+                plan.append(resultSet.getString("detail")).append('\n');
+            }
+        }
+        return plan.toString();
+    }
+
+    /**
+     * Checks that a table is read through an index. SQLite 3.7 describes this as "WITH INDEX", later versions as
+     * "USING INDEX" or "USING COVERING INDEX".
+     */
+    public static void assertUsesIndex(String plan, String index) {
+        assertTrue(plan, plan.contains("WITH INDEX " + index) || plan.contains("USING INDEX " + index) ||
+                plan.contains("USING COVERING INDEX " + index));
+    }
+
+    /**
+     * Checks that the rows are returned in the order of the index, without sorting them. SQLite 3.7 marks the table
+     * read in the requested order with "ORDER BY", later versions only mention the sort, as a temporary B-tree.
+     */
+    public static void assertOrderedByIndex(String plan) {
+        if (plan.contains("WITH INDEX")) {
+            assertTrue(plan, plan.split("\n")[0].endsWith("ORDER BY"));
+        } else {
+            assertFalse(plan, plan.contains("TEMP B-TREE"));
+        }
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright (c) 2018, Joost Prins <github.com/joostprins>, Tom Leemreize <https://github.com/oplosthee>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package nl.utwente.ing.controller.database;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks out the read-only connections of a shard and checks that no more connections are handed out than there are
+ * readers, that closing a connection twice frees a single reader, and that the readers see committed writes only.
+ */
+public class ReaderPoolTest {
+
+    private static final int READERS = 2;
+
+    @Rule
+    public TestDatabase database = new TestDatabase();
+
+    private ExecutorService executor;
+    private DatabaseShard shard;
+
+    @Before
+    public void setUp() {
+        System.setProperty("database.readers", Integer.toString(READERS));
+        try {
+            shard = new DatabaseShard(database.getFile().getAbsolutePath(), "-reader-test", null);
+        } finally {
+            System.clearProperty("database.readers");
+        }
+        executor = Executors.newCachedThreadPool();
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void readersAreLimitedAndReleasedOnce() throws Exception {
+        Connection first = shard.getReadConnection();
+        Connection second = shard.getReadConnection();
+        Future<Connection> third = executor.submit(shard::getReadConnection);
+        assertWaiting(third);
+
+        first.close();
+        assertTrue(first.isClosed());
+        first.close();
+        Connection thirdConnection = third.get(5, TimeUnit.SECONDS);
+        // The second close of the first connection must not have freed another reader.
+        Future<Connection> fourth = executor.submit(shard::getReadConnection);
+        assertWaiting(fourth);
+
+        second.close();
+        Connection fourthConnection = fourth.get(5, TimeUnit.SECONDS);
+        assertFalse(fourthConnection.isClosed());
+        thirdConnection.close();
+        fourthConnection.close();
+    }
+
+    @Test
+    public void interruptedWaitFails() throws Exception {
+        Connection first = shard.getReadConnection();
+        Connection second = shard.getReadConnection();
+        AtomicReference<Exception> failure = new AtomicReference<>();
+        Thread thread = new Thread(() -> {
+            try {
+                shard.getReadConnection().close();
+            } catch (Exception e) {
+                failure.set(e);
+            }
+        });
+        thread.start();
+        thread.join(200);
+        assertTrue(thread.isAlive());
+        thread.interrupt();
+        thread.join(5000);
+        assertTrue(failure.get() instanceof SQLException);
+
+        first.close();
+        second.close();
+        // The interrupted wait took no reader, so both readers are free again.
+        Connection[] connections = {shard.getReadConnection(), shard.getReadConnection()};
+        for (Connection connection : connections) {
+            connection.close();
+        }
+    }
+
+    @Test
+    public void readersSeeCommittedWritesOnly() throws Exception {
+        Connection writer = shard.getConnection();
+        try (PreparedStatement statement = writer.prepareStatement("INSERT INTO sessions (session_id) VALUES (?);")) {
+            statement.setString(1, "committed");
+            statement.executeUpdate();
+            writer.commit();
+            statement.setString(1, "uncommitted");
+            statement.executeUpdate();
+
+            try (Connection reader = shard.getReadConnection()) {
+                assertEquals(1, countSessions(reader, "committed"));
+                assertEquals(0, countSessions(reader, "uncommitted"));
+            }
+            writer.rollback();
+        } finally {
+            writer.close();
+        }
+
+        // The writer may still hold the lock of the database, so the insert has to fail for being read-only.
+        try (Connection reader = shard.getReadConnection();
+             PreparedStatement insert = reader.prepareStatement("INSERT INTO sessions (session_id) " +
+                     "VALUES ('reader');")) {
+            insert.executeUpdate();
+            fail();
+        } catch (SQLException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("SQLITE_READONLY"));
+        }
+    }
+
+    private static int countSessions(Connection connection, String sessionID) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement("SELECT COUNT(*) FROM sessions " +
+                "WHERE session_id = ?;")) {
+            statement.setString(1, sessionID);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                resultSet.next();
+                return resultSet.getInt(1);
+            }
+        } finally {
+            connection.rollback();
+        }
+    }
+
+    private static void assertWaiting(Future<Connection> future) throws Exception {
+        try {
+            future.get(200, TimeUnit.MILLISECONDS);
+            fail("A reader was handed out while all readers were in use");
+        } catch (TimeoutException e) {
+            // The thread is still waiting for a reader.
+        }
+    }
+}
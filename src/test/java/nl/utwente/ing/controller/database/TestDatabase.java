@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2018, Joost Prins <github.com/joostprins>, Tom Leemreize <https://github.com/oplosthee>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package nl.utwente.ing.controller.database;
+
+import org.junit.rules.ExternalResource;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+
+/**
+ * A copy of the bundled database in a temporary folder, migrated to the latest schema, for the duration of a test.
+ * Tests of code which uses {@link DBConnection} point it at a copy with {@link #useForConnections(File)} instead.
+ */
+public class TestDatabase extends ExternalResource {
+
+    private final TemporaryFolder folder = new TemporaryFolder();
+    private File file;
+    private Connection connection;
+
+    @Override
+    protected void before() throws Throwable {
+        folder.create();
+        file = copy(folder.getRoot());
+        Class.forName("org.sqlite.JDBC");
+        connection = DriverManager.getConnection("jdbc:sqlite:" + file.getAbsolutePath());
+        DBMigrations.migrate(connection);
+    }
+
+    @Override
+    protected void after() {
+        try {
+            if (connection != null) {
+                connection.close();
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        folder.delete();
+    }
+
+    /**
+     * Copies the bundled database into a directory and configures {@link DBConnection} to use it. Has to be called
+     * before the connection pool is first used, which happens once per JVM.
+     */
+    public static void useForConnections(File directory) throws IOException {
+        System.setProperty("database.path", copy(directory).getAbsolutePath());
+    }
+
+    private static File copy(File directory) throws IOException {
+        File file = new File(directory, "database.sqlite");
+        try (InputStream inputStream = TestDatabase.class.getClassLoader().getResourceAsStream("database.sqlite")) {
+            Files.copy(inputStream, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        return file;
+    }
+
+    /**
+     * @return the database file
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * @return a connection to the database in auto-commit mode
+     */
+    public Connection getConnection() {
+        return connection;
+    }
+}
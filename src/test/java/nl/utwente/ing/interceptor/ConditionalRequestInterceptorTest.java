@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2018, Joost Prins <github.com/joostprins>, Tom Leemreize <https://github.com/oplosthee>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package nl.utwente.ing.interceptor;
+
+import org.junit.Test;
+import org.springframework.http.MediaType;
+import org.springframework.http.server.ServletServerHttpRequest;
+import org.springframework.http.server.ServletServerHttpResponse;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that only successful reads are tagged, and that a read with the tag of the current data is answered with 304.
+ */
+public class ConditionalRequestInterceptorTest {
+
+    private final ConditionalRequestInterceptor interceptor = new ConditionalRequestInterceptor();
+    private final EntityTagAdvice advice = new EntityTagAdvice();
+
+    @Test
+    public void successfulReadTagged() {
+        MockHttpServletResponse response = read("tagged", null, 200);
+        String tag = response.getHeader("ETag");
+        assertNotNull(tag);
+
+        MockHttpServletRequest request = request("GET", "tagged");
+        request.addHeader("If-None-Match", tag);
+        response = new MockHttpServletResponse();
+        assertFalse(interceptor.preHandle(request, response, null));
+        assertEquals(304, response.getStatus());
+        assertEquals(tag, response.getHeader("ETag"));
+    }
+
+    @Test
+    public void failedReadNotTagged() {
+        assertNull(read("failed", null, 404).getHeader("ETag"));
+        assertNull(read("failed", null, 500).getHeader("ETag"));
+    }
+
+    @Test
+    public void changeInvalidatesTag() {
+        String tag = read("changed", null, 200).getHeader("ETag");
+
+        MockHttpServletRequest request = request("POST", "changed");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        assertTrue(interceptor.preHandle(request, response, null));
+        interceptor.afterCompletion(request, response, null, null);
+
+        MockHttpServletResponse reread = read("changed", tag, 200);
+        assertEquals(200, reread.getStatus());
+        assertNotNull(reread.getHeader("ETag"));
+        assertFalse(tag.equals(reread.getHeader("ETag")));
+    }
+
+    /**
+     * Passes a read through the interceptor and the advice, with the handler answering with the given status.
+     */
+    private MockHttpServletResponse read(String sessionID, String ifNoneMatch, int status) {
+        MockHttpServletRequest request = request("GET", sessionID);
+        if (ifNoneMatch != null) {
+            request.addHeader("If-None-Match", ifNoneMatch);
+        }
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        assertTrue(interceptor.preHandle(request, response, null));
+        response.setStatus(status);
+        advice.beforeBodyWrite("{}", null, MediaType.APPLICATION_JSON, null, new ServletServerHttpRequest(request),
+                new ServletServerHttpResponse(response));
+        return response;
+    }
+
+    private static MockHttpServletRequest request(String method, String sessionID) {
+        MockHttpServletRequest request = new MockHttpServletRequest(method, "/api/v1/transactions");
+        request.addHeader("X-session-ID", sessionID);
+        return request;
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2018, Joost Prins <github.com/joostprins>, Tom Leemreize <https://github.com/oplosthee>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package nl.utwente.ing.metrics;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Records slow statements and checks that the slowest execution of the slowest statements is kept, without session
+ * IDs.
+ */
+public class SlowQueryLogTest {
+
+    private static final long MILLIS = 1000000;
+
+    @Test
+    public void slowestStatementsAreKept() {
+        Random random = new Random(12);
+        SlowQueryLog log = new SlowQueryLog(10, 5);
+        Map<String, Long> slowest = new HashMap<>();
+        for (int i = 0; i < 200; i++) {
+            String name = "statement " + random.nextInt(20);
+            long nanos = (random.nextInt(1000) + 10) * MILLIS;
+            log.record(name, "SELECT " + name, Collections.singletonList(i), i, nanos, Collections.emptyList());
+            slowest.merge(name, nanos, Math::max);
+        }
+
+        List<Long> expected = new ArrayList<>(slowest.values());
+        expected.sort(Collections.reverseOrder());
+        JsonArray json = log.toJson();
+        assertEquals(5, json.size());
+        for (int i = 0; i < json.size(); i++) {
+            JsonObject entry = json.get(i).getAsJsonObject();
+            assertEquals(expected.get(i) / 1e6, entry.get("maxMs").getAsDouble(), 0);
+            String name = entry.get("sql").getAsString().substring("SELECT ".length());
+            assertEquals(slowest.get(name), expected.get(i));
+        }
+    }
+
+    @Test
+    public void slowestExecutionIsKept() {
+        SlowQueryLog log = new SlowQueryLog(10, 5);
+        log.record("insert", "INSERT", Collections.singletonList("first"), 1, 30 * MILLIS,
+                Collections.singletonList("SCAN"));
+        log.record("insert", "INSERT", Collections.singletonList("second"), 2, 50 * MILLIS,
+                Collections.singletonList("SEARCH"));
+        log.record("insert", "INSERT", Collections.singletonList("third"), 3, 40 * MILLIS,
+                Collections.singletonList("SCAN"));
+
+        JsonObject entry = log.toJson().get(0).getAsJsonObject();
+        assertEquals(3, entry.get("count").getAsLong());
+        assertEquals(50, entry.get("maxMs").getAsDouble(), 0);
+        assertEquals(40, entry.get("meanMs").getAsDouble(), 0);
+        assertEquals(2, entry.get("rows").getAsLong());
+        assertEquals("second", entry.get("parameters").getAsJsonArray().get(0).getAsString());
+        assertEquals("SEARCH", entry.get("plan").getAsJsonArray().get(0).getAsString());
+    }
+
+    @Test
+    public void parametersAreRedacted() {
+        SlowQueryLog log = new SlowQueryLog(10, 5);
+        assertFalse(log.isSlow(10 * MILLIS - 1));
+        assertTrue(log.isSlow(10 * MILLIS));
+
+        String session = UUID.randomUUID().toString();
+        char[] description = new char[150];
+        Arrays.fill(description, 'a');
+        log.record("select", "SELECT", Arrays.asList(session, "session " + session.toUpperCase(), null,
+                new String(description)), 0, 20 * MILLIS, Collections.emptyList());
+
+        JsonArray parameters = log.toJson().get(0).getAsJsonObject().get("parameters").getAsJsonArray();
+        assertEquals("<session>", parameters.get(0).getAsString());
+        assertEquals("session <session>", parameters.get(1).getAsString());
+        assertEquals("NULL", parameters.get(2).getAsString());
+        assertEquals(new String(description, 0, 100) + "...", parameters.get(3).getAsString());
+        assertFalse(log.toJson().toString().contains(session));
+    }
+}
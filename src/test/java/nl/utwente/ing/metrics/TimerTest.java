@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2018, Joost Prins <github.com/joostprins>, Tom Leemreize <https://github.com/oplosthee>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package nl.utwente.ing.metrics;
+
+import com.google.gson.JsonObject;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Records random durations and checks the reported percentiles against the exact percentiles of the durations.
+ */
+public class TimerTest {
+
+    @Test
+    public void percentilesAreWithinAnEighth() {
+        Random random = new Random(12);
+        for (int run = 0; run < 200; run++) {
+            Timer timer = new Timer();
+            long[] durations = new long[random.nextInt(1000) + 1];
+            for (int i = 0; i < durations.length; i++) {
+                // Spreads the durations from nanoseconds to minutes, so every range of buckets is used.
+                durations[i] = (long) Math.pow(10, random.nextDouble() * 11);
+                timer.record(durations[i]);
+            }
+            Arrays.sort(durations);
+
+            JsonObject json = timer.toJson();
+            assertEquals(durations.length, timer.getCount());
+            assertEquals(durations.length, json.get("count").getAsLong());
+            assertEquals(durations[durations.length - 1] / 1e6, json.get("maxMs").getAsDouble(), 0);
+            assertEquals(Arrays.stream(durations).sum() / 1e6, json.get("totalMs").getAsDouble(), 1e-6);
+            assertPercentile(durations, 0.50, json.get("p50Ms").getAsDouble());
+            assertPercentile(durations, 0.95, json.get("p95Ms").getAsDouble());
+            assertPercentile(durations, 0.99, json.get("p99Ms").getAsDouble());
+        }
+    }
+
+    @Test
+    public void emptyTimerReportsZero() {
+        JsonObject json = new Timer().toJson();
+        assertEquals(0, json.get("count").getAsLong());
+        assertEquals(0, json.get("meanMs").getAsDouble(), 0);
+        assertEquals(0, json.get("p99Ms").getAsDouble(), 0);
+        assertEquals(0, json.get("maxMs").getAsDouble(), 0);
+    }
+
+    /**
+     * Checks that a reported percentile lies between the exact percentile, truncated to microseconds, and an eighth
+     * above it, and is never more than the longest duration.
+     */
+    private static void assertPercentile(long[] durations, double percentile, double reported) {
+        long exact = durations[(int) Math.ceil(percentile * durations.length) - 1] / 1000;
+        assertTrue(reported + " < " + exact, reported >= exact / 1e3);
+        assertTrue(reported + " > " + exact, reported <= exact * 1.125 / 1e3);
+        assertTrue(reported <= durations[durations.length - 1] / 1e6);
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright (c) 2018, Joost Prins <github.com/joostprins>, Tom Leemreize <https://github.com/oplosthee>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package nl.utwente.ing.model;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+/**
+ * Parses random dates, valid and invalid, and checks the results against the dates parsed by Joda-Time.
+ */
+public class ParsedDateTest {
+
+    private static final String[] INVALID = {"2018-02-29T00:00:00Z", "2018-13-01T00:00:00Z", "2018-00-01T00:00:00Z",
+            "2018-04-31T00:00:00Z", "2018-01-01T24:00:00Z", "2018-01-01T00:60:00Z", "2018-01-01T00:00:60Z",
+            "2018-01-01T00:00:00+24:00", "2018-01-01T00:00:00+01:60", "2018-01-01T00:00:00.Z",
+            "2018-01-01T00:00:00.1234567890Z", "2018-01-01T00:00:00", "2018-01-01T00:00:00+0100", "2018-01-01Z",
+            "2018-1-01T00:00:00Z", "2018-01-01T00:00:00ZZ", "2018-01-01 00:00:00Z", "not a date", ""};
+
+    @Test
+    public void datesMatchJodaTime() {
+        Random random = new Random(16);
+        for (int i = 0; i < 100000; i++) {
+            assertParsedLikeJodaTime(randomDate(random));
+        }
+    }
+
+    @Test
+    public void invalidDatesMatchJodaTime() {
+        for (String date : INVALID) {
+            assertParsedLikeJodaTime(date);
+        }
+        assertParsedLikeJodaTime("2016-02-29T12:00:00Z");
+        assertParsedLikeJodaTime("2000-02-29T12:00:00Z");
+        assertParsedLikeJodaTime("1900-02-29T12:00:00Z");
+    }
+
+    @Test
+    public void datesWithoutOffsetAreInTheDefaultZone() {
+        ParsedDate date = ParsedDate.parse("2018-03-25");
+        DateTimeZone zone = DateTimeZone.getDefault();
+        assertEquals(DateTime.parse("2018-03-25").getMillis(), date.getMillis());
+        assertEquals(zone, date.getZone());
+        assertEquals(zone.isFixed() ? Integer.valueOf(zone.getOffset(date.getMillis())) : null, date.getOffset());
+    }
+
+    @Test
+    public void storedDatesAreRestored() {
+        ParsedDate date = ParsedDate.of(1000, 3600000, "ignored");
+        assertEquals(1000, date.getMillis());
+        assertEquals(DateTimeZone.forOffsetHours(1), date.getZone());
+        assertEquals(Integer.valueOf(3600000), date.getOffset());
+
+        String named = new DateTime(2018, 6, 1, 12, 0, DateTimeZone.forID("Europe/Amsterdam")).toString();
+        date = ParsedDate.of(0, null, named);
+        assertEquals(DateTime.parse(named).getMillis(), date.getMillis());
+        assertEquals(DateTime.parse(named).getZone(), date.getZone());
+    }
+
+    /**
+     * Returns a date of the form used by the API, which is sometimes invalid.
+     */
+    private static String randomDate(Random random) {
+        StringBuilder date = new StringBuilder(String.format("%04d-%02d-%02dT%02d:%02d:%02d",
+                random.nextInt(3) == 0 ? random.nextInt(9999) + 1 : random.nextInt(800) + 1600,
+                random.nextInt(13) + (random.nextInt(50) == 0 ? 0 : 1), random.nextInt(31) + 1,
+                random.nextInt(random.nextInt(50) == 0 ? 25 : 24), random.nextInt(60), random.nextInt(60)));
+        if (random.nextBoolean()) {
+            date.append('.');
+            for (int digits = random.nextInt(9) + 1; digits > 0; digits--) {
+                date.append(random.nextInt(10));
+            }
+        }
+        if (random.nextBoolean()) {
+            date.append('Z');
+        } else {
+            date.append(String.format("%c%02d:%02d", random.nextBoolean() ? '+' : '-', random.nextInt(15),
+                    random.nextInt(4) * 15));
+        }
+        return date.toString();
+    }
+
+    /**
+     * Checks that a date is parsed to the same time and offset as Joda-Time parses it to, or is rejected if Joda-Time
+     * rejects it.
+     */
+    private static void assertParsedLikeJodaTime(String date) {
+        DateTime expected;
+        try {
+            expected = DateTime.parse(date);
+        } catch (IllegalArgumentException e) {
+            expected = null;
+        }
+        ParsedDate parsedDate;
+        try {
+            parsedDate = ParsedDate.parse(date);
+        } catch (IllegalArgumentException e) {
+            assertNull(date, expected);
+            return;
+        }
+        if (expected == null) {
+            fail(date + " was parsed");
+        }
+        assertEquals(date, expected.getMillis(), parsedDate.getMillis());
+        assertEquals(date, expected.getZone().getOffset(expected.getMillis()),
+                parsedDate.getZone().getOffset(parsedDate.getMillis()));
+        assertEquals(date, parsedDate.toDateTime().toString(), expected.toString());
+        if (parsedDate.getOffset() != null) {
+            assertEquals(date, parsedDate.getZone().getOffset(parsedDate.getMillis()), (int) parsedDate.getOffset());
+        }
+    }
+}
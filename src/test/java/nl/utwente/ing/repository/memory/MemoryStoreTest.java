@@ -0,0 +1,277 @@
+/*
+ * Copyright (c) 2018, Joost Prins <github.com/joostprins>, Tom Leemreize <https://github.com/oplosthee>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package nl.utwente.ing.repository.memory;
+
+import nl.utwente.ing.cache.Ledger;
+import nl.utwente.ing.model.Category;
+import nl.utwente.ing.model.CategoryRule;
+import nl.utwente.ing.model.PaymentRequest;
+import nl.utwente.ing.model.SavingGoal;
+import nl.utwente.ing.model.Transaction;
+import nl.utwente.ing.model.Type;
+import nl.utwente.ing.repository.StorageException;
+import org.joda.money.CurrencyUnit;
+import org.joda.money.Money;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Simulates crashes of the memory engine by opening a copy of its directory, which holds exactly what was written to
+ * disk, and checks that the snapshot and journal replay restore every acknowledged change.
+ */
+public class MemoryStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void journalReplayedAfterCrash() throws Exception {
+        Path directory = folder.newFolder("store").toPath();
+        Engine engine = new Engine(MemoryStore.open(directory));
+        String sessionID = engine.sessions.create();
+        change(engine, sessionID, new Random(24));
+        List<String> expected = dump(engine, sessionID);
+
+        Engine restored = new Engine(MemoryStore.open(crash(directory)));
+        assertEquals(expected, dump(restored, sessionID));
+
+        // New IDs continue after the replayed ones.
+        int maximum = 0;
+        for (Category category : restored.categories.getAll(sessionID)) {
+            maximum = Math.max(maximum, category.getId());
+        }
+        assertTrue(restored.categories.create(sessionID, "new").getId() > maximum);
+    }
+
+    @Test
+    public void snapshotAndLaterSegmentsReplayed() throws Exception {
+        Path directory = folder.newFolder("store").toPath();
+        MemoryStore store = MemoryStore.open(directory);
+        Engine engine = new Engine(store);
+        String sessionID = engine.sessions.create();
+        Random random = new Random(25);
+        change(engine, sessionID, random);
+        store.snapshot();
+        // The changes so far are only in the snapshot, as the segments it covers are deleted.
+        assertTrue(segments(directory).isEmpty());
+        assertTrue(Files.exists(directory.resolve("snapshot.dat")));
+        change(engine, sessionID, random);
+        List<String> expected = dump(engine, sessionID);
+
+        assertEquals(expected, dump(new Engine(MemoryStore.open(crash(directory))), sessionID));
+    }
+
+    @Test
+    public void tornRecordIsDiscarded() throws Exception {
+        Path directory = folder.newFolder("store").toPath();
+        Engine engine = new Engine(MemoryStore.open(directory));
+        String sessionID = engine.sessions.create();
+        change(engine, sessionID, new Random(26));
+        List<String> expected = dump(engine, sessionID);
+
+        // The application stopped while it wrote the length, checksum and part of the contents of a record.
+        Path crashed = crash(directory);
+        Path segment = segments(crashed).get(0);
+        long length = Files.size(segment);
+        append(segment, ByteBuffer.allocate(12).putInt(100).putInt(42).putInt(7).array());
+
+        Engine restored = new Engine(MemoryStore.open(crashed));
+        assertEquals(expected, dump(restored, sessionID));
+        assertEquals(length, Files.size(segment));
+
+        // The changes after the restart are written to a new segment, which is replayed after the truncated one.
+        restored.categories.create(sessionID, "after restart");
+        expected = dump(restored, sessionID);
+        assertEquals(expected, dump(new Engine(MemoryStore.open(crash(crashed))), sessionID));
+    }
+
+    @Test
+    public void corruptSegmentBeforeLaterSegmentsIsRejected() throws Exception {
+        Path directory = folder.newFolder("store").toPath();
+        Engine engine = new Engine(MemoryStore.open(directory));
+        String sessionID = engine.sessions.create();
+        engine.categories.create(sessionID, "first");
+        Path crashed = crash(directory);
+        new Engine(MemoryStore.open(crashed)).categories.create(sessionID, "second");
+        crashed = crash(crashed);
+
+        // Only the records at the end of the last written segment can be incomplete.
+        Path first = segments(crashed).get(0);
+        try (FileChannel channel = FileChannel.open(first, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[]{0x7f}), Files.size(first) - 1);
+        }
+        try {
+            MemoryStore.open(crashed);
+            fail("A corrupt segment followed by other segments was replayed");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().endsWith("is corrupt"));
+        }
+    }
+
+    /**
+     * Makes changes of every kind to a session.
+     */
+    private static void change(Engine engine, String sessionID, Random random) throws StorageException {
+        Category food = engine.categories.create(sessionID, "food " + random.nextInt(100));
+        Category rent = engine.categories.create(sessionID, "rent " + random.nextInt(100));
+        engine.categoryRules.create(sessionID, new CategoryRule(null, "", "NL39RABO0300065264", "withdrawal", rent,
+                true));
+
+        List<Transaction> transactions = new ArrayList<>();
+        DateTime time = new DateTime(2018, 1, 1, 0, 0, DateTimeZone.UTC);
+        for (int i = 0; i < 50; i++) {
+            time = time.plusHours(random.nextInt(200));
+            DateTimeZone zone = random.nextInt(3) == 0 ? DateTimeZone.forOffsetHours(random.nextInt(25) - 12) :
+                    DateTimeZone.UTC;
+            transactions.add(new Transaction(null, time.withZone(zone).toString(),
+                    Money.ofMinor(CurrencyUnit.EUR, random.nextInt(100000) + 1), "NL39RABO030006526" +
+                    random.nextInt(5), random.nextBoolean() ? Type.deposit : Type.withdrawal,
+                    random.nextInt(3) == 0 ? food : null, random.nextInt(3) == 0 ? null : "description " + i));
+        }
+        assertTrue(engine.transactions.createAll(sessionID, transactions).isEmpty());
+        engine.transactions.create(sessionID, new Transaction(null, "2017-12-31T23:00:00.000-02:00",
+                Money.ofMinor(CurrencyUnit.EUR, 500), "NL39RABO0300065264", Type.withdrawal, null, "single"));
+
+        Transaction updated = transactions.get(3);
+        engine.transactions.update(sessionID, new Transaction(updated.getId(), "2018-02-01T12:00:00.000+05:00",
+                Money.ofMinor(CurrencyUnit.EUR, 4242), updated.getExternalIBAN(), Type.deposit, null, "updated"));
+        engine.transactions.delete(sessionID, transactions.get(4).getId());
+        engine.transactions.setCategory(sessionID, transactions.get(5).getId(), rent.getId());
+        engine.categories.delete(sessionID, food.getId());
+
+        engine.savingGoals.create(sessionID, new SavingGoal(null, "holiday", Money.ofMajor(CurrencyUnit.EUR, 1000),
+                Money.ofMajor(CurrencyUnit.EUR, 50), Money.ofMajor(CurrencyUnit.EUR, 100),
+                Money.zero(CurrencyUnit.EUR)));
+        engine.paymentRequests.create(sessionID, new PaymentRequest(null, "dinner", time.plusDays(10),
+                Money.ofMinor(CurrencyUnit.EUR, 1250), 2, false));
+    }
+
+    /**
+     * Reads everything which is stored for a session, including the rows of its ledger.
+     */
+    private static List<String> dump(Engine engine, String sessionID) throws StorageException, IOException {
+        List<String> dump = new ArrayList<>();
+        for (Category category : engine.categories.getAll(sessionID)) {
+            dump.add("category " + category.getId() + " " + category.getName());
+        }
+        for (CategoryRule rule : engine.categoryRules.getAll(sessionID)) {
+            dump.add("rule " + rule.getId() + " " + rule.getDescription() + " " + rule.getiBAN() + " " +
+                    rule.getType() + " " + rule.getCategory().getId() + " " + rule.getApplyOnHistory());
+        }
+        engine.transactions.forEach(sessionID, transaction -> dump.add("transaction " + transaction.getId() + " " +
+                transaction.getDate() + " " + transaction.getAmount() + " " + transaction.getExternalIBAN() + " " +
+                transaction.getType() + " " + (transaction.getCategory() == null ? null :
+                transaction.getCategory().getId()) + " " + transaction.getDescription()));
+        Ledger ledger = engine.transactions.getLedger(sessionID);
+        for (int i = 0; i < ledger.size(); i++) {
+            dump.add("ledger " + ledger.getId(i) + " " + ledger.getTime(i) + " " + ledger.getAmount(i) + " " +
+                    ledger.getType(i) + " " + ledger.getCategory(i));
+        }
+        for (SavingGoal savingGoal : engine.savingGoals.getAll(sessionID)) {
+            dump.add("saving goal " + savingGoal.getId() + " " + savingGoal.getName() + " " + savingGoal.getGoal() +
+                    " " + savingGoal.getSavePerMonth() + " " + savingGoal.getMinimumBalanceRequired());
+        }
+        for (PaymentRequest paymentRequest : engine.paymentRequests.getAll(sessionID)) {
+            dump.add("payment request " + paymentRequest.getId() + " " + paymentRequest.getDescription() + " " +
+                    paymentRequest.getDueDate().getMillis() + " " + paymentRequest.getAmount() + " " +
+                    paymentRequest.getNumberOfRequests());
+        }
+        return dump;
+    }
+
+    /**
+     * Copies the files of a store, as they would be found after the application stopped at this moment.
+     */
+    private Path crash(Path directory) throws IOException {
+        Path copy = folder.newFolder().toPath();
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.copy(file, copy.resolve(file.getFileName()), StandardCopyOption.COPY_ATTRIBUTES);
+            }
+        }
+        return copy;
+    }
+
+    /**
+     * @return the journal segments in a directory, in order
+     */
+    private static List<Path> segments(Path directory) throws IOException {
+        List<Path> segments = new ArrayList<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            files.filter(file -> Journal.getSegment(file) >= 0)
+                    .sorted((first, second) -> Integer.compare(Journal.getSegment(first), Journal.getSegment(second)))
+                    .forEach(segments::add);
+        }
+        // Only written segments, as every start begins a new one.
+        segments.removeIf(segment -> segment.toFile().length() == 0);
+        return segments;
+    }
+
+    private static void append(Path file, byte[] bytes) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            channel.write(ByteBuffer.wrap(bytes));
+        }
+    }
+
+    /**
+     * The repositories of the memory engine on a single store.
+     */
+    private static class Engine {
+        private final MemorySessionRepository sessions;
+        private final MemoryCategoryRepository categories;
+        private final MemoryCategoryRuleRepository categoryRules;
+        private final MemoryTransactionRepository transactions;
+        private final MemorySavingGoalRepository savingGoals;
+        private final MemoryPaymentRequestRepository paymentRequests;
+
+        Engine(MemoryStore store) {
+            this.sessions = new MemorySessionRepository(store);
+            this.categories = new MemoryCategoryRepository(store);
+            this.categoryRules = new MemoryCategoryRuleRepository(store);
+            this.transactions = new MemoryTransactionRepository(store);
+            this.savingGoals = new MemorySavingGoalRepository(store);
+            this.paymentRequests = new MemoryPaymentRequestRepository(store);
+        }
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2018, Joost Prins <github.com/joostprins>, Tom Leemreize <https://github.com/oplosthee>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package nl.utwente.ing.repository.sqlite;
+
+import nl.utwente.ing.controller.database.QueryPlan;
+import nl.utwente.ing.controller.database.TestDatabase;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.sql.SQLException;
+
+import static nl.utwente.ing.controller.database.QueryPlan.assertOrderedByIndex;
+import static nl.utwente.ing.controller.database.QueryPlan.assertUsesIndex;
+
+/**
+ * Checks that the queries of the repositories on the session of every table, and the ordering on the date of the
+ * transactions, are answered from the indexes the migrations add.
+ */
+public class SQLiteQueryPlansTest {
+
+    @Rule
+    public TestDatabase database = new TestDatabase();
+
+    @Test
+    public void transactionPagesOrderedByDate() throws SQLException {
+        for (boolean byCategory : new boolean[]{false, true}) {
+            for (boolean afterCursor : new boolean[]{false, true}) {
+                String plan = explain(SQLiteTransactionRepository.getPageQuery(byCategory, afterCursor));
+                assertUsesIndex(plan, "transactions_session_date_millis");
+                assertOrderedByIndex(plan);
+            }
+        }
+    }
+
+    @Test
+    public void allTransactionsOrderedByDate() throws SQLException {
+        String plan = explain(SQLiteTransactionRepository.FOR_EACH_QUERY);
+        assertUsesIndex(plan, "transactions_session_date_millis");
+        assertOrderedByIndex(plan);
+    }
+
+    @Test
+    public void latestTransaction() throws SQLException {
+        String plan = explain(SQLitePaymentRequestRepository.LATEST_TRANSACTION_QUERY);
+        assertUsesIndex(plan, "transactions_session_date_millis");
+        assertOrderedByIndex(plan);
+    }
+
+    @Test
+    public void categoriesOfSession() throws SQLException {
+        assertUsesIndex(explain(SQLiteCategoryRepository.ALL_QUERY), "categories_session");
+    }
+
+    @Test
+    public void categoryRulesOfSession() throws SQLException {
+        assertUsesIndex(explain(SQLiteCategoryRuleRepository.ALL_QUERY), "category_rules_session");
+    }
+
+    @Test
+    public void savingGoalsOrderedByCreation() throws SQLException {
+        String plan = explain(SQLiteSavingGoalRepository.ALL_QUERY);
+        assertUsesIndex(plan, "saving_goals_session");
+        assertOrderedByIndex(plan);
+    }
+
+    @Test
+    public void paymentRequestsOfSession() throws SQLException {
+        assertUsesIndex(explain(SQLitePaymentRequestRepository.ALL_QUERY), "payment_requests_session");
+    }
+
+    private String explain(String query) throws SQLException {
+        return QueryPlan.explain(database.getConnection(), query);
+    }
+}